@@ -32,21 +32,29 @@
  */
 package com.helger.as2.app;
 
-import java.util.List;
+import java.io.File;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.as2.app.session.AS2ServerXMLSession;
-import com.helger.as2.cmd.CommandManager;
-import com.helger.as2.cmd.ICommandRegistry;
-import com.helger.as2.cmdprocessor.AbstractCommandProcessor;
+import com.helger.as2.util.ExecutorRegistry;
 import com.helger.as2lib.CAS2Info;
-import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.commons.collection.ArrayHelper;
-import com.helger.commons.lang.ClassHelper;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.string.StringHelper;
 
 /**
@@ -64,58 +72,79 @@ public class MainOpenAS2Server
     new MainOpenAS2Server ().start (ArrayHelper.getFirst (args));
   }
 
+  /**
+   * Check if the provided file is a server configuration file by looking at
+   * the name of the root element. This avoids treating the commands and
+   * partnerships files in the same directory as tenants.
+   *
+   * @param aFile
+   *        The file to check. May not be <code>null</code>.
+   * @return <code>true</code> if the root element is
+   *         {@value AS2ServerXMLSession#EL_ROOT}.
+   */
+  protected static boolean isServerConfiguration (@Nonnull final File aFile)
+  {
+    try (final InputStream aIS = FileHelper.getInputStream (aFile))
+    {
+      if (aIS == null)
+        return false;
+      final XMLStreamReader aReader = XMLInputFactory.newInstance ().createXMLStreamReader (aIS);
+      try
+      {
+        while (aReader.hasNext ())
+          if (aReader.next () == XMLStreamConstants.START_ELEMENT)
+            return AS2ServerXMLSession.EL_ROOT.equals (aReader.getLocalName ());
+      }
+      finally
+      {
+        aReader.close ();
+      }
+    }
+    catch (final Exception ex)
+    {
+      s_aLogger.warn ("Failed to read " + aFile.getAbsolutePath () + ": " + ex.getMessage ());
+    }
+    return false;
+  }
+
   public void start (@Nullable final String sConfigFilePath)
   {
-    AS2ServerXMLSession aXMLSession = null;
-    try
+    s_aLogger.info (CAS2Info.NAME_VERSION + " - starting Server...");
+
+    if (StringHelper.hasNoText (sConfigFilePath))
     {
-      s_aLogger.info (CAS2Info.NAME_VERSION + " - starting Server...");
+      s_aLogger.info ("Usage:");
+      s_aLogger.info ("java " + getClass ().getName () + " <configuration file or directory>");
+      new Exception ("Missing configuration file name on the commandline. You may specify src/main/resources/config/config.xml").printStackTrace ();
+      return;
+    }
 
+    if (new File (sConfigFilePath).isDirectory ())
+      startAll (new File (sConfigFilePath));
+    else
+      startSingle (sConfigFilePath);
+  }
+
+  protected void startSingle (@Nonnull final String sConfigFilePath)
+  {
+    ServerTenant aTenant = null;
+    try
+    {
       // create the OpenAS2 Session object
       // this is used by all other objects to access global configs and
       // functionality
       s_aLogger.info ("Loading configuration...");
-      if (StringHelper.hasText (sConfigFilePath))
-      {
-        // Load config file
-        aXMLSession = new AS2ServerXMLSession (sConfigFilePath);
-      }
-      else
-      {
-        s_aLogger.info ("Usage:");
-        s_aLogger.info ("java " + getClass ().getName () + " <configuration file>");
-        throw new Exception ("Missing configuration file name on the commandline. You may specify src/main/resources/config/config.xml");
-      }
-
-      // start the active processor modules
-      s_aLogger.info ("Starting Active Modules...");
-      aXMLSession.getMessageProcessor ().startActiveModules ();
+      final AS2ServerXMLSession aXMLSession = new AS2ServerXMLSession (sConfigFilePath);
 
-      final ICommandRegistry aCommandRegistry = aXMLSession.getCommandRegistry ();
-      final CommandManager aCommandMgr = aXMLSession.getCommandManager ();
-      final List <AbstractCommandProcessor> aCommandProcessors = aCommandMgr.getProcessors ();
-      for (final AbstractCommandProcessor cmd : aCommandProcessors)
-      {
-        s_aLogger.info ("Loading Command Processor " + cmd.getClass ().getName () + "");
-        cmd.init ();
-        cmd.addCommands (aCommandRegistry);
-        new Thread (cmd, ClassHelper.getClassLocalName (cmd)).start ();
-      }
+      aTenant = new ServerTenant (aXMLSession);
+      aTenant.start ();
 
       // enter the command processing loop
       s_aLogger.info ("OpenAS2 Started");
+      s_aLogger.info ("Startup report: " + aXMLSession.getStartupProfiler ().getAsJSONString ());
 
-      // Start waiting for termination
-      breakOut: while (true)
-      {
-        for (final AbstractCommandProcessor cmd : aCommandProcessors)
-        {
-          if (cmd.isTerminated ())
-            break breakOut;
-        }
-        // Wait outside loop in case no command processor is present
-        Thread.sleep (100);
-      }
+      // Wait until a command processor terminates or the JVM is shut down
+      aTenant.runUntilShutdown ();
       s_aLogger.info ("- OpenAS2 Stopped -");
     }
     catch (final Throwable t)
@@ -124,18 +153,108 @@ public class MainOpenAS2Server
     }
     finally
     {
-      if (aXMLSession != null)
+      // No-op if the shutdown was already performed
+      if (aTenant != null)
+        aTenant.shutdown ();
+
+      s_aLogger.info ("OpenAS2 has shut down");
+    }
+  }
+
+  /**
+   * Host one tenant per server configuration file in the provided directory.
+   * All tenants share one executor registry. A tenant
+   * that fails to start is logged and skipped. Each tenant is shut down
+   * independently; this method returns after all tenants were shut down.
+   *
+   * @param aDir
+   *        The directory containing the configuration files. May not be
+   *        <code>null</code>.
+   */
+  protected void startAll (@Nonnull final File aDir)
+  {
+    final ICommonsList <File> aConfigFiles = new CommonsArrayList <> ();
+    final File [] aFiles = aDir.listFiles ( (d, n) -> n.endsWith (".xml"));
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+        if (aFile.isFile () && isServerConfiguration (aFile))
+          aConfigFiles.add (aFile);
+    aConfigFiles.sort ( (a, b) -> a.getName ().compareTo (b.getName ()));
+    s_aLogger.info ("Found " + aConfigFiles.size () + " server configurations in " + aDir.getAbsolutePath ());
+
+    // The first definition of a pool wins - so the pools defined in the
+    // first configuration are used by all tenants. Differing definitions of
+    // later configurations are logged as warnings.
+    final ExecutorRegistry aSharedRegistry = new ExecutorRegistry ();
+    aSharedRegistry.defineExecutor (ExecutorRegistry.EXECUTOR_BOOTSTRAP,
+                                    ExecutorRegistry.EExecutorType.FIXED,
+                                    Runtime.getRuntime ().availableProcessors ());
+    final ICommonsList <ServerTenant> aTenants = new CommonsArrayList <> ();
+    for (final File aConfigFile : aConfigFiles)
+    {
+      ServerTenant aTenant = null;
+      try
+      {
+        s_aLogger.info ("Loading configuration " + aConfigFile.getName () + "...");
+        aTenant = new ServerTenant (new AS2ServerXMLSession (aConfigFile.getCanonicalFile (), aSharedRegistry));
+        aTenant.start ();
+        aTenants.add (aTenant);
+        s_aLogger.info ("Tenant " + aTenant.getName () + " started");
+      }
+      catch (final Exception ex)
       {
+        s_aLogger.error ("Failed to start tenant from " + aConfigFile.getAbsolutePath (), ex);
+        if (aTenant != null)
+          aTenant.shutdown ();
+      }
+    }
+
+    if (aTenants.isEmpty ())
+    {
+      s_aLogger.error ("No tenant could be started");
+      aSharedRegistry.shutdown (5, TimeUnit.SECONDS);
+      return;
+    }
+    s_aLogger.info ("OpenAS2 Started with " + aTenants.size () + " tenants");
+
+    // Every tenant is shut down on its own
+    final ExecutorService aTenantExecutor = aSharedRegistry.defineExecutor (ExecutorRegistry.EXECUTOR_TENANTS,
+                                                                            ExecutorRegistry.EExecutorType.FIXED,
+                                                                            aTenants.size ());
+    final ICommonsList <Future <?>> aFutures = new CommonsArrayList <> ();
+    for (final ServerTenant aTenant : aTenants)
+      aFutures.add (aTenantExecutor.submit ( () -> {
         try
         {
-          aXMLSession.getMessageProcessor ().stopActiveModules ();
+          aTenant.runUntilShutdown ();
+          s_aLogger.info ("Tenant " + aTenant.getName () + " stopped");
         }
-        catch (final OpenAS2Exception same)
+        catch (final InterruptedException ex)
         {
-          same.terminate ();
+          aTenant.shutdown ();
+          Thread.currentThread ().interrupt ();
         }
-      }
+      }));
 
+    try
+    {
+      for (final Future <?> aFuture : aFutures)
+        aFuture.get ();
+      s_aLogger.info ("- OpenAS2 Stopped -");
+    }
+    catch (final ExecutionException ex)
+    {
+      s_aLogger.error ("Error waiting for the shutdown of a tenant", ex.getCause ());
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+    finally
+    {
+      for (final ServerTenant aTenant : aTenants)
+        aTenant.shutdown ();
+      aSharedRegistry.shutdown (5, TimeUnit.SECONDS);
       s_aLogger.info ("OpenAS2 has shut down");
     }
   }
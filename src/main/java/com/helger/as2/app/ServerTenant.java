@@ -0,0 +1,179 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2.app.session.AS2ServerXMLSession;
+import com.helger.as2.cmd.ICommandRegistry;
+import com.helger.as2.cmdprocessor.AbstractCommandProcessor;
+import com.helger.as2.util.ExecutorRegistry;
+import com.helger.as2.util.PhaseProfiler;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.io.file.FilenameHelper;
+
+/**
+ * A single running server session together with its command processors and
+ * its shutdown coordinator. Several tenants can be hosted in the same JVM -
+ * each tenant has its own session, command manager, metrics and shutdown.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class ServerTenant
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ServerTenant.class);
+
+  private final String m_sName;
+  private final AS2ServerXMLSession m_aSession;
+  private final ShutdownCoordinator m_aShutdownCoordinator;
+
+  public ServerTenant (@Nonnull final AS2ServerXMLSession aSession)
+  {
+    m_aSession = ValueEnforcer.notNull (aSession, "Session");
+    m_sName = FilenameHelper.getBaseName (aSession.getConfigFile ().getName ());
+    m_aShutdownCoordinator = new ShutdownCoordinator (aSession);
+  }
+
+  /**
+   * @return The name of the tenant, derived from the configuration file name.
+   */
+  @Nonnull
+  @Nonempty
+  public String getName ()
+  {
+    return m_sName;
+  }
+
+  @Nonnull
+  public AS2ServerXMLSession getSession ()
+  {
+    return m_aSession;
+  }
+
+  @Nonnull
+  public ShutdownCoordinator getShutdownCoordinator ()
+  {
+    return m_aShutdownCoordinator;
+  }
+
+  /**
+   * Perform the optional recovery scan and warm-up, start the active modules and the command
+   * processors and register the JVM shutdown hook. Afterwards the session is
+   * marked as ready.
+   *
+   * @throws OpenAS2Exception
+   *         If the recovery scan or starting the active modules failed
+   */
+  public void start () throws OpenAS2Exception
+  {
+    final PhaseProfiler aProfiler = m_aSession.getStartupProfiler ();
+
+    // Before the receivers open their ports
+    if (m_aSession.isRecoveryScan ())
+    {
+      s_aLogger.info ("Scanning for left-overs of the previous run...");
+      m_aSession.performRecoveryScan ();
+    }
+    if (m_aSession.isWarmup ())
+    {
+      s_aLogger.info ("Warming up...");
+      new ServerWarmup (m_aSession).run (m_aSession.getWarmupIterations ());
+    }
+
+    // start the active processor modules
+    s_aLogger.info ("Starting Active Modules...");
+    try (final PhaseProfiler.PhaseTimer aTimer = aProfiler.start ("startActiveModules"))
+    {
+      m_aSession.getMessageProcessor ().startActiveModules ();
+    }
+
+    final ICommandRegistry aCommandRegistry = m_aSession.getCommandRegistry ();
+    final List <AbstractCommandProcessor> aCommandProcessors = m_aSession.getCommandManager ().getProcessors ();
+
+    m_aShutdownCoordinator.registerCommandProcessors (aCommandProcessors);
+    m_aShutdownCoordinator.registerShutdownHook ();
+
+    for (final AbstractCommandProcessor cmd : aCommandProcessors)
+    {
+      s_aLogger.info ("Loading Command Processor " + cmd.getClass ().getName () + "");
+      try (final PhaseProfiler.PhaseTimer aTimer = aProfiler.start ("initCommandProcessor " + cmd.getName ()))
+      {
+        cmd.init ();
+        cmd.addCommands (aCommandRegistry);
+      }
+      // The pool uses daemon threads, so that a blocking read does not
+      // prevent the JVM from exiting after the shutdown. Every processor runs
+      // until the shutdown, so a fixed pool could starve some of them.
+      m_aSession.getExecutorRegistry ()
+                .getOrDefineExecutor (ExecutorRegistry.EXECUTOR_COMMAND_PROCESSORS,
+                                      ExecutorRegistry.EExecutorType.CACHED,
+                                      1)
+                .submit (cmd);
+    }
+
+    // Only the startup is reported - reloads are not recorded
+    aProfiler.freeze ();
+    m_aSession.setReady (true);
+    s_aLogger.info ("Server " + m_sName + " is ready");
+  }
+
+  /**
+   * Wait until a command processor terminates or the JVM is shut down and
+   * perform the shutdown afterwards.
+   *
+   * @throws InterruptedException
+   *         If the current thread was interrupted while waiting
+   */
+  public void runUntilShutdown () throws InterruptedException
+  {
+    m_aShutdownCoordinator.awaitShutdownRequest ();
+    m_aShutdownCoordinator.shutdown ();
+  }
+
+  /**
+   * Shut down this tenant. Does nothing if the shutdown was already performed.
+   */
+  public void shutdown ()
+  {
+    m_aShutdownCoordinator.shutdown ();
+  }
+}
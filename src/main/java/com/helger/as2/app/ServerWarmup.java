@@ -0,0 +1,354 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMultipart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2.app.session.AS2ServerXMLSession;
+import com.helger.as2.util.PhaseProfiler;
+import com.helger.as2lib.cert.ICertificateFactory;
+import com.helger.as2lib.cert.PKCS12CertificateFactory;
+import com.helger.as2lib.crypto.ECryptoAlgorithmCrypt;
+import com.helger.as2lib.crypto.ECryptoAlgorithmSign;
+import com.helger.as2lib.crypto.ICryptoHelper;
+import com.helger.as2lib.partner.CPartnershipIDs;
+import com.helger.as2lib.partner.IPartnershipFactory;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.partner.xml.IPartnershipFactoryWithPartners;
+import com.helger.as2lib.util.AS2Helper;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.ext.CommonsHashMap;
+import com.helger.commons.collection.ext.CommonsLinkedHashSet;
+import com.helger.commons.collection.ext.ICommonsMap;
+import com.helger.commons.collection.ext.ICommonsOrderedSet;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Performs the expensive one-time initializations of the cryptographic and
+ * MIME code paths before the receivers are started, so that the first inbound
+ * messages are not slowed down. This includes:
+ * <ul>
+ * <li>Initializing the crypto helper and the security provider</li>
+ * <li>Resolving all private keys of the keystore via the certificate factory,
+ * so that they end up in its private key cache</li>
+ * <li>A sign, verify, encrypt and decrypt round trip through the crypto helper
+ * for each own key and each signing and encryption algorithm used in the
+ * partnerships</li>
+ * <li>Creating and parsing a multipart MIME message</li>
+ * </ul>
+ * Failures are logged but do not prevent the startup.
+ *
+ * @author Philip Helger
+ */
+@NotThreadSafe
+public class ServerWarmup
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ServerWarmup.class);
+
+  private static final ECryptoAlgorithmSign DEFAULT_SIGN = ECryptoAlgorithmSign.DIGEST_SHA1;
+  private static final ECryptoAlgorithmCrypt DEFAULT_CRYPT = ECryptoAlgorithmCrypt.CRYPT_3DES;
+  private static final String CONTENT_TYPE = "application/edi-x12";
+
+  private final AS2ServerXMLSession m_aSession;
+  private final byte [] m_aPayload;
+  private ICryptoHelper m_aCryptoHelper;
+  private int m_nErrors = 0;
+
+  public ServerWarmup (@Nonnull final AS2ServerXMLSession aSession)
+  {
+    m_aSession = ValueEnforcer.notNull (aSession, "Session");
+    final StringBuilder aSB = new StringBuilder ();
+    for (int i = 0; i < 256; ++i)
+      aSB.append ("ISA*00*WARMUP*").append (i).append ("~\r\n");
+    m_aPayload = aSB.toString ().getBytes (StandardCharsets.ISO_8859_1);
+  }
+
+  private void _error (@Nonnull final String sWhat, @Nonnull final Exception ex)
+  {
+    m_nErrors++;
+    s_aLogger.warn ("Warm-up of " + sWhat + " failed: " + ex.getClass ().getName () + " - " + ex.getMessage ());
+  }
+
+  private void _initCryptoHelper ()
+  {
+    try
+    {
+      // Also registers the Bouncy Castle provider
+      m_aCryptoHelper = AS2Helper.getCryptoHelper ();
+    }
+    catch (final Exception ex)
+    {
+      _error ("crypto helper", ex);
+    }
+  }
+
+  /**
+   * Resolve all private keys of the keystore via the certificate factory, so
+   * that a caching factory (like
+   * {@link com.helger.as2.app.cert.ServerPKCS12CertificateFactory}) keeps the
+   * decrypted keys for the first messages.
+   *
+   * @param aCertFactory
+   *        The certificate factory to use. May not be <code>null</code>.
+   * @return A map from certificate to the private key. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  private ICommonsMap <X509Certificate, PrivateKey> _resolvePrivateKeys (@Nonnull final PKCS12CertificateFactory aCertFactory)
+  {
+    final ICommonsMap <X509Certificate, PrivateKey> ret = new CommonsHashMap <> ();
+    try
+    {
+      final KeyStore aKeyStore = aCertFactory.getKeyStore ();
+      for (final Map.Entry <String, Certificate> aEntry : aCertFactory.getCertificates ().entrySet ())
+      {
+        final String sAlias = aEntry.getKey ();
+        try
+        {
+          if (aEntry.getValue () instanceof X509Certificate && aKeyStore.isKeyEntry (sAlias))
+          {
+            final X509Certificate aCert = (X509Certificate) aEntry.getValue ();
+            ret.put (aCert, aCertFactory.getPrivateKey (aCert));
+          }
+        }
+        catch (final Exception ex)
+        {
+          _error ("private key '" + sAlias + "'", ex);
+        }
+      }
+    }
+    catch (final Exception ex)
+    {
+      _error ("keystore", ex);
+    }
+    return ret;
+  }
+
+  private void _collectAlgorithms (@Nonnull final ICommonsOrderedSet <ECryptoAlgorithmSign> aSignAlgorithms,
+                                   @Nonnull final ICommonsOrderedSet <ECryptoAlgorithmCrypt> aCryptAlgorithms)
+  {
+    final IPartnershipFactory aPartnershipFactory;
+    try
+    {
+      aPartnershipFactory = m_aSession.getPartnershipFactory ();
+    }
+    catch (final Exception ex)
+    {
+      return;
+    }
+    if (aPartnershipFactory instanceof IPartnershipFactoryWithPartners)
+    {
+      final IPartnershipFactoryWithPartners aPFWP = (IPartnershipFactoryWithPartners) aPartnershipFactory;
+      for (final String sName : aPFWP.getAllPartnershipNames ())
+      {
+        final Partnership aPartnership = aPFWP.getPartnershipByName (sName);
+        if (aPartnership != null)
+        {
+          final String sSign = aPartnership.getAttribute (CPartnershipIDs.PA_SIGN);
+          if (sSign != null)
+          {
+            final ECryptoAlgorithmSign eSign = ECryptoAlgorithmSign.getFromIDOrNull (sSign.trim ()
+                                                                                          .toLowerCase (Locale.US));
+            if (eSign != null)
+              aSignAlgorithms.add (eSign);
+            else
+              s_aLogger.debug ("No warm-up for signing algorithm '" + sSign + "'");
+          }
+          final String sCrypt = aPartnership.getAttribute (CPartnershipIDs.PA_ENCRYPT);
+          if (sCrypt != null)
+          {
+            final ECryptoAlgorithmCrypt eCrypt = ECryptoAlgorithmCrypt.getFromIDOrNull (sCrypt.trim ()
+                                                                                              .toLowerCase (Locale.US));
+            if (eCrypt != null)
+              aCryptAlgorithms.add (eCrypt);
+            else
+              s_aLogger.debug ("No warm-up for encryption algorithm '" + sCrypt + "'");
+          }
+        }
+      }
+    }
+  }
+
+  @Nonnull
+  private MimeBodyPart _createDataPart () throws Exception
+  {
+    final MimeBodyPart aData = new MimeBodyPart ();
+    aData.setContent (new String (m_aPayload, StandardCharsets.ISO_8859_1), CONTENT_TYPE);
+    aData.setHeader ("Content-Type", CONTENT_TYPE);
+    aData.setHeader ("Content-Transfer-Encoding", "binary");
+    return aData;
+  }
+
+  private void _checkPayload (@Nonnull final MimeBodyPart aPart, @Nonnull final String sWhat) throws Exception
+  {
+    final byte [] aContent = StreamHelper.getAllBytes (aPart.getInputStream ());
+    if (!Arrays.equals (aContent, m_aPayload))
+      throw new IllegalStateException ("Content after " + sWhat + " does not match the original content");
+  }
+
+  private void _roundTrip (@Nonnull final X509Certificate aCert,
+                           @Nonnull final PrivateKey aKey,
+                           @Nonnull final ECryptoAlgorithmSign eSign,
+                           @Nonnull final ECryptoAlgorithmCrypt eCrypt) throws Exception
+  {
+    // Sign and verify
+    final MimeBodyPart aSigned = m_aCryptoHelper.sign (_createDataPart (), aCert, aKey, eSign, false, false);
+    _checkPayload (m_aCryptoHelper.verify (aSigned, aCert, false, true), "signing with " + eSign.getID ());
+
+    // Encrypt and decrypt
+    final MimeBodyPart aEncrypted = m_aCryptoHelper.encrypt (_createDataPart (), aCert, eCrypt);
+    _checkPayload (m_aCryptoHelper.decrypt (aEncrypted, aCert, aKey, true), "encryption with " + eCrypt.getID ());
+  }
+
+  private void _mimeRoundTrip () throws Exception
+  {
+    final MimeBodyPart aData = _createDataPart ();
+    final MimeBodyPart aSignature = new MimeBodyPart ();
+    aSignature.setContent ("warmup", "text/plain");
+    aSignature.setHeader ("Content-Transfer-Encoding", "base64");
+
+    final MimeMultipart aMultipart = new MimeMultipart ("signed; protocol=\"application/pkcs7-signature\"; micalg=sha1");
+    aMultipart.addBodyPart (aData);
+    aMultipart.addBodyPart (aSignature);
+    final MimeBodyPart aPart = new MimeBodyPart ();
+    aPart.setContent (aMultipart);
+    aPart.setHeader ("Content-Type", aMultipart.getContentType ());
+
+    final ByteArrayOutputStream aBAOS = new ByteArrayOutputStream ();
+    aPart.writeTo (aBAOS);
+
+    final MimeBodyPart aParsed = new MimeBodyPart (new ByteArrayInputStream (aBAOS.toByteArray ()));
+    final Object aContent = aParsed.getContent ();
+    if (!(aContent instanceof MimeMultipart) || ((MimeMultipart) aContent).getCount () != 2)
+      throw new IllegalStateException ("Failed to parse the synthetic multipart message");
+  }
+
+  /**
+   * Run the warm-up.
+   *
+   * @param nIterations
+   *        The number of round trips per key and algorithm combination. Must
+   *        be &gt; 0.
+   * @return The number of errors that occurred. 0 means success.
+   */
+  public int run (final int nIterations)
+  {
+    ValueEnforcer.isGT0 (nIterations, "Iterations");
+    final PhaseProfiler aProfiler = m_aSession.getStartupProfiler ();
+    m_nErrors = 0;
+
+    try (final PhaseProfiler.PhaseTimer aTimer = aProfiler.start ("warmup"))
+    {
+      try (final PhaseProfiler.PhaseTimer aTimer2 = aProfiler.start ("warmup provider"))
+      {
+        _initCryptoHelper ();
+      }
+
+      ICommonsMap <X509Certificate, PrivateKey> aKeys = new CommonsHashMap <> ();
+      try (final PhaseProfiler.PhaseTimer aTimer2 = aProfiler.start ("warmup private keys"))
+      {
+        final ICertificateFactory aCertFactory = m_aSession.getCertificateFactory ();
+        if (aCertFactory instanceof PKCS12CertificateFactory)
+          aKeys = _resolvePrivateKeys ((PKCS12CertificateFactory) aCertFactory);
+        s_aLogger.info ("Warm-up resolved " + aKeys.size () + " private keys");
+      }
+      catch (final Exception ex)
+      {
+        _error ("private keys", ex);
+      }
+
+      if (m_aCryptoHelper != null)
+        try (final PhaseProfiler.PhaseTimer aTimer2 = aProfiler.start ("warmup crypto"))
+        {
+          final ICommonsOrderedSet <ECryptoAlgorithmSign> aSignAlgorithms = new CommonsLinkedHashSet <> ();
+          final ICommonsOrderedSet <ECryptoAlgorithmCrypt> aCryptAlgorithms = new CommonsLinkedHashSet <> ();
+          _collectAlgorithms (aSignAlgorithms, aCryptAlgorithms);
+          if (aSignAlgorithms.isEmpty ())
+            aSignAlgorithms.add (DEFAULT_SIGN);
+          if (aCryptAlgorithms.isEmpty ())
+            aCryptAlgorithms.add (DEFAULT_CRYPT);
+
+          for (final Map.Entry <X509Certificate, PrivateKey> aEntry : aKeys.entrySet ())
+          {
+            // Key transport for encryption is only possible with RSA keys
+            if (!"RSA".equals (aEntry.getValue ().getAlgorithm ()))
+              continue;
+            for (final ECryptoAlgorithmSign eSign : aSignAlgorithms)
+              for (final ECryptoAlgorithmCrypt eCrypt : aCryptAlgorithms)
+                try
+                {
+                  for (int i = 0; i < nIterations; ++i)
+                    _roundTrip (aEntry.getKey (), aEntry.getValue (), eSign, eCrypt);
+                }
+                catch (final Exception ex)
+                {
+                  _error ("crypto round trip " + eSign.getID () + "/" + eCrypt.getID (), ex);
+                }
+          }
+        }
+
+      try (final PhaseProfiler.PhaseTimer aTimer2 = aProfiler.start ("warmup mime"))
+      {
+        for (int i = 0; i < nIterations; ++i)
+          _mimeRoundTrip ();
+      }
+      catch (final Exception ex)
+      {
+        _error ("MIME parsing", ex);
+      }
+    }
+
+    if (m_nErrors == 0)
+      s_aLogger.info ("Warm-up finished successfully");
+    else
+      s_aLogger.warn ("Warm-up finished with " + m_nErrors + " errors");
+    return m_nErrors;
+  }
+}
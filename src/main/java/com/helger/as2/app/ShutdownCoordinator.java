@@ -0,0 +1,377 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2.app.cert.ServerPKCS12CertificateFactory;
+import com.helger.as2.app.processor.ServerMessageProcessor;
+import com.helger.as2.app.session.AS2ServerXMLSession;
+import com.helger.as2.cmdprocessor.AbstractCommandProcessor;
+import com.helger.as2.util.ExecutorRegistry;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.processor.IMessageProcessor;
+import com.helger.as2lib.processor.module.IProcessorActiveModule;
+import com.helger.as2lib.processor.receiver.AS2MDNReceiverModule;
+import com.helger.as2lib.processor.receiver.AS2ReceiverModule;
+import com.helger.as2lib.processor.receiver.AbstractActivePollingModule;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsLinkedHashSet;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsOrderedSet;
+
+/**
+ * Coordinates the graceful shutdown of a server session. A shutdown is
+ * requested either by a terminating command processor or by the JVM shutdown
+ * hook. The shutdown itself happens in three phases:
+ * <ol>
+ * <li>The active modules that accept new messages (directory polling modules
+ * and the message receiver) are stopped.</li>
+ * <li>The coordinator waits up to the configured drain timeout until the
+ * message processor has no more in-flight actions. This requires a
+ * {@link ServerMessageProcessor}. The MDN receivers are still running, so
+ * asynchronous MDNs for the messages sent meanwhile are accepted. Note that
+ * MDNs sent by the as2-lib receiver handlers after their last action are not
+ * tracked (see there).</li>
+ * <li>All remaining active modules (e.g. MDN receivers and resenders) are
+ * stopped in reverse configuration order and all command processors are
+ * terminated.</li>
+ * </ol>
+ * All coordinators of a JVM share a single shutdown hook, which is removed
+ * again when the last registered coordinator has shut down.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class ShutdownCoordinator
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ShutdownCoordinator.class);
+
+  // The coordinators served by the shared JVM shutdown hook
+  private static final Object s_aHookLock = new Object ();
+  @GuardedBy ("s_aHookLock")
+  private static final ICommonsOrderedSet <ShutdownCoordinator> s_aHookCoordinators = new CommonsLinkedHashSet <> ();
+  @GuardedBy ("s_aHookLock")
+  private static Thread s_aHook;
+
+  private final AS2ServerXMLSession m_aSession;
+  private final CountDownLatch m_aShutdownRequested = new CountDownLatch (1);
+  private final CountDownLatch m_aShutdownCompleted = new CountDownLatch (1);
+  private final AtomicBoolean m_aShutdownStarted = new AtomicBoolean (false);
+  private volatile String m_sShutdownReason;
+
+  public ShutdownCoordinator (@Nonnull final AS2ServerXMLSession aSession)
+  {
+    m_aSession = ValueEnforcer.notNull (aSession, "Session");
+  }
+
+  @Nonnull
+  public AS2ServerXMLSession getSession ()
+  {
+    return m_aSession;
+  }
+
+  /**
+   * Request the shutdown. Only the first request is considered.
+   *
+   * @param sReason
+   *        The reason for the shutdown, used for logging only.
+   */
+  public void requestShutdown (@Nullable final String sReason)
+  {
+    if (m_aShutdownRequested.getCount () > 0)
+    {
+      m_sShutdownReason = sReason;
+      m_aShutdownRequested.countDown ();
+    }
+  }
+
+  public boolean isShutdownRequested ()
+  {
+    return m_aShutdownRequested.getCount () == 0;
+  }
+
+  /**
+   * Block until a shutdown was requested.
+   *
+   * @throws InterruptedException
+   *         If the current thread was interrupted while waiting
+   */
+  public void awaitShutdownRequest () throws InterruptedException
+  {
+    m_aShutdownRequested.await ();
+  }
+
+  /**
+   * Block until the shutdown is completed.
+   *
+   * @param nTimeout
+   *        Maximum time to wait.
+   * @param eUnit
+   *        Time unit of the timeout. May not be <code>null</code>.
+   * @return <code>true</code> if the shutdown completed in time.
+   * @throws InterruptedException
+   *         If the current thread was interrupted while waiting
+   */
+  public boolean awaitShutdownCompleted (final long nTimeout, @Nonnull final TimeUnit eUnit) throws InterruptedException
+  {
+    return m_aShutdownCompleted.await (nTimeout, eUnit);
+  }
+
+  /**
+   * Register the provided command processors so that the termination of any
+   * of them requests the shutdown.
+   *
+   * @param aCommandProcessors
+   *        The command processors to register. May not be <code>null</code>.
+   */
+  public void registerCommandProcessors (@Nonnull final Iterable <? extends AbstractCommandProcessor> aCommandProcessors)
+  {
+    for (final AbstractCommandProcessor aCmdProcessor : aCommandProcessors)
+      aCmdProcessor.addTerminationListener ( () -> requestShutdown ("command processor " +
+                                                                    aCmdProcessor.getName () +
+                                                                    " terminated"));
+  }
+
+  private static void _runShutdownHook ()
+  {
+    final ICommonsList <ShutdownCoordinator> aCoordinators;
+    synchronized (s_aHookLock)
+    {
+      aCoordinators = new CommonsArrayList <> (s_aHookCoordinators);
+    }
+    for (final ShutdownCoordinator aCoordinator : aCoordinators)
+      aCoordinator.requestShutdown ("JVM shutdown");
+    try
+    {
+      // The coordinators shut down concurrently, so the deadlines overlap
+      for (final ShutdownCoordinator aCoordinator : aCoordinators)
+      {
+        final long nMaxWaitSeconds = aCoordinator.m_aSession.getShutdownDrainTimeoutSeconds () + 30;
+        if (!aCoordinator.awaitShutdownCompleted (nMaxWaitSeconds, TimeUnit.SECONDS))
+          s_aLogger.warn ("Graceful shutdown did not complete within " + nMaxWaitSeconds + " seconds");
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+  }
+
+  /**
+   * Register this coordinator with the JVM shutdown hook that requests the
+   * shutdown and waits until it is completed, so that e.g. a SIGTERM leads to
+   * a graceful shutdown. The hook is installed with the first registered
+   * coordinator.
+   */
+  public void registerShutdownHook ()
+  {
+    synchronized (s_aHookLock)
+    {
+      s_aHookCoordinators.add (this);
+      if (s_aHook == null)
+      {
+        s_aHook = new Thread (ShutdownCoordinator::_runShutdownHook, "as2-shutdown-hook");
+        Runtime.getRuntime ().addShutdownHook (s_aHook);
+      }
+    }
+  }
+
+  private void _unregisterShutdownHook ()
+  {
+    synchronized (s_aHookLock)
+    {
+      if (s_aHookCoordinators.remove (this) && s_aHookCoordinators.isEmpty () && s_aHook != null)
+      {
+        try
+        {
+          Runtime.getRuntime ().removeShutdownHook (s_aHook);
+        }
+        catch (final IllegalStateException ex)
+        {
+          // The JVM is already shutting down
+        }
+        s_aHook = null;
+      }
+    }
+  }
+
+  /**
+   * @param aModule
+   *        The module to check. May not be <code>null</code>.
+   * @return <code>true</code> if the module accepts new messages and is
+   *         stopped before the in-flight actions are drained. Modules
+   *         receiving asynchronous MDNs are explicitly not contained.
+   */
+  protected boolean isIntakeModule (@Nonnull final IProcessorActiveModule aModule)
+  {
+    if (aModule instanceof AS2MDNReceiverModule)
+      return false;
+    return aModule instanceof AbstractActivePollingModule || aModule instanceof AS2ReceiverModule;
+  }
+
+  private static void _stop (@Nonnull final IProcessorActiveModule aModule)
+  {
+    try
+    {
+      if (aModule.isRunning ())
+        aModule.stop ();
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      ex.terminate ();
+    }
+  }
+
+  private void _flushCertificates ()
+  {
+    try
+    {
+      if (m_aSession.getCertificateFactory () instanceof ServerPKCS12CertificateFactory)
+        ((ServerPKCS12CertificateFactory) m_aSession.getCertificateFactory ()).flush ();
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      ex.terminate ();
+    }
+  }
+
+  /**
+   * Perform the shutdown. Only the first call performs the shutdown - all
+   * other calls return immediately.
+   */
+  public void shutdown ()
+  {
+    if (!m_aShutdownStarted.compareAndSet (false, true))
+      return;
+
+    try
+    {
+      s_aLogger.info ("Shutting down" + (m_sShutdownReason == null ? "" : " because " + m_sShutdownReason));
+
+      m_aSession.setReady (false);
+
+      // No more module changes from now on
+      m_aSession.stopConfigurationMonitor ();
+
+      final IMessageProcessor aMsgProcessor = m_aSession.getMessageProcessor ();
+      if (aMsgProcessor != null)
+      {
+        final ICommonsList <IProcessorActiveModule> aIntakeModules = new CommonsArrayList <> ();
+        final ICommonsList <IProcessorActiveModule> aOtherModules = new CommonsArrayList <> ();
+        for (final IProcessorActiveModule aModule : aMsgProcessor.getAllActiveModules ())
+          if (isIntakeModule (aModule))
+            aIntakeModules.add (aModule);
+          else
+            aOtherModules.add (aModule);
+
+        // Phase 1: stop accepting new work - all in parallel
+        // The registry may be shared by all tenants, so the size is fixed
+        s_aLogger.info ("Stopping " + aIntakeModules.size () + " intake modules");
+        final ExecutorService aStopExecutor = m_aSession.getExecutorRegistry ()
+                                                        .getOrDefineExecutor (ExecutorRegistry.EXECUTOR_SHUTDOWN,
+                                                                              ExecutorRegistry.EExecutorType.FIXED,
+                                                                              ExecutorRegistry.DEFAULT_THREADS);
+        final ICommonsList <CompletableFuture <Void>> aStops = new CommonsArrayList <> ();
+        for (final IProcessorActiveModule aModule : aIntakeModules)
+          aStops.add (CompletableFuture.runAsync ( () -> _stop (aModule), aStopExecutor));
+        final long nDrainSeconds = m_aSession.getShutdownDrainTimeoutSeconds ();
+        try
+        {
+          CompletableFuture.allOf (aStops.toArray (new CompletableFuture <?> [aStops.size ()]))
+                           .get (nDrainSeconds, TimeUnit.SECONDS);
+        }
+        catch (final ExecutionException | TimeoutException ex)
+        {
+          s_aLogger.warn ("Not all intake modules stopped in time: " + ex.getMessage ());
+        }
+
+        // Phase 2: wait for in-flight work
+        if (aMsgProcessor instanceof ServerMessageProcessor)
+        {
+          final ServerMessageProcessor aServerProcessor = (ServerMessageProcessor) aMsgProcessor;
+          final int nInFlight = aServerProcessor.getInFlightCount ();
+          if (nInFlight > 0)
+          {
+            s_aLogger.info ("Waiting up to " + nDrainSeconds + " seconds for " + nInFlight + " in-flight actions");
+            if (aServerProcessor.awaitIdle (nDrainSeconds, TimeUnit.SECONDS))
+              s_aLogger.info ("All in-flight actions finished");
+            else
+              s_aLogger.warn ("Drain timeout elapsed with " +
+                              aServerProcessor.getInFlightCount () +
+                              " actions still in-flight");
+          }
+        }
+        else
+          s_aLogger.info ("Message processor does not track in-flight actions - not waiting");
+
+        // Phase 3: stop all other modules (incl. the MDN receivers) in reverse
+        // order
+        for (int i = aOtherModules.size () - 1; i >= 0; --i)
+          _stop (aOtherModules.get (i));
+      }
+
+      for (final AbstractCommandProcessor aCmdProcessor : m_aSession.getCommandManager ().getProcessors ())
+        if (!aCmdProcessor.isTerminated ())
+          aCmdProcessor.terminate ();
+
+      _flushCertificates ();
+      m_aSession.shutdownExecutors ();
+    }
+    catch (final InterruptedException ex)
+    {
+      s_aLogger.warn ("Shutdown was interrupted");
+      Thread.currentThread ().interrupt ();
+    }
+    finally
+    {
+      m_aShutdownCompleted.countDown ();
+      _unregisterShutdownHook ();
+    }
+  }
+}
@@ -0,0 +1,381 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import java.io.File;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.cert.CRL;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.security.auth.x500.X500Principal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.ext.CommonsHashMap;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsHashSet;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsMap;
+import com.helger.commons.collection.ext.ICommonsSet;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FilenameHelper;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * A compact, immutable index of the revoked serial numbers of a set of CRLs.
+ * For each issuer the serial numbers that fit into a <code>long</code> are
+ * kept in a sorted primitive array (binary search), larger serial numbers in an
+ * exact set. No network access is performed - the CRLs are read from local
+ * files.
+ * <p>
+ * If the certificate of the issuer of a CRL is known to the builder, the
+ * signature of the CRL is verified and a CRL with an invalid signature is
+ * ignored. CRLs whose next update lies in the past are logged, but still used.
+ * Each index has its own epoch, so that results derived from an index can be
+ * told apart from results derived from a later one.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class CRLIndex
+{
+  /** The supported file extensions of CRL files */
+  private static final String [] CRL_EXTENSIONS = { "crl", "der", "pem" };
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (CRLIndex.class);
+  private static final AtomicLong s_aEpochs = new AtomicLong ();
+
+  /**
+   * The revoked serials of a single issuer.
+   */
+  private static final class IssuerEntry
+  {
+    private final long [] m_aSmallSerials;
+    private final ICommonsSet <BigInteger> m_aLargeSerials;
+
+    IssuerEntry (@Nonnull final long [] aSmallSerials, @Nonnull final ICommonsSet <BigInteger> aLargeSerials)
+    {
+      m_aSmallSerials = aSmallSerials;
+      m_aLargeSerials = aLargeSerials;
+    }
+
+    boolean contains (@Nonnull final BigInteger aSerial)
+    {
+      if (aSerial.bitLength () < 64)
+        return Arrays.binarySearch (m_aSmallSerials, aSerial.longValue ()) >= 0;
+      return m_aLargeSerials.contains (aSerial);
+    }
+
+    int size ()
+    {
+      return m_aSmallSerials.length + m_aLargeSerials.size ();
+    }
+  }
+
+  /**
+   * Collects the revoked serials of a new index.
+   */
+  @NotThreadSafe
+  public static final class Builder
+  {
+    private final ICommonsMap <String, ICommonsSet <BigInteger>> m_aSerials = new CommonsHashMap <> ();
+    private final ICommonsMap <String, ICommonsList <X509Certificate>> m_aIssuerCerts = new CommonsHashMap <> ();
+    private int m_nCRLCount = 0;
+
+    public Builder ()
+    {}
+
+    /**
+     * Add the certificates that may have issued CRLs. The signature of a CRL
+     * added afterwards is verified if a certificate with the subject of its
+     * issuer was added. CRLs of other issuers are added without verification.
+     *
+     * @param aCerts
+     *        The certificates. May not be <code>null</code>.
+     * @return this for chaining
+     */
+    @Nonnull
+    public Builder addIssuerCertificates (@Nonnull final Iterable <? extends X509Certificate> aCerts)
+    {
+      ValueEnforcer.notNull (aCerts, "Certs");
+      for (final X509Certificate aCert : aCerts)
+        m_aIssuerCerts.computeIfAbsent (_getName (aCert.getSubjectX500Principal ()), k -> new CommonsArrayList <> ())
+                      .add (aCert);
+      return this;
+    }
+
+    private boolean _isSignatureValid (@Nonnull final X509CRL aCRL)
+    {
+      final ICommonsList <X509Certificate> aIssuerCerts = m_aIssuerCerts.get (_getName (aCRL.getIssuerX500Principal ()));
+      if (aIssuerCerts == null)
+      {
+        s_aLogger.debug ("The issuer certificate of the CRL of " +
+                         aCRL.getIssuerX500Principal ().getName () +
+                         " is unknown - the signature is not verified");
+        return true;
+      }
+      // Several certificates may share the subject, e.g. after a key rollover
+      for (final X509Certificate aIssuerCert : aIssuerCerts)
+        try
+        {
+          aCRL.verify (aIssuerCert.getPublicKey ());
+          return true;
+        }
+        catch (final Exception ex)
+        {
+          // Try the next one
+        }
+      return false;
+    }
+
+    /**
+     * Add a single revoked serial number.
+     *
+     * @param aIssuer
+     *        The issuer of the revoked certificate. May not be
+     *        <code>null</code>.
+     * @param aSerial
+     *        The serial number of the revoked certificate. May not be
+     *        <code>null</code>.
+     * @return this for chaining
+     */
+    @Nonnull
+    public Builder addRevoked (@Nonnull final X500Principal aIssuer, @Nonnull final BigInteger aSerial)
+    {
+      ValueEnforcer.notNull (aIssuer, "Issuer");
+      ValueEnforcer.notNull (aSerial, "Serial");
+      m_aSerials.computeIfAbsent (_getName (aIssuer), k -> new CommonsHashSet <> ()).add (aSerial);
+      return this;
+    }
+
+    /**
+     * Add all revoked serial numbers of a CRL. A CRL whose signature cannot be
+     * verified with a known issuer certificate is logged and skipped.
+     *
+     * @param aCRL
+     *        The CRL to add. May not be <code>null</code>.
+     * @return this for chaining
+     */
+    @Nonnull
+    public Builder addCRL (@Nonnull final X509CRL aCRL)
+    {
+      ValueEnforcer.notNull (aCRL, "CRL");
+      if (!_isSignatureValid (aCRL))
+      {
+        s_aLogger.error ("The signature of the CRL of " +
+                         aCRL.getIssuerX500Principal ().getName () +
+                         " cannot be verified with the issuer certificate - the CRL is ignored");
+        return this;
+      }
+      final Date aNextUpdate = aCRL.getNextUpdate ();
+      if (aNextUpdate != null && aNextUpdate.getTime () < System.currentTimeMillis ())
+        s_aLogger.warn ("The CRL of " +
+                        aCRL.getIssuerX500Principal ().getName () +
+                        " is stale - the next update was due at " +
+                        aNextUpdate);
+      m_nCRLCount++;
+      if (aCRL.getRevokedCertificates () != null)
+        for (final X509CRLEntry aEntry : aCRL.getRevokedCertificates ())
+        {
+          // Indirect CRLs name the issuer per entry
+          final X500Principal aIssuer = aEntry.getCertificateIssuer () != null ? aEntry.getCertificateIssuer ()
+                                                                               : aCRL.getIssuerX500Principal ();
+          addRevoked (aIssuer, aEntry.getSerialNumber ());
+        }
+      return this;
+    }
+
+    /**
+     * Add all CRLs of all CRL files of a directory. Files that cannot be read
+     * are logged and skipped.
+     *
+     * @param aDir
+     *        The directory to read. May not be <code>null</code>.
+     * @return this for chaining
+     */
+    @Nonnull
+    public Builder addDirectory (@Nonnull final File aDir)
+    {
+      ValueEnforcer.notNull (aDir, "Dir");
+      final File [] aFiles = aDir.listFiles (f -> f.isFile () && isCRLFile (f));
+      if (aFiles == null)
+        s_aLogger.warn ("Failed to list CRL directory " + aDir.getAbsolutePath ());
+      else
+        for (final File aFile : aFiles)
+        {
+          final InputStream aIS = FileHelper.getInputStream (aFile);
+          if (aIS != null)
+            try
+            {
+              for (final CRL aCRL : CertificateFactory.getInstance ("X.509").generateCRLs (aIS))
+                if (aCRL instanceof X509CRL)
+                  addCRL ((X509CRL) aCRL);
+            }
+            catch (final Exception ex)
+            {
+              s_aLogger.error ("Failed to read CRL file " + aFile.getAbsolutePath () + ": " + ex.getMessage ());
+            }
+            finally
+            {
+              StreamHelper.close (aIS);
+            }
+        }
+      return this;
+    }
+
+    @Nonnull
+    public CRLIndex build ()
+    {
+      final ICommonsMap <String, IssuerEntry> aIssuers = new CommonsHashMap <> ();
+      for (final Map.Entry <String, ICommonsSet <BigInteger>> aEntry : m_aSerials.entrySet ())
+      {
+        final ICommonsSet <BigInteger> aLarge = new CommonsHashSet <> ();
+        final long [] aSmall = new long [aEntry.getValue ().size ()];
+        int nSmall = 0;
+        for (final BigInteger aSerial : aEntry.getValue ())
+          if (aSerial.bitLength () < 64)
+            aSmall[nSmall++] = aSerial.longValue ();
+          else
+            aLarge.add (aSerial);
+        final long [] aSorted = Arrays.copyOf (aSmall, nSmall);
+        Arrays.sort (aSorted);
+        aIssuers.put (aEntry.getKey (), new IssuerEntry (aSorted, aLarge));
+      }
+      return new CRLIndex (aIssuers, m_nCRLCount);
+    }
+  }
+
+  private final long m_nEpoch;
+  private final ICommonsMap <String, IssuerEntry> m_aIssuers;
+  private final int m_nCRLCount;
+  private final int m_nRevokedCount;
+
+  private CRLIndex (@Nonnull final ICommonsMap <String, IssuerEntry> aIssuers, final int nCRLCount)
+  {
+    m_nEpoch = s_aEpochs.incrementAndGet ();
+    m_aIssuers = aIssuers;
+    m_nCRLCount = nCRLCount;
+    int nRevoked = 0;
+    for (final IssuerEntry aEntry : aIssuers.values ())
+      nRevoked += aEntry.size ();
+    m_nRevokedCount = nRevoked;
+  }
+
+  @Nonnull
+  private static String _getName (@Nonnull final X500Principal aPrincipal)
+  {
+    return aPrincipal.getName (X500Principal.CANONICAL);
+  }
+
+  /**
+   * @param aFile
+   *        The file to check. May not be <code>null</code>.
+   * @return <code>true</code> if the file has the extension of a CRL file.
+   */
+  public static boolean isCRLFile (@Nonnull final File aFile)
+  {
+    final String sExt = FilenameHelper.getExtension (aFile.getName ()).toLowerCase (Locale.US);
+    return Arrays.asList (CRL_EXTENSIONS).contains (sExt);
+  }
+
+  /**
+   * Check if a certificate is revoked.
+   *
+   * @param aIssuer
+   *        The issuer of the certificate. May be <code>null</code>.
+   * @param aSerial
+   *        The serial number of the certificate. May be <code>null</code>.
+   * @return <code>true</code> if a CRL of the issuer contains the serial
+   *         number.
+   */
+  public boolean isRevoked (@Nullable final X500Principal aIssuer, @Nullable final BigInteger aSerial)
+  {
+    if (aIssuer == null || aSerial == null)
+      return false;
+    final IssuerEntry aEntry = m_aIssuers.get (_getName (aIssuer));
+    return aEntry != null && aEntry.contains (aSerial);
+  }
+
+  public boolean isRevoked (@Nullable final X509Certificate aCert)
+  {
+    return aCert != null && isRevoked (aCert.getIssuerX500Principal (), aCert.getSerialNumber ());
+  }
+
+  /**
+   * @return The epoch of this index. It is &gt; 0 and greater than the epochs
+   *         of all indices built before.
+   */
+  public long getEpoch ()
+  {
+    return m_nEpoch;
+  }
+
+  /**
+   * @return The number of CRLs the index was built from.
+   */
+  public int getCRLCount ()
+  {
+    return m_nCRLCount;
+  }
+
+  /**
+   * @return The number of issuers with revoked certificates.
+   */
+  public int getIssuerCount ()
+  {
+    return m_aIssuers.size ();
+  }
+
+  /**
+   * @return The total number of revoked serial numbers.
+   */
+  public int getRevokedCount ()
+  {
+    return m_nRevokedCount;
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import java.security.Key;
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A certificate and an optional private key to be added to a certificate
+ * factory as part of a batch.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class CertificateImportEntry
+{
+  private final String m_sAlias;
+  private final X509Certificate m_aCert;
+  private final Key m_aKey;
+  private final String m_sKeyPassword;
+
+  /**
+   * @param sAlias
+   *        The alias to use. May neither be <code>null</code> nor empty.
+   * @param aCert
+   *        The certificate. May not be <code>null</code>.
+   * @param aKey
+   *        The private key of the certificate. May be <code>null</code>.
+   * @param sKeyPassword
+   *        The password of the private key. Required if a key is present.
+   */
+  public CertificateImportEntry (@Nonnull @Nonempty final String sAlias,
+                                 @Nonnull final X509Certificate aCert,
+                                 @Nullable final Key aKey,
+                                 @Nullable final String sKeyPassword)
+  {
+    ValueEnforcer.notEmpty (sAlias, "Alias");
+    ValueEnforcer.notNull (aCert, "Cert");
+    if (aKey != null)
+      ValueEnforcer.notNull (sKeyPassword, "KeyPassword");
+    m_sAlias = sAlias;
+    m_aCert = aCert;
+    m_aKey = aKey;
+    m_sKeyPassword = sKeyPassword;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getAlias ()
+  {
+    return m_sAlias;
+  }
+
+  @Nonnull
+  public X509Certificate getCertificate ()
+  {
+    return m_aCert;
+  }
+
+  @Nullable
+  public Key getKey ()
+  {
+    return m_aKey;
+  }
+
+  public boolean hasKey ()
+  {
+    return m_aKey != null;
+  }
+
+  @Nullable
+  public String getKeyPassword ()
+  {
+    return m_sKeyPassword;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Alias", m_sAlias)
+                                       .append ("Subject", m_aCert.getSubjectX500Principal ().getName ())
+                                       .append ("HasKey", hasKey ())
+                                       .toString ();
+  }
+}
@@ -0,0 +1,421 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.security.auth.x500.X500Principal;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsHashMap;
+import com.helger.commons.collection.ext.CommonsLinkedHashMap;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsMap;
+import com.helger.commons.collection.ext.ICommonsOrderedMap;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Secondary indexes of the certificates of a {@link CertificateSnapshot}: by
+ * issuer and serial number, by subject key identifier, by subject and by
+ * SHA-256 thumbprint. All lookups are hash based and return aliases. If more
+ * than one alias contains the same certificate, the alias that was added first
+ * wins - the same as
+ * {@link java.security.KeyStore#getCertificateAlias(java.security.cert.Certificate)}
+ * for a freshly loaded key store.
+ * <p>
+ * Additionally all aliases are sorted by the expiration date of their
+ * certificate, so that expiring certificates are found with a binary search.
+ * <p>
+ * A new index can be based on a previous index, so that only the entries of
+ * the added, changed and removed aliases are updated. The previous index is
+ * not modified.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class CertificateIndex
+{
+  /** The OID of the subject key identifier extension */
+  private static final String OID_SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+
+  /**
+   * Collects the entries of a new index. The maps of a previous index are
+   * copied shallowly; an alias list is only copied when it is modified, so
+   * that the previous index stays unchanged.
+   */
+  @NotThreadSafe
+  static final class Builder
+  {
+    private final ICommonsMap <String, ICommonsList <String>> m_aByIssuerAndSerial;
+    private final ICommonsMap <String, ICommonsList <String>> m_aBySKI;
+    private final ICommonsMap <String, ICommonsList <String>> m_aBySubject;
+    private final ICommonsMap <String, ICommonsList <String>> m_aByThumbprint;
+    private final ICommonsMap <String, Long> m_aExpirations;
+
+    Builder ()
+    {
+      this (null);
+    }
+
+    /**
+     * @param aPrevious
+     *        The index to start with. May be <code>null</code> to start with
+     *        an empty index.
+     */
+    Builder (@Nullable final CertificateIndex aPrevious)
+    {
+      if (aPrevious == null)
+      {
+        m_aByIssuerAndSerial = new CommonsHashMap <> ();
+        m_aBySKI = new CommonsHashMap <> ();
+        m_aBySubject = new CommonsHashMap <> ();
+        m_aByThumbprint = new CommonsHashMap <> ();
+        m_aExpirations = new CommonsHashMap <> ();
+      }
+      else
+      {
+        m_aByIssuerAndSerial = aPrevious.m_aByIssuerAndSerial.getClone ();
+        m_aBySKI = aPrevious.m_aBySKI.getClone ();
+        m_aBySubject = aPrevious.m_aBySubject.getClone ();
+        m_aByThumbprint = aPrevious.m_aByThumbprint.getClone ();
+        m_aExpirations = new CommonsHashMap <> (aPrevious.m_aExpirations.length);
+        for (int i = 0; i < aPrevious.m_aExpirations.length; ++i)
+          m_aExpirations.put (aPrevious.m_aExpirationAliases[i], Long.valueOf (aPrevious.m_aExpirations[i]));
+      }
+    }
+
+    private static void _add (@Nonnull final ICommonsMap <String, ICommonsList <String>> aMap,
+                              @Nonnull final String sKey,
+                              @Nonnull final String sAlias)
+    {
+      final ICommonsList <String> aOld = aMap.get (sKey);
+      final ICommonsList <String> aNew = aOld == null ? new CommonsArrayList <> (1) : aOld.getClone ();
+      aNew.add (sAlias);
+      aMap.put (sKey, aNew);
+    }
+
+    private static void _remove (@Nonnull final ICommonsMap <String, ICommonsList <String>> aMap,
+                                 @Nonnull final String sKey,
+                                 @Nonnull final String sAlias)
+    {
+      final ICommonsList <String> aOld = aMap.get (sKey);
+      if (aOld != null && aOld.contains (sAlias))
+      {
+        if (aOld.size () == 1)
+          aMap.remove (sKey);
+        else
+        {
+          final ICommonsList <String> aNew = aOld.getClone ();
+          aNew.remove (sAlias);
+          aMap.put (sKey, aNew);
+        }
+      }
+    }
+
+    void add (@Nonnull final String sAlias, @Nonnull final X509Certificate aCert, @Nonnull final String sThumbprint)
+    {
+      _add (m_aByIssuerAndSerial,
+            _getIssuerAndSerialKey (aCert.getIssuerX500Principal (), aCert.getSerialNumber ()),
+            sAlias);
+      final byte [] aSKI = getSubjectKeyIdentifier (aCert);
+      if (aSKI != null)
+        _add (m_aBySKI, StringHelper.getHexEncoded (aSKI), sAlias);
+      _add (m_aBySubject, _getName (aCert.getSubjectX500Principal ()), sAlias);
+      _add (m_aByThumbprint, sThumbprint, sAlias);
+      m_aExpirations.put (sAlias, Long.valueOf (aCert.getNotAfter ().getTime ()));
+    }
+
+    /**
+     * Remove an alias that was added with the provided certificate and
+     * thumbprint.
+     */
+    void remove (@Nonnull final String sAlias,
+                 @Nonnull final X509Certificate aCert,
+                 @Nonnull final String sThumbprint)
+    {
+      _remove (m_aByIssuerAndSerial,
+               _getIssuerAndSerialKey (aCert.getIssuerX500Principal (), aCert.getSerialNumber ()),
+               sAlias);
+      final byte [] aSKI = getSubjectKeyIdentifier (aCert);
+      if (aSKI != null)
+        _remove (m_aBySKI, StringHelper.getHexEncoded (aSKI), sAlias);
+      _remove (m_aBySubject, _getName (aCert.getSubjectX500Principal ()), sAlias);
+      _remove (m_aByThumbprint, sThumbprint, sAlias);
+      m_aExpirations.remove (sAlias);
+    }
+
+    @Nonnull
+    CertificateIndex build ()
+    {
+      return new CertificateIndex (this);
+    }
+  }
+
+  // The first alias of each list wins
+  private final ICommonsMap <String, ICommonsList <String>> m_aByIssuerAndSerial;
+  private final ICommonsMap <String, ICommonsList <String>> m_aBySKI;
+  private final ICommonsMap <String, ICommonsList <String>> m_aBySubject;
+  private final ICommonsMap <String, ICommonsList <String>> m_aByThumbprint;
+  // Sorted ascending by expiration
+  private final long [] m_aExpirations;
+  private final String [] m_aExpirationAliases;
+
+  private CertificateIndex (@Nonnull final Builder aBuilder)
+  {
+    m_aByIssuerAndSerial = aBuilder.m_aByIssuerAndSerial;
+    m_aBySKI = aBuilder.m_aBySKI;
+    m_aBySubject = aBuilder.m_aBySubject;
+    m_aByThumbprint = aBuilder.m_aByThumbprint;
+
+    // Only the expiration dates are sorted - no certificate is touched
+    final ICommonsList <Map.Entry <String, Long>> aEntries = new CommonsArrayList <> (aBuilder.m_aExpirations.entrySet ());
+    aEntries.sort ( (a, b) -> a.getValue ().compareTo (b.getValue ()));
+    final int nCount = aEntries.size ();
+    m_aExpirations = new long [nCount];
+    m_aExpirationAliases = new String [nCount];
+    for (int i = 0; i < nCount; ++i)
+    {
+      final Map.Entry <String, Long> aEntry = aEntries.get (i);
+      m_aExpirations[i] = aEntry.getValue ().longValue ();
+      m_aExpirationAliases[i] = aEntry.getKey ();
+    }
+  }
+
+  @Nullable
+  private static String _getFirst (@Nonnull final ICommonsMap <String, ICommonsList <String>> aMap,
+                                   @Nonnull final String sKey)
+  {
+    final ICommonsList <String> aAliases = aMap.get (sKey);
+    return aAliases == null ? null : aAliases.getFirst ();
+  }
+
+  @Nonnull
+  private static String _getName (@Nonnull final X500Principal aPrincipal)
+  {
+    return aPrincipal.getName (X500Principal.CANONICAL);
+  }
+
+  @Nonnull
+  private static String _getIssuerAndSerialKey (@Nonnull final X500Principal aIssuer,
+                                                @Nonnull final BigInteger aSerial)
+  {
+    return _getName (aIssuer) + '#' + aSerial.toString (16);
+  }
+
+  /**
+   * Get the content of a DER encoded OCTET STRING. Package private for
+   * testing only.
+   *
+   * @param aDER
+   *        The DER encoding. May be <code>null</code>.
+   * @return <code>null</code> if the parameter is not a complete OCTET STRING.
+   */
+  @Nullable
+  static byte [] getOctetStringContent (@Nullable final byte [] aDER)
+  {
+    // Tag OCTET STRING followed by a short or long form length
+    if (aDER == null || aDER.length < 2 || aDER[0] != 0x04)
+      return null;
+    int nOfs = 2;
+    int nLen = aDER[1] & 0xff;
+    if (nLen > 0x7f)
+    {
+      final int nLenBytes = nLen & 0x7f;
+      if (nLenBytes < 1 || nLenBytes > 3 || aDER.length < 2 + nLenBytes)
+        return null;
+      nLen = 0;
+      for (int i = 0; i < nLenBytes; ++i)
+        nLen = (nLen << 8) | (aDER[2 + i] & 0xff);
+      nOfs += nLenBytes;
+    }
+    if (nOfs + nLen > aDER.length)
+      return null;
+    return Arrays.copyOfRange (aDER, nOfs, nOfs + nLen);
+  }
+
+  /**
+   * Get the subject key identifier of a certificate.
+   *
+   * @param aCert
+   *        The certificate. May not be <code>null</code>.
+   * @return The key identifier or <code>null</code> if the certificate has no
+   *         such extension.
+   */
+  @Nullable
+  public static byte [] getSubjectKeyIdentifier (@Nonnull final X509Certificate aCert)
+  {
+    ValueEnforcer.notNull (aCert, "Cert");
+    // The extension value is an OCTET STRING containing the DER encoded
+    // KeyIdentifier, which is an OCTET STRING as well
+    return getOctetStringContent (getOctetStringContent (aCert.getExtensionValue (OID_SUBJECT_KEY_IDENTIFIER)));
+  }
+
+  @Nullable
+  public String getAliasByIssuerAndSerial (@Nullable final X500Principal aIssuer, @Nullable final BigInteger aSerial)
+  {
+    if (aIssuer == null || aSerial == null)
+      return null;
+    return _getFirst (m_aByIssuerAndSerial, _getIssuerAndSerialKey (aIssuer, aSerial));
+  }
+
+  @Nullable
+  public String getAliasBySubjectKeyIdentifier (@Nullable final byte [] aSKI)
+  {
+    if (aSKI == null)
+      return null;
+    return _getFirst (m_aBySKI, StringHelper.getHexEncoded (aSKI));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllAliasesBySubject (@Nullable final X500Principal aSubject)
+  {
+    if (aSubject == null)
+      return new CommonsArrayList <> ();
+    final ICommonsList <String> ret = m_aBySubject.get (_getName (aSubject));
+    return ret == null ? new CommonsArrayList <> () : ret.getClone ();
+  }
+
+  /**
+   * @param sThumbprint
+   *        The hex encoded SHA-256 thumbprint of the encoded certificate. Case
+   *        insensitive. May be <code>null</code>.
+   * @return The alias or <code>null</code>.
+   */
+  @Nullable
+  public String getAliasByThumbprint (@Nullable final String sThumbprint)
+  {
+    if (sThumbprint == null)
+      return null;
+    return _getFirst (m_aByThumbprint, sThumbprint.toLowerCase (Locale.US));
+  }
+
+  /**
+   * @return The number of distinct subjects.
+   */
+  public int getSubjectCount ()
+  {
+    return m_aBySubject.size ();
+  }
+
+  /**
+   * @param nMillis
+   *        The point in time.
+   * @return The number of certificates that expire before the provided point
+   *         in time. These are the first entries in expiration order.
+   */
+  private int _getCountBefore (final long nMillis)
+  {
+    int nLow = 0;
+    int nHigh = m_aExpirations.length;
+    while (nLow < nHigh)
+    {
+      final int nMid = (nLow + nHigh) >>> 1;
+      if (m_aExpirations[nMid] < nMillis)
+        nLow = nMid + 1;
+      else
+        nHigh = nMid;
+    }
+    return nLow;
+  }
+
+  /**
+   * @param nMillis
+   *        The point in time in milliseconds since the epoch.
+   * @return The number of certificates that expire before the provided point
+   *         in time, including the already expired ones.
+   */
+  public int getExpiringCount (final long nMillis)
+  {
+    return _getCountBefore (nMillis);
+  }
+
+  /**
+   * @param nMillis
+   *        The point in time in milliseconds since the epoch.
+   * @return All aliases whose certificates expire before the provided point in
+   *         time, including the already expired ones, ordered by expiration.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllAliasesExpiringBefore (final long nMillis)
+  {
+    final int nCount = _getCountBefore (nMillis);
+    final ICommonsList <String> ret = new CommonsArrayList <> (nCount);
+    for (int i = 0; i < nCount; ++i)
+      ret.add (m_aExpirationAliases[i]);
+    return ret;
+  }
+
+  /**
+   * @param nMillis
+   *        The point in time in milliseconds since the epoch.
+   * @return All aliases whose certificates expire before the provided point in
+   *         time, including the already expired ones, ordered by expiration.
+   *         The value is the expiration (not after) in milliseconds since the
+   *         epoch. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <String, Long> getAllExpirationsBefore (final long nMillis)
+  {
+    final int nCount = _getCountBefore (nMillis);
+    final ICommonsOrderedMap <String, Long> ret = new CommonsLinkedHashMap <> (nCount);
+    for (int i = 0; i < nCount; ++i)
+      ret.put (m_aExpirationAliases[i], Long.valueOf (m_aExpirations[i]));
+    return ret;
+  }
+
+  /**
+   * @param nMillis
+   *        The point in time in milliseconds since the epoch.
+   * @return The earliest expiration at or after the provided point in time or
+   *         {@link Long#MAX_VALUE} if all certificates expire before.
+   */
+  public long getNextExpiration (final long nMillis)
+  {
+    final int nIndex = _getCountBefore (nMillis);
+    return nIndex < m_aExpirations.length ? m_aExpirations[nIndex] : Long.MAX_VALUE;
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.ext.CommonsHashMap;
+import com.helger.commons.collection.ext.ICommonsMap;
+
+/**
+ * A JVM wide table of parsed certificates, identified by their SHA-256
+ * thumbprint. The certificate stores of all tenants intern their certificates,
+ * so that a partner certificate that is contained in many stores is kept in
+ * memory only once. The certificates are only weakly referenced - a certificate
+ * that is no longer used by any store is removed automatically.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class CertificateInterner
+{
+  private static final class CertRef extends WeakReference <X509Certificate>
+  {
+    private final String m_sThumbprint;
+
+    CertRef (@Nonnull final String sThumbprint,
+             @Nonnull final X509Certificate aCert,
+             @Nonnull final ReferenceQueue <X509Certificate> aQueue)
+    {
+      super (aCert, aQueue);
+      m_sThumbprint = sThumbprint;
+    }
+  }
+
+  private static final CertificateInterner s_aInstance = new CertificateInterner ();
+
+  private final ReferenceQueue <X509Certificate> m_aQueue = new ReferenceQueue <> ();
+  @GuardedBy ("this")
+  private final ICommonsMap <String, CertRef> m_aCerts = new CommonsHashMap <> ();
+
+  private CertificateInterner ()
+  {}
+
+  /**
+   * @return The JVM wide instance. Never <code>null</code>.
+   */
+  @Nonnull
+  public static CertificateInterner getInstance ()
+  {
+    return s_aInstance;
+  }
+
+  @GuardedBy ("this")
+  private void _removeCollected ()
+  {
+    CertRef aRef;
+    while ((aRef = (CertRef) m_aQueue.poll ()) != null)
+      if (m_aCerts.get (aRef.m_sThumbprint) == aRef)
+        m_aCerts.remove (aRef.m_sThumbprint);
+  }
+
+  /**
+   * Get the shared instance of a certificate.
+   *
+   * @param sThumbprint
+   *        The hex encoded SHA-256 thumbprint of the encoded certificate. May
+   *        not be <code>null</code>.
+   * @param aCert
+   *        The certificate. May not be <code>null</code>.
+   * @return The certificate with the same thumbprint that was interned before,
+   *         or the provided certificate if it is the first one. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public synchronized X509Certificate intern (@Nonnull final String sThumbprint, @Nonnull final X509Certificate aCert)
+  {
+    ValueEnforcer.notNull (sThumbprint, "Thumbprint");
+    ValueEnforcer.notNull (aCert, "Cert");
+
+    _removeCollected ();
+    final CertRef aRef = m_aCerts.get (sThumbprint);
+    if (aRef != null)
+    {
+      final X509Certificate ret = aRef.get ();
+      // Equal encoding - just to be safe against a wrong thumbprint
+      if (ret != null && ret.equals (aCert))
+        return ret;
+    }
+    m_aCerts.put (sThumbprint, new CertRef (sThumbprint, aCert, m_aQueue));
+    return aCert;
+  }
+
+  /**
+   * @return The number of interned certificates, including certificates that
+   *         are no longer used but were not yet removed.
+   */
+  public synchronized int getSize ()
+  {
+    _removeCollected ();
+    return m_aCerts.size ();
+  }
+}
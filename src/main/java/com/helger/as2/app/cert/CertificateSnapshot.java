@@ -0,0 +1,350 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.ext.CommonsHashMap;
+import com.helger.commons.collection.ext.CommonsHashSet;
+import com.helger.commons.collection.ext.CommonsLinkedHashMap;
+import com.helger.commons.collection.ext.CommonsTreeSet;
+import com.helger.commons.collection.ext.ICommonsMap;
+import com.helger.commons.collection.ext.ICommonsOrderedMap;
+import com.helger.commons.collection.ext.ICommonsSet;
+import com.helger.commons.collection.ext.ICommonsSortedSet;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * An immutable, fully loaded state of a certificate store. The contained
+ * {@link KeyStore} must not be modified after the snapshot was created, so
+ * that all lookups can be performed without locking.
+ * <p>
+ * Every alias has a fingerprint consisting of the entry type and the SHA-256 of
+ * the encoded certificate. When a snapshot is created based on a previous
+ * snapshot, the certificate objects and fingerprints of all aliases with the
+ * same entry type and encoded certificate are taken from the previous snapshot
+ * without hashing them again, and the added, changed and removed aliases are
+ * recorded, so that derived data only needs to be updated for these aliases.
+ * New certificates are interned via {@link CertificateInterner}, so that the
+ * snapshots of all tenants share the instances of identical certificates.
+ * <p>
+ * Each snapshot also carries a {@link CertificateIndex} that is derived from
+ * the index of the previous snapshot by applying only the added, changed and
+ * removed aliases, so that it is always consistent with the contained
+ * certificates.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class CertificateSnapshot
+{
+  private final long m_nVersion;
+  private final KeyStore m_aKeyStore;
+  private final ICommonsOrderedMap <String, X509Certificate> m_aCertsByAlias;
+  private final ICommonsMap <X509Certificate, String> m_aAliasByCert;
+  private final ICommonsSet <String> m_aKeyAliases;
+  private final ICommonsMap <String, String> m_aFingerprints;
+  private final ICommonsSortedSet <String> m_aAddedAliases;
+  private final ICommonsSortedSet <String> m_aChangedAliases;
+  private final ICommonsSortedSet <String> m_aRemovedAliases;
+  private final CertificateIndex m_aIndex;
+
+  private CertificateSnapshot (final long nVersion,
+                               @Nonnull final KeyStore aKeyStore,
+                               @Nonnull final ICommonsOrderedMap <String, X509Certificate> aCertsByAlias,
+                               @Nonnull final ICommonsMap <X509Certificate, String> aAliasByCert,
+                               @Nonnull final ICommonsSet <String> aKeyAliases,
+                               @Nonnull final ICommonsMap <String, String> aFingerprints,
+                               @Nonnull final ICommonsSortedSet <String> aAddedAliases,
+                               @Nonnull final ICommonsSortedSet <String> aChangedAliases,
+                               @Nonnull final ICommonsSortedSet <String> aRemovedAliases,
+                               @Nonnull final CertificateIndex aIndex)
+  {
+    m_nVersion = nVersion;
+    m_aKeyStore = aKeyStore;
+    m_aCertsByAlias = aCertsByAlias;
+    m_aAliasByCert = aAliasByCert;
+    m_aKeyAliases = aKeyAliases;
+    m_aFingerprints = aFingerprints;
+    m_aAddedAliases = aAddedAliases;
+    m_aChangedAliases = aChangedAliases;
+    m_aRemovedAliases = aRemovedAliases;
+    m_aIndex = aIndex;
+  }
+
+  /**
+   * @return The version of the snapshot. Each new snapshot of a factory has a
+   *         higher version than its predecessor.
+   */
+  public long getVersion ()
+  {
+    return m_nVersion;
+  }
+
+  /**
+   * @return The underlying key store. It must not be modified. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public KeyStore getKeyStore ()
+  {
+    return m_aKeyStore;
+  }
+
+  @Nullable
+  public X509Certificate getCertificate (@Nullable final String sAlias)
+  {
+    return sAlias == null ? null : m_aCertsByAlias.get (sAlias);
+  }
+
+  @Nullable
+  public String getAlias (@Nullable final X509Certificate aCert)
+  {
+    return aCert == null ? null : m_aAliasByCert.get (aCert);
+  }
+
+  /**
+   * @param sAlias
+   *        The alias to check. May be <code>null</code>.
+   * @return <code>true</code> if the alias has a private key entry.
+   */
+  public boolean isKeyEntry (@Nullable final String sAlias)
+  {
+    return sAlias != null && m_aKeyAliases.contains (sAlias);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedMap <String, X509Certificate> getAllCertificates ()
+  {
+    return m_aCertsByAlias.getClone ();
+  }
+
+  /**
+   * @param sAlias
+   *        The alias to query. May be <code>null</code>.
+   * @return The fingerprint of the alias or <code>null</code> if the alias is
+   *         not contained.
+   */
+  @Nullable
+  public String getFingerprint (@Nullable final String sAlias)
+  {
+    return sAlias == null ? null : m_aFingerprints.get (sAlias);
+  }
+
+  /**
+   * @return All aliases not contained in the previous snapshot.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSortedSet <String> getAllAddedAliases ()
+  {
+    return m_aAddedAliases.getClone ();
+  }
+
+  /**
+   * @return All aliases with a different fingerprint than in the previous
+   *         snapshot.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSortedSet <String> getAllChangedAliases ()
+  {
+    return m_aChangedAliases.getClone ();
+  }
+
+  /**
+   * @return All aliases of the previous snapshot that are no longer contained.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSortedSet <String> getAllRemovedAliases ()
+  {
+    return m_aRemovedAliases.getClone ();
+  }
+
+  /**
+   * @param sAlias
+   *        The alias to check. May be <code>null</code>.
+   * @return <code>true</code> if the alias was added, changed or removed
+   *         compared to the previous snapshot.
+   */
+  public boolean isModified (@Nullable final String sAlias)
+  {
+    return m_aAddedAliases.contains (sAlias) ||
+           m_aChangedAliases.contains (sAlias) ||
+           m_aRemovedAliases.contains (sAlias);
+  }
+
+  /**
+   * @return The secondary indexes of this snapshot. Never <code>null</code>.
+   */
+  @Nonnull
+  public CertificateIndex getIndex ()
+  {
+    return m_aIndex;
+  }
+
+  /**
+   * @return The number of certificates in this snapshot.
+   */
+  public int getSize ()
+  {
+    return m_aCertsByAlias.size ();
+  }
+
+  @Nonnull
+  private static String _getThumbprintOfFingerprint (@Nonnull final String sFingerprint)
+  {
+    return sFingerprint.substring (sFingerprint.indexOf (':') + 1);
+  }
+
+  @Nonnull
+  private static String _getThumbprint (@Nonnull final MessageDigest aMD,
+                                        @Nonnull final X509Certificate aCert) throws GeneralSecurityException
+  {
+    return StringHelper.getHexEncoded (aMD.digest (aCert.getEncoded ()));
+  }
+
+  /**
+   * Create a new snapshot. The provided key store is read once and must not be
+   * modified afterwards.
+   *
+   * @param nVersion
+   *        The version of the new snapshot.
+   * @param aKeyStore
+   *        The fully loaded key store. May not be <code>null</code>.
+   * @param aPrevious
+   *        The previous snapshot to compare with. May be <code>null</code>, in
+   *        which case all aliases are considered to be added.
+   * @return The new snapshot. Never <code>null</code>.
+   * @throws GeneralSecurityException
+   *         If the key store cannot be read
+   */
+  @Nonnull
+  public static CertificateSnapshot create (final long nVersion,
+                                            @Nonnull final KeyStore aKeyStore,
+                                            @Nullable final CertificateSnapshot aPrevious) throws GeneralSecurityException
+  {
+    ValueEnforcer.notNull (aKeyStore, "KeyStore");
+
+    final MessageDigest aMD = MessageDigest.getInstance ("SHA-256");
+    final ICommonsOrderedMap <String, X509Certificate> aCertsByAlias = new CommonsLinkedHashMap <> ();
+    final ICommonsMap <X509Certificate, String> aAliasByCert = new CommonsHashMap <> ();
+    final ICommonsSet <String> aKeyAliases = new CommonsHashSet <> ();
+    final ICommonsMap <String, String> aFingerprints = new CommonsHashMap <> ();
+    final ICommonsSortedSet <String> aAdded = new CommonsTreeSet <> ();
+    final ICommonsSortedSet <String> aChanged = new CommonsTreeSet <> ();
+    final CertificateIndex.Builder aIndex = new CertificateIndex.Builder (aPrevious == null ? null
+                                                                                          : aPrevious.m_aIndex);
+    final Enumeration <String> aAliases = aKeyStore.aliases ();
+    while (aAliases.hasMoreElements ())
+    {
+      final String sAlias = aAliases.nextElement ();
+      final boolean bKeyEntry = aKeyStore.isKeyEntry (sAlias);
+      if (bKeyEntry)
+        aKeyAliases.add (sAlias);
+
+      final Certificate aCert = aKeyStore.getCertificate (sAlias);
+      if (aCert instanceof X509Certificate)
+      {
+        X509Certificate aX509 = (X509Certificate) aCert;
+        final String sOldFingerprint = aPrevious == null ? null : aPrevious.getFingerprint (sAlias);
+        final String sFingerprint;
+        if (sOldFingerprint != null &&
+            bKeyEntry == aPrevious.isKeyEntry (sAlias) &&
+            aX509.equals (aPrevious.getCertificate (sAlias)))
+        {
+          // Unchanged - same encoding, so no need to hash it again. Keep the
+          // existing object and index entries
+          aX509 = aPrevious.getCertificate (sAlias);
+          sFingerprint = sOldFingerprint;
+        }
+        else
+        {
+          final String sThumbprint = _getThumbprint (aMD, aX509);
+          // Share the same certificate with the stores of other tenants
+          aX509 = CertificateInterner.getInstance ().intern (sThumbprint, aX509);
+          sFingerprint = (bKeyEntry ? "key:" : "cert:") + sThumbprint;
+          if (sOldFingerprint == null)
+            aAdded.add (sAlias);
+          else
+          {
+            aIndex.remove (sAlias, aPrevious.getCertificate (sAlias), _getThumbprintOfFingerprint (sOldFingerprint));
+            aChanged.add (sAlias);
+          }
+          aIndex.add (sAlias, aX509, sThumbprint);
+        }
+        aFingerprints.put (sAlias, sFingerprint);
+        aCertsByAlias.put (sAlias, aX509);
+        // Same as KeyStore.getCertificateAlias: the first alias wins
+        aAliasByCert.putIfAbsent (aX509, sAlias);
+      }
+    }
+
+    final ICommonsSortedSet <String> aRemoved = new CommonsTreeSet <> ();
+    if (aPrevious != null)
+      for (final Map.Entry <String, String> aEntry : aPrevious.m_aFingerprints.entrySet ())
+      {
+        final String sAlias = aEntry.getKey ();
+        if (!aFingerprints.containsKey (sAlias))
+        {
+          aIndex.remove (sAlias, aPrevious.getCertificate (sAlias), _getThumbprintOfFingerprint (aEntry.getValue ()));
+          aRemoved.add (sAlias);
+        }
+      }
+
+    return new CertificateSnapshot (nVersion,
+                                    aKeyStore,
+                                    aCertsByAlias,
+                                    aAliasByCert,
+                                    aKeyAliases,
+                                    aFingerprints,
+                                    aAdded,
+                                    aChanged,
+                                    aRemoved,
+                                    aIndex.build ());
+  }
+}
@@ -0,0 +1,255 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A size and time bounded LRU cache of certificate path validation results.
+ * The results are identified by the thumbprint of the validated certificate,
+ * the version of the {@link CertificateSnapshot} that provided the trust
+ * anchors and the epoch of the {@link CRLIndex} that was checked, so a result
+ * is never used with a different set of trust anchors or CRLs - even if it is
+ * stored after the CRLs were reloaded.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class CertificateValidationCache
+{
+  /** The default maximum number of cached results */
+  public static final int DEFAULT_MAX_SIZE = 1024;
+  /** The default time to live of a result in seconds */
+  public static final long DEFAULT_TTL_SECONDS = 3600;
+
+  /**
+   * The result of a validation.
+   */
+  @Immutable
+  public static final class Result
+  {
+    private final boolean m_bValid;
+    private final String m_sMessage;
+    private final long m_nExpirationMillis;
+
+    public Result (final boolean bValid, @Nullable final String sMessage, final long nExpirationMillis)
+    {
+      m_bValid = bValid;
+      m_sMessage = sMessage;
+      m_nExpirationMillis = nExpirationMillis;
+    }
+
+    public boolean isValid ()
+    {
+      return m_bValid;
+    }
+
+    /**
+     * @return The reason why the validation failed or a description of the
+     *         trust path. May be <code>null</code>.
+     */
+    @Nullable
+    public String getMessage ()
+    {
+      return m_sMessage;
+    }
+
+    /**
+     * @return The time after which the result must not be used anymore.
+     */
+    public long getExpirationMillis ()
+    {
+      return m_nExpirationMillis;
+    }
+  }
+
+  private final Object m_aLock = new Object ();
+  @GuardedBy ("m_aLock")
+  private int m_nMaxSize;
+  @GuardedBy ("m_aLock")
+  private long m_nTTLMillis = TimeUnit.SECONDS.toMillis (DEFAULT_TTL_SECONDS);
+  @GuardedBy ("m_aLock")
+  private final LinkedHashMap <String, Result> m_aResults = new LinkedHashMap <String, Result> (16, 0.75f, true)
+  {
+    @Override
+    protected boolean removeEldestEntry (final Map.Entry <String, Result> aEldest)
+    {
+      return size () > m_nMaxSize;
+    }
+  };
+  private final AtomicLong m_aHits = new AtomicLong ();
+  private final AtomicLong m_aMisses = new AtomicLong ();
+
+  public CertificateValidationCache ()
+  {
+    this (DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param nMaxSize
+   *        The maximum number of cached results. Must be &ge; 0. 0 disables
+   *        the cache.
+   */
+  public CertificateValidationCache (final int nMaxSize)
+  {
+    setMaxSize (nMaxSize);
+  }
+
+  @Nonnull
+  private static String _getKey (@Nonnull final String sThumbprint, final long nSnapshotVersion, final long nCRLEpoch)
+  {
+    return nSnapshotVersion + ":" + nCRLEpoch + ":" + sThumbprint;
+  }
+
+  /**
+   * @param nMaxSize
+   *        The maximum number of cached results. Must be &ge; 0. 0 disables
+   *        the cache.
+   */
+  public void setMaxSize (final int nMaxSize)
+  {
+    ValueEnforcer.isGE0 (nMaxSize, "MaxSize");
+    synchronized (m_aLock)
+    {
+      m_nMaxSize = nMaxSize;
+      while (m_aResults.size () > nMaxSize)
+        m_aResults.remove (m_aResults.keySet ().iterator ().next ());
+    }
+  }
+
+  /**
+   * @param nTTLSeconds
+   *        The time to live of new results in seconds. Must be &gt; 0.
+   */
+  public void setTTLSeconds (final long nTTLSeconds)
+  {
+    ValueEnforcer.isGT0 (nTTLSeconds, "TTLSeconds");
+    synchronized (m_aLock)
+    {
+      m_nTTLMillis = TimeUnit.SECONDS.toMillis (nTTLSeconds);
+    }
+  }
+
+  /**
+   * @return The time to live of new results in milliseconds.
+   */
+  public long getTTLMillis ()
+  {
+    synchronized (m_aLock)
+    {
+      return m_nTTLMillis;
+    }
+  }
+
+  /**
+   * @param sThumbprint
+   *        The thumbprint of the certificate. May not be <code>null</code>.
+   * @param nSnapshotVersion
+   *        The version of the snapshot providing the trust anchors.
+   * @param nCRLEpoch
+   *        The epoch of the CRL index or 0 if no CRLs are used.
+   * @return The cached result or <code>null</code> if there is no valid
+   *         result. Hits and misses are counted.
+   */
+  @Nullable
+  public Result get (@Nonnull final String sThumbprint, final long nSnapshotVersion, final long nCRLEpoch)
+  {
+    final String sKey = _getKey (sThumbprint, nSnapshotVersion, nCRLEpoch);
+    Result ret;
+    synchronized (m_aLock)
+    {
+      ret = m_aResults.get (sKey);
+      if (ret != null && ret.getExpirationMillis () <= System.currentTimeMillis ())
+      {
+        m_aResults.remove (sKey);
+        ret = null;
+      }
+    }
+    if (ret != null)
+      m_aHits.incrementAndGet ();
+    else
+      m_aMisses.incrementAndGet ();
+    return ret;
+  }
+
+  public void put (@Nonnull final String sThumbprint,
+                   final long nSnapshotVersion,
+                   final long nCRLEpoch,
+                   @Nonnull final Result aResult)
+  {
+    ValueEnforcer.notNull (sThumbprint, "Thumbprint");
+    ValueEnforcer.notNull (aResult, "Result");
+    synchronized (m_aLock)
+    {
+      if (m_nMaxSize > 0)
+        m_aResults.put (_getKey (sThumbprint, nSnapshotVersion, nCRLEpoch), aResult);
+    }
+  }
+
+  public void invalidateAll ()
+  {
+    synchronized (m_aLock)
+    {
+      m_aResults.clear ();
+    }
+  }
+
+  public int getSize ()
+  {
+    synchronized (m_aLock)
+    {
+      return m_aResults.size ();
+    }
+  }
+
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+}
@@ -0,0 +1,808 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.util.AS2Helper;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsHashMap;
+import com.helger.commons.collection.ext.CommonsLinkedHashMap;
+import com.helger.commons.collection.ext.CommonsTreeMap;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsMap;
+import com.helger.commons.collection.ext.ICommonsOrderedMap;
+import com.helger.commons.collection.ext.ICommonsSortedMap;
+import com.helger.commons.io.file.FilenameHelper;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * A {@link KeyStore} backed by a directory with one file per alias. The file
+ * name without the extension is the alias. Files with the extension
+ * {@value #EXT_KEY} are PKCS#12 files containing the private key and
+ * certificate of the alias, protected with the store password. Files with the
+ * extensions {@value #EXT_CERT}, <code>.crt</code>, <code>.der</code> or
+ * <code>.pem</code> contain a trusted certificate.
+ * <p>
+ * Loading the key store only lists the directory. The content of an alias is
+ * read on first use and kept in an LRU cache that is bounded by a maximum
+ * number of aliases and optionally by a maximum number of bytes (estimated by
+ * the size of the encoded certificates and keys). Modifications are written to
+ * the file of the alias immediately via a temporary file and an atomic rename;
+ * {@link #store(OutputStream, char[])} does nothing.
+ * <p>
+ * The SHA-256 thumbprints of all certificates read so far are kept
+ * independently of the LRU cache, so that
+ * {@link #getCertificateAlias(Certificate)} does not need to read the files
+ * again after an alias was evicted. Aliases that were never read are scanned by
+ * reading only their certificate - no private key is decrypted and no resident
+ * alias is evicted.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class DirectoryKeyStore extends KeyStore
+{
+  public static final String TYPE = "directory";
+  /** The extension of key files */
+  public static final String EXT_KEY = ".p12";
+  /** The extension used when writing certificate files */
+  public static final String EXT_CERT = ".cer";
+  /** The default maximum number of resident aliases */
+  public static final int DEFAULT_MAX_ALIASES = 1000;
+
+  private static final String [] CERT_EXTENSIONS = { EXT_CERT, ".crt", ".der", ".pem" };
+  private static final String [] ALL_EXTENSIONS = { EXT_KEY, EXT_CERT, ".crt", ".der", ".pem" };
+
+  /**
+   * The content of a loaded alias.
+   */
+  private static final class Entry
+  {
+    private final Certificate [] m_aChain;
+    private final Key m_aKey;
+    private final long m_nBytes;
+
+    Entry (@Nonnull final Certificate [] aChain, @Nullable final Key aKey)
+    {
+      m_aChain = aChain;
+      m_aKey = aKey;
+      long nBytes = 0;
+      for (final Certificate aCert : aChain)
+        try
+        {
+          nBytes += aCert.getEncoded ().length;
+        }
+        catch (final Exception ex)
+        {
+          // Ignore for the estimation
+        }
+      final byte [] aEncodedKey = aKey == null ? null : aKey.getEncoded ();
+      if (aEncodedKey != null)
+        nBytes += aEncodedKey.length;
+      m_nBytes = nBytes;
+    }
+  }
+
+  private static final class Spi extends KeyStoreSpi
+  {
+    private static final Logger s_aLogger = LoggerFactory.getLogger (DirectoryKeyStore.class);
+
+    private final File m_aDir;
+    private final int m_nMaxAliases;
+    private final long m_nMaxBytes;
+    private volatile char [] m_aPassword;
+    // The files of all aliases - a new File object for every modification
+    @GuardedBy ("this")
+    private final ICommonsSortedMap <String, File> m_aFiles = new CommonsTreeMap <> ();
+    @GuardedBy ("this")
+    private final LinkedHashMap <String, Entry> m_aResident = new LinkedHashMap <> (16, 0.75f, true);
+    // The thumbprints of all aliases read so far - survive the eviction
+    @GuardedBy ("this")
+    private final ICommonsSortedMap <String, String> m_aThumbprintByAlias = new CommonsTreeMap <> ();
+    @GuardedBy ("this")
+    private final ICommonsMap <String, String> m_aAliasByThumbprint = new CommonsHashMap <> ();
+    @GuardedBy ("this")
+    private long m_nResidentBytes;
+    @GuardedBy ("this")
+    private long m_nLoadCount;
+    @GuardedBy ("this")
+    private long m_nEvictionCount;
+
+    Spi (@Nonnull final File aDir, final int nMaxAliases, final long nMaxBytes)
+    {
+      m_aDir = aDir;
+      m_nMaxAliases = nMaxAliases;
+      m_nMaxBytes = nMaxBytes;
+    }
+
+    @GuardedBy ("this")
+    private void _evict (@Nonnull final String sAlias)
+    {
+      final Entry aEntry = m_aResident.remove (sAlias);
+      if (aEntry != null)
+        m_nResidentBytes -= aEntry.m_nBytes;
+    }
+
+    @GuardedBy ("this")
+    private void _unindex (@Nonnull final String sAlias)
+    {
+      final String sThumbprint = m_aThumbprintByAlias.remove (sAlias);
+      if (sThumbprint != null && sAlias.equals (m_aAliasByThumbprint.get (sThumbprint)))
+        m_aAliasByThumbprint.remove (sThumbprint);
+    }
+
+    @GuardedBy ("this")
+    private void _index (@Nonnull final String sAlias, @Nullable final String sThumbprint)
+    {
+      _unindex (sAlias);
+      if (sThumbprint != null)
+      {
+        m_aThumbprintByAlias.put (sAlias, sThumbprint);
+        m_aAliasByThumbprint.putIfAbsent (sThumbprint, sAlias);
+      }
+    }
+
+    @Nullable
+    private static String _getThumbprint (@Nonnull final Certificate aCert)
+    {
+      try
+      {
+        return StringHelper.getHexEncoded (MessageDigest.getInstance ("SHA-256").digest (aCert.getEncoded ()));
+      }
+      catch (final Exception ex)
+      {
+        s_aLogger.warn ("Failed to determine the thumbprint of a certificate: " + ex.getMessage ());
+        return null;
+      }
+    }
+
+    @GuardedBy ("this")
+    private void _makeResident (@Nonnull final String sAlias, @Nonnull final Entry aEntry)
+    {
+      _evict (sAlias);
+      m_aResident.put (sAlias, aEntry);
+      m_nResidentBytes += aEntry.m_nBytes;
+      final String sThumbprint = _getThumbprint (aEntry.m_aChain[0]);
+      // Share the same certificate with the stores of other tenants - the
+      // chain is a private copy of the entry
+      if (sThumbprint != null && aEntry.m_aChain[0] instanceof X509Certificate)
+        aEntry.m_aChain[0] = CertificateInterner.getInstance ().intern (sThumbprint,
+                                                                       (X509Certificate) aEntry.m_aChain[0]);
+      _index (sAlias, sThumbprint);
+
+      // Evict the least recently used aliases, but never the new one
+      // Iterating the entries does not change the access order
+      final Iterator <Map.Entry <String, Entry>> it = m_aResident.entrySet ().iterator ();
+      while (m_aResident.size () > 1 &&
+             (m_aResident.size () > m_nMaxAliases || (m_nMaxBytes > 0 && m_nResidentBytes > m_nMaxBytes)))
+      {
+        final Entry aEldest = it.next ().getValue ();
+        it.remove ();
+        m_nResidentBytes -= aEldest.m_nBytes;
+        m_nEvictionCount++;
+      }
+    }
+
+    @Nonnull
+    private Entry _read (@Nonnull final File aFile) throws Exception
+    {
+      final InputStream aIS = Files.newInputStream (aFile.toPath ());
+      try
+      {
+        if (isKeyFile (aFile))
+        {
+          final KeyStore aKS = AS2Helper.getCryptoHelper ().createNewKeyStore ();
+          aKS.load (aIS, m_aPassword);
+          Entry ret = null;
+          final Enumeration <String> aAliases = aKS.aliases ();
+          while (aAliases.hasMoreElements ())
+          {
+            final String sAlias = aAliases.nextElement ();
+            if (aKS.isKeyEntry (sAlias))
+              return new Entry (aKS.getCertificateChain (sAlias), aKS.getKey (sAlias, m_aPassword));
+            final Certificate aCert = aKS.getCertificate (sAlias);
+            if (ret == null && aCert != null)
+              ret = new Entry (new Certificate [] { aCert }, null);
+          }
+          if (ret == null)
+            throw new KeyStoreException ("No certificate found in " + aFile);
+          return ret;
+        }
+
+        final Certificate aCert = CertificateFactory.getInstance ("X.509").generateCertificate (aIS);
+        return new Entry (new Certificate [] { aCert }, null);
+      }
+      finally
+      {
+        StreamHelper.close (aIS);
+      }
+    }
+
+    /**
+     * Read only the certificate of a file - the certificate of the key entry
+     * is returned without decrypting the key.
+     */
+    @Nonnull
+    private Certificate _readCertificate (@Nonnull final File aFile) throws Exception
+    {
+      final InputStream aIS = Files.newInputStream (aFile.toPath ());
+      try
+      {
+        if (isKeyFile (aFile))
+        {
+          final KeyStore aKS = AS2Helper.getCryptoHelper ().createNewKeyStore ();
+          aKS.load (aIS, m_aPassword);
+          Certificate ret = null;
+          final Enumeration <String> aAliases = aKS.aliases ();
+          while (aAliases.hasMoreElements ())
+          {
+            final String sAlias = aAliases.nextElement ();
+            final Certificate aCert = aKS.getCertificate (sAlias);
+            if (aKS.isKeyEntry (sAlias) && aCert != null)
+              return aCert;
+            if (ret == null)
+              ret = aCert;
+          }
+          if (ret == null)
+            throw new KeyStoreException ("No certificate found in " + aFile);
+          return ret;
+        }
+
+        return CertificateFactory.getInstance ("X.509").generateCertificate (aIS);
+      }
+      finally
+      {
+        StreamHelper.close (aIS);
+      }
+    }
+
+    @Nullable
+    private Entry _getEntry (@Nullable final String sAlias)
+    {
+      if (sAlias == null)
+        return null;
+
+      final File aFile;
+      synchronized (this)
+      {
+        final Entry aEntry = m_aResident.get (sAlias);
+        if (aEntry != null)
+          return aEntry;
+        aFile = m_aFiles.get (sAlias);
+        if (aFile == null)
+          return null;
+      }
+
+      // Read outside of the lock, so that decrypting a key does not block
+      // lookups of resident aliases
+      final Entry aEntry;
+      try
+      {
+        aEntry = _read (aFile);
+      }
+      catch (final Exception ex)
+      {
+        s_aLogger.error ("Failed to read certificate file " + aFile + ": " + ex.getMessage ());
+        return null;
+      }
+
+      synchronized (this)
+      {
+        m_nLoadCount++;
+        // Only keep it, if the alias was not modified in the meantime
+        if (m_aFiles.get (sAlias) == aFile)
+          _makeResident (sAlias, aEntry);
+      }
+      return aEntry;
+    }
+
+    @Nonnull
+    private File _getFile (@Nonnull final String sAlias, @Nonnull final String sExt) throws KeyStoreException
+    {
+      if (!FilenameHelper.isValidFilename (sAlias + sExt) || sAlias.startsWith ("."))
+        throw new KeyStoreException ("The alias '" + sAlias + "' cannot be used as a file name");
+      return new File (m_aDir, sAlias + sExt);
+    }
+
+    private void _write (@Nonnull final String sAlias,
+                         @Nonnull final File aFile,
+                         @Nonnull final byte [] aContent,
+                         @Nonnull final Entry aEntry) throws KeyStoreException
+    {
+      final File aTempFile = new File (m_aDir, "." + aFile.getName () + ".tmp");
+      try
+      {
+        Files.write (aTempFile.toPath (), aContent);
+        Files.move (aTempFile.toPath (),
+                    aFile.toPath (),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (final IOException ex)
+      {
+        aTempFile.delete ();
+        throw new KeyStoreException ("Failed to write " + aFile, ex);
+      }
+
+      final File aOldFile;
+      synchronized (this)
+      {
+        aOldFile = m_aFiles.put (sAlias, aFile);
+        _makeResident (sAlias, aEntry);
+      }
+      // E.g. a certificate file that was replaced by a key file
+      if (aOldFile != null && !aOldFile.equals (aFile))
+        aOldFile.delete ();
+    }
+
+    @Override
+    public Key engineGetKey (final String sAlias, final char [] aPassword)
+    {
+      final Entry aEntry = _getEntry (sAlias);
+      return aEntry == null ? null : aEntry.m_aKey;
+    }
+
+    @Override
+    public Certificate [] engineGetCertificateChain (final String sAlias)
+    {
+      final Entry aEntry = _getEntry (sAlias);
+      return aEntry == null || aEntry.m_aKey == null ? null : aEntry.m_aChain.clone ();
+    }
+
+    @Override
+    public Certificate engineGetCertificate (final String sAlias)
+    {
+      final Entry aEntry = _getEntry (sAlias);
+      return aEntry == null ? null : aEntry.m_aChain[0];
+    }
+
+    @Override
+    public Date engineGetCreationDate (final String sAlias)
+    {
+      final File aFile;
+      synchronized (this)
+      {
+        aFile = m_aFiles.get (sAlias);
+      }
+      return aFile == null ? null : new Date (aFile.lastModified ());
+    }
+
+    @Override
+    public void engineSetKeyEntry (final String sAlias,
+                                   final Key aKey,
+                                   final char [] aPassword,
+                                   final Certificate [] aChain) throws KeyStoreException
+    {
+      if (aChain == null || aChain.length == 0)
+        throw new KeyStoreException ("A certificate chain is required for alias '" + sAlias + "'");
+
+      final File aFile = _getFile (sAlias, EXT_KEY);
+      try
+      {
+        // Always protected with the store password, so it can be read again
+        final KeyStore aKS = AS2Helper.getCryptoHelper ().createNewKeyStore ();
+        aKS.load (null, null);
+        aKS.setKeyEntry (sAlias, aKey, m_aPassword, aChain);
+        final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+        aKS.store (aBAOS, m_aPassword);
+        _write (sAlias, aFile, aBAOS.toByteArray (), new Entry (aChain.clone (), aKey));
+      }
+      catch (final KeyStoreException ex)
+      {
+        throw ex;
+      }
+      catch (final Exception ex)
+      {
+        throw new KeyStoreException ("Failed to write key of alias '" + sAlias + "'", ex);
+      }
+    }
+
+    @Override
+    public void engineSetKeyEntry (final String sAlias,
+                                   final byte [] aKey,
+                                   final Certificate [] aChain) throws KeyStoreException
+    {
+      throw new KeyStoreException ("Protected keys are not supported");
+    }
+
+    @Override
+    public void engineSetCertificateEntry (final String sAlias, final Certificate aCert) throws KeyStoreException
+    {
+      final File aFile = _getFile (sAlias, EXT_CERT);
+      try
+      {
+        _write (sAlias, aFile, aCert.getEncoded (), new Entry (new Certificate [] { aCert }, null));
+      }
+      catch (final KeyStoreException ex)
+      {
+        throw ex;
+      }
+      catch (final Exception ex)
+      {
+        throw new KeyStoreException ("Failed to write certificate of alias '" + sAlias + "'", ex);
+      }
+    }
+
+    @Override
+    public void engineDeleteEntry (final String sAlias) throws KeyStoreException
+    {
+      // Validate the alias before anything is modified
+      final ICommonsList <File> aFiles = new CommonsArrayList <> ();
+      for (final String sExt : ALL_EXTENSIONS)
+        aFiles.add (_getFile (sAlias, sExt));
+
+      // Delete all files of the alias, so that none of them becomes active.
+      // The active file is deleted last, so that the entry is only removed from
+      // memory if it is really gone.
+      final File aActiveFile;
+      synchronized (this)
+      {
+        aActiveFile = m_aFiles.get (sAlias);
+      }
+      if (aActiveFile != null)
+      {
+        aFiles.remove (aActiveFile);
+        aFiles.add (aActiveFile);
+      }
+      File aFailed = null;
+      for (final File aFile : aFiles)
+        if (aFile.exists () && !aFile.delete ())
+          aFailed = aFile;
+
+      synchronized (this)
+      {
+        final File aFile = m_aFiles.get (sAlias);
+        if (aFile != null && !aFile.exists ())
+        {
+          m_aFiles.remove (sAlias);
+          _evict (sAlias);
+          _unindex (sAlias);
+        }
+      }
+      if (aFailed != null)
+        throw new KeyStoreException ("Failed to delete " + aFailed);
+    }
+
+    @Override
+    public synchronized Enumeration <String> engineAliases ()
+    {
+      return Collections.enumeration (m_aFiles.copyOfKeySet ());
+    }
+
+    @Override
+    public synchronized boolean engineContainsAlias (final String sAlias)
+    {
+      return m_aFiles.containsKey (sAlias);
+    }
+
+    @Override
+    public synchronized int engineSize ()
+    {
+      return m_aFiles.size ();
+    }
+
+    @Override
+    public synchronized boolean engineIsKeyEntry (final String sAlias)
+    {
+      final File aFile = m_aFiles.get (sAlias);
+      return aFile != null && isKeyFile (aFile);
+    }
+
+    @Override
+    public synchronized boolean engineIsCertificateEntry (final String sAlias)
+    {
+      final File aFile = m_aFiles.get (sAlias);
+      return aFile != null && !isKeyFile (aFile);
+    }
+
+    @Override
+    public String engineGetCertificateAlias (final Certificate aCert)
+    {
+      if (aCert == null)
+        return null;
+      final String sThumbprint = _getThumbprint (aCert);
+      if (sThumbprint == null)
+        return null;
+
+      final ICommonsOrderedMap <String, File> aUnindexed = new CommonsLinkedHashMap <> ();
+      synchronized (this)
+      {
+        final String ret = m_aAliasByThumbprint.get (sThumbprint);
+        if (ret != null)
+          return ret;
+        // Another alias with the same certificate may have been indexed after
+        // the one that was removed
+        for (final Map.Entry <String, String> aEntry : m_aThumbprintByAlias.entrySet ())
+          if (aEntry.getValue ().equals (sThumbprint))
+            return aEntry.getKey ();
+        for (final Map.Entry <String, File> aEntry : m_aFiles.entrySet ())
+          if (!m_aThumbprintByAlias.containsKey (aEntry.getKey ()))
+            aUnindexed.put (aEntry.getKey (), aEntry.getValue ());
+      }
+
+      // Read only the certificates of the aliases that were never read. They
+      // are indexed but not made resident.
+      for (final Map.Entry <String, File> aEntry : aUnindexed.entrySet ())
+      {
+        final String sAlias = aEntry.getKey ();
+        final File aFile = aEntry.getValue ();
+        final String sAliasThumbprint;
+        try
+        {
+          sAliasThumbprint = _getThumbprint (_readCertificate (aFile));
+        }
+        catch (final Exception ex)
+        {
+          s_aLogger.error ("Failed to read certificate file " + aFile + ": " + ex.getMessage ());
+          continue;
+        }
+
+        synchronized (this)
+        {
+          m_nLoadCount++;
+          // Only index it, if the alias was not modified in the meantime
+          if (m_aFiles.get (sAlias) == aFile)
+            _index (sAlias, sAliasThumbprint);
+        }
+        if (sThumbprint.equals (sAliasThumbprint))
+          return sAlias;
+      }
+      return null;
+    }
+
+    @Override
+    public void engineStore (final OutputStream aOS, final char [] aPassword)
+    {
+      // Every modification is written immediately
+    }
+
+    @Override
+    public void engineLoad (final InputStream aIS, final char [] aPassword) throws IOException
+    {
+      StreamHelper.close (aIS);
+      m_aPassword = aPassword == null ? new char [0] : aPassword.clone ();
+
+      final File [] aFiles = m_aDir.listFiles ();
+      if (aFiles == null)
+        throw new IOException ("Failed to list certificate directory " + m_aDir);
+
+      synchronized (this)
+      {
+        m_aFiles.clear ();
+        m_aResident.clear ();
+        m_aThumbprintByAlias.clear ();
+        m_aAliasByThumbprint.clear ();
+        m_nResidentBytes = 0;
+        for (final File aFile : aFiles)
+          _addFile (aFile);
+      }
+    }
+
+    @GuardedBy ("this")
+    private void _addFile (@Nonnull final File aFile)
+    {
+      final String sAlias = getAlias (aFile);
+      if (sAlias != null && aFile.isFile ())
+      {
+        final File aOld = m_aFiles.get (sAlias);
+        // Key files take precedence over certificate files
+        if (aOld == null || !isKeyFile (aOld) || isKeyFile (aFile))
+          m_aFiles.put (sAlias, new File (aFile.getPath ()));
+      }
+    }
+
+    synchronized void refresh (@Nonnull final File aFile)
+    {
+      final String sAlias = getAlias (aFile);
+      if (sAlias == null)
+        return;
+
+      _evict (sAlias);
+      _unindex (sAlias);
+      final File aOld = m_aFiles.get (sAlias);
+      if (aFile.isFile ())
+        _addFile (aFile);
+      else
+        if (aOld != null && aOld.getName ().equals (aFile.getName ()))
+        {
+          m_aFiles.remove (sAlias);
+          // Another file of the same alias may still exist
+          for (final String sExt : ALL_EXTENSIONS)
+            _addFile (new File (m_aDir, sAlias + sExt));
+        }
+    }
+  }
+
+  private final Spi m_aSpi;
+
+  /**
+   * Constructor. The key store must be loaded before it can be used.
+   *
+   * @param aDir
+   *        The directory with the files. May not be <code>null</code>.
+   * @param nMaxAliases
+   *        The maximum number of aliases to keep in memory. Must be &gt; 0.
+   * @param nMaxBytes
+   *        The maximum estimated number of bytes of the aliases in memory. 0
+   *        for no limit.
+   */
+  public DirectoryKeyStore (@Nonnull final File aDir, final int nMaxAliases, final long nMaxBytes)
+  {
+    this (new Spi (ValueEnforcer.notNull (aDir, "Dir"),
+                   ValueEnforcer.isGT0 (nMaxAliases, "MaxAliases"),
+                   ValueEnforcer.isGE0 (nMaxBytes, "MaxBytes")));
+  }
+
+  private DirectoryKeyStore (@Nonnull final Spi aSpi)
+  {
+    super (aSpi, null, TYPE);
+    m_aSpi = aSpi;
+  }
+
+  /**
+   * @param aFile
+   *        The file to check. May not be <code>null</code>.
+   * @return The alias of the file or <code>null</code> if the file is no
+   *         certificate or key file.
+   */
+  @Nullable
+  public static String getAlias (@Nonnull final File aFile)
+  {
+    final String sName = aFile.getName ();
+    if (sName.startsWith ("."))
+      return null;
+    final String sLCName = sName.toLowerCase (Locale.US);
+    if (sLCName.endsWith (EXT_KEY))
+      return sName.substring (0, sName.length () - EXT_KEY.length ());
+    for (final String sExt : CERT_EXTENSIONS)
+      if (sLCName.endsWith (sExt))
+        return sName.substring (0, sName.length () - sExt.length ());
+    return null;
+  }
+
+  /**
+   * @param aFile
+   *        The file to check. May not be <code>null</code>.
+   * @return <code>true</code> if the file is a key file.
+   */
+  public static boolean isKeyFile (@Nonnull final File aFile)
+  {
+    return aFile.getName ().toLowerCase (Locale.US).endsWith (EXT_KEY);
+  }
+
+  /**
+   * @param aFile
+   *        The file to check. May not be <code>null</code>.
+   * @return <code>true</code> if the file is a certificate or key file.
+   */
+  public static boolean isSupportedFile (@Nonnull final File aFile)
+  {
+    return getAlias (aFile) != null;
+  }
+
+  @Nonnull
+  public File getDirectory ()
+  {
+    return m_aSpi.m_aDir;
+  }
+
+  /**
+   * Update the alias of a file that was created, modified or deleted outside
+   * of this key store. The content is read again on the next access.
+   *
+   * @param aFile
+   *        The changed file. May not be <code>null</code>.
+   */
+  public void refresh (@Nonnull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    m_aSpi.refresh (aFile);
+  }
+
+  /**
+   * @return The number of aliases currently in memory.
+   */
+  public int getResidentCount ()
+  {
+    synchronized (m_aSpi)
+    {
+      return m_aSpi.m_aResident.size ();
+    }
+  }
+
+  /**
+   * @return The estimated number of bytes of the aliases currently in memory.
+   */
+  public long getResidentBytes ()
+  {
+    synchronized (m_aSpi)
+    {
+      return m_aSpi.m_nResidentBytes;
+    }
+  }
+
+  /**
+   * @return The number of times an alias was read from its file.
+   */
+  public long getLoadCount ()
+  {
+    synchronized (m_aSpi)
+    {
+      return m_aSpi.m_nLoadCount;
+    }
+  }
+
+  /**
+   * @return The number of aliases evicted because of the budget.
+   */
+  public long getEvictionCount ()
+  {
+    synchronized (m_aSpi)
+    {
+      return m_aSpi.m_nEvictionCount;
+    }
+  }
+
+}
@@ -0,0 +1,182 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import java.security.PrivateKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+
+/**
+ * A size bounded LRU cache of decrypted private keys, so that the expensive
+ * key derivation of password protected key entries is not repeated for every
+ * message. The keys are identified by the fingerprint of the key store entry
+ * (see {@link CertificateSnapshot#getFingerprint(String)}), so a key of a
+ * replaced entry can never be returned for the new entry.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class PrivateKeyCache
+{
+  /** The default maximum number of cached keys */
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  private final Object m_aLock = new Object ();
+  @GuardedBy ("m_aLock")
+  private int m_nMaxSize;
+  @GuardedBy ("m_aLock")
+  private final LinkedHashMap <String, PrivateKey> m_aKeys = new LinkedHashMap <String, PrivateKey> (16, 0.75f, true)
+  {
+    @Override
+    protected boolean removeEldestEntry (final Map.Entry <String, PrivateKey> aEldest)
+    {
+      return size () > m_nMaxSize;
+    }
+  };
+  private final AtomicLong m_aHits = new AtomicLong ();
+  private final AtomicLong m_aMisses = new AtomicLong ();
+
+  public PrivateKeyCache ()
+  {
+    this (DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param nMaxSize
+   *        The maximum number of cached keys. Must be &ge; 0. 0 disables the
+   *        cache.
+   */
+  public PrivateKeyCache (final int nMaxSize)
+  {
+    setMaxSize (nMaxSize);
+  }
+
+  /**
+   * @param nMaxSize
+   *        The maximum number of cached keys. Must be &ge; 0. 0 disables the
+   *        cache.
+   */
+  public void setMaxSize (final int nMaxSize)
+  {
+    ValueEnforcer.isGE0 (nMaxSize, "MaxSize");
+    synchronized (m_aLock)
+    {
+      m_nMaxSize = nMaxSize;
+      while (m_aKeys.size () > nMaxSize)
+        m_aKeys.remove (m_aKeys.keySet ().iterator ().next ());
+    }
+  }
+
+  public int getMaxSize ()
+  {
+    synchronized (m_aLock)
+    {
+      return m_nMaxSize;
+    }
+  }
+
+  /**
+   * @param sFingerprint
+   *        The fingerprint of the key entry. May be <code>null</code>.
+   * @return The cached key or <code>null</code>. Hits and misses are counted.
+   */
+  @Nullable
+  public PrivateKey get (@Nullable final String sFingerprint)
+  {
+    PrivateKey ret = null;
+    if (sFingerprint != null)
+      synchronized (m_aLock)
+      {
+        ret = m_aKeys.get (sFingerprint);
+      }
+    if (ret != null)
+      m_aHits.incrementAndGet ();
+    else
+      m_aMisses.incrementAndGet ();
+    return ret;
+  }
+
+  public void put (@Nonnull final String sFingerprint, @Nonnull final PrivateKey aKey)
+  {
+    ValueEnforcer.notNull (sFingerprint, "Fingerprint");
+    ValueEnforcer.notNull (aKey, "Key");
+    synchronized (m_aLock)
+    {
+      if (m_nMaxSize > 0)
+        m_aKeys.put (sFingerprint, aKey);
+    }
+  }
+
+  public void invalidate (@Nullable final String sFingerprint)
+  {
+    if (sFingerprint != null)
+      synchronized (m_aLock)
+      {
+        m_aKeys.remove (sFingerprint);
+      }
+  }
+
+  public void invalidateAll ()
+  {
+    synchronized (m_aLock)
+    {
+      m_aKeys.clear ();
+    }
+  }
+
+  public int getSize ()
+  {
+    synchronized (m_aLock)
+    {
+      return m_aKeys.size ();
+    }
+  }
+
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+}
@@ -0,0 +1,173 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import java.io.File;
+import java.security.KeyStore;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2.app.session.AS2ServerXMLSession;
+import com.helger.as2.util.DirectoryMonitor;
+import com.helger.as2.util.FileChangeSet;
+import com.helger.as2.util.IDirectoryMonitorListener;
+import com.helger.as2lib.cert.PKCS12CertificateFactory;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.exception.WrappedOpenAS2Exception;
+import com.helger.as2lib.params.InvalidParameterException;
+import com.helger.commons.string.StringParser;
+
+/**
+ * A certificate factory that reads a directory with one key or certificate file
+ * per partner (see {@link DirectoryKeyStore}) instead of a single PKCS#12 file.
+ * The attribute <code>filename</code> denotes the directory. Aliases are read
+ * on first use and the least recently used aliases are evicted when more than
+ * <code>maxaliases</code> aliases or more than <code>maxbytes</code> bytes are
+ * in memory. Adding or removing an alias only writes or deletes the file of
+ * this alias.
+ * <p>
+ * All lookups and modifications are inherited from
+ * {@link PKCS12CertificateFactory}, so the certificate commands work
+ * unchanged.
+ */
+public class ServerDirectoryCertificateFactory extends PKCS12CertificateFactory implements IDirectoryMonitorListener
+{
+  /** Rescan interval in seconds, if the directory cannot be watched */
+  public static final String ATTR_INTERVAL = "interval";
+  /** The maximum number of aliases in memory */
+  public static final String ATTR_MAX_ALIASES = "maxaliases";
+  /** The maximum estimated number of bytes in memory. 0 for no limit. */
+  public static final String ATTR_MAX_BYTES = "maxbytes";
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ServerDirectoryCertificateFactory.class);
+
+  private volatile DirectoryKeyStore m_aKeyStore;
+  private DirectoryMonitor m_aDirectoryMonitor;
+
+  /**
+   * @return The directory key store or <code>null</code> if nothing was loaded
+   *         yet.
+   */
+  @Nullable
+  public DirectoryKeyStore getDirectoryKeyStore ()
+  {
+    return m_aKeyStore;
+  }
+
+  @Override
+  public KeyStore getKeyStore ()
+  {
+    final DirectoryKeyStore aKeyStore = m_aKeyStore;
+    return aKeyStore != null ? aKeyStore : super.getKeyStore ();
+  }
+
+  @Override
+  public void load () throws OpenAS2Exception
+  {
+    load (getFilename (), getPassword ());
+  }
+
+  /**
+   * List the provided directory. No key or certificate file is read.
+   */
+  @Override
+  public void load (@Nonnull final String sFilename, @Nonnull final char [] aPassword) throws OpenAS2Exception
+  {
+    final File aDir = new File (sFilename);
+    if (!aDir.isDirectory ())
+      throw new OpenAS2Exception ("The certificate directory '" + aDir.getAbsolutePath () + "' does not exist");
+
+    final DirectoryKeyStore aKeyStore = new DirectoryKeyStore (aDir,
+                                                               StringParser.parseInt (getAttributeAsString (ATTR_MAX_ALIASES),
+                                                                                      DirectoryKeyStore.DEFAULT_MAX_ALIASES),
+                                                               StringParser.parseLong (getAttributeAsString (ATTR_MAX_BYTES),
+                                                                                       0));
+    try
+    {
+      aKeyStore.load (null, aPassword);
+      s_aLogger.info ("Found " + aKeyStore.size () + " certificate aliases in " + aDir.getAbsolutePath ());
+    }
+    catch (final Exception ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    m_aKeyStore = aKeyStore;
+    getDirectoryMonitor ();
+  }
+
+  /**
+   * Does nothing, because every modification is written to the file of the
+   * alias immediately.
+   */
+  @Override
+  public void save (@Nonnull final String sFilename, @Nonnull final char [] aPassword) throws OpenAS2Exception
+  {}
+
+  public DirectoryMonitor getDirectoryMonitor () throws InvalidParameterException
+  {
+    boolean bCreateMonitor = m_aDirectoryMonitor == null && getAttributeAsString (ATTR_INTERVAL) != null;
+    if (!bCreateMonitor && m_aDirectoryMonitor != null)
+      bCreateMonitor = !m_aDirectoryMonitor.getRootDirectory ().equals (new File (getFilename ()));
+
+    if (bCreateMonitor)
+    {
+      if (m_aDirectoryMonitor != null)
+        m_aDirectoryMonitor.stop ();
+
+      final int nInterval = getAttributeAsIntRequired (ATTR_INTERVAL);
+      m_aDirectoryMonitor = new DirectoryMonitor (new File (getFilename ()),
+                                                  nInterval,
+                                                  DirectoryKeyStore::isSupportedFile,
+                                                  AS2ServerXMLSession.getFileMonitorScheduler (getSession ()),
+                                                  AS2ServerXMLSession.getFileWatcher (getSession ()));
+      m_aDirectoryMonitor.addListener (this);
+      m_aDirectoryMonitor.start ();
+    }
+
+    return m_aDirectoryMonitor;
+  }
+
+  public void handle (@Nonnull final DirectoryMonitor aMonitor, @Nonnull final FileChangeSet aChanges)
+  {
+    final DirectoryKeyStore aKeyStore = m_aKeyStore;
+    if (aKeyStore != null)
+    {
+      for (final File aFile : aChanges.getAllAffected ())
+        aKeyStore.refresh (aFile);
+      s_aLogger.info ("- Certificates Refreshed - " + aChanges);
+    }
+  }
+}
@@ -33,31 +33,1225 @@
 package com.helger.as2.app.cert;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertPathBuilder;
+import java.security.cert.CertStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXCertPathBuilderResult;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.WillClose;
+import javax.annotation.concurrent.GuardedBy;
+import javax.security.auth.x500.X500Principal;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.as2.app.session.AS2ServerXMLSession;
+import com.helger.as2.util.DirectoryMonitor;
+import com.helger.as2.util.FileChangeSet;
 import com.helger.as2.util.FileMonitor;
+import com.helger.as2.util.FileMonitorScheduler;
+import com.helger.as2.util.IDirectoryMonitorListener;
 import com.helger.as2.util.IFileMonitorListener;
 import com.helger.as2lib.cert.PKCS12CertificateFactory;
 import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.exception.WrappedOpenAS2Exception;
 import com.helger.as2lib.params.InvalidParameterException;
+import com.helger.as2lib.util.AS2Helper;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsHashSet;
+import com.helger.commons.collection.ext.CommonsLinkedHashMap;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsMap;
+import com.helger.commons.collection.ext.ICommonsOrderedMap;
+import com.helger.commons.collection.ext.ICommonsSet;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
 
-public class ServerPKCS12CertificateFactory extends PKCS12CertificateFactory implements IFileMonitorListener
+/**
+ * A PKCS#12 certificate factory that can be reloaded while the server is
+ * running. The key store is never modified while it is in use: loading and
+ * every modification work on a new key store that is published as an immutable
+ * {@link CertificateSnapshot} with a single atomic reference swap. All lookups
+ * read the current snapshot without locking and never see a partially loaded
+ * key store.
+ * <p>
+ * With the attribute <code>savedelay</code> (in milliseconds) the key store
+ * file is written behind: modifications are applied in memory immediately and
+ * the file is written at most once per delay, so that importing many
+ * certificates does not rewrite the file for each of them. The file is always
+ * replaced atomically via a temporary file. The own file monitor does not
+ * reload a file this factory wrote, and a file that was changed by someone
+ * else while modifications are not yet written is overwritten with them
+ * instead of being reloaded.
+ * <p>
+ * Modifications are applied to a working copy of the published key store. The
+ * copy is created entry by entry and shares the key and certificate objects of
+ * the published key store, so the key store is not encoded and parsed again.
+ * Only if a key cannot be read with the store password, the key store is
+ * copied via store/load. By default the working copy is published after each
+ * modification, so every modification costs one copy - import many
+ * certificates with {@link #addAll(Iterable, boolean)} to pay for it once.
+ * With the attribute
+ * <code>publishdelay</code> (in milliseconds) all modifications within the
+ * delay are applied to the same working copy, which is copied and published
+ * once when the delay elapses. Other threads see the modifications only after
+ * they were published.
+ */
+public class ServerPKCS12CertificateFactory extends PKCS12CertificateFactory implements
+                                            IFileMonitorListener,
+                                            IDirectoryMonitorListener
 {
+  /**
+   * A modification of the key store, performed via the methods of the super
+   * class.
+   */
+  @FunctionalInterface
+  private interface IModification
+  {
+    void run () throws OpenAS2Exception;
+  }
+
   public static final String ATTR_INTERVAL = "interval";
+  /** Milliseconds the file must be unchanged before it is reloaded */
+  public static final String ATTR_QUIET_PERIOD = "quietperiod";
+  /** The maximum number of decrypted private keys to cache */
+  public static final String ATTR_KEY_CACHE_SIZE = "keycachesize";
+  /**
+   * Milliseconds to collect modifications before the key store file is
+   * written. 0 writes it after each modification.
+   */
+  public static final String ATTR_SAVE_DELAY = "savedelay";
+  /**
+   * Milliseconds to collect modifications in one working copy before it is
+   * published. 0 publishes it after each modification.
+   */
+  public static final String ATTR_PUBLISH_DELAY = "publishdelay";
+  /** The maximum number of cached certificate validation results */
+  public static final String ATTR_VALIDATION_CACHE_SIZE = "validationcachesize";
+  /** The time to live of cached certificate validation results in seconds */
+  public static final String ATTR_VALIDATION_CACHE_TTL = "validationcachettl";
+  /** The directory with the CRL files to check revocation against */
+  public static final String ATTR_CRL_DIRECTORY = "crldirectory";
+  /** The default rescan interval of the CRL directory in seconds */
+  public static final int DEFAULT_CRL_INTERVAL_SECONDS = 60;
+  /** The number of days before the expiration a certificate is reported */
+  public static final String ATTR_EXPIRY_WARN_DAYS = "expirywarndays";
+  public static final int DEFAULT_EXPIRY_WARN_DAYS = 30;
+  /** The interval of the expiration check in seconds */
+  public static final String ATTR_EXPIRY_CHECK_INTERVAL = "expirycheckinterval";
+  public static final long DEFAULT_EXPIRY_CHECK_INTERVAL_SECONDS = 3600;
   private static final Logger s_aLogger = LoggerFactory.getLogger (ServerPKCS12CertificateFactory.class);
 
   private FileMonitor m_aFileMonitor;
+  private DirectoryMonitor m_aCRLMonitor;
+  private volatile CRLIndex m_aCRLIndex;
+  private final AtomicReference <CertificateSnapshot> m_aSnapshot = new AtomicReference <> ();
+  private final AtomicLong m_aVersion = new AtomicLong ();
+  private final PrivateKeyCache m_aKeyCache = new PrivateKeyCache ();
+  private final CertificateValidationCache m_aValidationCache = new CertificateValidationCache ();
+  private final Object m_aWriteLock = new Object ();
+  // The thread performing a modification and the key store it works on
+  private volatile Thread m_aModifyingThread;
+  private KeyStore m_aModifiedKeyStore;
+  // Set by save during a modification
+  private boolean m_bSaveRequested;
+  // The not yet published key store and the modifications applied to it
+  @GuardedBy ("m_aWriteLock")
+  private KeyStore m_aWorkingCopy;
+  @GuardedBy ("m_aWriteLock")
+  private final ICommonsList <IModification> m_aPendingModifications = new CommonsArrayList <> ();
+  @GuardedBy ("m_aWriteLock")
+  private boolean m_bPendingSave;
+  @GuardedBy ("m_aWriteLock")
+  private ScheduledFuture <?> m_aPublishTask;
+  private volatile long m_nPublishDelayMillis;
+  private volatile long m_nSaveDelayMillis;
+  private final AtomicBoolean m_aDirty = new AtomicBoolean (false);
+  private final AtomicLong m_aFlushCount = new AtomicLong ();
+  private final Object m_aFlushLock = new Object ();
+  @GuardedBy ("m_aFlushLock")
+  private ScheduledFuture <?> m_aFlushTask;
+  private volatile int m_nExpiryWarnDays = DEFAULT_EXPIRY_WARN_DAYS;
+  private FileMonitorScheduler.Handle m_aExpiryCheck;
+  private final Object m_aExpiryLock = new Object ();
+  @GuardedBy ("m_aExpiryLock")
+  private ICommonsSet <String> m_aReportedExpiringAliases = new CommonsHashSet <> ();
+  private volatile int m_nExpiredCount;
+  private volatile int m_nExpiringCount;
+  private volatile long m_nNextExpirationMillis = Long.MAX_VALUE;
+
+  /**
+   * @return The currently published snapshot or <code>null</code> if nothing
+   *         was loaded yet.
+   */
+  @Nullable
+  public CertificateSnapshot getSnapshot ()
+  {
+    return m_aSnapshot.get ();
+  }
+
+  /**
+   * @return The cache of decrypted private keys. Never <code>null</code>.
+   */
+  @Nonnull
+  public PrivateKeyCache getPrivateKeyCache ()
+  {
+    return m_aKeyCache;
+  }
+
+  /**
+   * @return The cache of certificate validation results. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public CertificateValidationCache getValidationCache ()
+  {
+    return m_aValidationCache;
+  }
+
+  /**
+   * Create a snapshot of the provided key store and publish it. The key store
+   * must not be modified afterwards. Certificates of aliases that are
+   * unchanged compared to the current snapshot are carried over. Certificate
+   * entries of new and changed aliases are replaced with the instances shared
+   * via {@link CertificateInterner} before the snapshot is published.
+   *
+   * @param aKeyStore
+   *        The fully loaded key store. May not be <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If the key store cannot be read
+   */
+  protected void publish (@Nonnull final KeyStore aKeyStore) throws OpenAS2Exception
+  {
+    synchronized (m_aWriteLock)
+    {
+      final CertificateSnapshot aPrevious = m_aSnapshot.get ();
+      final CertificateSnapshot aSnapshot;
+      try
+      {
+        aSnapshot = CertificateSnapshot.create (m_aVersion.incrementAndGet (), aKeyStore, aPrevious);
+        // Not yet visible to other threads, so the key store may still be
+        // changed. Entries with a private key keep their own chain.
+        for (final Map.Entry <String, X509Certificate> aEntry : aSnapshot.getAllCertificates ().entrySet ())
+        {
+          final String sAlias = aEntry.getKey ();
+          if (aSnapshot.isModified (sAlias) &&
+              aKeyStore.isCertificateEntry (sAlias) &&
+              aKeyStore.getCertificate (sAlias) != aEntry.getValue ())
+            aKeyStore.setCertificateEntry (sAlias, aEntry.getValue ());
+        }
+      }
+      catch (final GeneralSecurityException ex)
+      {
+        throw WrappedOpenAS2Exception.wrap (ex);
+      }
+      m_aSnapshot.set (aSnapshot);
+      onSnapshotPublished (aPrevious, aSnapshot);
+    }
+  }
+
+  /**
+   * Called after a new snapshot was published. Derived data must only be
+   * updated for the aliases that were modified according to
+   * {@link CertificateSnapshot#isModified(String)}.
+   *
+   * @param aPrevious
+   *        The previous snapshot. May be <code>null</code>.
+   * @param aSnapshot
+   *        The new snapshot. Never <code>null</code>.
+   */
+  @OverrideOnDemand
+  protected void onSnapshotPublished (@Nullable final CertificateSnapshot aPrevious,
+                                      @Nonnull final CertificateSnapshot aSnapshot)
+  {
+    // Results of older snapshots can never be hit again
+    m_aValidationCache.invalidateAll ();
+
+    if (aPrevious == null)
+      m_aKeyCache.invalidateAll ();
+    else
+    {
+      // Added aliases cannot be in the cache
+      for (final String sAlias : aSnapshot.getAllChangedAliases ())
+        m_aKeyCache.invalidate (aPrevious.getFingerprint (sAlias));
+      for (final String sAlias : aSnapshot.getAllRemovedAliases ())
+        m_aKeyCache.invalidate (aPrevious.getFingerprint (sAlias));
+    }
+
+    // Only binary searches on the new index
+    checkExpiry ();
+
+    if (aPrevious != null)
+      s_aLogger.info ("Published certificate snapshot " +
+                       aSnapshot.getVersion () +
+                       ": " +
+                       aSnapshot.getAllAddedAliases ().size () +
+                       " added, " +
+                       aSnapshot.getAllChangedAliases ().size () +
+                       " changed, " +
+                       aSnapshot.getAllRemovedAliases ().size () +
+                       " removed, " +
+                       aSnapshot.getSize () +
+                       " total");
+  }
+
+  /**
+   * @return The key store of the current snapshot. While a modification is in
+   *         progress, the modifying thread gets the new key store it works on.
+   */
+  @Override
+  public KeyStore getKeyStore ()
+  {
+    if (m_aModifyingThread == Thread.currentThread ())
+      return m_aModifiedKeyStore;
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    return aSnapshot != null ? aSnapshot.getKeyStore () : super.getKeyStore ();
+  }
 
   @Override
   public void load (@WillClose final InputStream in, final char [] password) throws OpenAS2Exception
   {
-    super.load (in, password);
+    m_aKeyCache.setMaxSize (StringParser.parseInt (getAttributeAsString (ATTR_KEY_CACHE_SIZE),
+                                                   PrivateKeyCache.DEFAULT_MAX_SIZE));
+    m_nSaveDelayMillis = StringParser.parseLong (getAttributeAsString (ATTR_SAVE_DELAY), 0);
+    m_nPublishDelayMillis = StringParser.parseLong (getAttributeAsString (ATTR_PUBLISH_DELAY), 0);
+    m_aValidationCache.setMaxSize (StringParser.parseInt (getAttributeAsString (ATTR_VALIDATION_CACHE_SIZE),
+                                                          CertificateValidationCache.DEFAULT_MAX_SIZE));
+    m_aValidationCache.setTTLSeconds (StringParser.parseLong (getAttributeAsString (ATTR_VALIDATION_CACHE_TTL),
+                                                              CertificateValidationCache.DEFAULT_TTL_SECONDS));
+    m_nExpiryWarnDays = StringParser.parseInt (getAttributeAsString (ATTR_EXPIRY_WARN_DAYS), DEFAULT_EXPIRY_WARN_DAYS);
+    if (m_aDirty.get ())
+      s_aLogger.warn ("Reloading the key store discards modifications that were not yet written");
+
+    // Load off to the side - the current snapshot stays in use meanwhile.
+    // Locked, so that no modification is published in between.
+    try
+    {
+      synchronized (m_aWriteLock)
+      {
+        if (!m_aPendingModifications.isEmpty ())
+          s_aLogger.warn ("Reloading the key store discards " +
+                          m_aPendingModifications.size () +
+                          " modifications that were not yet published");
+        _discardPending ();
+        final KeyStore aKeyStore = AS2Helper.getCryptoHelper ().createNewKeyStore ();
+        aKeyStore.load (in, password);
+        publish (aKeyStore);
+      }
+    }
+    catch (final Exception ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    finally
+    {
+      StreamHelper.close (in);
+    }
     getFileMonitor ();
+    getCRLMonitor ();
+    _scheduleExpiryCheck ();
+  }
+
+  private void _scheduleExpiryCheck ()
+  {
+    synchronized (m_aExpiryLock)
+    {
+      if (m_aExpiryCheck == null)
+        m_aExpiryCheck = AS2ServerXMLSession.getFileMonitorScheduler (getSession ())
+                                            .schedule (this::checkExpiry,
+                                                       StringParser.parseLong (getAttributeAsString (ATTR_EXPIRY_CHECK_INTERVAL),
+                                                                               DEFAULT_EXPIRY_CHECK_INTERVAL_SECONDS),
+                                                       TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Get all aliases whose certificates expire within the provided number of
+   * days together with their expiration, ordered by expiration. Answered from
+   * the expiry index of the current snapshot without decoding any
+   * certificate, so alias and expiration are always consistent.
+   *
+   * @param nDays
+   *        The number of days from now. Must be &ge; 0.
+   * @return The aliases including the already expired ones, mapped to the
+   *         expiration in milliseconds since the epoch. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public ICommonsOrderedMap <String, Long> getAllExpirationsWithin (final int nDays)
+  {
+    ValueEnforcer.isGE0 (nDays, "Days");
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot == null)
+      return new CommonsLinkedHashMap <> ();
+    return aSnapshot.getIndex ()
+                    .getAllExpirationsBefore (System.currentTimeMillis () + TimeUnit.DAYS.toMillis (nDays));
+  }
+
+  /**
+   * Update the expiration statistics from the current snapshot and log a
+   * warning for each certificate that newly expires within
+   * <code>expirywarndays</code> days. Called periodically and whenever a new
+   * snapshot is published.
+   */
+  public void checkExpiry ()
+  {
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot == null)
+      return;
+
+    final CertificateIndex aIndex = aSnapshot.getIndex ();
+    final long nNow = System.currentTimeMillis ();
+    final ICommonsList <String> aExpiring = aIndex.getAllAliasesExpiringBefore (nNow +
+                                                                                TimeUnit.DAYS.toMillis (m_nExpiryWarnDays));
+    synchronized (m_aExpiryLock)
+    {
+      final ICommonsSet <String> aReported = new CommonsHashSet <> ();
+      for (final String sAlias : aExpiring)
+      {
+        aReported.add (sAlias);
+        if (!m_aReportedExpiringAliases.contains (sAlias))
+        {
+          final Date aNotAfter = aSnapshot.getCertificate (sAlias).getNotAfter ();
+          s_aLogger.warn ("The certificate of alias '" +
+                          sAlias +
+                          "' " +
+                          (aNotAfter.getTime () < nNow ? "expired" : "expires") +
+                          " on " +
+                          aNotAfter);
+        }
+      }
+      m_aReportedExpiringAliases = aReported;
+      m_nExpiredCount = aIndex.getExpiringCount (nNow);
+      m_nExpiringCount = aExpiring.size ();
+      m_nNextExpirationMillis = aIndex.getNextExpiration (nNow);
+    }
+  }
+
+  /**
+   * @return The number of expired certificates as of the last expiry check.
+   */
+  public int getExpiredCount ()
+  {
+    return m_nExpiredCount;
+  }
+
+  /**
+   * @return The number of certificates that expire within
+   *         <code>expirywarndays</code> days, including the expired ones, as
+   *         of the last expiry check.
+   */
+  public int getExpiringCount ()
+  {
+    return m_nExpiringCount;
+  }
+
+  /**
+   * @return The next expiration of a certificate that was not yet expired as
+   *         of the last expiry check or {@link Long#MAX_VALUE} if there is
+   *         none.
+   */
+  public long getNextExpirationMillis ()
+  {
+    return m_nNextExpirationMillis;
+  }
+
+  /**
+   * @return The index of the revoked certificates or <code>null</code> if no
+   *         CRL directory is configured.
+   */
+  @Nullable
+  public CRLIndex getCRLIndex ()
+  {
+    return m_aCRLIndex;
+  }
+
+  /**
+   * Read all CRL files of the CRL directory again and replace the index.
+   */
+  public void reloadCRLs ()
+  {
+    final String sCRLDir = getAttributeAsString (ATTR_CRL_DIRECTORY);
+    if (sCRLDir == null)
+      return;
+    final CRLIndex.Builder aBuilder = new CRLIndex.Builder ();
+    // Verify the CRL signatures with the issuer certificates of the store
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot != null)
+      aBuilder.addIssuerCertificates (aSnapshot.getAllCertificates ().values ());
+    final CRLIndex aIndex = aBuilder.addDirectory (new File (sCRLDir)).build ();
+    m_aCRLIndex = aIndex;
+    // The results of the previous CRLs are never used again (different epoch)
+    m_aValidationCache.invalidateAll ();
+    s_aLogger.info ("Loaded " +
+                    aIndex.getCRLCount () +
+                    " CRLs with " +
+                    aIndex.getRevokedCount () +
+                    " revoked certificates of " +
+                    aIndex.getIssuerCount () +
+                    " issuers");
+  }
+
+  /**
+   * Check if a certificate is contained in one of the CRLs of the CRL
+   * directory. No network access is performed.
+   *
+   * @param aCert
+   *        The certificate to check. May be <code>null</code>.
+   * @return <code>true</code> if the certificate is revoked,
+   *         <code>false</code> if not or if no CRL directory is configured.
+   */
+  public boolean isRevoked (@Nullable final X509Certificate aCert)
+  {
+    final CRLIndex aIndex = m_aCRLIndex;
+    return aIndex != null && aIndex.isRevoked (aCert);
+  }
+
+  @Nullable
+  public DirectoryMonitor getCRLMonitor ()
+  {
+    final String sCRLDir = getAttributeAsString (ATTR_CRL_DIRECTORY);
+    if (sCRLDir == null)
+      return null;
+
+    final File aCRLDir = new File (sCRLDir);
+    if (m_aCRLMonitor == null || !m_aCRLMonitor.getRootDirectory ().equals (aCRLDir))
+    {
+      if (m_aCRLMonitor != null)
+        m_aCRLMonitor.stop ();
+
+      reloadCRLs ();
+      m_aCRLMonitor = new DirectoryMonitor (aCRLDir,
+                                            StringParser.parseInt (getAttributeAsString (ATTR_INTERVAL),
+                                                                   DEFAULT_CRL_INTERVAL_SECONDS),
+                                            CRLIndex::isCRLFile,
+                                            AS2ServerXMLSession.getFileMonitorScheduler (getSession ()),
+                                            AS2ServerXMLSession.getFileWatcher (getSession ()));
+      m_aCRLMonitor.addListener (this);
+      m_aCRLMonitor.start ();
+    }
+    return m_aCRLMonitor;
+  }
+
+  public void handle (@Nonnull final DirectoryMonitor aMonitor, @Nonnull final FileChangeSet aChanges)
+  {
+    reloadCRLs ();
+    s_aLogger.info ("- CRLs Reloaded -");
+  }
+
+  @Nonnull
+  private KeyStore _copyKeyStore (@Nonnull final KeyStore aSource) throws OpenAS2Exception
+  {
+    // Copy entry by entry - the immutable keys and certificates are shared
+    try
+    {
+      final KeyStore ret = AS2Helper.getCryptoHelper ().createNewKeyStore ();
+      ret.load (null, null);
+      final char [] aPassword = getPassword ();
+      for (final String sAlias : Collections.list (aSource.aliases ()))
+        if (aSource.isKeyEntry (sAlias))
+        {
+          final Key aKey = aSource.getKey (sAlias, aPassword);
+          final Certificate [] aChain = aSource.getCertificateChain (sAlias);
+          if (aKey == null)
+            return _copyKeyStoreEncoded (aSource);
+          ret.setKeyEntry (sAlias, aKey, aPassword, aChain);
+        }
+        else
+          ret.setCertificateEntry (sAlias, aSource.getCertificate (sAlias));
+      return ret;
+    }
+    catch (final UnrecoverableKeyException ex)
+    {
+      // E.g. a key with its own password
+      return _copyKeyStoreEncoded (aSource);
+    }
+    catch (final Exception ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+  }
+
+  @Nonnull
+  private KeyStore _copyKeyStoreEncoded (@Nonnull final KeyStore aSource) throws OpenAS2Exception
+  {
+    // Store and load keeps the protected key entries as they are
+    try
+    {
+      final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+      aSource.store (aBAOS, getPassword ());
+      final KeyStore ret = AS2Helper.getCryptoHelper ().createNewKeyStore ();
+      ret.load (new NonBlockingByteArrayInputStream (aBAOS.toByteArray ()), getPassword ());
+      return ret;
+    }
+    catch (final Exception ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+  }
+
+  @GuardedBy ("m_aWriteLock")
+  private void _runModification (@Nonnull final KeyStore aKeyStore,
+                                 @Nonnull final IModification aModification) throws OpenAS2Exception
+  {
+    m_aModifiedKeyStore = aKeyStore;
+    m_aModifyingThread = Thread.currentThread ();
+    m_bSaveRequested = false;
+    try
+    {
+      aModification.run ();
+    }
+    finally
+    {
+      m_aModifyingThread = null;
+      m_aModifiedKeyStore = null;
+    }
+  }
+
+  @GuardedBy ("m_aWriteLock")
+  private void _discardPending ()
+  {
+    if (m_aPublishTask != null)
+    {
+      m_aPublishTask.cancel (false);
+      m_aPublishTask = null;
+    }
+    m_aWorkingCopy = null;
+    m_aPendingModifications.clear ();
+    m_bPendingSave = false;
+  }
+
+  /**
+   * A modification failed and may have been applied partially. Replay the
+   * pending modifications on a new copy of the published key store, so that
+   * only the failed modification is lost. Failures are rare, so the copy is
+   * acceptable here.
+   */
+  @GuardedBy ("m_aWriteLock")
+  private void _rebuildWorkingCopy ()
+  {
+    m_aWorkingCopy = null;
+    if (m_aPendingModifications.isEmpty ())
+      return;
+
+    try
+    {
+      final KeyStore aCopy = _copyKeyStore (getKeyStore ());
+      for (final IModification aPending : m_aPendingModifications)
+        _runModification (aCopy, aPending);
+      m_aWorkingCopy = aCopy;
+    }
+    catch (final OpenAS2Exception | RuntimeException ex)
+    {
+      s_aLogger.error ("Failed to replay " +
+                       m_aPendingModifications.size () +
+                       " pending certificate modifications - they are discarded",
+                       ex);
+      _discardPending ();
+    }
+  }
+
+  /**
+   * Publish the working copy, if there are pending modifications.
+   *
+   * @param bFlush
+   *        <code>true</code> to write the key store file (or schedule the
+   *        write) if a pending modification requested it, <code>false</code>
+   *        to only mark the key store as dirty.
+   * @throws OpenAS2Exception
+   *         If publishing or writing fails
+   */
+  private void _publishPending (final boolean bFlush) throws OpenAS2Exception
+  {
+    synchronized (m_aWriteLock)
+    {
+      if (m_aPublishTask != null)
+      {
+        m_aPublishTask.cancel (false);
+        m_aPublishTask = null;
+      }
+      if (m_aWorkingCopy == null || m_aPendingModifications.isEmpty ())
+        return;
+
+      final KeyStore aKeyStore = m_aWorkingCopy;
+      final boolean bSave = m_bPendingSave;
+      m_aWorkingCopy = null;
+      m_aPendingModifications.clear ();
+      m_bPendingSave = false;
+      publish (aKeyStore);
+      if (bSave)
+      {
+        if (bFlush)
+          _requestFlush ();
+        else
+          m_aDirty.set (true);
+      }
+    }
+  }
+
+  private void _scheduledPublish ()
+  {
+    try
+    {
+      _publishPending (true);
+    }
+    catch (final OpenAS2Exception oae)
+    {
+      oae.terminate ();
+    }
+  }
+
+  /**
+   * Perform a modification on the working copy of the current key store. The
+   * working copy is published afterwards or, with a publish delay, when the
+   * delay elapsed. Modifications are serialized, lookups are not blocked.
+   *
+   * @param aModification
+   *        The modification to perform. May not be <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If the modification fails. Nothing of this modification is
+   *         published in this case.
+   */
+  protected void modify (@Nonnull final IModification aModification) throws OpenAS2Exception
+  {
+    synchronized (m_aWriteLock)
+    {
+      // Only the first modification since the last publication copies
+      if (m_aWorkingCopy == null)
+        m_aWorkingCopy = _copyKeyStore (getKeyStore ());
+      try
+      {
+        _runModification (m_aWorkingCopy, aModification);
+      }
+      catch (final OpenAS2Exception | RuntimeException ex)
+      {
+        _rebuildWorkingCopy ();
+        throw ex;
+      }
+      m_aPendingModifications.add (aModification);
+      if (m_bSaveRequested)
+        m_bPendingSave = true;
+
+      final long nDelayMillis = m_nPublishDelayMillis;
+      final FileMonitorScheduler aScheduler = nDelayMillis > 0 ? AS2ServerXMLSession.getFileMonitorScheduler (getSession ())
+                                                               : null;
+      if (aScheduler == null)
+        _publishPending (true);
+      else
+        if (m_aPublishTask == null)
+        {
+          // Collect further modifications in the same working copy
+          m_aPublishTask = aScheduler.scheduleOnce (this::_scheduledPublish, nDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+  }
+
+  /**
+   * Called by the modification methods of the super class. Within a
+   * modification the key store is only marked as dirty and written after the
+   * modification was published.
+   */
+  @Override
+  public void save (@Nonnull final String sFilename, @Nonnull final char [] aPassword) throws OpenAS2Exception
+  {
+    if (m_aModifyingThread == Thread.currentThread ())
+      m_bSaveRequested = true;
+    else
+      _writeKeyStore (getKeyStore (), new File (sFilename), aPassword);
+  }
+
+  private void _writeKeyStore (@Nonnull final KeyStore aKeyStore,
+                               @Nonnull final File aFile,
+                               @Nonnull final char [] aPassword) throws OpenAS2Exception
+  {
+    final File aTempFile = new File (aFile.getAbsoluteFile ().getParentFile (), aFile.getName () + ".tmp");
+    try
+    {
+      final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+      aKeyStore.store (aBAOS, aPassword);
+      final byte [] aContent = aBAOS.toByteArray ();
+
+      // Record the written content before the file changes, so that the own
+      // monitor never reloads it and discards modifications published meanwhile
+      final FileMonitor aMonitor = m_aFileMonitor;
+      if (aMonitor != null && aMonitor.getFile ().getAbsoluteFile ().equals (aFile.getAbsoluteFile ()))
+        aMonitor.setContentDigest (MessageDigest.getInstance ("SHA-256").digest (aContent));
+
+      Files.write (aTempFile.toPath (), aContent);
+      Files.move (aTempFile.toPath (),
+                  aFile.toPath (),
+                  StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (final IOException | GeneralSecurityException ex)
+    {
+      aTempFile.delete ();
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+  }
+
+  private void _requestFlush () throws OpenAS2Exception
+  {
+    m_aDirty.set (true);
+    final long nDelayMillis = m_nSaveDelayMillis;
+    if (nDelayMillis <= 0)
+      flush ();
+    else
+      synchronized (m_aFlushLock)
+      {
+        if (m_aFlushTask == null)
+          m_aFlushTask = AS2ServerXMLSession.getFileMonitorScheduler (getSession ())
+                                            .scheduleOnce (this::_scheduledFlush, nDelayMillis, TimeUnit.MILLISECONDS);
+      }
+  }
+
+  private void _scheduledFlush ()
+  {
+    try
+    {
+      flush ();
+    }
+    catch (final OpenAS2Exception oae)
+    {
+      oae.terminate ();
+    }
+  }
+
+  /**
+   * Publish pending modifications and write the current snapshot to the key
+   * store file, if it contains modifications that were not yet written.
+   *
+   * @return <code>true</code> if the file was written, <code>false</code> if
+   *         there was nothing to write.
+   * @throws OpenAS2Exception
+   *         If writing fails. The modifications stay pending in this case.
+   */
+  public boolean flush () throws OpenAS2Exception
+  {
+    // Outside of the flush lock - the write lock is always taken first
+    _publishPending (false);
+
+    synchronized (m_aFlushLock)
+    {
+      if (m_aFlushTask != null)
+      {
+        m_aFlushTask.cancel (false);
+        m_aFlushTask = null;
+      }
+
+      if (!m_aDirty.getAndSet (false))
+        return false;
+
+      // Modifications published from now on mark the key store dirty again
+      try
+      {
+        _writeKeyStore (m_aSnapshot.get ().getKeyStore (), new File (getFilename ()), getPassword ());
+      }
+      catch (final OpenAS2Exception ex)
+      {
+        m_aDirty.set (true);
+        throw ex;
+      }
+      m_aFlushCount.incrementAndGet ();
+      return true;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if there are modifications that were not yet
+   *         written to the key store file.
+   */
+  public boolean isDirty ()
+  {
+    return m_aDirty.get ();
+  }
+
+  /**
+   * @return The number of times the key store file was written because of
+   *         modifications.
+   */
+  public long getFlushCount ()
+  {
+    return m_aFlushCount.get ();
+  }
+
+  @Override
+  public X509Certificate getCertificate (@Nullable final String sAlias) throws OpenAS2Exception
+  {
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot != null && m_aModifyingThread != Thread.currentThread ())
+    {
+      final X509Certificate ret = aSnapshot.getCertificate (sAlias);
+      if (ret != null)
+        return ret;
+    }
+    // Error handling
+    return super.getCertificate (sAlias);
+  }
+
+  @Override
+  public ICommonsMap <String, Certificate> getCertificates () throws OpenAS2Exception
+  {
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot == null || m_aModifyingThread == Thread.currentThread ())
+      return super.getCertificates ();
+    return new CommonsLinkedHashMap <> (aSnapshot.getAllCertificates ());
+  }
+
+  /**
+   * Find the alias of a certificate in a snapshot without scanning all
+   * aliases. The certificate is looked up by equality first and by issuer and
+   * serial number afterwards, so that an equivalent certificate object (e.g.
+   * created by another security provider) is found as well.
+   */
+  @Nullable
+  private static String _getAlias (@Nonnull final CertificateSnapshot aSnapshot,
+                                   @Nullable final X509Certificate aCert)
+  {
+    if (aCert == null)
+      return null;
+    final String ret = aSnapshot.getAlias (aCert);
+    if (ret != null)
+      return ret;
+    final String sAlias = aSnapshot.getIndex ().getAliasByIssuerAndSerial (aCert.getIssuerX500Principal (),
+                                                                           aCert.getSerialNumber ());
+    final X509Certificate aStoreCert = aSnapshot.getCertificate (sAlias);
+    // Never hand out a key for a different public key
+    return aStoreCert != null && aStoreCert.getPublicKey ().equals (aCert.getPublicKey ()) ? sAlias : null;
+  }
+
+  @Override
+  public PrivateKey getPrivateKey (@Nullable final X509Certificate aCert) throws OpenAS2Exception
+  {
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot != null && m_aModifyingThread != Thread.currentThread ())
+    {
+      final String sAlias = _getAlias (aSnapshot, aCert);
+      if (sAlias != null && aSnapshot.isKeyEntry (sAlias))
+        try
+        {
+          final String sFingerprint = aSnapshot.getFingerprint (sAlias);
+          final PrivateKey aCached = m_aKeyCache.get (sFingerprint);
+          if (aCached != null)
+            return aCached;
+
+          final Key aKey = aSnapshot.getKeyStore ().getKey (sAlias, getPassword ());
+          if (aKey instanceof PrivateKey)
+          {
+            m_aKeyCache.put (sFingerprint, (PrivateKey) aKey);
+            return (PrivateKey) aKey;
+          }
+        }
+        catch (final GeneralSecurityException ex)
+        {
+          // Error handling
+        }
+    }
+    // Error handling
+    return super.getPrivateKey (aCert);
+  }
+
+  /**
+   * The index is used by {@link #getPrivateKey(X509Certificate)},
+   * {@link #removeCertificate(X509Certificate)} and
+   * {@link #validateCertificate(X509Certificate)}. as2-lib resolves the
+   * certificates of a message by the aliases of the partnership and matches
+   * the CMS signer and recipient against these certificates itself, so it does
+   * not use the index lookups of this class - they are meant for custom
+   * modules and commands.
+   *
+   * @return The index of the current snapshot or <code>null</code> if nothing
+   *         was loaded yet.
+   */
+  @Nullable
+  public CertificateIndex getIndex ()
+  {
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    return aSnapshot == null ? null : aSnapshot.getIndex ();
+  }
+
+  /**
+   * Find a certificate by issuer and serial number, as referenced e.g. in the
+   * recipient info of an encrypted message.
+   *
+   * @param aIssuer
+   *        The issuer. May be <code>null</code>.
+   * @param aSerial
+   *        The serial number. May be <code>null</code>.
+   * @return <code>null</code> if no such certificate is contained.
+   */
+  @Nullable
+  public X509Certificate getCertificateByIssuerAndSerial (@Nullable final X500Principal aIssuer,
+                                                          @Nullable final BigInteger aSerial)
+  {
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot == null)
+      return null;
+    return aSnapshot.getCertificate (aSnapshot.getIndex ().getAliasByIssuerAndSerial (aIssuer, aSerial));
+  }
+
+  @Nullable
+  public X509Certificate getCertificateBySubjectKeyIdentifier (@Nullable final byte [] aSKI)
+  {
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot == null)
+      return null;
+    return aSnapshot.getCertificate (aSnapshot.getIndex ().getAliasBySubjectKeyIdentifier (aSKI));
+  }
+
+  /**
+   * @param sThumbprint
+   *        The hex encoded SHA-256 thumbprint of the encoded certificate. May
+   *        be <code>null</code>.
+   * @return <code>null</code> if no such certificate is contained.
+   */
+  @Nullable
+  public X509Certificate getCertificateByThumbprint (@Nullable final String sThumbprint)
+  {
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot == null)
+      return null;
+    return aSnapshot.getCertificate (aSnapshot.getIndex ().getAliasByThumbprint (sThumbprint));
+  }
+
+  @Nonnull
+  public ICommonsList <X509Certificate> getAllCertificatesBySubject (@Nullable final X500Principal aSubject)
+  {
+    final ICommonsList <X509Certificate> ret = new CommonsArrayList <> ();
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot != null)
+      for (final String sAlias : aSnapshot.getIndex ().getAllAliasesBySubject (aSubject))
+      {
+        final X509Certificate aCert = aSnapshot.getCertificate (sAlias);
+        if (aCert != null)
+          ret.add (aCert);
+      }
+    return ret;
+  }
+
+  /**
+   * Add multiple certificates and keys as one modification: either all of them
+   * are published together or, if one of them fails, none of them.
+   *
+   * @param aEntries
+   *        The entries to add. May not be <code>null</code>.
+   * @param bOverwrite
+   *        <code>true</code> to overwrite existing aliases.
+   * @throws OpenAS2Exception
+   *         If an entry cannot be added
+   */
+  public void addAll (@Nonnull final Iterable <CertificateImportEntry> aEntries,
+                      final boolean bOverwrite) throws OpenAS2Exception
+  {
+    modify ( () -> {
+      for (final CertificateImportEntry aEntry : aEntries)
+      {
+        super.addCertificate (aEntry.getAlias (), aEntry.getCertificate (), bOverwrite);
+        if (aEntry.hasKey ())
+          super.addPrivateKey (aEntry.getAlias (), aEntry.getKey (), aEntry.getKeyPassword ());
+      }
+    });
+  }
+
+  private static boolean _isSelfSigned (@Nonnull final X509Certificate aCert)
+  {
+    return aCert.getSubjectX500Principal ().equals (aCert.getIssuerX500Principal ());
+  }
+
+  @Nonnull
+  private static CertificateValidationCache.Result _validate (@Nonnull final CertificateSnapshot aSnapshot,
+                                                              @Nullable final CRLIndex aCRLIndex,
+                                                              @Nonnull final X509Certificate aCert,
+                                                              @Nonnull final String sThumbprint,
+                                                              final long nTTLMillis)
+  {
+    final long nExpiration = Math.min (System.currentTimeMillis () + nTTLMillis, aCert.getNotAfter ().getTime ());
+    try
+    {
+      aCert.checkValidity ();
+      if (aCRLIndex != null && aCRLIndex.isRevoked (aCert))
+        return new CertificateValidationCache.Result (false, "Certificate is revoked", Long.MAX_VALUE);
+      if (_isSelfSigned (aCert))
+      {
+        // Trusted by being contained in the store
+        if (aSnapshot.getIndex ().getAliasByThumbprint (sThumbprint) != null)
+          return new CertificateValidationCache.Result (true, "Trusted self-signed certificate", nExpiration);
+        return new CertificateValidationCache.Result (false,
+                                                      "Self-signed certificate is not contained in the certificate store",
+                                                      nExpiration);
+      }
+
+      // All self-signed certificates of the store are trust anchors, all other
+      // certificates may be intermediates
+      final Set <TrustAnchor> aAnchors = new CommonsHashSet <> ();
+      final ICommonsList <X509Certificate> aCerts = new CommonsArrayList <> ();
+      aCerts.add (aCert);
+      for (final X509Certificate aStoreCert : aSnapshot.getAllCertificates ().values ())
+        if (_isSelfSigned (aStoreCert))
+          aAnchors.add (new TrustAnchor (aStoreCert, null));
+        else
+          aCerts.add (aStoreCert);
+      if (aAnchors.isEmpty ())
+        return new CertificateValidationCache.Result (false, "The certificate store contains no trust anchors", nExpiration);
+
+      final X509CertSelector aSelector = new X509CertSelector ();
+      aSelector.setCertificate (aCert);
+      final PKIXBuilderParameters aParams = new PKIXBuilderParameters (aAnchors, aSelector);
+      aParams.setRevocationEnabled (false);
+      aParams.addCertStore (CertStore.getInstance ("Collection", new CollectionCertStoreParameters (aCerts)));
+      final PKIXCertPathBuilderResult aResult = (PKIXCertPathBuilderResult) CertPathBuilder.getInstance ("PKIX")
+                                                                                             .build (aParams);
+      if (aCRLIndex != null)
+        for (final Certificate aPathCert : aResult.getCertPath ().getCertificates ())
+          if (aCRLIndex.isRevoked ((X509Certificate) aPathCert))
+            return new CertificateValidationCache.Result (false,
+                                                          "Intermediate certificate " +
+                                                                  ((X509Certificate) aPathCert).getSubjectX500Principal ()
+                                                                                                .getName () +
+                                                                  " is revoked",
+                                                          Long.MAX_VALUE);
+      return new CertificateValidationCache.Result (true,
+                                                    "Trusted via " +
+                                                          aResult.getTrustAnchor ()
+                                                                 .getTrustedCert ()
+                                                                 .getSubjectX500Principal ()
+                                                                 .getName (),
+                                                    nExpiration);
+    }
+    catch (final CertificateNotYetValidException ex)
+    {
+      // Validate again once it becomes valid
+      return new CertificateValidationCache.Result (false,
+                                                    "Certificate is not yet valid",
+                                                    Math.min (nExpiration, aCert.getNotBefore ().getTime ()));
+    }
+    catch (final CertificateExpiredException ex)
+    {
+      return new CertificateValidationCache.Result (false, "Certificate is expired", Long.MAX_VALUE);
+    }
+    catch (final GeneralSecurityException ex)
+    {
+      return new CertificateValidationCache.Result (false, ex.getMessage (), nExpiration);
+    }
+  }
+
+  /**
+   * Validate the certification path of a certificate against the self-signed
+   * certificates of the current snapshot. If a CRL directory is configured,
+   * the certificate and its path are checked against the contained CRLs. The
+   * results are cached per snapshot and CRL index.
+   *
+   * @param aCert
+   *        The certificate to validate. May not be <code>null</code>.
+   * @return The validation result. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If the certificate cannot be encoded
+   */
+  @Nonnull
+  public CertificateValidationCache.Result validateCertificate (@Nonnull final X509Certificate aCert) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aCert, "Cert");
+
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    if (aSnapshot == null)
+      return new CertificateValidationCache.Result (false, "No certificates loaded", 0);
+
+    final String sThumbprint;
+    try
+    {
+      sThumbprint = StringHelper.getHexEncoded (MessageDigest.getInstance ("SHA-256").digest (aCert.getEncoded ()));
+    }
+    catch (final GeneralSecurityException ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+
+    // Read once - a result is cached for exactly the CRLs it was checked with
+    final CRLIndex aCRLIndex = m_aCRLIndex;
+    final long nCRLEpoch = aCRLIndex == null ? 0 : aCRLIndex.getEpoch ();
+    CertificateValidationCache.Result ret = m_aValidationCache.get (sThumbprint, aSnapshot.getVersion (), nCRLEpoch);
+    if (ret == null)
+    {
+      ret = _validate (aSnapshot, aCRLIndex, aCert, sThumbprint, m_aValidationCache.getTTLMillis ());
+      m_aValidationCache.put (sThumbprint, aSnapshot.getVersion (), nCRLEpoch, ret);
+    }
+    return ret;
+  }
+
+  @Override
+  public void addCertificate (@Nonnull final String sAlias,
+                              @Nonnull final X509Certificate aCert,
+                              final boolean bOverwrite) throws OpenAS2Exception
+  {
+    modify ( () -> super.addCertificate (sAlias, aCert, bOverwrite));
+  }
+
+  @Override
+  public void addPrivateKey (@Nonnull final String sAlias,
+                             @Nonnull final Key aKey,
+                             @Nonnull final String sPassword) throws OpenAS2Exception
+  {
+    modify ( () -> super.addPrivateKey (sAlias, aKey, sPassword));
+  }
+
+  @Override
+  public void clearCertificates () throws OpenAS2Exception
+  {
+    modify ( () -> super.clearCertificates ());
+  }
+
+  @Override
+  public void removeCertificate (@Nonnull final X509Certificate aCert) throws OpenAS2Exception
+  {
+    final CertificateSnapshot aSnapshot = m_aSnapshot.get ();
+    final String sAlias = aSnapshot == null ? null : _getAlias (aSnapshot, aCert);
+    if (sAlias != null)
+    {
+      // Avoid the scan over all aliases of the key store
+      modify ( () -> super.removeCertificate (sAlias));
+    }
+    else
+      modify ( () -> super.removeCertificate (aCert));
+  }
+
+  @Override
+  public void removeCertificate (@Nonnull final String sAlias) throws OpenAS2Exception
+  {
+    modify ( () -> super.removeCertificate (sAlias));
   }
 
   public void setFileMonitor (final FileMonitor fileMonitor)
@@ -81,8 +1275,14 @@ public class ServerPKCS12CertificateFactory extends PKCS12CertificateFactory imp
 
       final int nInterval = getAttributeAsIntRequired (ATTR_INTERVAL);
       final File file = new File (getFilename ());
-      m_aFileMonitor = new FileMonitor (file, nInterval);
+      m_aFileMonitor = new FileMonitor (file,
+                                        nInterval,
+                                        AS2ServerXMLSession.getFileMonitorScheduler (getSession ()),
+                                        AS2ServerXMLSession.getFileWatcher (getSession ()));
+      m_aFileMonitor.setQuietPeriodMillis (StringParser.parseLong (getAttributeAsString (ATTR_QUIET_PERIOD),
+                                                                   FileMonitor.DEFAULT_QUIET_PERIOD_MILLIS));
       m_aFileMonitor.addListener (this);
+      AS2ServerXMLSession.registerFileMonitor (getSession (), m_aFileMonitor);
     }
 
     return m_aFileMonitor;
@@ -95,11 +1295,20 @@ public class ServerPKCS12CertificateFactory extends PKCS12CertificateFactory imp
       case IFileMonitorListener.EVENT_MODIFIED:
         try
         {
-          load ();
-          s_aLogger.info ("- Certificates Reloaded -");
+          // Never reload over modifications that were not yet written
+          if (flush ())
+            s_aLogger.warn ("The key store file " +
+                            file +
+                            " was modified while certificate modifications were not yet written - the file was overwritten with them instead of being reloaded");
+          else
+          {
+            load ();
+            s_aLogger.info ("- Certificates Reloaded -");
+          }
         }
         catch (final OpenAS2Exception oae)
         {
+          monitor.reportError (oae);
           oae.terminate ();
         }
         break;
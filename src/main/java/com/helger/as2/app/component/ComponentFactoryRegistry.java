@@ -0,0 +1,200 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2.util.XMLConfigSnapshot;
+import com.helger.as2lib.IDynamicComponent;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.as2lib.util.StringMap;
+import com.helger.as2lib.util.XMLHelper;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.lang.ServiceLoaderHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.xml.microdom.IMicroElement;
+
+/**
+ * Creates components from configuration elements. All class names for which a
+ * factory was registered via {@link IComponentFactoryRegistrarSPI} are
+ * instantiated directly, without using reflection. All other class names are
+ * created via {@link XMLHelper#createComponent(IMicroElement, Class, IAS2Session, String)}.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ComponentFactoryRegistry
+{
+  public static final String ATTR_CLASSNAME = "classname";
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ComponentFactoryRegistry.class);
+
+  private static final class SingletonHolder
+  {
+    static final ComponentFactoryRegistry s_aInstance = new ComponentFactoryRegistry ();
+  }
+
+  private final Map <String, Supplier <? extends IDynamicComponent>> m_aFactories = new ConcurrentHashMap <> ();
+  private final AtomicLong m_aDirectCount = new AtomicLong ();
+  private final AtomicLong m_aReflectionCount = new AtomicLong ();
+
+  private ComponentFactoryRegistry ()
+  {
+    for (final IComponentFactoryRegistrarSPI aSPI : ServiceLoaderHelper.getAllSPIImplementations (IComponentFactoryRegistrarSPI.class))
+      aSPI.registerComponentFactories (this);
+    s_aLogger.info ("Registered " + m_aFactories.size () + " component factories");
+  }
+
+  @Nonnull
+  public static ComponentFactoryRegistry getInstance ()
+  {
+    return SingletonHolder.s_aInstance;
+  }
+
+  /**
+   * Register a factory for a class name. An existing factory for the same
+   * class name is overwritten.
+   *
+   * @param sClassName
+   *        The fully qualified class name as used in the configuration files.
+   *        May neither be <code>null</code> nor empty.
+   * @param aFactory
+   *        The factory creating a new uninitialized instance. May not be
+   *        <code>null</code>.
+   */
+  public void registerFactory (@Nonnull @Nonempty final String sClassName,
+                               @Nonnull final Supplier <? extends IDynamicComponent> aFactory)
+  {
+    ValueEnforcer.notEmpty (sClassName, "ClassName");
+    ValueEnforcer.notNull (aFactory, "Factory");
+    if (m_aFactories.put (sClassName, aFactory) != null)
+      s_aLogger.warn ("Overwriting component factory for '" + sClassName + "'");
+  }
+
+  public boolean hasFactory (@Nullable final String sClassName)
+  {
+    return sClassName != null && m_aFactories.containsKey (sClassName);
+  }
+
+  /**
+   * @return The number of components created without reflection.
+   */
+  public long getDirectCreationCount ()
+  {
+    return m_aDirectCount.get ();
+  }
+
+  /**
+   * @return The number of components created via reflection, because no
+   *         factory was registered.
+   */
+  public long getReflectionCreationCount ()
+  {
+    return m_aReflectionCount.get ();
+  }
+
+  /**
+   * Create and initialize a new component. This is a drop-in replacement for
+   * {@link XMLHelper#createComponent(IMicroElement, Class, IAS2Session, String)}.
+   *
+   * @param aElement
+   *        The element containing the class name and the parameters. May not
+   *        be <code>null</code>.
+   * @param aClass
+   *        The expected component class. May not be <code>null</code>.
+   * @param aSession
+   *        The session to initialize the component with. May not be
+   *        <code>null</code>.
+   * @param sBaseDirectory
+   *        The base directory to replace <code>%home%</code> with. May be
+   *        <code>null</code>.
+   * @return The created and initialized component. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         In case the component could not be created or initialized
+   * @param <T>
+   *        The component type
+   */
+  @Nonnull
+  public <T extends IDynamicComponent> T createComponent (@Nonnull final IMicroElement aElement,
+                                                          @Nonnull final Class <T> aClass,
+                                                          @Nonnull final IAS2Session aSession,
+                                                          @Nullable final String sBaseDirectory) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aElement, "Element");
+    ValueEnforcer.notNull (aClass, "Class");
+    ValueEnforcer.notNull (aSession, "Session");
+
+    final String sClassName = aElement.getAttributeValue (ATTR_CLASSNAME);
+    if (sClassName == null)
+      throw new OpenAS2Exception ("Missing '" + ATTR_CLASSNAME + "' attribute");
+
+    final Supplier <? extends IDynamicComponent> aFactory = m_aFactories.get (sClassName);
+    if (aFactory == null)
+    {
+      m_aReflectionCount.incrementAndGet ();
+      return XMLHelper.createComponent (aElement, aClass, aSession, sBaseDirectory);
+    }
+
+    final IDynamicComponent aObj = aFactory.get ();
+    if (!aClass.isInstance (aObj))
+      throw new OpenAS2Exception ("Failed to instantiate '" + sClassName + "' as " + aClass.getName ());
+
+    // Read all parameters
+    final StringMap aParameters = new StringMap ();
+    if (aElement.hasAttributes ())
+      for (final Map.Entry <String, String> aEntry : aElement.getAllAttributes ().entrySet ())
+      {
+        String sValue = aEntry.getValue ();
+        if (sBaseDirectory != null)
+          sValue = StringHelper.replaceAll (sValue, XMLConfigSnapshot.HOME_PLACEHOLDER, sBaseDirectory);
+        aParameters.setAttribute (aEntry.getKey ().toLowerCase (Locale.US), sValue);
+      }
+
+    aObj.initDynamicComponent (aSession, aParameters);
+    m_aDirectCount.incrementAndGet ();
+    return aClass.cast (aObj);
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.component;
+
+import javax.annotation.Nonnull;
+
+import com.helger.as2.app.cert.ServerDirectoryCertificateFactory;
+import com.helger.as2.app.cert.ServerPKCS12CertificateFactory;
+import com.helger.as2.app.partner.ServerXMLPartnershipFactory;
+import com.helger.as2.app.processor.ServerMessageProcessor;
+import com.helger.as2.cmd.XMLCommandRegistry;
+import com.helger.as2.cmd.cert.ClearCertsCommand;
+import com.helger.as2.cmd.cert.DeleteCertCommand;
+import com.helger.as2.cmd.cert.ExpiringCertCommand;
+import com.helger.as2.cmd.cert.FlushCertsCommand;
+import com.helger.as2.cmd.cert.ImportCertCommand;
+import com.helger.as2.cmd.cert.ImportCertDirCommand;
+import com.helger.as2.cmd.cert.ImportCertInEncodedStreamCommand;
+import com.helger.as2.cmd.cert.ListCertCommand;
+import com.helger.as2.cmd.cert.ValidateCertCommand;
+import com.helger.as2.cmd.cert.ViewCertCommand;
+import com.helger.as2.cmd.partner.AddPartnerCommand;
+import com.helger.as2.cmd.partner.AddPartnershipCommand;
+import com.helger.as2.cmd.partner.DeletePartnerCommand;
+import com.helger.as2.cmd.partner.DeletePartnershipCommand;
+import com.helger.as2.cmd.partner.ListPartnersCommand;
+import com.helger.as2.cmd.partner.ListPartnershipsCommand;
+import com.helger.as2.cmd.partner.RefreshPartnershipsCommand;
+import com.helger.as2.cmd.partner.StorePartnershipsCommand;
+import com.helger.as2.cmd.partner.ViewPartnerCommand;
+import com.helger.as2.cmd.partner.ViewPartnershipCommand;
+import com.helger.as2.cmd.server.ViewExecutorsCommand;
+import com.helger.as2.cmd.server.ViewFileMonitorsCommand;
+import com.helger.as2.cmd.server.ViewMetricsCommand;
+import com.helger.as2.cmd.server.ViewReadinessCommand;
+import com.helger.as2.cmd.server.ViewRecoveryCommand;
+import com.helger.as2.cmd.server.ViewStartupReportCommand;
+import com.helger.as2.cmdprocessor.SocketCommandProcessor;
+import com.helger.as2.cmdprocessor.StreamCommandProcessor;
+import com.helger.as2lib.cert.PKCS12CertificateFactory;
+import com.helger.as2lib.partner.xml.XMLPartnershipFactory;
+import com.helger.as2lib.processor.DefaultMessageProcessor;
+import com.helger.as2lib.processor.receiver.AS2DirectoryPollingModule;
+import com.helger.as2lib.processor.receiver.AS2MDNReceiverModule;
+import com.helger.as2lib.processor.receiver.AS2ReceiverModule;
+import com.helger.as2lib.processor.resender.DirectoryResenderModule;
+import com.helger.as2lib.processor.sender.AS2SenderModule;
+import com.helger.as2lib.processor.storage.MDNFileModule;
+import com.helger.as2lib.processor.storage.MessageFileModule;
+import com.helger.commons.annotation.IsSPIImplementation;
+
+/**
+ * Registers all components contained in this project and the as2-lib
+ * components referenced by the default configuration. The class names are
+ * kept as string literals, so that a class is only loaded when a component of
+ * it is created.
+ *
+ * @author Philip Helger
+ */
+@IsSPIImplementation
+public final class DefaultComponentFactoryRegistrarSPI implements IComponentFactoryRegistrarSPI
+{
+  public void registerComponentFactories (@Nonnull final ComponentFactoryRegistry aRegistry)
+  {
+    // Certificates and partnerships
+    aRegistry.registerFactory ("com.helger.as2.app.cert.ServerDirectoryCertificateFactory",
+                               () -> new ServerDirectoryCertificateFactory ());
+    aRegistry.registerFactory ("com.helger.as2.app.cert.ServerPKCS12CertificateFactory",
+                               () -> new ServerPKCS12CertificateFactory ());
+    aRegistry.registerFactory ("com.helger.as2.app.partner.ServerXMLPartnershipFactory",
+                               () -> new ServerXMLPartnershipFactory ());
+    aRegistry.registerFactory ("com.helger.as2lib.cert.PKCS12CertificateFactory", () -> new PKCS12CertificateFactory ());
+    aRegistry.registerFactory ("com.helger.as2lib.partner.xml.XMLPartnershipFactory",
+                               () -> new XMLPartnershipFactory ());
+
+    // Commands and command processors
+    aRegistry.registerFactory ("com.helger.as2.cmd.XMLCommandRegistry", () -> new XMLCommandRegistry ());
+    aRegistry.registerFactory ("com.helger.as2.cmdprocessor.StreamCommandProcessor",
+                               () -> new StreamCommandProcessor ());
+    aRegistry.registerFactory ("com.helger.as2.cmdprocessor.SocketCommandProcessor",
+                               () -> new SocketCommandProcessor ());
+
+    aRegistry.registerFactory ("com.helger.as2.cmd.cert.ImportCertCommand", () -> new ImportCertCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.cert.ImportCertInEncodedStreamCommand",
+                               () -> new ImportCertInEncodedStreamCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.cert.ListCertCommand", () -> new ListCertCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.cert.DeleteCertCommand", () -> new DeleteCertCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.cert.ClearCertsCommand", () -> new ClearCertsCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.cert.ViewCertCommand", () -> new ViewCertCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.cert.FlushCertsCommand", () -> new FlushCertsCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.cert.ImportCertDirCommand", () -> new ImportCertDirCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.cert.ValidateCertCommand", () -> new ValidateCertCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.cert.ExpiringCertCommand", () -> new ExpiringCertCommand ());
+
+    aRegistry.registerFactory ("com.helger.as2.cmd.partner.ListPartnersCommand", () -> new ListPartnersCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.partner.AddPartnerCommand", () -> new AddPartnerCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.partner.DeletePartnerCommand", () -> new DeletePartnerCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.partner.ViewPartnerCommand", () -> new ViewPartnerCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.partner.RefreshPartnershipsCommand",
+                               () -> new RefreshPartnershipsCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.partner.ListPartnershipsCommand",
+                               () -> new ListPartnershipsCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.partner.AddPartnershipCommand",
+                               () -> new AddPartnershipCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.partner.DeletePartnershipCommand",
+                               () -> new DeletePartnershipCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.partner.StorePartnershipsCommand",
+                               () -> new StorePartnershipsCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.partner.ViewPartnershipCommand",
+                               () -> new ViewPartnershipCommand ());
+
+    aRegistry.registerFactory ("com.helger.as2.cmd.server.ViewExecutorsCommand",
+                               () -> new ViewExecutorsCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.server.ViewFileMonitorsCommand",
+                               () -> new ViewFileMonitorsCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.server.ViewMetricsCommand", () -> new ViewMetricsCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.server.ViewReadinessCommand",
+                               () -> new ViewReadinessCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.server.ViewRecoveryCommand",
+                               () -> new ViewRecoveryCommand ());
+    aRegistry.registerFactory ("com.helger.as2.cmd.server.ViewStartupReportCommand",
+                               () -> new ViewStartupReportCommand ());
+
+    // Message processor and modules
+    aRegistry.registerFactory ("com.helger.as2.app.processor.ServerMessageProcessor",
+                               () -> new ServerMessageProcessor ());
+    aRegistry.registerFactory ("com.helger.as2lib.processor.DefaultMessageProcessor",
+                               () -> new DefaultMessageProcessor ());
+    aRegistry.registerFactory ("com.helger.as2lib.processor.sender.AS2SenderModule", () -> new AS2SenderModule ());
+    aRegistry.registerFactory ("com.helger.as2lib.processor.receiver.AS2DirectoryPollingModule",
+                               () -> new AS2DirectoryPollingModule ());
+    aRegistry.registerFactory ("com.helger.as2lib.processor.receiver.AS2ReceiverModule",
+                               () -> new AS2ReceiverModule ());
+    aRegistry.registerFactory ("com.helger.as2lib.processor.receiver.AS2MDNReceiverModule",
+                               () -> new AS2MDNReceiverModule ());
+    aRegistry.registerFactory ("com.helger.as2lib.processor.resender.DirectoryResenderModule",
+                               () -> new DirectoryResenderModule ());
+    aRegistry.registerFactory ("com.helger.as2lib.processor.storage.MDNFileModule", () -> new MDNFileModule ());
+    aRegistry.registerFactory ("com.helger.as2lib.processor.storage.MessageFileModule",
+                               () -> new MessageFileModule ());
+  }
+}
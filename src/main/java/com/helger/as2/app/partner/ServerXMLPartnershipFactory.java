@@ -34,15 +34,24 @@ package com.helger.as2.app.partner;
 
 import java.io.File;
 
+import javax.annotation.Nonnull;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.as2.app.session.AS2ServerXMLSession;
 import com.helger.as2.util.FileMonitor;
 import com.helger.as2.util.IFileMonitorListener;
+import com.helger.as2.util.XMLConfigSnapshot;
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.exception.WrappedOpenAS2Exception;
 import com.helger.as2lib.params.InvalidParameterException;
+import com.helger.as2lib.partner.Partnership;
+import com.helger.as2lib.partner.PartnershipMap;
+import com.helger.as2lib.partner.xml.PartnerMap;
 import com.helger.as2lib.partner.xml.XMLPartnershipFactory;
+import com.helger.commons.string.StringParser;
+import com.helger.xml.microdom.IMicroElement;
 
 /**
  * original author unknown this release added logic to store partnerships and
@@ -53,6 +62,12 @@ import com.helger.as2lib.partner.xml.XMLPartnershipFactory;
 public class ServerXMLPartnershipFactory extends XMLPartnershipFactory implements IRefreshablePartnershipFactory, IFileMonitorListener
 {
   public static final String ATTR_INTERVAL = "interval";
+  /** Milliseconds the file must be unchanged before it is reloaded */
+  public static final String ATTR_QUIET_PERIOD = "quietperiod";
+  /**
+   * Use a binary snapshot of the partnership file as long as it is unchanged
+   */
+  public static final String ATTR_SNAPSHOT = "snapshot";
   private static final Logger s_aLogger = LoggerFactory.getLogger (ServerXMLPartnershipFactory.class);
 
   private FileMonitor m_aFileMonitor;
@@ -81,8 +96,14 @@ public class ServerXMLPartnershipFactory extends XMLPartnershipFactory implement
 
       final int interval = getAttributeAsIntRequired (ATTR_INTERVAL);
       final File file = new File (getFilename ());
-      m_aFileMonitor = new FileMonitor (file, interval);
+      m_aFileMonitor = new FileMonitor (file,
+                                        interval,
+                                        AS2ServerXMLSession.getFileMonitorScheduler (getSession ()),
+                                        AS2ServerXMLSession.getFileWatcher (getSession ()));
+      m_aFileMonitor.setQuietPeriodMillis (StringParser.parseLong (getAttributeAsString (ATTR_QUIET_PERIOD),
+                                                                   FileMonitor.DEFAULT_QUIET_PERIOD_MILLIS));
       m_aFileMonitor.addListener (this);
+      AS2ServerXMLSession.registerFileMonitor (getSession (), m_aFileMonitor);
     }
 
     return m_aFileMonitor;
@@ -100,6 +121,7 @@ public class ServerXMLPartnershipFactory extends XMLPartnershipFactory implement
         }
         catch (final OpenAS2Exception oae)
         {
+          monitor.reportError (oae);
           oae.terminate ();
         }
 
@@ -107,10 +129,55 @@ public class ServerXMLPartnershipFactory extends XMLPartnershipFactory implement
     }
   }
 
+  /**
+   * Load the partners and partnerships from the root element of a partnership
+   * file and replace the current ones. Used with a snapshot instead of parsing
+   * the XML file.
+   *
+   * @param eRoot
+   *        The root element. May not be <code>null</code>.
+   * @throws OpenAS2Exception
+   *         In case of an invalid partner or partnership
+   */
+  protected void load (@Nonnull final IMicroElement eRoot) throws OpenAS2Exception
+  {
+    final PartnerMap aNewPartners = new PartnerMap ();
+    final PartnershipMap aNewPartnerships = new PartnershipMap ();
+
+    for (final IMicroElement eRootNode : eRoot.getAllChildElements ())
+    {
+      final String sNodeName = eRootNode.getTagName ();
+      if (sNodeName.equals ("partner"))
+        aNewPartners.addPartner (loadPartner (eRootNode));
+      else
+        if (sNodeName.equals ("partnership"))
+        {
+          final Partnership aNewPartnership = loadPartnership (eRootNode, aNewPartners);
+          if (aNewPartnerships.getPartnershipByName (aNewPartnership.getName ()) != null)
+            throw new OpenAS2Exception ("Partnership with name '" +
+                                        aNewPartnership.getName () +
+                                        "' is defined more than once");
+          aNewPartnerships.addPartnership (aNewPartnership);
+        }
+        else
+          s_aLogger.warn ("Invalid element '" + sNodeName + "' in XML partnership file");
+    }
+
+    setPartners (aNewPartners);
+    setPartnerships (aNewPartnerships);
+  }
+
   @Override
   public void refresh () throws OpenAS2Exception
   {
-    super.refresh ();
+    if (StringParser.parseBool (getAttributeAsString (ATTR_SNAPSHOT), false))
+    {
+      // The partnership file is the largest one - use a binary snapshot as
+      // long as it is unchanged. Attribute names and values are kept as is.
+      load (XMLConfigSnapshot.readConfiguration (new File (getFilename ()), null, false, eRoot -> true));
+    }
+    else
+      super.refresh ();
     try
     {
       getFileMonitor ();
@@ -0,0 +1,286 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.processor;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.message.IMessage;
+import com.helger.as2lib.processor.DefaultMessageProcessor;
+import com.helger.as2lib.processor.NoModuleException;
+import com.helger.as2lib.processor.ProcessorException;
+import com.helger.as2lib.processor.module.IProcessorActiveModule;
+import com.helger.as2lib.processor.module.IProcessorModule;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.ICommonsList;
+
+/**
+ * A {@link DefaultMessageProcessor} that keeps track of the number of actions
+ * (sending, storing, MDN handling etc.) that are currently being processed.
+ * This allows a graceful shutdown to wait until all in-flight work is done.
+ * <p>
+ * Only work that is dispatched via {@link #handle(String, IMessage, Map)} or
+ * explicitly enclosed in {@link #beginWork()} and {@link #endWork()} is
+ * tracked. The as2-lib receiver modules parse incoming messages and send
+ * synchronous MDNs in their own connection handlers, between and after the
+ * actions they dispatch. That work is not visible here, so a drain may finish
+ * while such a handler is still sending an MDN. Custom receiver modules should
+ * enclose the processing of a received message in
+ * {@link #beginWork()}/{@link #endWork()}.
+ * <p>
+ * The modules are kept in an immutable list that is replaced as a whole, so
+ * that the module set can be changed at runtime (see
+ * {@link #replaceAllModules(ICommonsList)}) while messages are being
+ * processed. Each action is dispatched to the module set that was current
+ * when the action started.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class ServerMessageProcessor extends DefaultMessageProcessor
+{
+  private final Object m_aInFlightLock = new Object ();
+  private int m_nInFlight = 0;
+  private final AtomicLong m_aHandledActions = new AtomicLong ();
+  private final AtomicLong m_aFailedActions = new AtomicLong ();
+  private final AtomicReference <ICommonsList <IProcessorModule>> m_aModules = new AtomicReference <> (new CommonsArrayList <> ());
+
+  public ServerMessageProcessor ()
+  {}
+
+  @Override
+  public void addModule (@Nonnull final IProcessorModule aModule)
+  {
+    ValueEnforcer.notNull (aModule, "Module");
+    m_aModules.updateAndGet (aOld -> {
+      final ICommonsList <IProcessorModule> ret = aOld.getClone ();
+      ret.add (aModule);
+      return ret;
+    });
+  }
+
+  /**
+   * Replace all modules at once. Actions that are currently processed continue
+   * with the old modules, all new actions use the new modules. Active modules
+   * are neither started nor stopped by this method.
+   *
+   * @param aModules
+   *        The new modules. May not be <code>null</code>.
+   * @return The previous modules. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IProcessorModule> replaceAllModules (@Nonnull final ICommonsList <IProcessorModule> aModules)
+  {
+    ValueEnforcer.notNullNoNullValue (aModules, "Modules");
+    return m_aModules.getAndSet (aModules.getClone ()).getClone ();
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IProcessorModule> getAllModules ()
+  {
+    return m_aModules.get ().getClone ();
+  }
+
+  @Override
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IProcessorActiveModule> getAllActiveModules ()
+  {
+    final ICommonsList <IProcessorActiveModule> ret = new CommonsArrayList <> ();
+    for (final IProcessorModule aModule : m_aModules.get ())
+      if (aModule instanceof IProcessorActiveModule)
+        ret.add ((IProcessorActiveModule) aModule);
+    return ret;
+  }
+
+  @Override
+  public void startActiveModules () throws OpenAS2Exception
+  {
+    for (final IProcessorActiveModule aModule : getAllActiveModules ())
+      aModule.start ();
+  }
+
+  @Override
+  public void stopActiveModules () throws OpenAS2Exception
+  {
+    for (final IProcessorActiveModule aModule : getAllActiveModules ())
+      if (aModule.isRunning ())
+        aModule.stop ();
+  }
+
+  private void _dispatch (@Nonnull final String sAction,
+                          @Nonnull final IMessage aMsg,
+                          @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
+  {
+    final ICommonsList <Throwable> aCauses = new CommonsArrayList <> ();
+    boolean bModuleFound = false;
+    // Use the same module set for the whole action
+    for (final IProcessorModule aModule : m_aModules.get ())
+      if (aModule.canHandle (sAction, aMsg, aOptions))
+      {
+        bModuleFound = true;
+        try
+        {
+          aModule.handle (sAction, aMsg, aOptions);
+        }
+        catch (final OpenAS2Exception ex)
+        {
+          aCauses.add (ex);
+        }
+      }
+
+    if (!aCauses.isEmpty ())
+      throw new ProcessorException (this, aCauses);
+    if (!bModuleFound)
+      throw new NoModuleException (sAction, aMsg, aOptions);
+  }
+
+  /**
+   * Mark the start of a unit of work that must be finished before the
+   * processor is considered idle. Each call must be followed by exactly one
+   * call to {@link #endWork()}, usually in a <code>finally</code> block.
+   */
+  public void beginWork ()
+  {
+    synchronized (m_aInFlightLock)
+    {
+      m_nInFlight++;
+    }
+  }
+
+  /**
+   * Mark the end of a unit of work started with {@link #beginWork()}.
+   */
+  public void endWork ()
+  {
+    synchronized (m_aInFlightLock)
+    {
+      if (m_nInFlight <= 0)
+        throw new IllegalStateException ("endWork called without beginWork");
+      m_nInFlight--;
+      if (m_nInFlight == 0)
+        m_aInFlightLock.notifyAll ();
+    }
+  }
+
+  @Override
+  public void handle (@Nonnull final String sAction,
+                      @Nonnull final IMessage aMsg,
+                      @Nullable final Map <String, Object> aOptions) throws OpenAS2Exception
+  {
+    beginWork ();
+    try
+    {
+      _dispatch (sAction, aMsg, aOptions);
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      m_aFailedActions.incrementAndGet ();
+      throw ex;
+    }
+    finally
+    {
+      endWork ();
+      m_aHandledActions.incrementAndGet ();
+    }
+  }
+
+  /**
+   * @return The number of actions handled since startup, including the failed
+   *         ones.
+   */
+  public long getHandledActionCount ()
+  {
+    return m_aHandledActions.get ();
+  }
+
+  /**
+   * @return The number of actions that failed since startup.
+   */
+  public long getFailedActionCount ()
+  {
+    return m_aFailedActions.get ();
+  }
+
+  /**
+   * @return The number of actions and other units of work currently being
+   *         processed. Always &ge; 0.
+   */
+  public int getInFlightCount ()
+  {
+    synchronized (m_aInFlightLock)
+    {
+      return m_nInFlight;
+    }
+  }
+
+  /**
+   * Wait until no action is being processed anymore.
+   *
+   * @param nTimeout
+   *        Maximum time to wait.
+   * @param eUnit
+   *        Time unit of the timeout. May not be <code>null</code>.
+   * @return <code>true</code> if no action is in-flight, <code>false</code> if
+   *         the timeout elapsed before.
+   * @throws InterruptedException
+   *         If the current thread was interrupted while waiting
+   */
+  public boolean awaitIdle (final long nTimeout, @Nonnull final TimeUnit eUnit) throws InterruptedException
+  {
+    final long nDeadline = System.nanoTime () + eUnit.toNanos (nTimeout);
+    synchronized (m_aInFlightLock)
+    {
+      while (m_nInFlight > 0)
+      {
+        final long nRemainingMillis = TimeUnit.NANOSECONDS.toMillis (nDeadline - System.nanoTime ());
+        if (nRemainingMillis <= 0)
+          return false;
+        m_aInFlightLock.wait (nRemainingMillis);
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.recovery;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsSet;
+
+/**
+ * The result of a {@link RecoveryScanner} run: the work left over from the
+ * previous run of the server.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class RecoveryIndex
+{
+  private final ICommonsSet <String> m_aPendingMDNs;
+  private final ICommonsList <String> m_aPendingMDNsWithoutInfo;
+  private final ICommonsList <String> m_aPendingMDNInfosWithoutData;
+  private final ICommonsList <String> m_aResendFiles;
+  private final int m_nDeletedTempFiles;
+  private final int m_nUndeletableTempFiles;
+  private final long m_nDurationMillis;
+
+  RecoveryIndex (@Nonnull final ICommonsSet <String> aPendingMDNs,
+                 @Nonnull final ICommonsList <String> aPendingMDNsWithoutInfo,
+                 @Nonnull final ICommonsList <String> aPendingMDNInfosWithoutData,
+                 @Nonnull final ICommonsList <String> aResendFiles,
+                 final int nDeletedTempFiles,
+                 final int nUndeletableTempFiles,
+                 final long nDurationMillis)
+  {
+    m_aPendingMDNs = aPendingMDNs;
+    m_aPendingMDNsWithoutInfo = aPendingMDNsWithoutInfo;
+    m_aPendingMDNInfosWithoutData = aPendingMDNInfosWithoutData;
+    m_aResendFiles = aResendFiles;
+    m_nDeletedTempFiles = nDeletedTempFiles;
+    m_nUndeletableTempFiles = nUndeletableTempFiles;
+    m_nDurationMillis = nDurationMillis;
+  }
+
+  /**
+   * @return The file names of all messages waiting for an asynchronous MDN
+   *         that have both the message and the info file.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSet <String> getAllPendingMDNs ()
+  {
+    return m_aPendingMDNs.getClone ();
+  }
+
+  public boolean isPendingMDN (@Nonnull final String sFilename)
+  {
+    return m_aPendingMDNs.contains (sFilename);
+  }
+
+  /**
+   * @return The names of pending MDN message files without an info file.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllPendingMDNsWithoutInfo ()
+  {
+    return m_aPendingMDNsWithoutInfo.getClone ();
+  }
+
+  /**
+   * @return The names of pending MDN info files without a message file.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllPendingMDNInfosWithoutData ()
+  {
+    return m_aPendingMDNInfosWithoutData.getClone ();
+  }
+
+  /**
+   * @return The names of all files in the resend directory, sorted by name
+   *         (which is the due date).
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllResendFiles ()
+  {
+    return m_aResendFiles.getClone ();
+  }
+
+  public int getDeletedTempFileCount ()
+  {
+    return m_nDeletedTempFiles;
+  }
+
+  public int getUndeletableTempFileCount ()
+  {
+    return m_nUndeletableTempFiles;
+  }
+
+  public long getDurationMillis ()
+  {
+    return m_nDurationMillis;
+  }
+
+  /**
+   * @return A human readable summary. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllReportLines ()
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    ret.add ("Pending MDNs: " + m_aPendingMDNs.size ());
+    ret.add ("Pending MDN messages without info file: " + m_aPendingMDNsWithoutInfo.size ());
+    ret.add ("Pending MDN info files without message: " + m_aPendingMDNInfosWithoutData.size ());
+    ret.add ("Messages to resend: " + m_aResendFiles.size ());
+    ret.add ("Deleted orphaned temporary files: " + m_nDeletedTempFiles);
+    if (m_nUndeletableTempFiles > 0)
+      ret.add ("Orphaned temporary files that could not be deleted: " + m_nUndeletableTempFiles);
+    ret.add ("Duration: " + m_nDurationMillis + " ms");
+    return ret;
+  }
+}
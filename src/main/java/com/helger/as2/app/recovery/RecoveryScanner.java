@@ -0,0 +1,327 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.recovery;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.AbstractDynamicComponent;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.exception.WrappedOpenAS2Exception;
+import com.helger.as2lib.processor.IMessageProcessor;
+import com.helger.as2lib.processor.module.IProcessorModule;
+import com.helger.as2lib.processor.resender.IProcessorResenderModule;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsHashSet;
+import com.helger.commons.collection.ext.CommonsLinkedHashSet;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsOrderedSet;
+import com.helger.commons.collection.ext.ICommonsSet;
+
+/**
+ * Scans the working directories of the message processor and its modules
+ * after a (possibly unclean) stop. All directories are listed in parallel and
+ * orphaned temporary files are deleted in parallel chunks. Only file names and
+ * attributes are read - never the file content.
+ * <ul>
+ * <li>Pending MDN message files are matched with their info files by
+ * name</li>
+ * <li>Resend files are collected</li>
+ * <li>Temporary files of as2-lib (see {@link #DEFAULT_TEMP_FILE_PATTERN}) that
+ * are older than the server start are left over from interrupted storage
+ * operations and are deleted. Other files in the temporary directories are
+ * never touched, because these directories may be shared with other
+ * applications.</li>
+ * </ul>
+ *
+ * @author Philip Helger
+ */
+@NotThreadSafe
+public class RecoveryScanner
+{
+  /** Attribute of the message processor */
+  public static final String ATTR_PENDINGMDN = "pendingmdn";
+  /** Attribute of the message processor */
+  public static final String ATTR_PENDINGMDNINFO = "pendingmdninfo";
+  /** Attribute of the resender modules */
+  public static final String ATTR_RESEND_DIRECTORY = "resenddir";
+  /** Attribute of the storage modules */
+  public static final String ATTR_TEMP_DIRECTORY = "tempdir";
+  /**
+   * The names of the temporary files created by as2-lib via
+   * <code>File.createTempFile ("as2", null, tempdir)</code>
+   */
+  public static final Pattern DEFAULT_TEMP_FILE_PATTERN = Pattern.compile ("as2-?[0-9]+\\.tmp");
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (RecoveryScanner.class);
+  private static final int CHUNK_SIZE = 1000;
+
+  private final long m_nStartupMillis;
+  private File m_aPendingMDNDir;
+  private File m_aPendingMDNInfoDir;
+  private final ICommonsOrderedSet <File> m_aResendDirs = new CommonsLinkedHashSet <> ();
+  private final ICommonsOrderedSet <File> m_aTempDirs = new CommonsLinkedHashSet <> ();
+  private Pattern m_aTempFilePattern = DEFAULT_TEMP_FILE_PATTERN;
+
+  /**
+   * @param nStartupMillis
+   *        The time the server was started. Temporary files older than this
+   *        are considered orphaned.
+   */
+  public RecoveryScanner (final long nStartupMillis)
+  {
+    m_nStartupMillis = nStartupMillis;
+  }
+
+  /**
+   * Set the pattern of the temporary file names that may be deleted.
+   *
+   * @param aTempFilePattern
+   *        The pattern the complete file name must match. May not be
+   *        <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public RecoveryScanner setTempFilePattern (@Nonnull final Pattern aTempFilePattern)
+  {
+    m_aTempFilePattern = ValueEnforcer.notNull (aTempFilePattern, "TempFilePattern");
+    return this;
+  }
+
+  @Nullable
+  private static File _getDir (@Nonnull final Object aComponent, @Nonnull final String sAttrName)
+  {
+    if (aComponent instanceof AbstractDynamicComponent)
+    {
+      final String sValue = ((AbstractDynamicComponent) aComponent).getAttributeAsString (sAttrName);
+      if (sValue != null)
+        return new File (sValue).getAbsoluteFile ();
+    }
+    return null;
+  }
+
+  /**
+   * Determine the directories to scan from the message processor and its
+   * modules.
+   *
+   * @param aMsgProcessor
+   *        The message processor. May not be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public RecoveryScanner addDirectoriesOf (@Nonnull final IMessageProcessor aMsgProcessor)
+  {
+    ValueEnforcer.notNull (aMsgProcessor, "MsgProcessor");
+    m_aPendingMDNDir = _getDir (aMsgProcessor, ATTR_PENDINGMDN);
+    m_aPendingMDNInfoDir = _getDir (aMsgProcessor, ATTR_PENDINGMDNINFO);
+    for (final IProcessorModule aModule : aMsgProcessor.getAllModules ())
+    {
+      if (aModule instanceof IProcessorResenderModule)
+      {
+        final File aDir = _getDir (aModule, ATTR_RESEND_DIRECTORY);
+        if (aDir != null)
+          m_aResendDirs.add (aDir);
+      }
+      final File aTempDir = _getDir (aModule, ATTR_TEMP_DIRECTORY);
+      if (aTempDir != null)
+        m_aTempDirs.add (aTempDir);
+    }
+    return this;
+  }
+
+  /**
+   * List the names of all regular files in the provided directory.
+   */
+  @Nonnull
+  private static ICommonsList <Path> _list (@Nullable final File aDir)
+  {
+    final ICommonsList <Path> ret = new CommonsArrayList <> ();
+    if (aDir != null && aDir.isDirectory ())
+      try (final DirectoryStream <Path> aStream = Files.newDirectoryStream (aDir.toPath ()))
+      {
+        for (final Path aPath : aStream)
+          ret.add (aPath);
+      }
+      catch (final IOException ex)
+      {
+        s_aLogger.warn ("Failed to list directory " + aDir.getAbsolutePath () + ": " + ex.getMessage ());
+      }
+    return ret;
+  }
+
+  @Nonnull
+  private static ICommonsSet <String> _getFileNames (@Nonnull final ICommonsList <Path> aPaths)
+  {
+    final ICommonsSet <String> ret = new CommonsHashSet <> (aPaths.size ());
+    for (final Path aPath : aPaths)
+      ret.add (aPath.getFileName ().toString ());
+    return ret;
+  }
+
+  private void _deleteOrphans (@Nonnull final ICommonsList <Path> aPaths,
+                               @Nonnull final AtomicInteger aDeleted,
+                               @Nonnull final AtomicInteger aFailed)
+  {
+    for (final Path aPath : aPaths)
+    {
+      // Only as2-lib temporary files
+      if (!m_aTempFilePattern.matcher (aPath.getFileName ().toString ()).matches ())
+        continue;
+      try
+      {
+        final BasicFileAttributes aAttrs = Files.readAttributes (aPath, BasicFileAttributes.class);
+        if (aAttrs.isRegularFile () && aAttrs.lastModifiedTime ().toMillis () < m_nStartupMillis)
+        {
+          Files.delete (aPath);
+          aDeleted.incrementAndGet ();
+        }
+      }
+      catch (final IOException ex)
+      {
+        aFailed.incrementAndGet ();
+        s_aLogger.warn ("Failed to delete orphaned temporary file " + aPath + ": " + ex.getMessage ());
+      }
+    }
+  }
+
+  /**
+   * Perform the scan.
+   *
+   * @param aExecutor
+   *        The executor to run the scan on. May not be <code>null</code>.
+   * @return The created index. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If the scan failed unexpectedly
+   */
+  @Nonnull
+  public RecoveryIndex scan (@Nonnull final ExecutorService aExecutor) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    final long nStart = System.currentTimeMillis ();
+
+    // List all directories in parallel
+    final CompletableFuture <ICommonsList <Path>> aPendingMDNF = CompletableFuture.supplyAsync ( () -> _list (m_aPendingMDNDir),
+                                                                                                aExecutor);
+    final CompletableFuture <ICommonsList <Path>> aPendingMDNInfoF = CompletableFuture.supplyAsync ( () -> _list (m_aPendingMDNInfoDir),
+                                                                                                    aExecutor);
+    final ICommonsList <CompletableFuture <ICommonsList <Path>>> aResendF = new CommonsArrayList <> ();
+    for (final File aDir : m_aResendDirs)
+      aResendF.add (CompletableFuture.supplyAsync ( () -> _list (aDir), aExecutor));
+
+    // Delete orphaned temp files in parallel chunks as soon as a directory is
+    // listed
+    final AtomicInteger aDeleted = new AtomicInteger ();
+    final AtomicInteger aFailed = new AtomicInteger ();
+    final ICommonsList <CompletableFuture <Void>> aTempF = new CommonsArrayList <> ();
+    for (final File aDir : m_aTempDirs)
+      aTempF.add (CompletableFuture.supplyAsync ( () -> _list (aDir), aExecutor).thenCompose (aPaths -> {
+        final ICommonsList <CompletableFuture <Void>> aChunks = new CommonsArrayList <> ();
+        for (int i = 0; i < aPaths.size (); i += CHUNK_SIZE)
+        {
+          final ICommonsList <Path> aChunk = new CommonsArrayList <> (aPaths.subList (i,
+                                                                                     Math.min (i + CHUNK_SIZE,
+                                                                                               aPaths.size ())));
+          aChunks.add (CompletableFuture.runAsync ( () -> _deleteOrphans (aChunk, aDeleted, aFailed), aExecutor));
+        }
+        return CompletableFuture.allOf (aChunks.toArray (new CompletableFuture <?> [aChunks.size ()]));
+      }));
+
+    try
+    {
+      final ICommonsSet <String> aPendingMDNs = _getFileNames (aPendingMDNF.get ());
+      final ICommonsSet <String> aPendingMDNInfos = _getFileNames (aPendingMDNInfoF.get ());
+
+      final ICommonsSet <String> aMatched = new CommonsHashSet <> ();
+      final ICommonsList <String> aWithoutInfo = new CommonsArrayList <> ();
+      for (final String sName : aPendingMDNs)
+        if (aPendingMDNInfos.contains (sName))
+          aMatched.add (sName);
+        else
+          aWithoutInfo.add (sName);
+      final ICommonsList <String> aWithoutData = new CommonsArrayList <> ();
+      for (final String sName : aPendingMDNInfos)
+        if (!aPendingMDNs.contains (sName))
+          aWithoutData.add (sName);
+      aWithoutInfo.sort ( (a, b) -> a.compareTo (b));
+      aWithoutData.sort ( (a, b) -> a.compareTo (b));
+
+      final ICommonsList <String> aResendFiles = new CommonsArrayList <> ();
+      for (final CompletableFuture <ICommonsList <Path>> aF : aResendF)
+        for (final Path aPath : aF.get ())
+          aResendFiles.add (aPath.getFileName ().toString ());
+      aResendFiles.sort ( (a, b) -> a.compareTo (b));
+
+      CompletableFuture.allOf (aTempF.toArray (new CompletableFuture <?> [aTempF.size ()])).get ();
+
+      final RecoveryIndex ret = new RecoveryIndex (aMatched,
+                                                   aWithoutInfo,
+                                                   aWithoutData,
+                                                   aResendFiles,
+                                                   aDeleted.get (),
+                                                   aFailed.get (),
+                                                   System.currentTimeMillis () - nStart);
+      for (final String sLine : ret.getAllReportLines ())
+        s_aLogger.info ("Recovery: " + sLine);
+      for (final String sName : aWithoutInfo)
+        s_aLogger.warn ("Recovery: pending MDN message without info file: " + sName);
+      for (final String sName : aWithoutData)
+        s_aLogger.warn ("Recovery: pending MDN info file without message: " + sName);
+      return ret;
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+    catch (final Exception ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+  }
+}
@@ -36,6 +36,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -44,18 +47,41 @@ import javax.annotation.WillClose;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.as2.app.cert.CRLIndex;
+import com.helger.as2.app.cert.CertificateSnapshot;
+import com.helger.as2.app.cert.DirectoryKeyStore;
+import com.helger.as2.app.cert.ServerDirectoryCertificateFactory;
+import com.helger.as2.app.cert.ServerPKCS12CertificateFactory;
+import com.helger.as2.app.component.ComponentFactoryRegistry;
+import com.helger.as2.app.processor.ServerMessageProcessor;
+import com.helger.as2.app.recovery.RecoveryIndex;
+import com.helger.as2.app.recovery.RecoveryScanner;
 import com.helger.as2.cmd.CommandManager;
 import com.helger.as2.cmd.ICommandRegistry;
 import com.helger.as2.cmd.ICommandRegistryFactory;
 import com.helger.as2.cmdprocessor.AbstractCommandProcessor;
+import com.helger.as2.util.ExecutorRegistry;
+import com.helger.as2.util.FileMonitor;
+import com.helger.as2.util.FileMonitorScheduler;
+import com.helger.as2.util.FileMonitorStatistics;
+import com.helger.as2.util.FileWatcher;
+import com.helger.as2.util.PhaseProfiler;
+import com.helger.as2.util.ServerMetrics;
+import com.helger.as2.util.XMLConfigSnapshot;
+import com.helger.as2lib.IDynamicComponent;
 import com.helger.as2lib.cert.ICertificateFactory;
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.partner.IPartnershipFactory;
 import com.helger.as2lib.processor.IMessageProcessor;
 import com.helger.as2lib.processor.module.IProcessorModule;
 import com.helger.as2lib.session.AS2Session;
-import com.helger.as2lib.util.XMLHelper;
-import com.helger.commons.io.file.FileHelper;
+import com.helger.as2lib.session.IAS2Session;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsTreeMap;
+import com.helger.commons.collection.ext.ICommonsSortedMap;
+import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.StringParser;
 import com.helger.xml.microdom.IMicroDocument;
 import com.helger.xml.microdom.IMicroElement;
@@ -71,6 +97,22 @@ public class AS2ServerXMLSession extends AS2Session implements ICommandRegistryF
 {
   public static final String ATTR_CRYPTO_VERIFY_USE_CERTIFICATE_IN_BODY_PART = "CryptoVerifyUseCertificateInBodyPart";
   public static final String ATTR_CRYPTO_SIGN_INCLUDE_CERTIFICATE_IN_BODY_PART = "CryptoSignIncludeCertificateInBodyPart";
+  public static final String ATTR_PARALLEL_BOOTSTRAP = "ParallelBootstrap";
+  public static final String ATTR_BOOTSTRAP_THREADS = "BootstrapThreads";
+  public static final boolean DEFAULT_PARALLEL_BOOTSTRAP = false;
+  public static final String ATTR_CONFIG_SNAPSHOT = "ConfigSnapshot";
+  public static final boolean DEFAULT_CONFIG_SNAPSHOT = false;
+  public static final String ATTR_SHUTDOWN_DRAIN_TIMEOUT = "ShutdownDrainTimeout";
+  public static final long DEFAULT_SHUTDOWN_DRAIN_TIMEOUT_SECONDS = 30;
+  public static final String ATTR_CONFIG_RELOAD_INTERVAL = "ConfigReloadInterval";
+  public static final String ATTR_RECOVERY_SCAN = "RecoveryScan";
+  public static final boolean DEFAULT_RECOVERY_SCAN = false;
+  public static final String ATTR_WARMUP = "Warmup";
+  public static final boolean DEFAULT_WARMUP = false;
+  public static final String ATTR_WARMUP_ITERATIONS = "WarmupIterations";
+  public static final int DEFAULT_WARMUP_ITERATIONS = 10;
+  public static final String EL_ROOT = "openas2";
+  public static final String EL_EXECUTORS = "executors";
   public static final String EL_CERTIFICATES = "certificates";
   public static final String EL_CMDPROCESSOR = "commandProcessors";
   public static final String EL_PROCESSOR = "processor";
@@ -79,9 +121,28 @@ public class AS2ServerXMLSession extends AS2Session implements ICommandRegistryF
 
   private static final Logger s_aLogger = LoggerFactory.getLogger (AS2ServerXMLSession.class);
 
+  private final long m_nStartupMillis = System.currentTimeMillis ();
+  private final File m_aConfigFile;
   private final String m_sBaseDirectory;
-  private final CommandManager m_aCmdManager = CommandManager.getCmdManager ();
+  private final ExecutorRegistry m_aExecutorRegistry;
+  private final boolean m_bOwnsExecutorRegistry;
+  private final CommandManager m_aCmdManager = new CommandManager ();
+  private final PhaseProfiler m_aStartupProfiler = new PhaseProfiler ();
+  private final ServerMetrics m_aMetrics = new ServerMetrics ();
   private ICommandRegistry m_aCommandRegistry;
+  private long m_nShutdownDrainTimeoutSeconds = DEFAULT_SHUTDOWN_DRAIN_TIMEOUT_SECONDS;
+  private int m_nConfigReloadIntervalSeconds = 0;
+  private boolean m_bRecoveryScan = DEFAULT_RECOVERY_SCAN;
+  private volatile RecoveryIndex m_aRecoveryIndex;
+  private boolean m_bWarmup = DEFAULT_WARMUP;
+  private int m_nWarmupIterations = DEFAULT_WARMUP_ITERATIONS;
+  private volatile boolean m_bReady = false;
+  private ProcessorModuleReloader m_aModuleReloader;
+  private FileMonitor m_aConfigMonitor;
+  private FileWatcher m_aFileWatcher;
+  private FileMonitorScheduler m_aFileMonitorScheduler;
+  /** All registered file monitors by file name */
+  private final ICommonsSortedMap <String, FileMonitor> m_aFileMonitors = new CommonsTreeMap <> ();
 
   public AS2ServerXMLSession (@Nonnull final String sFilename) throws OpenAS2Exception, IOException
   {
@@ -90,8 +151,184 @@ public class AS2ServerXMLSession extends AS2Session implements ICommandRegistryF
 
   public AS2ServerXMLSession (@Nonnull final File aFile) throws OpenAS2Exception
   {
+    this (aFile, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aFile
+   *        The configuration file. May not be <code>null</code>.
+   * @param aSharedExecutorRegistry
+   *        An optional executor registry shared with other sessions. It is not
+   *        shut down by this session. If <code>null</code> the session creates
+   *        its own registry.
+   * @throws OpenAS2Exception
+   *         If loading the configuration fails
+   */
+  public AS2ServerXMLSession (@Nonnull final File aFile,
+                              @Nullable final ExecutorRegistry aSharedExecutorRegistry) throws OpenAS2Exception
+  {
+    m_aConfigFile = aFile;
+    m_bOwnsExecutorRegistry = aSharedExecutorRegistry == null;
+    m_aExecutorRegistry = m_bOwnsExecutorRegistry ? new ExecutorRegistry () : aSharedExecutorRegistry;
     m_sBaseDirectory = aFile.getParentFile ().getAbsolutePath ();
-    load (FileHelper.getInputStream (aFile));
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("load " + aFile.getName ()))
+    {
+      load (readConfiguration (aFile));
+    }
+
+    if (m_nConfigReloadIntervalSeconds > 0)
+    {
+      if (m_aModuleReloader == null)
+        s_aLogger.warn ("Attribute " +
+                        ATTR_CONFIG_RELOAD_INTERVAL +
+                        " requires the message processor " +
+                        ServerMessageProcessor.class.getName () +
+                        " - not watching the configuration file");
+      else
+      {
+        s_aLogger.info ("Watching " + aFile.getName () + " for processor module changes");
+        m_aConfigMonitor = new FileMonitor (aFile,
+                                            m_nConfigReloadIntervalSeconds,
+                                            getFileMonitorScheduler (),
+                                            getFileWatcher ());
+        m_aConfigMonitor.addListener (m_aModuleReloader);
+        registerFileMonitor (m_aConfigMonitor);
+      }
+    }
+
+    registerMetrics ();
+  }
+
+  /**
+   * Register the gauges of the loaded components. Called at the end of the
+   * constructor.
+   */
+  protected void registerMetrics ()
+  {
+    m_aMetrics.registerGauge ("commandprocessors", () -> m_aCmdManager.getProcessors ().size ());
+    m_aMetrics.registerGauge ("threads", () -> m_aExecutorRegistry.getThreadCount ());
+    m_aMetrics.registerGauge ("ready", () -> m_bReady ? 1 : 0);
+    m_aMetrics.registerGauge ("filemonitors.scheduled", () -> getFileMonitorScheduler ().getScheduledCount ());
+    m_aMetrics.registerGauge ("filemonitors.reloads", () -> _sumFileMonitors (FileMonitorStatistics::getReloadCount));
+    m_aMetrics.registerGauge ("filemonitors.reloads.failed",
+                              () -> _sumFileMonitors (FileMonitorStatistics::getFailedReloadCount));
+    m_aMetrics.registerGauge ("filemonitors.missedticks",
+                              () -> _sumFileMonitors (FileMonitorStatistics::getMissedTickCount));
+    m_aMetrics.registerGauge ("filemonitors.reload.maxmillis", () -> {
+      long ret = 0;
+      for (final FileMonitor aMonitor : getAllFileMonitors ().values ())
+        ret = Math.max (ret, aMonitor.getStatistics ().getMaxReloadMillis ());
+      return ret;
+    });
+    m_aMetrics.registerGauge ("processor.modules", () -> {
+      final IMessageProcessor aMsgProcessor = getMessageProcessor ();
+      return aMsgProcessor == null ? 0 : aMsgProcessor.getAllModules ().size ();
+    });
+    if (getMessageProcessor () instanceof ServerMessageProcessor)
+    {
+      final ServerMessageProcessor aMsgProcessor = (ServerMessageProcessor) getMessageProcessor ();
+      m_aMetrics.registerGauge ("processor.inflight", () -> aMsgProcessor.getInFlightCount ());
+      m_aMetrics.registerGauge ("processor.actions.handled", () -> aMsgProcessor.getHandledActionCount ());
+      m_aMetrics.registerGauge ("processor.actions.failed", () -> aMsgProcessor.getFailedActionCount ());
+    }
+
+    ICertificateFactory aCertFactory = null;
+    try
+    {
+      aCertFactory = getCertificateFactory ();
+    }
+    catch (final Exception ex)
+    {
+      // No certificate factory configured
+    }
+    if (aCertFactory instanceof ServerPKCS12CertificateFactory)
+    {
+      final ServerPKCS12CertificateFactory aServerCertFactory = (ServerPKCS12CertificateFactory) aCertFactory;
+      m_aMetrics.registerGauge ("certificates.count", () -> {
+        final CertificateSnapshot aSnapshot = aServerCertFactory.getSnapshot ();
+        return aSnapshot == null ? 0 : aSnapshot.getSize ();
+      });
+      m_aMetrics.registerGauge ("certificates.keycache.size", () -> aServerCertFactory.getPrivateKeyCache ().getSize ());
+      m_aMetrics.registerGauge ("certificates.keycache.hits",
+                                () -> aServerCertFactory.getPrivateKeyCache ().getHitCount ());
+      m_aMetrics.registerGauge ("certificates.keycache.misses",
+                                () -> aServerCertFactory.getPrivateKeyCache ().getMissCount ());
+      m_aMetrics.registerGauge ("certificates.validationcache.size",
+                                () -> aServerCertFactory.getValidationCache ().getSize ());
+      m_aMetrics.registerGauge ("certificates.validationcache.hits",
+                                () -> aServerCertFactory.getValidationCache ().getHitCount ());
+      m_aMetrics.registerGauge ("certificates.validationcache.misses",
+                                () -> aServerCertFactory.getValidationCache ().getMissCount ());
+      m_aMetrics.registerGauge ("certificates.expired", () -> aServerCertFactory.getExpiredCount ());
+      m_aMetrics.registerGauge ("certificates.expiring", () -> aServerCertFactory.getExpiringCount ());
+      m_aMetrics.registerGauge ("certificates.nextexpiry.seconds", () -> {
+        final long nNext = aServerCertFactory.getNextExpirationMillis ();
+        return nNext == Long.MAX_VALUE ? -1
+                                       : Math.max (0, TimeUnit.MILLISECONDS.toSeconds (nNext - System.currentTimeMillis ()));
+      });
+      m_aMetrics.registerGauge ("certificates.crl.count", () -> {
+        final CRLIndex aIndex = aServerCertFactory.getCRLIndex ();
+        return aIndex == null ? 0 : aIndex.getCRLCount ();
+      });
+      m_aMetrics.registerGauge ("certificates.crl.revoked", () -> {
+        final CRLIndex aIndex = aServerCertFactory.getCRLIndex ();
+        return aIndex == null ? 0 : aIndex.getRevokedCount ();
+      });
+      m_aMetrics.registerGauge ("certificates.flushes", () -> aServerCertFactory.getFlushCount ());
+      m_aMetrics.registerGauge ("certificates.dirty", () -> aServerCertFactory.isDirty () ? 1 : 0);
+    }
+    if (aCertFactory instanceof ServerDirectoryCertificateFactory)
+    {
+      final ServerDirectoryCertificateFactory aDirCertFactory = (ServerDirectoryCertificateFactory) aCertFactory;
+      m_aMetrics.registerGauge ("certificates.resident", () -> {
+        final DirectoryKeyStore aKeyStore = aDirCertFactory.getDirectoryKeyStore ();
+        return aKeyStore == null ? 0 : aKeyStore.getResidentCount ();
+      });
+      m_aMetrics.registerGauge ("certificates.resident.bytes", () -> {
+        final DirectoryKeyStore aKeyStore = aDirCertFactory.getDirectoryKeyStore ();
+        return aKeyStore == null ? 0 : aKeyStore.getResidentBytes ();
+      });
+      m_aMetrics.registerGauge ("certificates.loads", () -> {
+        final DirectoryKeyStore aKeyStore = aDirCertFactory.getDirectoryKeyStore ();
+        return aKeyStore == null ? 0 : aKeyStore.getLoadCount ();
+      });
+      m_aMetrics.registerGauge ("certificates.evictions", () -> {
+        final DirectoryKeyStore aKeyStore = aDirCertFactory.getDirectoryKeyStore ();
+        return aKeyStore == null ? 0 : aKeyStore.getEvictionCount ();
+      });
+    }
+  }
+
+  /**
+   * Read the root element of the configuration file. If the root element has
+   * the attribute {@value #ATTR_CONFIG_SNAPSHOT} set to <code>true</code>, a
+   * binary snapshot of the resolved configuration is written next to the file
+   * and is used on subsequent starts as long as the file is unchanged.
+   *
+   * @param aFile
+   *        The configuration file. May not be <code>null</code>.
+   * @return The root element. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If reading fails
+   */
+  @Nonnull
+  protected IMicroElement readConfiguration (@Nonnull final File aFile) throws OpenAS2Exception
+  {
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("readConfiguration"))
+    {
+      return XMLConfigSnapshot.readConfiguration (aFile,
+                                                  m_sBaseDirectory,
+                                                  eRoot -> StringParser.parseBool (eRoot.getAttributeValue (ATTR_CONFIG_SNAPSHOT),
+                                                                                   DEFAULT_CONFIG_SNAPSHOT));
+    }
+  }
+
+  @Nonnull
+  public File getConfigFile ()
+  {
+    return m_aConfigFile;
   }
 
   @Nonnull
@@ -106,69 +343,515 @@ public class AS2ServerXMLSession extends AS2Session implements ICommandRegistryF
     return m_aCmdManager;
   }
 
+  /**
+   * @return The registry of all thread pools used by this session. Custom
+   *         components should run their threads via this registry. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public ExecutorRegistry getExecutorRegistry ()
+  {
+    return m_aExecutorRegistry;
+  }
+
+  /**
+   * @return The scheduler shared by all polling file monitors of this session.
+   *         It ticks on the {@value ExecutorRegistry#EXECUTOR_SCHEDULER} pool
+   *         and runs the checks and reloads on the
+   *         {@value ExecutorRegistry#EXECUTOR_FILE_MONITORS} pool. Created on
+   *         first access. Never <code>null</code>.
+   */
+  @Nonnull
+  public synchronized FileMonitorScheduler getFileMonitorScheduler ()
+  {
+    if (m_aFileMonitorScheduler == null)
+      m_aFileMonitorScheduler = new FileMonitorScheduler (m_aExecutorRegistry.getScheduledExecutor (ExecutorRegistry.EXECUTOR_SCHEDULER),
+                                                          m_aExecutorRegistry.getExecutor (ExecutorRegistry.EXECUTOR_FILE_MONITORS));
+    return m_aFileMonitorScheduler;
+  }
+
+  /**
+   * Get the file monitor scheduler of the provided session.
+   *
+   * @param aSession
+   *        The session to use. May be <code>null</code>.
+   * @return <code>null</code> if the session is not an
+   *         {@link AS2ServerXMLSession}.
+   */
+  @Nullable
+  public static FileMonitorScheduler getFileMonitorScheduler (@Nullable final IAS2Session aSession)
+  {
+    if (aSession instanceof AS2ServerXMLSession)
+      return ((AS2ServerXMLSession) aSession).getFileMonitorScheduler ();
+    return null;
+  }
+
+  /**
+   * @return The file system watcher of this session, used by all file
+   *         monitors. Created on first access. Never <code>null</code>.
+   */
+  @Nonnull
+  public synchronized FileWatcher getFileWatcher ()
+  {
+    if (m_aFileWatcher == null)
+    {
+      // One blocking task per session - a fixed pool shared by the tenants
+      // could be too small
+      m_aFileWatcher = new FileWatcher (m_aExecutorRegistry.getOrDefineExecutor (ExecutorRegistry.EXECUTOR_FILE_WATCHER,
+                                                                                 ExecutorRegistry.EExecutorType.CACHED,
+                                                                                 1));
+    }
+    return m_aFileWatcher;
+  }
+
+  /**
+   * Get the file watcher of the provided session.
+   *
+   * @param aSession
+   *        The session to use. May be <code>null</code>.
+   * @return <code>null</code> if the session is not an
+   *         {@link AS2ServerXMLSession}.
+   */
+  @Nullable
+  public static FileWatcher getFileWatcher (@Nullable final IAS2Session aSession)
+  {
+    if (aSession instanceof AS2ServerXMLSession)
+      return ((AS2ServerXMLSession) aSession).getFileWatcher ();
+    return null;
+  }
+
+  /**
+   * Register a file monitor, so that its statistics are part of the metrics
+   * and the <code>server monitors</code> command. A monitor for the same file
+   * replaces the previous one.
+   *
+   * @param aMonitor
+   *        The monitor to register. May not be <code>null</code>.
+   */
+  public void registerFileMonitor (@Nonnull final FileMonitor aMonitor)
+  {
+    ValueEnforcer.notNull (aMonitor, "Monitor");
+    synchronized (m_aFileMonitors)
+    {
+      m_aFileMonitors.put (aMonitor.getFilename (), aMonitor);
+    }
+  }
+
+  /**
+   * @return All registered file monitors sorted by file name. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSortedMap <String, FileMonitor> getAllFileMonitors ()
+  {
+    synchronized (m_aFileMonitors)
+    {
+      return m_aFileMonitors.getClone ();
+    }
+  }
+
+  /**
+   * Register a file monitor at the provided session.
+   *
+   * @param aSession
+   *        The session to use. May be <code>null</code>, in which case nothing
+   *        happens.
+   * @param aMonitor
+   *        The monitor to register. May not be <code>null</code>.
+   */
+  public static void registerFileMonitor (@Nullable final IAS2Session aSession, @Nonnull final FileMonitor aMonitor)
+  {
+    if (aSession instanceof AS2ServerXMLSession)
+      ((AS2ServerXMLSession) aSession).registerFileMonitor (aMonitor);
+  }
+
+  private long _sumFileMonitors (@Nonnull final ToLongFunction <FileMonitorStatistics> aValue)
+  {
+    long ret = 0;
+    for (final FileMonitor aMonitor : getAllFileMonitors ().values ())
+      ret += aValue.applyAsLong (aMonitor.getStatistics ());
+    return ret;
+  }
+
+  /**
+   * Stop the file watcher and shut down all thread pools of this session, if
+   * they are not shared with other sessions.
+   */
+  public void shutdownExecutors ()
+  {
+    synchronized (this)
+    {
+      if (m_aFileWatcher != null)
+        m_aFileWatcher.close ();
+    }
+    if (m_bOwnsExecutorRegistry)
+      m_aExecutorRegistry.shutdown (5, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @return The metrics of this session. Never <code>null</code>.
+   */
+  @Nonnull
+  public ServerMetrics getMetrics ()
+  {
+    return m_aMetrics;
+  }
+
   @Nullable
   public ICommandRegistry getCommandRegistry ()
   {
     return m_aCommandRegistry;
   }
 
-  protected void loadCertificates (@Nonnull final IMicroElement aElement) throws OpenAS2Exception
+  /**
+   * @return The maximum number of seconds a graceful shutdown waits for
+   *         in-flight messages to be finished. Always &ge; 0.
+   */
+  public long getShutdownDrainTimeoutSeconds ()
+  {
+    return m_nShutdownDrainTimeoutSeconds;
+  }
+
+  public void setShutdownDrainTimeoutSeconds (final long nShutdownDrainTimeoutSeconds)
+  {
+    ValueEnforcer.isGE0 (nShutdownDrainTimeoutSeconds, "ShutdownDrainTimeoutSeconds");
+    m_nShutdownDrainTimeoutSeconds = nShutdownDrainTimeoutSeconds;
+  }
+
+  /**
+   * @return The time this session was created in milliseconds since the
+   *         epoch.
+   */
+  public long getStartupMillis ()
+  {
+    return m_nStartupMillis;
+  }
+
+  /**
+   * @return <code>true</code> if the working directories should be scanned
+   *         for left-overs of a previous run before the active modules are
+   *         started.
+   */
+  public boolean isRecoveryScan ()
+  {
+    return m_bRecoveryScan;
+  }
+
+  public void setRecoveryScan (final boolean bRecoveryScan)
+  {
+    m_bRecoveryScan = bRecoveryScan;
+  }
+
+  /**
+   * @return The result of the recovery scan or <code>null</code> if no scan
+   *         was performed (yet).
+   */
+  @Nullable
+  public RecoveryIndex getRecoveryIndex ()
+  {
+    return m_aRecoveryIndex;
+  }
+
+  /**
+   * Scan the working directories of the message processor and its modules in
+   * parallel for left-overs of a previous run. Orphaned temporary files are
+   * deleted.
+   *
+   * @return The created index. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If the scan failed
+   */
+  @Nonnull
+  public RecoveryIndex performRecoveryScan () throws OpenAS2Exception
+  {
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("recoveryScan"))
+    {
+      final ExecutorService aExecutor = m_aExecutorRegistry.getExecutor (ExecutorRegistry.EXECUTOR_RECOVERY);
+      final RecoveryIndex aIndex = new RecoveryScanner (m_nStartupMillis).addDirectoriesOf (getMessageProcessor ())
+                                                                         .scan (aExecutor);
+      m_aRecoveryIndex = aIndex;
+      m_aMetrics.registerGauge ("recovery.pendingmdns", () -> aIndex.getAllPendingMDNs ().size ());
+      m_aMetrics.registerGauge ("recovery.resendfiles", () -> aIndex.getAllResendFiles ().size ());
+      m_aMetrics.registerGauge ("recovery.deletedtempfiles", () -> aIndex.getDeletedTempFileCount ());
+      return aIndex;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if a warm-up should be performed before the
+   *         active modules are started.
+   */
+  public boolean isWarmup ()
+  {
+    return m_bWarmup;
+  }
+
+  public void setWarmup (final boolean bWarmup)
+  {
+    m_bWarmup = bWarmup;
+  }
+
+  /**
+   * @return The number of round trips per key and algorithm performed in the
+   *         warm-up. Always &gt; 0.
+   */
+  public int getWarmupIterations ()
+  {
+    return m_nWarmupIterations;
+  }
+
+  public void setWarmupIterations (final int nWarmupIterations)
+  {
+    ValueEnforcer.isGT0 (nWarmupIterations, "WarmupIterations");
+    m_nWarmupIterations = nWarmupIterations;
+  }
+
+  /**
+   * @return <code>true</code> if the server is started completely (including
+   *         the optional warm-up) and is not shutting down.
+   */
+  public boolean isReady ()
+  {
+    return m_bReady;
+  }
+
+  public void setReady (final boolean bReady)
+  {
+    m_bReady = bReady;
+  }
+
+  /**
+   * Stop watching the configuration file for changes. Does nothing if the
+   * configuration file is not watched.
+   */
+  public void stopConfigurationMonitor ()
+  {
+    if (m_aConfigMonitor != null)
+      m_aConfigMonitor.stop ();
+  }
+
+  /**
+   * @return The profiler recording the startup phases of this session. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public PhaseProfiler getStartupProfiler ()
+  {
+    return m_aStartupProfiler;
+  }
+
+  /**
+   * Create a new component from the provided element and record the time
+   * required in the startup profiler. Known classes are created without
+   * reflection via the {@link ComponentFactoryRegistry}.
+   *
+   * @param aElement
+   *        The element containing the class name and the parameters. May not
+   *        be <code>null</code>.
+   * @param aClass
+   *        The expected component class. May not be <code>null</code>.
+   * @return The created and initialized component. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         In case the component could not be created or initialized
+   * @param <T>
+   *        The component type
+   */
+  @Nonnull
+  public <T extends IDynamicComponent> T createComponent (@Nonnull final IMicroElement aElement,
+                                                          @Nonnull final Class <T> aClass) throws OpenAS2Exception
+  {
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("createComponent " +
+                                                                           aElement.getAttributeValue ("classname")))
+    {
+      return ComponentFactoryRegistry.getInstance ().createComponent (aElement, aClass, this, m_sBaseDirectory);
+    }
+  }
+
+  @Nonnull
+  private ParallelBootstrap.ISectionPublisher _createCertificates (@Nonnull final IMicroElement aElement) throws OpenAS2Exception
   {
     s_aLogger.info ("  loading certificates");
-    final ICertificateFactory certFx = XMLHelper.createComponent (aElement, ICertificateFactory.class, this, m_sBaseDirectory);
-    setCertificateFactory (certFx);
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("loadCertificates"))
+    {
+      final ICertificateFactory certFx = createComponent (aElement, ICertificateFactory.class);
+      return () -> setCertificateFactory (certFx);
+    }
   }
 
-  protected void loadCommands (@Nonnull final IMicroElement aElement) throws OpenAS2Exception
+  protected void loadCertificates (@Nonnull final IMicroElement aElement) throws OpenAS2Exception
+  {
+    _createCertificates (aElement).publish ();
+  }
+
+  /**
+   * Define the thread pools from the configuration file. Each child element
+   * <code>executor</code> has the attributes <code>name</code> (required),
+   * <code>type</code> (<code>fixed</code>, <code>cached</code>,
+   * <code>scheduled</code> or <code>virtual</code>; default is
+   * <code>cached</code>) and <code>threads</code> (default is the number of
+   * processors).
+   *
+   * @param aElement
+   *        The executors element. May not be <code>null</code>.
+   * @throws OpenAS2Exception
+   *         In case of an invalid definition
+   */
+  protected void loadExecutors (@Nonnull final IMicroElement aElement) throws OpenAS2Exception
+  {
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("loadExecutors"))
+    {
+      final List <IMicroElement> aElements = aElement.getAllChildElements ("executor");
+      s_aLogger.info ("  loading " + aElements.size () + " executors");
+      for (final IMicroElement eExecutor : aElements)
+      {
+        final String sName = eExecutor.getAttributeValue ("name");
+        if (StringHelper.hasNoText (sName))
+          throw new OpenAS2Exception ("Executor is missing the 'name' attribute");
+        final String sType = eExecutor.getAttributeValue ("type");
+        final ExecutorRegistry.EExecutorType eType = sType == null ? ExecutorRegistry.EExecutorType.CACHED
+                                                                   : ExecutorRegistry.EExecutorType.getFromIDOrNull (sType);
+        if (eType == null)
+          throw new OpenAS2Exception ("Executor '" + sName + "' has the invalid type '" + sType + "'");
+        final int nThreads = StringParser.parseInt (eExecutor.getAttributeValue ("threads"),
+                                                    Runtime.getRuntime ().availableProcessors ());
+        if (nThreads <= 0)
+          throw new OpenAS2Exception ("Executor '" + sName + "' has an invalid number of threads: " + nThreads);
+        m_aExecutorRegistry.defineExecutor (sName, eType, nThreads);
+      }
+    }
+  }
+
+  @Nonnull
+  private ParallelBootstrap.ISectionPublisher _createCommands (@Nonnull final IMicroElement aElement) throws OpenAS2Exception
   {
     s_aLogger.info ("  loading commands");
-    final ICommandRegistry cmdReg = XMLHelper.createComponent (aElement, ICommandRegistry.class, this, m_sBaseDirectory);
-    m_aCommandRegistry = cmdReg;
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("loadCommands"))
+    {
+      final ICommandRegistry cmdReg = createComponent (aElement, ICommandRegistry.class);
+      return () -> m_aCommandRegistry = cmdReg;
+    }
+  }
+
+  protected void loadCommands (@Nonnull final IMicroElement aElement) throws OpenAS2Exception
+  {
+    _createCommands (aElement).publish ();
+  }
+
+  @Nonnull
+  private ParallelBootstrap.ISectionPublisher _createCommandProcessors (@Nonnull final IMicroElement aElement) throws OpenAS2Exception
+  {
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("loadCommandProcessors"))
+    {
+      final List <IMicroElement> aElements = aElement.getAllChildElements ("commandProcessor");
+      s_aLogger.info ("  loading " + aElements.size () + " command processors");
+      // Collected in a separate manager and added to the real one on publish
+      final CommandManager aCommandMgr = new CommandManager ();
+      for (final IMicroElement processor : aElements)
+        loadCommandProcessor (aCommandMgr, processor);
+      return () -> {
+        for (final AbstractCommandProcessor aCmdProcessor : aCommandMgr.getProcessors ())
+          m_aCmdManager.addProcessor (aCmdProcessor);
+      };
+    }
   }
 
   protected void loadCommandProcessors (@Nonnull final IMicroElement aElement) throws OpenAS2Exception
   {
-    final List <IMicroElement> aElements = aElement.getAllChildElements ("commandProcessor");
-    s_aLogger.info ("  loading " + aElements.size () + " command processors");
-    for (final IMicroElement processor : aElements)
-      loadCommandProcessor (m_aCmdManager, processor);
+    _createCommandProcessors (aElement).publish ();
   }
 
   protected void loadCommandProcessor (@Nonnull final CommandManager aCommandMgr, @Nonnull final IMicroElement aElement) throws OpenAS2Exception
   {
-    final AbstractCommandProcessor aCmdProcesor = XMLHelper.createComponent (aElement, AbstractCommandProcessor.class, this, m_sBaseDirectory);
+    final AbstractCommandProcessor aCmdProcesor = createComponent (aElement, AbstractCommandProcessor.class);
     aCommandMgr.addProcessor (aCmdProcesor);
     s_aLogger.info ("    loaded command processor " + aCmdProcesor.getName ());
   }
 
-  protected void loadPartnerships (final IMicroElement eRootNode) throws OpenAS2Exception
+  @Nonnull
+  private ParallelBootstrap.ISectionPublisher _createPartnerships (@Nonnull final IMicroElement eRootNode) throws OpenAS2Exception
   {
     s_aLogger.info ("  loading partnerships");
-    final IPartnershipFactory partnerFx = XMLHelper.createComponent (eRootNode, IPartnershipFactory.class, this, m_sBaseDirectory);
-    setPartnershipFactory (partnerFx);
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("loadPartnerships"))
+    {
+      final IPartnershipFactory partnerFx = createComponent (eRootNode, IPartnershipFactory.class);
+      return () -> setPartnershipFactory (partnerFx);
+    }
   }
 
-  protected void loadMessageProcessor (final IMicroElement eRootNode) throws OpenAS2Exception
+  protected void loadPartnerships (final IMicroElement eRootNode) throws OpenAS2Exception
+  {
+    _createPartnerships (eRootNode).publish ();
+  }
+
+  @Nonnull
+  private ParallelBootstrap.ISectionPublisher _createMessageProcessor (@Nonnull final IMicroElement eRootNode) throws OpenAS2Exception
   {
     s_aLogger.info ("  loading message processor");
-    final IMessageProcessor aMsgProcessor = XMLHelper.createComponent (eRootNode, IMessageProcessor.class, this, m_sBaseDirectory);
-    setMessageProcessor (aMsgProcessor);
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("loadMessageProcessor"))
+    {
+      final IMessageProcessor aMsgProcessor = createComponent (eRootNode, IMessageProcessor.class);
+      // Set before the modules are created (as it always was), so that they
+      // can access it during initialization - in the parallel bootstrap as well
+      setMessageProcessor (aMsgProcessor);
+
+      // Only this processor supports exchanging the modules at runtime
+      final ProcessorModuleReloader aModuleReloader = aMsgProcessor instanceof ServerMessageProcessor ? new ProcessorModuleReloader (this,
+                                                                                                                                  (ServerMessageProcessor) aMsgProcessor,
+                                                                                                                                  eRootNode)
+                                                                                                      : null;
+      for (final IMicroElement eModule : eRootNode.getAllChildElements ("module"))
+        loadProcessorModule (aMsgProcessor, aModuleReloader, eModule);
+      return () -> m_aModuleReloader = aModuleReloader;
+    }
+  }
+
+  /**
+   * @return The reloader of the processor modules or <code>null</code> if the
+   *         message processor does not support it.
+   */
+  @Nullable
+  ProcessorModuleReloader getModuleReloader ()
+  {
+    return m_aModuleReloader;
+  }
 
-    for (final IMicroElement eModule : eRootNode.getAllChildElements ("module"))
-      loadProcessorModule (aMsgProcessor, eModule);
+  protected void loadMessageProcessor (final IMicroElement eRootNode) throws OpenAS2Exception
+  {
+    _createMessageProcessor (eRootNode).publish ();
+  }
+
+  protected void loadProcessorModule (@Nonnull final IMessageProcessor aMsgProcessor,
+                                      @Nonnull final IMicroElement eModule) throws OpenAS2Exception
+  {
+    loadProcessorModule (aMsgProcessor, null, eModule);
   }
 
-  protected void loadProcessorModule (@Nonnull final IMessageProcessor aMsgProcessor, @Nonnull final IMicroElement eModule) throws OpenAS2Exception
+  protected void loadProcessorModule (@Nonnull final IMessageProcessor aMsgProcessor,
+                                      @Nullable final ProcessorModuleReloader aModuleReloader,
+                                      @Nonnull final IMicroElement eModule) throws OpenAS2Exception
   {
-    final IProcessorModule aProcessorModule = XMLHelper.createComponent (eModule, IProcessorModule.class, this, m_sBaseDirectory);
+    final IProcessorModule aProcessorModule = createComponent (eModule, IProcessorModule.class);
     aMsgProcessor.addModule (aProcessorModule);
+    if (aModuleReloader != null)
+      aModuleReloader.addModule (eModule, aProcessorModule);
     s_aLogger.info ("    loaded processor module " + aProcessorModule.getName ());
   }
 
   protected void load (@Nonnull @WillClose final InputStream aIS) throws OpenAS2Exception
   {
-    final IMicroDocument aDoc = MicroReader.readMicroXML (aIS);
-    final IMicroElement eRoot = aDoc.getDocumentElement ();
+    final IMicroDocument aDoc;
+    try (final PhaseProfiler.PhaseTimer aTimer = m_aStartupProfiler.start ("parseXML"))
+    {
+      aDoc = MicroReader.readMicroXML (aIS);
+    }
+    if (aDoc == null)
+      throw new OpenAS2Exception ("Failed to read the configuration file as XML");
+    load (aDoc.getDocumentElement ());
+  }
+
+  protected void load (@Nonnull final IMicroElement eRoot) throws OpenAS2Exception
+  {
 
     // Special global attributes
     final String sCryptoVerifyUseCertificateInBodyPart = eRoot.getAttributeValue (ATTR_CRYPTO_VERIFY_USE_CERTIFICATE_IN_BODY_PART);
@@ -181,26 +864,140 @@ public class AS2ServerXMLSession extends AS2Session implements ICommandRegistryF
       setCryptoSignIncludeCertificateInBodyPart (StringParser.parseBool (sCryptoSignIncludeCertificateInBodyPart,
                                                                          DEFAULT_CRYPTO_SIGN_INCLUDE_CERTIFICATE_IN_BODY_PART));
 
+    final String sShutdownDrainTimeout = eRoot.getAttributeValue (ATTR_SHUTDOWN_DRAIN_TIMEOUT);
+    if (sShutdownDrainTimeout != null)
+      setShutdownDrainTimeoutSeconds (StringParser.parseLong (sShutdownDrainTimeout,
+                                                              DEFAULT_SHUTDOWN_DRAIN_TIMEOUT_SECONDS));
+
+    final String sRecoveryScan = eRoot.getAttributeValue (ATTR_RECOVERY_SCAN);
+    if (sRecoveryScan != null)
+      setRecoveryScan (StringParser.parseBool (sRecoveryScan, DEFAULT_RECOVERY_SCAN));
+
+    final String sWarmup = eRoot.getAttributeValue (ATTR_WARMUP);
+    if (sWarmup != null)
+      setWarmup (StringParser.parseBool (sWarmup, DEFAULT_WARMUP));
+
+    final String sWarmupIterations = eRoot.getAttributeValue (ATTR_WARMUP_ITERATIONS);
+    if (sWarmupIterations != null)
+      setWarmupIterations (StringParser.parseInt (sWarmupIterations, DEFAULT_WARMUP_ITERATIONS));
+
+    final String sConfigReloadInterval = eRoot.getAttributeValue (ATTR_CONFIG_RELOAD_INTERVAL);
+    if (sConfigReloadInterval != null)
+      m_nConfigReloadIntervalSeconds = StringParser.parseInt (sConfigReloadInterval, 0);
+
+    // The executors must be present before anything else is loaded
+    final IMicroElement eExecutors = eRoot.getFirstChildElement (EL_EXECUTORS);
+    if (eExecutors != null)
+      loadExecutors (eExecutors);
+
+    final List <IMicroElement> aRootChildren = new CommonsArrayList <> ();
     for (final IMicroElement eRootChild : eRoot.getAllChildElements ())
+      if (!eRootChild.getTagName ().equals (EL_EXECUTORS))
+        aRootChildren.add (eRootChild);
+    if (StringParser.parseBool (eRoot.getAttributeValue (ATTR_PARALLEL_BOOTSTRAP), DEFAULT_PARALLEL_BOOTSTRAP))
     {
-      final String sNodeName = eRootChild.getTagName ();
+      final int nThreads = StringParser.parseInt (eRoot.getAttributeValue (ATTR_BOOTSTRAP_THREADS),
+                                                  Runtime.getRuntime ().availableProcessors ());
+      loadParallel (aRootChildren, nThreads);
+    }
+    else
+    {
+      for (final IMicroElement eRootChild : aRootChildren)
+        loadSection (eRootChild);
+    }
+  }
+
+  protected void loadSection (@Nonnull final IMicroElement eRootChild) throws OpenAS2Exception
+  {
+    final String sNodeName = eRootChild.getTagName ();
 
-      if (sNodeName.equals (EL_CERTIFICATES))
-        loadCertificates (eRootChild);
+    if (sNodeName.equals (EL_CERTIFICATES))
+      loadCertificates (eRootChild);
+    else
+      if (sNodeName.equals (EL_PROCESSOR))
+        loadMessageProcessor (eRootChild);
       else
-        if (sNodeName.equals (EL_PROCESSOR))
-          loadMessageProcessor (eRootChild);
+        if (sNodeName.equals (EL_CMDPROCESSOR))
+          loadCommandProcessors (eRootChild);
         else
-          if (sNodeName.equals (EL_CMDPROCESSOR))
-            loadCommandProcessors (eRootChild);
+          if (sNodeName.equals (EL_PARTNERSHIPS))
+            loadPartnerships (eRootChild);
           else
-            if (sNodeName.equals (EL_PARTNERSHIPS))
-              loadPartnerships (eRootChild);
+            if (sNodeName.equals (EL_COMMANDS))
+              loadCommands (eRootChild);
             else
-              if (sNodeName.equals (EL_COMMANDS))
-                loadCommands (eRootChild);
-              else
-                throw new OpenAS2Exception ("Undefined tag: " + sNodeName);
+              throw new OpenAS2Exception ("Undefined tag: " + sNodeName);
+  }
+
+  /**
+   * Create the components of a section without modifying the session. Used
+   * by the parallel bootstrap.
+   *
+   * @param eRootChild
+   *        The section element. May not be <code>null</code>.
+   * @return The publisher that sets the components in the session. Never
+   *         <code>null</code>.
+   * @throws OpenAS2Exception
+   *         In case of an error
+   */
+  @Nonnull
+  private ParallelBootstrap.ISectionPublisher _createSection (@Nonnull final IMicroElement eRootChild) throws OpenAS2Exception
+  {
+    final String sNodeName = eRootChild.getTagName ();
+
+    if (sNodeName.equals (EL_CERTIFICATES))
+      return _createCertificates (eRootChild);
+    if (sNodeName.equals (EL_PROCESSOR))
+      return _createMessageProcessor (eRootChild);
+    if (sNodeName.equals (EL_CMDPROCESSOR))
+      return _createCommandProcessors (eRootChild);
+    if (sNodeName.equals (EL_PARTNERSHIPS))
+      return _createPartnerships (eRootChild);
+    if (sNodeName.equals (EL_COMMANDS))
+      return _createCommands (eRootChild);
+    throw new OpenAS2Exception ("Undefined tag: " + sNodeName);
+  }
+
+  /**
+   * Get the names of all sections that must be loaded before the section with
+   * the provided name can be loaded in parallel bootstrap mode.
+   *
+   * @param sNodeName
+   *        The tag name of the section.
+   * @return An array of tag names. Never <code>null</code>.
+   */
+  @Nonnull
+  protected String [] getSectionDependencies (@Nonnull final String sNodeName)
+  {
+    // The message processor modules access the certificate and partnership
+    // factories of the session
+    if (sNodeName.equals (EL_PROCESSOR))
+      return new String [] { EL_CERTIFICATES, EL_PARTNERSHIPS };
+    return new String [0];
+  }
+
+  protected void loadParallel (@Nonnull final List <IMicroElement> aRootChildren,
+                               final int nThreads) throws OpenAS2Exception
+  {
+    final ParallelBootstrap aBootstrap = new ParallelBootstrap ();
+    for (final IMicroElement eRootChild : aRootChildren)
+    {
+      final String sNodeName = eRootChild.getTagName ();
+      if (!sNodeName.equals (EL_CERTIFICATES) &&
+          !sNodeName.equals (EL_PROCESSOR) &&
+          !sNodeName.equals (EL_CMDPROCESSOR) &&
+          !sNodeName.equals (EL_PARTNERSHIPS) &&
+          !sNodeName.equals (EL_COMMANDS))
+        throw new OpenAS2Exception ("Undefined tag: " + sNodeName);
+
+      aBootstrap.addSection (sNodeName, () -> _createSection (eRootChild), getSectionDependencies (sNodeName));
     }
+
+    // A pool defined before (e.g. shared by all tenants) takes precedence
+    final int nEffectiveThreads = Math.max (1, Math.min (nThreads, aRootChildren.size ()));
+    s_aLogger.info ("  loading " + aRootChildren.size () + " sections in parallel using the bootstrap executor");
+    aBootstrap.run (m_aExecutorRegistry.getOrDefineExecutor (ExecutorRegistry.EXECUTOR_BOOTSTRAP,
+                                                             ExecutorRegistry.EExecutorType.FIXED,
+                                                             nEffectiveThreads));
   }
 }
@@ -0,0 +1,307 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.session;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.exception.WrappedOpenAS2Exception;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsHashSet;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsSet;
+
+/**
+ * Loads the sections of the server configuration concurrently. Loading a
+ * section is split in two steps: the components are created and initialized
+ * on the provided executor, and afterwards they are published (e.g. set in
+ * the session) on the thread calling {@link #run(ExecutorService)}, one
+ * section at a time. So the session itself is never modified concurrently.
+ * <p>
+ * Every section is started as soon as all sections it depends on were
+ * published successfully. Sections depending on a failed section are not
+ * started at all. Errors are reported in the order the sections were added,
+ * independent of the order in which they occurred.
+ *
+ * @author Philip Helger
+ */
+@NotThreadSafe
+final class ParallelBootstrap
+{
+  /**
+   * Publishes the components created by an {@link ISectionLoader}. Always
+   * invoked on the thread running the bootstrap.
+   */
+  @FunctionalInterface
+  interface ISectionPublisher
+  {
+    void publish () throws OpenAS2Exception;
+  }
+
+  /**
+   * The action to be performed to create the components of a single section.
+   * Invoked on the executor and must not modify shared state.
+   */
+  @FunctionalInterface
+  interface ISectionLoader
+  {
+    /**
+     * @return The publisher of the created components. May be
+     *         <code>null</code> if there is nothing to publish.
+     * @throws OpenAS2Exception
+     *         In case of an error
+     */
+    @Nullable
+    ISectionPublisher load () throws OpenAS2Exception;
+  }
+
+  private enum EState
+  {
+    WAITING,
+    RUNNING,
+    PUBLISHED,
+    FAILED,
+    SKIPPED;
+  }
+
+  private static final class Section
+  {
+    private final String m_sName;
+    private final ISectionLoader m_aLoader;
+    private final ICommonsList <String> m_aDependsOn;
+    // Only accessed by the bootstrap thread
+    private EState m_eState = EState.WAITING;
+    // Written by the executor, read after the hand-over via the queue
+    private ISectionPublisher m_aPublisher;
+    private Exception m_aError;
+
+    Section (@Nonnull final String sName,
+             @Nonnull final ISectionLoader aLoader,
+             @Nonnull final ICommonsList <String> aDependsOn)
+    {
+      m_sName = sName;
+      m_aLoader = aLoader;
+      m_aDependsOn = aDependsOn;
+    }
+  }
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ParallelBootstrap.class);
+
+  private final ICommonsList <Section> m_aSections = new CommonsArrayList <> ();
+
+  /**
+   * Add a new section.
+   *
+   * @param sName
+   *        The name of the section. Dependencies refer to this name. May occur
+   *        more than once.
+   * @param aLoader
+   *        The loader to be invoked. May not be <code>null</code>.
+   * @param aDependsOn
+   *        The names of all sections that must be published before this
+   *        section is loaded. Names for which no section is present are
+   *        ignored.
+   */
+  public void addSection (@Nonnull @Nonempty final String sName,
+                          @Nonnull final ISectionLoader aLoader,
+                          @Nullable final String... aDependsOn)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.notNull (aLoader, "Loader");
+    final ICommonsList <String> aDeps = new CommonsArrayList <> ();
+    if (aDependsOn != null)
+      for (final String sDependsOn : aDependsOn)
+        aDeps.add (sDependsOn);
+    m_aSections.add (new Section (sName, aLoader, aDeps));
+  }
+
+  @Nonnull
+  private ICommonsList <Section> _getDependencies (@Nonnull final Section aSection)
+  {
+    final ICommonsList <Section> ret = new CommonsArrayList <> ();
+    for (final String sDependsOn : aSection.m_aDependsOn)
+      for (final Section aOther : m_aSections)
+        if (aOther.m_sName.equals (sDependsOn))
+          ret.add (aOther);
+    return ret;
+  }
+
+  private void _checkCycles (@Nonnull final Section aSection,
+                             @Nonnull final ICommonsSet <Section> aInProgress,
+                             @Nonnull final ICommonsSet <Section> aChecked)
+  {
+    if (aChecked.contains (aSection))
+      return;
+    if (!aInProgress.add (aSection))
+      throw new IllegalStateException ("Cyclic dependency detected for section '" + aSection.m_sName + "'");
+    for (final Section aDep : _getDependencies (aSection))
+      _checkCycles (aDep, aInProgress, aChecked);
+    aInProgress.remove (aSection);
+    aChecked.add (aSection);
+  }
+
+  /**
+   * Start all waiting sections whose dependencies are resolved and skip all
+   * sections with a failed or skipped dependency.
+   *
+   * @return The number of started sections.
+   */
+  private int _startReadySections (@Nonnull final ExecutorService aExecutor,
+                                   @Nonnull final BlockingQueue <Section> aDone)
+  {
+    int nStarted = 0;
+    boolean bChange = true;
+    while (bChange)
+    {
+      bChange = false;
+      for (final Section aSection : m_aSections)
+        if (aSection.m_eState == EState.WAITING)
+        {
+          boolean bReady = true;
+          boolean bSkip = false;
+          for (final Section aDep : _getDependencies (aSection))
+            if (aDep.m_eState == EState.FAILED || aDep.m_eState == EState.SKIPPED)
+              bSkip = true;
+            else
+              if (aDep.m_eState != EState.PUBLISHED)
+                bReady = false;
+
+          if (bSkip)
+          {
+            aSection.m_eState = EState.SKIPPED;
+            // Sections depending on this one may be skipped as well
+            bChange = true;
+          }
+          else
+            if (bReady)
+            {
+              aSection.m_eState = EState.RUNNING;
+              aExecutor.execute ( () -> {
+                try
+                {
+                  aSection.m_aPublisher = aSection.m_aLoader.load ();
+                }
+                catch (final Exception ex)
+                {
+                  aSection.m_aError = ex;
+                }
+                finally
+                {
+                  aDone.add (aSection);
+                }
+              });
+              nStarted++;
+            }
+        }
+    }
+    return nStarted;
+  }
+
+  /**
+   * Start all sections and wait until all of them are finished.
+   *
+   * @param aExecutor
+   *        The executor to create the components on. May not be
+   *        <code>null</code>.
+   * @throws OpenAS2Exception
+   *         The error of the first failed section in the order the sections
+   *         were added. The errors of all other failed sections are added as
+   *         suppressed exceptions.
+   */
+  public void run (@Nonnull final ExecutorService aExecutor) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+
+    final ICommonsSet <Section> aChecked = new CommonsHashSet <> ();
+    for (final Section aSection : m_aSections)
+      _checkCycles (aSection, new CommonsHashSet <> (), aChecked);
+
+    final BlockingQueue <Section> aDone = new LinkedBlockingQueue <> ();
+    int nRunning = _startReadySections (aExecutor, aDone);
+    try
+    {
+      while (nRunning > 0)
+      {
+        final Section aSection = aDone.take ();
+        nRunning--;
+        if (aSection.m_aError == null)
+          try
+          {
+            if (aSection.m_aPublisher != null)
+              aSection.m_aPublisher.publish ();
+          }
+          catch (final Exception ex)
+          {
+            aSection.m_aError = ex;
+          }
+        aSection.m_eState = aSection.m_aError == null ? EState.PUBLISHED : EState.FAILED;
+        nRunning += _startReadySections (aExecutor, aDone);
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+
+    OpenAS2Exception aFirstError = null;
+    for (final Section aSection : m_aSections)
+    {
+      final Exception aError = aSection.m_aError;
+      if (aError != null)
+      {
+        s_aLogger.error ("Failed to load section '" + aSection.m_sName + "': " + aError.getMessage ());
+        if (aFirstError == null)
+          aFirstError = WrappedOpenAS2Exception.wrap (aError);
+        else
+          aFirstError.addSuppressed (aError);
+      }
+      else
+        if (aSection.m_eState == EState.SKIPPED)
+          s_aLogger.warn ("Section '" + aSection.m_sName + "' was skipped because a dependency failed");
+    }
+    if (aFirstError != null)
+      throw aFirstError;
+  }
+}
@@ -0,0 +1,348 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.session;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2.app.processor.ServerMessageProcessor;
+import com.helger.as2.util.FileMonitor;
+import com.helger.as2.util.IFileMonitorListener;
+import com.helger.as2.util.XMLConfigSnapshot;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.processor.module.IProcessorActiveModule;
+import com.helger.as2lib.processor.module.IProcessorModule;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsHashMap;
+import com.helger.commons.collection.ext.CommonsTreeMap;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsMap;
+import com.helger.commons.collection.ext.ICommonsSortedMap;
+import com.helger.commons.string.StringHelper;
+import com.helger.xml.microdom.IMicroElement;
+
+/**
+ * Applies changes of the processor modules in the configuration file to a
+ * running {@link ServerMessageProcessor}. The modules are identified by their
+ * class name, all of their attributes and all of their child elements.
+ * Unchanged modules are kept (and keep running), new and changed modules are
+ * created before the module set of the message processor is replaced
+ * atomically. Afterwards removed active modules are stopped and added active
+ * modules are started - one by one. A changed module replaces the removed
+ * module of the same class. If it fails to start, the previous instance is
+ * started again and kept, so that e.g. a receiver stays available. A purely
+ * added module that fails to start is removed again. In both cases the reload
+ * fails, so that it is retried.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+final class ProcessorModuleReloader implements IFileMonitorListener
+{
+  private static final class Entry
+  {
+    private final String m_sKey;
+    private final IProcessorModule m_aModule;
+
+    Entry (@Nonnull final String sKey, @Nonnull final IProcessorModule aModule)
+    {
+      m_sKey = sKey;
+      m_aModule = aModule;
+    }
+  }
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ProcessorModuleReloader.class);
+
+  private final AS2ServerXMLSession m_aSession;
+  private final ServerMessageProcessor m_aMsgProcessor;
+  private String m_sProcessorKey;
+  private ICommonsList <Entry> m_aEntries = new CommonsArrayList <> ();
+
+  ProcessorModuleReloader (@Nonnull final AS2ServerXMLSession aSession,
+                           @Nonnull final ServerMessageProcessor aMsgProcessor,
+                           @Nonnull final IMicroElement eProcessor)
+  {
+    m_aSession = aSession;
+    m_aMsgProcessor = aMsgProcessor;
+    // The modules are child elements and are compared separately
+    m_sProcessorKey = _getAttributeKey (eProcessor);
+  }
+
+  @Nonnull
+  private String _getAttributeKey (@Nonnull final IMicroElement aElement)
+  {
+    final ICommonsSortedMap <String, String> aAttrs = new CommonsTreeMap <> ();
+    if (aElement.hasAttributes ())
+      for (final Map.Entry <String, String> aEntry : aElement.getAllAttributes ().entrySet ())
+        aAttrs.put (aEntry.getKey ().toLowerCase (Locale.US),
+                    StringHelper.replaceAll (aEntry.getValue (),
+                                             XMLConfigSnapshot.HOME_PLACEHOLDER,
+                                             m_aSession.getBaseDirectory ()));
+    return aAttrs.toString ();
+  }
+
+  private void _appendKey (@Nonnull final StringBuilder aSB, @Nonnull final IMicroElement aElement)
+  {
+    aSB.append (_getAttributeKey (aElement));
+    final String sText = aElement.getTextContentTrimmed ();
+    if (StringHelper.hasText (sText))
+      aSB.append ('"').append (sText).append ('"');
+    for (final IMicroElement eChild : aElement.getAllChildElements ())
+    {
+      aSB.append ('<').append (eChild.getTagName ());
+      _appendKey (aSB, eChild);
+      aSB.append ('>');
+    }
+  }
+
+  /**
+   * Build the identity of a component element from its attributes and all of
+   * its child elements. Attribute names are compared case insensitive and the
+   * home directory placeholder is resolved, so that the key is independent of
+   * whether the element was read from the XML file or from a configuration
+   * snapshot.
+   *
+   * @param aElement
+   *        The element to get the key from. May not be <code>null</code>.
+   * @return The key. Never <code>null</code>.
+   */
+  @Nonnull
+  String getKey (@Nonnull final IMicroElement aElement)
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    _appendKey (aSB, aElement);
+    return aSB.toString ();
+  }
+
+  /**
+   * Remember a module that was loaded from the provided element.
+   *
+   * @param eModule
+   *        The module element. May not be <code>null</code>.
+   * @param aModule
+   *        The created module. May not be <code>null</code>.
+   */
+  synchronized void addModule (@Nonnull final IMicroElement eModule, @Nonnull final IProcessorModule aModule)
+  {
+    m_aEntries.add (new Entry (getKey (eModule), aModule));
+  }
+
+  @Nullable
+  private static IMicroElement _findProcessor (@Nonnull final IMicroElement eRoot)
+  {
+    return eRoot.getFirstChildElement (AS2ServerXMLSession.EL_PROCESSOR);
+  }
+
+  /**
+   * Apply the processor modules of the provided configuration.
+   *
+   * @param eRoot
+   *        The root element of the changed configuration. May not be
+   *        <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If a new module could not be created (in this case nothing was
+   *         changed) or if a new module failed to start (in this case the
+   *         previous instance of a changed module is kept running).
+   */
+  synchronized void reload (@Nonnull final IMicroElement eRoot) throws OpenAS2Exception
+  {
+    final IMicroElement eProcessor = _findProcessor (eRoot);
+    if (eProcessor == null)
+    {
+      s_aLogger.warn ("The changed configuration contains no processor - ignoring it");
+      return;
+    }
+    if (!_getAttributeKey (eProcessor).equals (m_sProcessorKey))
+    {
+      s_aLogger.warn ("The message processor itself was changed - this requires a restart. Only the modules are reloaded.");
+      m_sProcessorKey = _getAttributeKey (eProcessor);
+    }
+
+    // Build the new module set - the existing modules are used meanwhile
+    final ICommonsList <Entry> aUnused = m_aEntries.getClone ();
+    final ICommonsList <Entry> aNewEntries = new CommonsArrayList <> ();
+    final ICommonsList <IProcessorModule> aAdded = new CommonsArrayList <> ();
+    for (final IMicroElement eModule : eProcessor.getAllChildElements ("module"))
+    {
+      final String sKey = getKey (eModule);
+      Entry aMatch = null;
+      for (int i = 0; i < aUnused.size (); ++i)
+        if (aUnused.get (i).m_sKey.equals (sKey))
+        {
+          aMatch = aUnused.remove (i);
+          break;
+        }
+      if (aMatch == null)
+      {
+        final IProcessorModule aModule = m_aSession.createComponent (eModule, IProcessorModule.class);
+        aMatch = new Entry (sKey, aModule);
+        aAdded.add (aModule);
+      }
+      aNewEntries.add (aMatch);
+    }
+
+    if (aAdded.isEmpty () && aUnused.isEmpty ())
+    {
+      s_aLogger.info ("Processor modules are unchanged");
+      m_aEntries = aNewEntries;
+      return;
+    }
+
+    // A changed module replaces the first removed module of the same class
+    final ICommonsMap <IProcessorModule, Entry> aPredecessors = new CommonsHashMap <> ();
+    final ICommonsList <Entry> aUnpaired = aUnused.getClone ();
+    for (final IProcessorModule aModule : aAdded)
+      for (int i = 0; i < aUnpaired.size (); ++i)
+        if (aUnpaired.get (i).m_aModule.getClass ().equals (aModule.getClass ()))
+        {
+          aPredecessors.put (aModule, aUnpaired.remove (i));
+          break;
+        }
+
+    // Swap
+    final ICommonsList <IProcessorModule> aModules = new CommonsArrayList <> ();
+    for (final Entry aEntry : aNewEntries)
+      aModules.add (aEntry.m_aModule);
+    m_aMsgProcessor.replaceAllModules (aModules);
+    m_aEntries = aNewEntries;
+
+    // Stop the removed modules before starting the new ones, so that e.g. a
+    // changed receiver can bind to the same port again
+    final ICommonsList <Entry> aStopped = new CommonsArrayList <> ();
+    for (final Entry aEntry : aUnused)
+      if (aEntry.m_aModule instanceof IProcessorActiveModule)
+        try
+        {
+          final IProcessorActiveModule aActiveModule = (IProcessorActiveModule) aEntry.m_aModule;
+          if (aActiveModule.isRunning ())
+          {
+            aActiveModule.stop ();
+            aStopped.add (aEntry);
+          }
+        }
+        catch (final OpenAS2Exception ex)
+        {
+          ex.terminate ();
+        }
+    final ICommonsList <IProcessorModule> aFailed = new CommonsArrayList <> ();
+    for (final IProcessorModule aModule : aAdded)
+      if (aModule instanceof IProcessorActiveModule)
+        try
+        {
+          ((IProcessorActiveModule) aModule).start ();
+        }
+        catch (final OpenAS2Exception ex)
+        {
+          ex.terminate ();
+          aFailed.add (aModule);
+        }
+
+    if (!aFailed.isEmpty ())
+    {
+      // Don't keep modules that never run - they are created again with the
+      // next reload. A changed module falls back to its previous instance.
+      for (final IProcessorModule aModule : aFailed)
+      {
+        final int nIndex = aModules.indexOf (aModule);
+        final Entry aPredecessor = aPredecessors.get (aModule);
+        if (aPredecessor != null && aStopped.contains (aPredecessor) && _restart (aPredecessor))
+        {
+          s_aLogger.error ("The changed processor module " +
+                           aModule.getName () +
+                           " failed to start - the previous instance was started again");
+          aNewEntries.set (nIndex, aPredecessor);
+          aModules.set (nIndex, aPredecessor.m_aModule);
+          aUnused.remove (aPredecessor);
+        }
+        else
+        {
+          s_aLogger.error ("The processor module " + aModule.getName () + " failed to start and was removed again");
+          aNewEntries.remove (nIndex);
+          aModules.remove (nIndex);
+        }
+      }
+      aAdded.removeAll (aFailed);
+      m_aMsgProcessor.replaceAllModules (aModules);
+      m_aEntries = aNewEntries;
+    }
+
+    s_aLogger.info ("Processor modules reloaded: " +
+                    aAdded.size () +
+                    " added, " +
+                    aUnused.size () +
+                    " removed, " +
+                    (aNewEntries.size () - aAdded.size ()) +
+                    " unchanged");
+    if (!aFailed.isEmpty ())
+      throw new OpenAS2Exception (aFailed.size () + " processor modules failed to start");
+  }
+
+  private static boolean _restart (@Nonnull final Entry aEntry)
+  {
+    try
+    {
+      ((IProcessorActiveModule) aEntry.m_aModule).start ();
+      return true;
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      ex.terminate ();
+      return false;
+    }
+  }
+
+  public void handle (final FileMonitor aMonitor, final File aFile, final int nEventID)
+  {
+    if (nEventID == IFileMonitorListener.EVENT_MODIFIED)
+    {
+      s_aLogger.info ("Configuration file " + aFile.getName () + " changed - reloading processor modules");
+      try
+      {
+        reload (m_aSession.readConfiguration (aFile));
+      }
+      catch (final OpenAS2Exception ex)
+      {
+        aMonitor.reportError (ex);
+        ex.terminate ();
+      }
+    }
+  }
+}
@@ -49,8 +49,17 @@ public class CommandManager
 
   private ICommonsList <AbstractCommandProcessor> m_aProcessors;
 
+  public CommandManager ()
+  {}
+
+  /**
+   * @return The process wide default instance.
+   * @deprecated Each session has its own command manager - use
+   *             <code>AS2ServerXMLSession.getCommandManager ()</code> instead.
+   */
+  @Deprecated
   @Nonnull
-  public static CommandManager getCmdManager ()
+  public static synchronized CommandManager getCmdManager ()
   {
     if (s_aDefaultManager == null)
       s_aDefaultManager = new CommandManager ();
@@ -32,17 +32,21 @@
  */
 package com.helger.as2.cmd;
 
+import java.io.File;
 import java.io.InputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.helger.as2.app.component.ComponentFactoryRegistry;
 import com.helger.as2.app.session.AS2ServerXMLSession;
+import com.helger.as2.util.XMLConfigSnapshot;
 import com.helger.as2lib.exception.OpenAS2Exception;
 import com.helger.as2lib.session.IAS2Session;
 import com.helger.as2lib.util.IStringMap;
 import com.helger.as2lib.util.XMLHelper;
 import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.string.StringParser;
 import com.helger.xml.microdom.IMicroDocument;
 import com.helger.xml.microdom.IMicroElement;
 import com.helger.xml.microdom.serialize.MicroReader;
@@ -50,6 +54,7 @@ import com.helger.xml.microdom.serialize.MicroReader;
 public class XMLCommandRegistry extends BaseCommandRegistry
 {
   public static final String ATTR_FILENAME = "filename";
+  public static final String ATTR_SNAPSHOT = "snapshot";
 
   @Override
   public void initDynamicComponent (@Nonnull final IAS2Session aSession,
@@ -64,9 +69,11 @@ public class XMLCommandRegistry extends BaseCommandRegistry
                               @Nullable final MultiCommand aParent) throws OpenAS2Exception
   {
     final IAS2Session aSession = getSession ();
-    final String sBaseDirectory = aSession instanceof AS2ServerXMLSession ? ((AS2ServerXMLSession) aSession).getBaseDirectory ()
-                                                                          : null;
-    final ICommand aCommand = XMLHelper.createComponent (eCommand, ICommand.class, aSession, sBaseDirectory);
+    final ICommand aCommand;
+    if (aSession instanceof AS2ServerXMLSession)
+      aCommand = ((AS2ServerXMLSession) aSession).createComponent (eCommand, ICommand.class);
+    else
+      aCommand = ComponentFactoryRegistry.getInstance ().createComponent (eCommand, ICommand.class, aSession, null);
     if (aParent != null)
       aParent.getCommands ().add (aCommand);
     else
@@ -101,8 +108,13 @@ public class XMLCommandRegistry extends BaseCommandRegistry
   public void load (@Nonnull final InputStream in) throws OpenAS2Exception
   {
     final IMicroDocument aDoc = MicroReader.readMicroXML (in);
-    final IMicroElement eRoot = aDoc.getDocumentElement ();
+    if (aDoc == null)
+      throw new OpenAS2Exception ("Failed to read commands as XML");
+    load (aDoc.getDocumentElement ());
+  }
 
+  public void load (@Nonnull final IMicroElement eRoot) throws OpenAS2Exception
+  {
     clearCommands ();
 
     for (final IMicroElement eElement : eRoot.getAllChildElements ())
@@ -121,6 +133,12 @@ public class XMLCommandRegistry extends BaseCommandRegistry
   public void refresh () throws OpenAS2Exception
   {
     final String sFilename = getAttributeAsStringRequired (ATTR_FILENAME);
-    load (FileHelper.getInputStream (sFilename));
+    if (StringParser.parseBool (getAttributeAsString (ATTR_SNAPSHOT), false))
+    {
+      // Use a binary snapshot as long as the file is unchanged
+      load (XMLConfigSnapshot.readConfiguration (new File (sFilename), null, eRoot -> true));
+    }
+    else
+      load (FileHelper.getInputStream (sFilename));
   }
 }
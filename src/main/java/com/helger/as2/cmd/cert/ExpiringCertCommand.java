@@ -0,0 +1,97 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.cmd.cert;
+
+import java.util.Date;
+import java.util.Map;
+
+import com.helger.as2.app.cert.ServerPKCS12CertificateFactory;
+import com.helger.as2.cmd.CommandResult;
+import com.helger.as2.cmd.ECommandResultType;
+import com.helger.as2lib.cert.IAliasedCertificateFactory;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.commons.collection.ext.ICommonsOrderedMap;
+import com.helger.commons.string.StringParser;
+
+/**
+ * List all aliases whose certificates expire within a number of days, ordered
+ * by expiration. The expiry index of the current certificate snapshot is used,
+ * so no certificate is decoded.
+ *
+ * @author Philip Helger
+ */
+public class ExpiringCertCommand extends AbstractAliasedCertCommand
+{
+  @Override
+  public String getDefaultDescription ()
+  {
+    return "List all aliases whose certificates expire within the provided number of days.";
+  }
+
+  @Override
+  public String getDefaultName ()
+  {
+    return "expiring";
+  }
+
+  @Override
+  public String getDefaultUsage ()
+  {
+    return "expiring <days>";
+  }
+
+  @Override
+  protected CommandResult execute (final IAliasedCertificateFactory certFx,
+                                   final Object [] params) throws OpenAS2Exception
+  {
+    if (params.length < 1)
+      return new CommandResult (ECommandResultType.TYPE_INVALID_PARAM_COUNT, getUsage ());
+
+    if (!(certFx instanceof ServerPKCS12CertificateFactory))
+      return new CommandResult (ECommandResultType.TYPE_COMMAND_NOT_SUPPORTED,
+                                "Not supported by current certificate store");
+
+    final int nDays = StringParser.parseInt (params[0].toString (), -1);
+    if (nDays < 0)
+      return new CommandResult (ECommandResultType.TYPE_ERROR, "Invalid number of days: " + params[0]);
+
+    // Alias and expiration from the same snapshot - a concurrent removal cannot
+    // make the alias disappear in between
+    final ICommonsOrderedMap <String, Long> aExpirations = ((ServerPKCS12CertificateFactory) certFx).getAllExpirationsWithin (nDays);
+    final CommandResult cmdRes = new CommandResult (ECommandResultType.TYPE_OK,
+                                                    aExpirations.size () + " certificates expire within " + nDays + " days");
+    for (final Map.Entry <String, Long> aEntry : aExpirations.entrySet ())
+      cmdRes.addResult (aEntry.getKey () + ": " + new Date (aEntry.getValue ().longValue ()));
+    return cmdRes;
+  }
+}
@@ -0,0 +1,269 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.cmd.cert;
+
+import java.io.File;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.as2.app.cert.CertificateImportEntry;
+import com.helger.as2.app.cert.ServerPKCS12CertificateFactory;
+import com.helger.as2.app.session.AS2ServerXMLSession;
+import com.helger.as2.cmd.CommandResult;
+import com.helger.as2.cmd.ECommandResultType;
+import com.helger.as2.util.ExecutorRegistry;
+import com.helger.as2lib.cert.IAliasedCertificateFactory;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.util.AS2Helper;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsHashSet;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsSet;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FilenameHelper;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Import all certificate and PKCS#12 files of a directory. The files are parsed
+ * in parallel and all certificates are added to the certificate factory in one
+ * batch. The alias of each file is derived from the alias format, in which
+ * <code>$name$</code> is replaced with the lower case file name without the
+ * extension.
+ *
+ * @author Philip Helger
+ */
+public class ImportCertDirCommand extends AbstractAliasedCertCommand
+{
+  /** The placeholder for the file name in the alias format */
+  public static final String PLACEHOLDER_NAME = "$name$";
+
+  private static final String [] CERT_EXTENSIONS = { "cer", "crt", "der", "pem" };
+  private static final String [] KEY_EXTENSIONS = { "p12", "pfx" };
+
+  /**
+   * The result of parsing a single file.
+   */
+  private static final class FileResult
+  {
+    private final File m_aFile;
+    private final String m_sAlias;
+    private CertificateImportEntry m_aEntry;
+    private String m_sError;
+
+    FileResult (@Nonnull final File aFile, @Nonnull final String sAlias)
+    {
+      m_aFile = aFile;
+      m_sAlias = sAlias;
+    }
+  }
+
+  @Override
+  public String getDefaultDescription ()
+  {
+    return "Import all certificates of a directory into the current certificate store";
+  }
+
+  @Override
+  public String getDefaultName ()
+  {
+    return "importdir";
+  }
+
+  @Override
+  public String getDefaultUsage ()
+  {
+    return "importdir <directory> [<password>] [<aliasformat>]";
+  }
+
+  @Nonnull
+  private Executor _getExecutor ()
+  {
+    if (getSession () instanceof AS2ServerXMLSession)
+      return ((AS2ServerXMLSession) getSession ()).getExecutorRegistry ()
+                                                  .getExecutor (ExecutorRegistry.EXECUTOR_CERT_IMPORT);
+    return ForkJoinPool.commonPool ();
+  }
+
+  private static void _parse (@Nonnull final FileResult aResult, @Nullable final String sPassword)
+  {
+    final boolean bKeyFile = Arrays.asList (KEY_EXTENSIONS)
+                                   .contains (FilenameHelper.getExtension (aResult.m_aFile.getName ())
+                                                            .toLowerCase (Locale.US));
+    if (bKeyFile && sPassword == null)
+    {
+      aResult.m_sError = "Password is required for PKCS#12 files";
+      return;
+    }
+
+    final InputStream aIS = FileHelper.getInputStream (aResult.m_aFile);
+    if (aIS == null)
+    {
+      aResult.m_sError = "Failed to open file";
+      return;
+    }
+    try
+    {
+      if (bKeyFile)
+      {
+        final KeyStore aKS = AS2Helper.getCryptoHelper ().createNewKeyStore ();
+        aKS.load (aIS, sPassword.toCharArray ());
+        // Prefer the key entry - the first certificate is only used if there
+        // is none
+        final Enumeration <String> aAliases = aKS.aliases ();
+        while (aAliases.hasMoreElements ())
+        {
+          final String sKSAlias = aAliases.nextElement ();
+          final Certificate aCert = aKS.getCertificate (sKSAlias);
+          if (aCert instanceof X509Certificate)
+          {
+            if (aKS.isKeyEntry (sKSAlias))
+            {
+              aResult.m_aEntry = new CertificateImportEntry (aResult.m_sAlias,
+                                                             (X509Certificate) aCert,
+                                                             aKS.getKey (sKSAlias, sPassword.toCharArray ()),
+                                                             sPassword);
+              break;
+            }
+            if (aResult.m_aEntry == null)
+              aResult.m_aEntry = new CertificateImportEntry (aResult.m_sAlias, (X509Certificate) aCert, null, null);
+          }
+        }
+      }
+      else
+      {
+        final Certificate aCert = CertificateFactory.getInstance ("X.509").generateCertificate (aIS);
+        if (aCert instanceof X509Certificate)
+          aResult.m_aEntry = new CertificateImportEntry (aResult.m_sAlias, (X509Certificate) aCert, null, null);
+      }
+      if (aResult.m_aEntry == null)
+        aResult.m_sError = "No valid X509 certificates found";
+    }
+    catch (final Exception ex)
+    {
+      aResult.m_sError = ex.getClass ().getSimpleName () + ": " + ex.getMessage ();
+    }
+    finally
+    {
+      StreamHelper.close (aIS);
+    }
+  }
+
+  @Override
+  public CommandResult execute (final IAliasedCertificateFactory certFx, final Object [] params) throws OpenAS2Exception
+  {
+    if (params.length < 1)
+    {
+      return new CommandResult (ECommandResultType.TYPE_INVALID_PARAM_COUNT, getUsage ());
+    }
+
+    final File aDir = new File (params[0].toString ());
+    final String sPassword = params.length > 1 ? params[1].toString () : null;
+    final String sAliasFormat = params.length > 2 ? params[2].toString () : PLACEHOLDER_NAME;
+
+    final File [] aFiles = aDir.listFiles (f -> {
+      final String sExt = FilenameHelper.getExtension (f.getName ()).toLowerCase (Locale.US);
+      return f.isFile () &&
+             (Arrays.asList (CERT_EXTENSIONS).contains (sExt) || Arrays.asList (KEY_EXTENSIONS).contains (sExt));
+    });
+    if (aFiles == null)
+      return new CommandResult (ECommandResultType.TYPE_ERROR, "Not a directory: " + aDir.getAbsolutePath ());
+    Arrays.sort (aFiles);
+
+    // Parse in parallel
+    final Executor aExecutor = _getExecutor ();
+    final ICommonsList <FileResult> aResults = new CommonsArrayList <> ();
+    final ICommonsList <CompletableFuture <Void>> aFutures = new CommonsArrayList <> ();
+    for (final File aFile : aFiles)
+    {
+      final String sName = FilenameHelper.getBaseName (aFile.getName ()).toLowerCase (Locale.US);
+      final FileResult aResult = new FileResult (aFile, sAliasFormat.replace (PLACEHOLDER_NAME, sName));
+      aResults.add (aResult);
+      aFutures.add (CompletableFuture.runAsync ( () -> _parse (aResult, sPassword), aExecutor));
+    }
+    CompletableFuture.allOf (aFutures.toArray (new CompletableFuture <?> [aFutures.size ()])).join ();
+
+    // Collect the valid entries - the first file of an alias wins
+    final ICommonsList <CertificateImportEntry> aEntries = new CommonsArrayList <> ();
+    final ICommonsSet <String> aAliases = new CommonsHashSet <> ();
+    for (final FileResult aResult : aResults)
+      if (aResult.m_aEntry != null)
+      {
+        if (aAliases.add (aResult.m_sAlias))
+          aEntries.add (aResult.m_aEntry);
+        else
+        {
+          aResult.m_aEntry = null;
+          aResult.m_sError = "Duplicate alias '" + aResult.m_sAlias + "'";
+        }
+      }
+
+    if (certFx instanceof ServerPKCS12CertificateFactory)
+      ((ServerPKCS12CertificateFactory) certFx).addAll (aEntries, true);
+    else
+      synchronized (certFx)
+      {
+        for (final CertificateImportEntry aEntry : aEntries)
+        {
+          certFx.addCertificate (aEntry.getAlias (), aEntry.getCertificate (), true);
+          if (aEntry.hasKey ())
+            certFx.addPrivateKey (aEntry.getAlias (), aEntry.getKey (), aEntry.getKeyPassword ());
+        }
+      }
+
+    final CommandResult cmdRes = new CommandResult (aEntries.size () == aResults.size () ? ECommandResultType.TYPE_OK
+                                                                                         : ECommandResultType.TYPE_ERROR,
+                                                    "Imported " + aEntries.size () + " of " + aResults.size () + " files");
+    for (final FileResult aResult : aResults)
+      if (aResult.m_aEntry != null)
+        cmdRes.addResult ("OK " +
+                          aResult.m_aFile.getName () +
+                          " -> " +
+                          aResult.m_sAlias +
+                          (aResult.m_aEntry.hasKey () ? " (with key)" : ""));
+      else
+        cmdRes.addResult ("ERROR " + aResult.m_aFile.getName () + ": " + aResult.m_sError);
+    return cmdRes;
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.cmd.cert;
+
+import java.security.cert.X509Certificate;
+
+import com.helger.as2.app.cert.CertificateValidationCache;
+import com.helger.as2.app.cert.ServerPKCS12CertificateFactory;
+import com.helger.as2.cmd.CommandResult;
+import com.helger.as2.cmd.ECommandResultType;
+import com.helger.as2lib.cert.IAliasedCertificateFactory;
+import com.helger.as2lib.exception.OpenAS2Exception;
+
+/**
+ * Validate the certification path of the certificate of an alias.
+ *
+ * @author Philip Helger
+ */
+public class ValidateCertCommand extends AbstractAliasedCertCommand
+{
+  @Override
+  public String getDefaultDescription ()
+  {
+    return "Validate the certification path of the certificate associated with an alias.";
+  }
+
+  @Override
+  public String getDefaultName ()
+  {
+    return "validate";
+  }
+
+  @Override
+  public String getDefaultUsage ()
+  {
+    return "validate <alias>";
+  }
+
+  @Override
+  protected CommandResult execute (final IAliasedCertificateFactory certFx,
+                                   final Object [] params) throws OpenAS2Exception
+  {
+    if (params.length < 1)
+      return new CommandResult (ECommandResultType.TYPE_INVALID_PARAM_COUNT, getUsage ());
+
+    if (!(certFx instanceof ServerPKCS12CertificateFactory))
+      return new CommandResult (ECommandResultType.TYPE_COMMAND_NOT_SUPPORTED,
+                                "Not supported by current certificate store");
+
+    final String sAlias = params[0].toString ();
+    final X509Certificate aCert = certFx.getCertificate (sAlias);
+    final CertificateValidationCache.Result aResult = ((ServerPKCS12CertificateFactory) certFx).validateCertificate (aCert);
+    return new CommandResult (aResult.isValid () ? ECommandResultType.TYPE_OK : ECommandResultType.TYPE_ERROR,
+                              sAlias + ": " + (aResult.isValid () ? "valid" : "invalid") + " - " + aResult.getMessage ());
+  }
+}
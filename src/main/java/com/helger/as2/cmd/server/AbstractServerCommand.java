@@ -0,0 +1,73 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.cmd.server;
+
+import javax.annotation.Nonnull;
+
+import com.helger.as2.app.session.AS2ServerXMLSession;
+import com.helger.as2.cmd.AbstractCommand;
+import com.helger.as2.cmd.CommandResult;
+import com.helger.as2.cmd.ECommandResultType;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.session.IAS2Session;
+
+/**
+ * Base class for all commands that require an {@link AS2ServerXMLSession}.
+ *
+ * @author Philip Helger
+ */
+public abstract class AbstractServerCommand extends AbstractCommand
+{
+  @Override
+  public final CommandResult execute (final Object [] params)
+  {
+    try
+    {
+      final IAS2Session aSession = getSession ();
+      if (aSession instanceof AS2ServerXMLSession)
+        return execute ((AS2ServerXMLSession) aSession, params);
+
+      return new CommandResult (ECommandResultType.TYPE_COMMAND_NOT_SUPPORTED, "Not supported by current session");
+    }
+    catch (final OpenAS2Exception oae)
+    {
+      oae.terminate ();
+
+      return new CommandResult (oae);
+    }
+  }
+
+  @Nonnull
+  protected abstract CommandResult execute (@Nonnull AS2ServerXMLSession aSession,
+                                            Object [] params) throws OpenAS2Exception;
+}
@@ -32,6 +32,9 @@
  */
 package com.helger.as2.cmdprocessor;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -54,6 +57,7 @@ public abstract class AbstractCommandProcessor extends StringMap
 {
   private final ICommonsOrderedMap <String, ICommand> m_aCommands = new CommonsLinkedHashMap<> ();
   private volatile boolean m_bTerminated = false;
+  private final List <Runnable> m_aTerminationListeners = new CopyOnWriteArrayList <> ();
 
   public AbstractCommandProcessor ()
   {}
@@ -103,8 +107,22 @@ public abstract class AbstractCommandProcessor extends StringMap
     m_aCommands.putAll (aCommandRegistry.getAllCommands ());
   }
 
+  /**
+   * Add a listener that is invoked when this command processor is terminated.
+   *
+   * @param aListener
+   *        The listener to add. May not be <code>null</code>.
+   */
+  public void addTerminationListener (@Nonnull final Runnable aListener)
+  {
+    ValueEnforcer.notNull (aListener, "Listener");
+    m_aTerminationListeners.add (aListener);
+  }
+
   public void terminate ()
   {
     m_bTerminated = true;
+    for (final Runnable aListener : m_aTerminationListeners)
+      aListener.run ();
   }
 }
@@ -210,7 +210,7 @@ public class SocketCommandProcessor extends AbstractCommandProcessor
   {
     try
     {
-      while (true)
+      while (!isTerminated ())
       {
         processCommand ();
       }
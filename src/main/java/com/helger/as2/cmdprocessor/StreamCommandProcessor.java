@@ -98,7 +98,7 @@ public class StreamCommandProcessor extends AbstractCommandProcessor
   {
     try
     {
-      while (true)
+      while (!isTerminated ())
         processCommand ();
     }
     catch (final OpenAS2Exception e)
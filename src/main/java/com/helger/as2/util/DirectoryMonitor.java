@@ -0,0 +1,415 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsHashMap;
+import com.helger.commons.collection.ext.CommonsHashSet;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsMap;
+import com.helger.commons.collection.ext.ICommonsSet;
+
+/**
+ * Monitors all files of a directory tree. Created, modified and deleted files
+ * are collected for the batch window, starting with the first change, and are
+ * then passed to the registered {@link IDirectoryMonitorListener} instances as
+ * one coalesced {@link FileChangeSet}. If a {@link FileWatcher} is provided,
+ * all directories of the tree are watched and every event triggers a rescan
+ * of the tree. Otherwise, or if a directory cannot be watched, the tree is
+ * rescanned every interval seconds. A directory that can no longer be watched
+ * (e.g. because it was deleted and created again) is registered again with the
+ * next scan.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class DirectoryMonitor
+{
+  /** The default batch window in milliseconds */
+  public static final long DEFAULT_BATCH_WINDOW_MILLIS = 2000;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (DirectoryMonitor.class);
+
+  private static final class FileState
+  {
+    private final long m_nLastModified;
+    private final long m_nLength;
+
+    FileState (@Nonnull final File aFile)
+    {
+      m_nLastModified = aFile.lastModified ();
+      m_nLength = aFile.length ();
+    }
+
+    boolean isSame (@Nonnull final FileState aOther)
+    {
+      return m_nLastModified == aOther.m_nLastModified && m_nLength == aOther.m_nLength;
+    }
+  }
+
+  private final File m_aRootDir;
+  private final int m_nIntervalSeconds;
+  private final FileFilter m_aFilter;
+  private final FileMonitorScheduler m_aScheduler;
+  private final FileWatcher m_aWatcher;
+  private final Runnable m_aWatchCallback = this::onWatchEvent;
+  private final AtomicBoolean m_aScanRequested = new AtomicBoolean (false);
+  private final ICommonsList <IDirectoryMonitorListener> m_aListeners = new CommonsArrayList <> ();
+  private volatile long m_nBatchWindowMillis = DEFAULT_BATCH_WINDOW_MILLIS;
+
+  private final Object m_aScanLock = new Object ();
+  @GuardedBy ("m_aScanLock")
+  private boolean m_bRunning = false;
+  @GuardedBy ("m_aScanLock")
+  private ICommonsMap <File, FileState> m_aSnapshot = new CommonsHashMap <> ();
+  @GuardedBy ("m_aScanLock")
+  private final ICommonsSet <File> m_aWatchedDirs = new CommonsHashSet <> ();
+  @GuardedBy ("m_aScanLock")
+  private FileMonitorScheduler.Handle m_aPollTick;
+
+  @GuardedBy ("this")
+  private FileChangeSet m_aPending = new FileChangeSet ();
+  @GuardedBy ("this")
+  private ScheduledFuture <?> m_aFlush;
+
+  /**
+   * @param aRootDir
+   *        The root directory of the tree to monitor. May not be
+   *        <code>null</code>.
+   * @param nIntervalSeconds
+   *        The rescan interval in seconds, if the tree is polled. Must be &gt;
+   *        0.
+   * @param aFilter
+   *        An optional filter for the files to consider. Directories are always
+   *        traversed. May be <code>null</code>.
+   * @param aScheduler
+   *        The scheduler to run the scans on. If <code>null</code> the default
+   *        instance is used.
+   * @param aWatcher
+   *        The file watcher to use. If <code>null</code> the tree is polled.
+   */
+  public DirectoryMonitor (@Nonnull final File aRootDir,
+                           final int nIntervalSeconds,
+                           @Nullable final FileFilter aFilter,
+                           @Nullable final FileMonitorScheduler aScheduler,
+                           @Nullable final FileWatcher aWatcher)
+  {
+    m_aRootDir = ValueEnforcer.notNull (aRootDir, "RootDir");
+    m_nIntervalSeconds = ValueEnforcer.isGT0 (nIntervalSeconds, "IntervalSeconds");
+    m_aFilter = aFilter;
+    m_aScheduler = aScheduler != null ? aScheduler : FileMonitorScheduler.getDefaultInstance ();
+    m_aWatcher = aWatcher;
+  }
+
+  @Nonnull
+  public File getRootDirectory ()
+  {
+    return m_aRootDir;
+  }
+
+  public int getInterval ()
+  {
+    return m_nIntervalSeconds;
+  }
+
+  /**
+   * Set the time changes are collected before they are passed to the
+   * listeners.
+   *
+   * @param nBatchWindowMillis
+   *        The batch window in milliseconds. Must be &ge; 0.
+   */
+  public void setBatchWindowMillis (final long nBatchWindowMillis)
+  {
+    ValueEnforcer.isGE0 (nBatchWindowMillis, "BatchWindowMillis");
+    m_nBatchWindowMillis = nBatchWindowMillis;
+  }
+
+  public long getBatchWindowMillis ()
+  {
+    return m_nBatchWindowMillis;
+  }
+
+  public void addListener (@Nonnull final IDirectoryMonitorListener aListener)
+  {
+    ValueEnforcer.notNull (aListener, "Listener");
+    synchronized (m_aListeners)
+    {
+      m_aListeners.add (aListener);
+    }
+  }
+
+  /**
+   * @return <code>true</code> if all directories of the tree are watched by
+   *         the file system, <code>false</code> if the tree is polled.
+   */
+  public boolean isWatching ()
+  {
+    synchronized (m_aScanLock)
+    {
+      return m_bRunning && m_aPollTick == null;
+    }
+  }
+
+  /**
+   * @return The number of changed files that were not yet passed to the
+   *         listeners.
+   */
+  public synchronized int getPendingChangeCount ()
+  {
+    return m_aPending.size ();
+  }
+
+  private void _readTree (@Nonnull final File aDir,
+                          @Nonnull final ICommonsMap <File, FileState> aFiles,
+                          @Nonnull final ICommonsSet <File> aDirs)
+  {
+    aDirs.add (aDir);
+    final File [] aChildren = aDir.listFiles ();
+    if (aChildren != null)
+      for (final File aChild : aChildren)
+        if (aChild.isDirectory ())
+          _readTree (aChild, aFiles, aDirs);
+        else
+          if (m_aFilter == null || m_aFilter.accept (aChild))
+            aFiles.put (aChild, new FileState (aChild));
+  }
+
+  @GuardedBy ("m_aScanLock")
+  private void _updateWatches (@Nonnull final ICommonsSet <File> aDirs)
+  {
+    boolean bPoll = m_aWatcher == null;
+    if (m_aWatcher != null)
+    {
+      for (final File aDir : new CommonsArrayList <> (m_aWatchedDirs))
+        if (!aDirs.contains (aDir))
+        {
+          m_aWatcher.unregisterDirectory (aDir, m_aWatchCallback);
+          final Path aPath = aDir.getAbsoluteFile ().toPath ().normalize ();
+      m_aWatchedDirs.removeIf (x -> x.getAbsoluteFile ().toPath ().normalize ().equals (aPath));
+        }
+      for (final File aDir : aDirs)
+        if (!m_aWatchedDirs.contains (aDir))
+        {
+          if (m_aWatcher.registerDirectory (aDir, m_aWatchCallback, this::onWatchInvalidated))
+            m_aWatchedDirs.add (aDir);
+          else
+            bPoll = true;
+        }
+    }
+
+    if (bPoll && m_aPollTick == null)
+    {
+      if (m_aWatcher != null)
+        s_aLogger.info ("Polling " + m_aRootDir.getAbsolutePath () + " every " + m_nIntervalSeconds + " seconds");
+      m_aPollTick = m_aScheduler.schedule (this::scan, m_nIntervalSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Start monitoring. The current state of the tree is remembered - only later
+   * changes are reported.
+   */
+  public void start ()
+  {
+    synchronized (m_aScanLock)
+    {
+      if (m_bRunning)
+        return;
+      final ICommonsMap <File, FileState> aFiles = new CommonsHashMap <> ();
+      final ICommonsSet <File> aDirs = new CommonsHashSet <> ();
+      _readTree (m_aRootDir, aFiles, aDirs);
+      m_aSnapshot = aFiles;
+      m_bRunning = true;
+      _updateWatches (aDirs);
+    }
+  }
+
+  /**
+   * Stop monitoring. Changes that were not yet passed to the listeners are
+   * discarded.
+   */
+  public void stop ()
+  {
+    synchronized (m_aScanLock)
+    {
+      if (!m_bRunning)
+        return;
+      m_bRunning = false;
+      if (m_aPollTick != null)
+      {
+        m_aPollTick.cancel ();
+        m_aPollTick = null;
+      }
+      for (final File aDir : m_aWatchedDirs)
+        m_aWatcher.unregisterDirectory (aDir, m_aWatchCallback);
+      m_aWatchedDirs.clear ();
+    }
+    synchronized (this)
+    {
+      if (m_aFlush != null)
+      {
+        m_aFlush.cancel (false);
+        m_aFlush = null;
+      }
+      m_aPending = new FileChangeSet ();
+    }
+  }
+
+  /**
+   * Called by the {@link FileWatcher} on the watcher thread. Events that
+   * arrive while a scan is pending are merged into that scan.
+   */
+  protected void onWatchEvent ()
+  {
+    if (m_aScanRequested.compareAndSet (false, true))
+      m_aScheduler.execute ( () -> {
+        m_aScanRequested.set (false);
+        scan ();
+      });
+  }
+
+  /**
+   * Called by the {@link FileWatcher} when a directory of the tree can no
+   * longer be watched. The registration was already dropped, so the directory
+   * is registered again by the next scan, if it still exists.
+   *
+   * @param aDir
+   *        The directory that is no longer watched.
+   */
+  protected void onWatchInvalidated (@Nonnull final File aDir)
+  {
+    synchronized (m_aScanLock)
+    {
+      m_aWatchedDirs.remove (aDir);
+    }
+    onWatchEvent ();
+  }
+
+  /**
+   * Scan the tree now and add all differences to the current batch.
+   */
+  public void scan ()
+  {
+    final FileChangeSet aChanges = new FileChangeSet ();
+    synchronized (m_aScanLock)
+    {
+      if (!m_bRunning)
+        return;
+
+      final ICommonsMap <File, FileState> aFiles = new CommonsHashMap <> ();
+      final ICommonsSet <File> aDirs = new CommonsHashSet <> ();
+      _readTree (m_aRootDir, aFiles, aDirs);
+
+      for (final Map.Entry <File, FileState> aEntry : aFiles.entrySet ())
+      {
+        final FileState aOld = m_aSnapshot.get (aEntry.getKey ());
+        if (aOld == null)
+          aChanges.onCreated (aEntry.getKey ());
+        else
+          if (!aOld.isSame (aEntry.getValue ()))
+            aChanges.onModified (aEntry.getKey ());
+      }
+      for (final File aFile : m_aSnapshot.keySet ())
+        if (!aFiles.containsKey (aFile))
+          aChanges.onDeleted (aFile);
+      m_aSnapshot = aFiles;
+
+      // New sub directories must be watched as well
+      _updateWatches (aDirs);
+    }
+
+    if (!aChanges.isEmpty ())
+      synchronized (this)
+      {
+        m_aPending.addAll (aChanges);
+        if (m_aFlush == null)
+          m_aFlush = m_aScheduler.scheduleOnce (this::flush, m_nBatchWindowMillis, TimeUnit.MILLISECONDS);
+      }
+  }
+
+  /**
+   * Pass all pending changes to the listeners now. Called at the end of the
+   * batch window.
+   */
+  public void flush ()
+  {
+    final FileChangeSet aChanges;
+    synchronized (this)
+    {
+      aChanges = m_aPending;
+      m_aPending = new FileChangeSet ();
+      if (m_aFlush != null)
+      {
+        m_aFlush.cancel (false);
+        m_aFlush = null;
+      }
+    }
+    if (aChanges.isEmpty ())
+      return;
+
+    s_aLogger.debug ("Passing " + aChanges.size () + " changed files of " + m_aRootDir.getAbsolutePath () + " to the listeners");
+
+    final ICommonsList <IDirectoryMonitorListener> aListeners;
+    synchronized (m_aListeners)
+    {
+      aListeners = m_aListeners.getClone ();
+    }
+    for (final IDirectoryMonitorListener aListener : aListeners)
+      try
+      {
+        aListener.handle (this, aChanges);
+      }
+      catch (final RuntimeException ex)
+      {
+        s_aLogger.error ("Error in directory monitor listener", ex);
+      }
+  }
+}
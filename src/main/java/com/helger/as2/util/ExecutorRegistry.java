@@ -0,0 +1,441 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsLinkedHashMap;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsOrderedMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+
+/**
+ * A registry of named thread pools. All threads of a server should be created
+ * via this registry so that the number of threads is bounded and visible.
+ * Pools can be defined explicitly (e.g. from the configuration file) or are
+ * created on first use as fixed pools with one thread per processor. Only the
+ * pools running one long-lived task per configured component (command
+ * processors and file watchers) are cached pools by default, because a fixed
+ * pool smaller than the number of these tasks would never run some of them.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class ExecutorRegistry
+{
+  /**
+   * The pool running the command processors - one long-lived task per command
+   * processor
+   */
+  public static final String EXECUTOR_COMMAND_PROCESSORS = "commandprocessors";
+  /** The scheduled pool used for periodic tasks like file monitoring */
+  public static final String EXECUTOR_SCHEDULER = "scheduler";
+  /**
+   * The pool running the file checks of the scheduler and the reloads they
+   * trigger
+   */
+  public static final String EXECUTOR_FILE_MONITORS = "filemonitors";
+  /** The pool used to load the configuration in parallel */
+  public static final String EXECUTOR_BOOTSTRAP = "bootstrap";
+  /**
+   * The pool running the file system watchers - one long-lived task per
+   * session
+   */
+  public static final String EXECUTOR_FILE_WATCHER = "filewatcher";
+  /** The pool used for the crash-recovery scan */
+  public static final String EXECUTOR_RECOVERY = "recovery";
+  /** The pool used to parse certificate files of a bulk import */
+  public static final String EXECUTOR_CERT_IMPORT = "certimport";
+  /** The pool used to stop the intake modules on shutdown */
+  public static final String EXECUTOR_SHUTDOWN = "shutdown";
+  /** The pool waiting for the shutdown of the tenants */
+  public static final String EXECUTOR_TENANTS = "tenants";
+  /** The pool to be used by custom processor modules */
+  public static final String EXECUTOR_MODULES = "modules";
+  /** The number of threads of pools that are created on first use */
+  public static final int DEFAULT_THREADS = Runtime.getRuntime ().availableProcessors ();
+
+  /**
+   * The different kind of pools.
+   */
+  public static enum EExecutorType
+  {
+    /** A fixed number of threads */
+    FIXED ("fixed"),
+    /** As many threads as needed, idle threads are reused */
+    CACHED ("cached"),
+    /** A fixed number of threads that can run delayed and periodic tasks */
+    SCHEDULED ("scheduled"),
+    /** One virtual thread per task, if supported by the JVM */
+    VIRTUAL ("virtual");
+
+    private final String m_sID;
+
+    private EExecutorType (@Nonnull @Nonempty final String sID)
+    {
+      m_sID = sID;
+    }
+
+    @Nonnull
+    @Nonempty
+    public String getID ()
+    {
+      return m_sID;
+    }
+
+    @Nullable
+    public static EExecutorType getFromIDOrNull (@Nullable final String sID)
+    {
+      for (final EExecutorType e : values ())
+        if (e.m_sID.equalsIgnoreCase (sID))
+          return e;
+      return null;
+    }
+  }
+
+  private static final class Entry
+  {
+    private final EExecutorType m_eType;
+    private final int m_nThreads;
+    private final ExecutorService m_aExecutor;
+
+    Entry (@Nonnull final EExecutorType eType, final int nThreads, @Nonnull final ExecutorService aExecutor)
+    {
+      m_eType = eType;
+      m_nThreads = nThreads;
+      m_aExecutor = aExecutor;
+    }
+  }
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ExecutorRegistry.class);
+
+  private final ICommonsOrderedMap <String, Entry> m_aMap = new CommonsLinkedHashMap <> ();
+
+  public ExecutorRegistry ()
+  {}
+
+  @Nonnull
+  private static ThreadFactory _createThreadFactory (@Nonnull final String sName)
+  {
+    return new BasicThreadFactory.Builder ().setNamingPattern ("as2-" + sName + "-%d").setDaemon (true).build ();
+  }
+
+  @Nullable
+  private static ExecutorService _createVirtualExecutor ()
+  {
+    // Java 8 compatible: only available on newer runtimes
+    try
+    {
+      final Method aMethod = Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) aMethod.invoke (null);
+    }
+    catch (final Exception ex)
+    {
+      return null;
+    }
+  }
+
+  @Nonnull
+  private static ExecutorService _createExecutor (@Nonnull final String sName,
+                                                  @Nonnull final EExecutorType eType,
+                                                  final int nThreads)
+  {
+    switch (eType)
+    {
+      case FIXED:
+        return Executors.newFixedThreadPool (nThreads, _createThreadFactory (sName));
+      case SCHEDULED:
+        return Executors.newScheduledThreadPool (nThreads, _createThreadFactory (sName));
+      case VIRTUAL:
+      {
+        final ExecutorService ret = _createVirtualExecutor ();
+        if (ret != null)
+          return ret;
+        s_aLogger.warn ("Virtual threads are not supported by this JVM - using a cached pool for executor '" +
+                        sName +
+                        "'");
+        return Executors.newCachedThreadPool (_createThreadFactory (sName));
+      }
+      default:
+        return Executors.newCachedThreadPool (_createThreadFactory (sName));
+    }
+  }
+
+  /**
+   * Define a new pool. If a pool with the same name is already present, the
+   * existing pool is kept. If the existing pool has different settings (e.g.
+   * because another tenant sharing this registry defined it first), a warning
+   * is logged.
+   *
+   * @param sName
+   *        Pool name. May neither be <code>null</code> nor empty.
+   * @param eType
+   *        Pool type. May not be <code>null</code>.
+   * @param nThreads
+   *        Number of threads for fixed and scheduled pools. Must be &gt; 0.
+   * @return The pool with the provided name. Never <code>null</code>.
+   */
+  @Nonnull
+  public ExecutorService defineExecutor (@Nonnull @Nonempty final String sName,
+                                         @Nonnull final EExecutorType eType,
+                                         final int nThreads)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.notNull (eType, "Type");
+    ValueEnforcer.isGT0 (nThreads, "Threads");
+
+    final String sKey = sName.toLowerCase (Locale.US);
+    synchronized (m_aMap)
+    {
+      final Entry aExisting = m_aMap.get (sKey);
+      if (aExisting != null)
+      {
+        if (aExisting.m_eType != eType || aExisting.m_nThreads != nThreads)
+          s_aLogger.warn ("Executor '" +
+                          sName +
+                          "' is already defined with type=" +
+                          aExisting.m_eType.getID () +
+                          " and threads=" +
+                          aExisting.m_nThreads +
+                          " - ignoring the definition with type=" +
+                          eType.getID () +
+                          " and threads=" +
+                          nThreads);
+        else
+          s_aLogger.info ("Executor '" + sName + "' is already defined - keeping the existing one");
+        return aExisting.m_aExecutor;
+      }
+      final Entry aEntry = new Entry (eType, nThreads, _createExecutor (sKey, eType, nThreads));
+      m_aMap.put (sKey, aEntry);
+      return aEntry.m_aExecutor;
+    }
+  }
+
+  public boolean hasExecutor (@Nullable final String sName)
+  {
+    if (sName == null)
+      return false;
+    synchronized (m_aMap)
+    {
+      return m_aMap.containsKey (sName.toLowerCase (Locale.US));
+    }
+  }
+
+  /**
+   * Get the pool with the provided name. If no such pool is defined, a fixed
+   * pool with {@link #DEFAULT_THREADS} threads is created.
+   *
+   * @param sName
+   *        Pool name. May neither be <code>null</code> nor empty.
+   * @return The pool. Never <code>null</code>.
+   */
+  @Nonnull
+  public ExecutorService getExecutor (@Nonnull @Nonempty final String sName)
+  {
+    return getOrDefineExecutor (sName, EExecutorType.FIXED, DEFAULT_THREADS);
+  }
+
+  /**
+   * Get the pool with the provided name or define it with the provided
+   * settings if it is not yet defined. In contrast to
+   * {@link #defineExecutor(String, EExecutorType, int)} a differing existing
+   * definition is silently used, so this is meant for defaults.
+   *
+   * @param sName
+   *        Pool name. May neither be <code>null</code> nor empty.
+   * @param eType
+   *        Pool type, if the pool is not yet defined. May not be
+   *        <code>null</code>.
+   * @param nThreads
+   *        Number of threads, if the pool is not yet defined. Must be &gt; 0.
+   * @return The pool. Never <code>null</code>.
+   */
+  @Nonnull
+  public ExecutorService getOrDefineExecutor (@Nonnull @Nonempty final String sName,
+                                              @Nonnull final EExecutorType eType,
+                                              final int nThreads)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    synchronized (m_aMap)
+    {
+      final Entry aExisting = m_aMap.get (sName.toLowerCase (Locale.US));
+      if (aExisting != null)
+        return aExisting.m_aExecutor;
+      return defineExecutor (sName, eType, nThreads);
+    }
+  }
+
+  /**
+   * Get the scheduled pool with the provided name. If no such pool is defined,
+   * a scheduled pool with a single thread is created.
+   *
+   * @param sName
+   *        Pool name. May neither be <code>null</code> nor empty.
+   * @return The pool. Never <code>null</code>.
+   * @throws IllegalStateException
+   *         If a pool with this name is defined but is not a scheduled pool
+   */
+  @Nonnull
+  public ScheduledExecutorService getScheduledExecutor (@Nonnull @Nonempty final String sName)
+  {
+    final ExecutorService ret = getOrDefineExecutor (sName, EExecutorType.SCHEDULED, 1);
+    if (!(ret instanceof ScheduledExecutorService))
+      throw new IllegalStateException ("Executor '" + sName + "' is not a scheduled executor");
+    return (ScheduledExecutorService) ret;
+  }
+
+  /**
+   * Run a task on the pool with the provided name.
+   *
+   * @param sName
+   *        Pool name. May neither be <code>null</code> nor empty.
+   * @param aTask
+   *        The task to run. May not be <code>null</code>.
+   * @return The future of the task. Never <code>null</code>.
+   */
+  @Nonnull
+  public Future <?> submit (@Nonnull @Nonempty final String sName, @Nonnull final Runnable aTask)
+  {
+    ValueEnforcer.notNull (aTask, "Task");
+    return getExecutor (sName).submit (aTask);
+  }
+
+  /**
+   * @return A description of all pools, one line per pool, in the order they
+   *         were defined.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllStatusLines ()
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    synchronized (m_aMap)
+    {
+      for (final Map.Entry <String, Entry> aMapEntry : m_aMap.entrySet ())
+      {
+        final Entry aEntry = aMapEntry.getValue ();
+        final StringBuilder aSB = new StringBuilder ();
+        aSB.append (aMapEntry.getKey ()).append (": type=").append (aEntry.m_eType.getID ());
+        if (aEntry.m_eType == EExecutorType.FIXED || aEntry.m_eType == EExecutorType.SCHEDULED)
+          aSB.append (", maxThreads=").append (aEntry.m_nThreads);
+        if (aEntry.m_aExecutor instanceof ThreadPoolExecutor)
+        {
+          final ThreadPoolExecutor aTPE = (ThreadPoolExecutor) aEntry.m_aExecutor;
+          aSB.append (", threads=")
+             .append (aTPE.getPoolSize ())
+             .append (", active=")
+             .append (aTPE.getActiveCount ())
+             .append (", queued=")
+             .append (aTPE.getQueue ().size ())
+             .append (", completed=")
+             .append (aTPE.getCompletedTaskCount ());
+        }
+        if (aEntry.m_aExecutor.isShutdown ())
+          aSB.append (", shutdown");
+        ret.add (aSB.toString ());
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return The number of live threads in all pools that expose it. Virtual
+   *         threads are not counted.
+   */
+  public int getThreadCount ()
+  {
+    int ret = 0;
+    synchronized (m_aMap)
+    {
+      for (final Entry aEntry : m_aMap.values ())
+        if (aEntry.m_aExecutor instanceof ThreadPoolExecutor)
+          ret += ((ThreadPoolExecutor) aEntry.m_aExecutor).getPoolSize ();
+    }
+    return ret;
+  }
+
+  /**
+   * Shut down all pools. Running tasks get the provided time to finish before
+   * they are interrupted.
+   *
+   * @param nTimeout
+   *        Maximum time to wait for all pools.
+   * @param eUnit
+   *        Time unit of the timeout. May not be <code>null</code>.
+   */
+  public void shutdown (final long nTimeout, @Nonnull final TimeUnit eUnit)
+  {
+    final ICommonsList <ExecutorService> aExecutors = new CommonsArrayList <> ();
+    synchronized (m_aMap)
+    {
+      for (final Entry aEntry : m_aMap.values ())
+        aExecutors.add (aEntry.m_aExecutor);
+    }
+    for (final ExecutorService aExecutor : aExecutors)
+      aExecutor.shutdown ();
+
+    final long nDeadline = System.nanoTime () + eUnit.toNanos (nTimeout);
+    try
+    {
+      for (final ExecutorService aExecutor : aExecutors)
+        if (!aExecutor.awaitTermination (Math.max (0, nDeadline - System.nanoTime ()), TimeUnit.NANOSECONDS))
+          aExecutor.shutdownNow ();
+    }
+    catch (final InterruptedException ex)
+    {
+      for (final ExecutorService aExecutor : aExecutors)
+        aExecutor.shutdownNow ();
+      Thread.currentThread ().interrupt ();
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import java.io.File;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.ext.CommonsLinkedHashSet;
+import com.helger.commons.collection.ext.ICommonsOrderedSet;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A set of file changes that are coalesced per file: a file that was created
+ * and modified is only reported as created, a file that was created and
+ * deleted again is not reported at all, a file that was deleted and created
+ * again is reported as modified and a file that was modified and deleted is
+ * only reported as deleted.
+ *
+ * @author Philip Helger
+ */
+@NotThreadSafe
+public class FileChangeSet
+{
+  private final ICommonsOrderedSet <File> m_aCreated = new CommonsLinkedHashSet <> ();
+  private final ICommonsOrderedSet <File> m_aModified = new CommonsLinkedHashSet <> ();
+  private final ICommonsOrderedSet <File> m_aDeleted = new CommonsLinkedHashSet <> ();
+
+  public FileChangeSet ()
+  {}
+
+  public void onCreated (@Nonnull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    if (m_aDeleted.remove (aFile))
+      m_aModified.add (aFile);
+    else
+      m_aCreated.add (aFile);
+  }
+
+  public void onModified (@Nonnull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    if (!m_aCreated.contains (aFile))
+      m_aModified.add (aFile);
+  }
+
+  public void onDeleted (@Nonnull final File aFile)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    if (!m_aCreated.remove (aFile))
+    {
+      m_aModified.remove (aFile);
+      m_aDeleted.add (aFile);
+    }
+  }
+
+  /**
+   * Add all changes of the provided change set to this change set.
+   *
+   * @param aOther
+   *        The changes that happened after the changes of this set. May not be
+   *        <code>null</code>.
+   */
+  public void addAll (@Nonnull final FileChangeSet aOther)
+  {
+    ValueEnforcer.notNull (aOther, "Other");
+    for (final File aFile : aOther.m_aDeleted)
+      onDeleted (aFile);
+    for (final File aFile : aOther.m_aCreated)
+      onCreated (aFile);
+    for (final File aFile : aOther.m_aModified)
+      onModified (aFile);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedSet <File> getAllCreated ()
+  {
+    return m_aCreated.getClone ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedSet <File> getAllModified ()
+  {
+    return m_aModified.getClone ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedSet <File> getAllDeleted ()
+  {
+    return m_aDeleted.getClone ();
+  }
+
+  /**
+   * @return All created, modified and deleted files. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsOrderedSet <File> getAllAffected ()
+  {
+    final ICommonsOrderedSet <File> ret = new CommonsLinkedHashSet <> ();
+    ret.addAll (m_aCreated);
+    ret.addAll (m_aModified);
+    ret.addAll (m_aDeleted);
+    return ret;
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aCreated.isEmpty () && m_aModified.isEmpty () && m_aDeleted.isEmpty ();
+  }
+
+  /**
+   * @return The number of affected files.
+   */
+  public int size ()
+  {
+    return m_aCreated.size () + m_aModified.size () + m_aDeleted.size ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Created", m_aCreated)
+                                       .append ("Modified", m_aModified)
+                                       .append ("Deleted", m_aDeleted)
+                                       .toString ();
+  }
+}
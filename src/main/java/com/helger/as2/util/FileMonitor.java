@@ -33,46 +33,146 @@
 package com.helger.as2.util;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.collection.ext.CommonsArrayList;
 import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.io.file.FileHelper;
 
+/**
+ * Monitors a single file for changes and notifies the registered
+ * {@link IFileMonitorListener} instances. If a {@link FileWatcher} is
+ * provided, changes are reported by the file system as they happen. Otherwise,
+ * or if watching is not supported for the file, the file is polled every
+ * interval seconds via a {@link FileMonitorScheduler} that is shared by many
+ * monitors. If the directory of the file can no longer be watched, the monitor
+ * registers again or falls back to polling.
+ * <p>
+ * A detected change is not reported immediately. The monitor waits until the
+ * file was not changed for the quiet period, so that a file that is still being
+ * written is not read. Afterwards a SHA-256 digest of the content is compared
+ * with the digest of the last successfully reloaded version and
+ * {@link IFileMonitorListener#EVENT_MODIFIED} is only fired if the content
+ * really changed. If a reload fails, the digest is not recorded, so that the
+ * next detected change (even without a content change) reloads again.
+ * <p>
+ * The duration and the result of each reload (the invocation of the listeners)
+ * and the number of missed ticks are recorded in the
+ * {@link FileMonitorStatistics}.
+ */
 public class FileMonitor
 {
+  /** The default quiet period in milliseconds */
+  public static final long DEFAULT_QUIET_PERIOD_MILLIS = 1000;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (FileMonitor.class);
+
   private ICommonsList <IFileMonitorListener> m_aListeners;
-  private Date m_aLastModified;
+  private long m_nLastModified = -1;
+  private long m_nLastLength = -1;
   private File m_aFile;
-  private Timer m_aTimer;
-  private boolean m_bBusy;
+  private final FileMonitorScheduler m_aScheduler;
+  // Guarded by this
+  private FileMonitorScheduler.Handle m_aScheduledTick;
+  private final FileWatcher m_aWatcher;
+  private final Runnable m_aWatchCallback = this::onWatchEvent;
+  private volatile boolean m_bWatching = false;
+  private final AtomicBoolean m_aBusy = new AtomicBoolean (false);
+  private final FileMonitorStatistics m_aStatistics = new FileMonitorStatistics ();
+  private volatile Throwable m_aReportedError;
   private int m_nInterval;
+  private long m_nQuietPeriodMillis = DEFAULT_QUIET_PERIOD_MILLIS;
+  // Debouncing and content state - guarded by this
+  private long m_nLastChangeNanos;
+  private ScheduledFuture <?> m_aQuietPeriodCheck;
+  private boolean m_bDigestInitialized = false;
+  private byte [] m_aLastDigest;
 
   public FileMonitor (final File file, final int interval)
+  {
+    this (file, interval, null);
+  }
+
+  public FileMonitor (final File file, final int interval, @Nullable final FileMonitorScheduler aScheduler)
+  {
+    this (file, interval, aScheduler, null);
+  }
+
+  /**
+   * @param file
+   *        The file to monitor
+   * @param interval
+   *        The check interval in seconds, if the file is polled
+   * @param aScheduler
+   *        The scheduler to run the checks on. If <code>null</code> the
+   *        default instance is used.
+   * @param aWatcher
+   *        The file watcher to use. If <code>null</code> or if the file cannot
+   *        be watched, the file is polled.
+   */
+  public FileMonitor (final File file,
+                      final int interval,
+                      @Nullable final FileMonitorScheduler aScheduler,
+                      @Nullable final FileWatcher aWatcher)
   {
     super ();
     m_aFile = file;
     m_nInterval = interval;
+    m_aScheduler = aScheduler != null ? aScheduler : FileMonitorScheduler.getDefaultInstance ();
+    m_aWatcher = aWatcher;
     start ();
   }
 
   public void setBusy (final boolean busy)
   {
-    m_bBusy = busy;
+    m_aBusy.set (busy);
   }
 
   public boolean isBusy ()
   {
-    return m_bBusy;
+    return m_aBusy.get ();
+  }
+
+  @Nonnull
+  public FileMonitorStatistics getStatistics ()
+  {
+    return m_aStatistics;
+  }
+
+  /**
+   * Report an error that occurred while a listener handled
+   * {@link IFileMonitorListener#EVENT_MODIFIED}. Listeners that handle their
+   * errors themselves should call this so that the reload is recorded as
+   * failed.
+   *
+   * @param aError
+   *        The error. May not be <code>null</code>.
+   */
+  public void reportError (@Nonnull final Throwable aError)
+  {
+    m_aReportedError = ValueEnforcer.notNull (aError, "Error");
   }
 
-  public void setFile (final File file)
+  public synchronized void setFile (final File file)
   {
     m_aFile = file;
+    m_bDigestInitialized = false;
   }
 
   public File getFile ()
@@ -101,14 +201,55 @@ public class FileMonitor
     return m_nInterval;
   }
 
+  /**
+   * Set the time the file must be unchanged before a change is reported.
+   *
+   * @param nQuietPeriodMillis
+   *        The quiet period in milliseconds. Must be &ge; 0. A value of 0
+   *        only suppresses changes that do not change the content.
+   */
+  public void setQuietPeriodMillis (final long nQuietPeriodMillis)
+  {
+    ValueEnforcer.isGE0 (nQuietPeriodMillis, "QuietPeriodMillis");
+    m_nQuietPeriodMillis = nQuietPeriodMillis;
+  }
+
+  public long getQuietPeriodMillis ()
+  {
+    return m_nQuietPeriodMillis;
+  }
+
+  /**
+   * Set the digest of content the owner is about to write to the file itself.
+   * A change to exactly this content is not reported to the listeners. Call it
+   * before the file is replaced, so that the change cannot be detected first.
+   *
+   * @param aDigest
+   *        The SHA-256 digest of the new content. May be <code>null</code>.
+   */
+  public synchronized void setContentDigest (@Nullable final byte [] aDigest)
+  {
+    m_aLastDigest = aDigest == null ? null : aDigest.clone ();
+    m_bDigestInitialized = true;
+  }
+
+  /**
+   * @return <code>true</code> if the file is watched by the file system,
+   *         <code>false</code> if it is polled.
+   */
+  public boolean isWatching ()
+  {
+    return m_bWatching;
+  }
+
   public void setLastModified (final Date lastModified)
   {
-    m_aLastModified = lastModified;
+    m_nLastModified = lastModified == null ? -1 : lastModified.getTime ();
   }
 
   public Date getLastModified ()
   {
-    return m_aLastModified;
+    return m_nLastModified < 0 ? null : new Date (m_nLastModified);
   }
 
   public void setListeners (@Nullable final ICommonsList <IFileMonitorListener> listeners)
@@ -134,50 +275,64 @@ public class FileMonitor
     start ();
   }
 
-  public void start ()
+  public synchronized void start ()
   {
-    m_aTimer = getTimer ();
-    m_aTimer.scheduleAtFixedRate (new TimerTick (), 0, getInterval () * 1000);
+    if (!m_bDigestInitialized)
+    {
+      // The digest of the version the owner already loaded
+      m_aLastDigest = getFile ().isFile () ? getContentDigest () : null;
+      m_bDigestInitialized = true;
+    }
+    if (m_aWatcher != null && m_aWatcher.register (getFile (), m_aWatchCallback, this::onWatchInvalidated))
+    {
+      m_bWatching = true;
+      updateModified ();
+      return;
+    }
+    // Remember the current state - only later changes are reported
+    updateModified ();
+    m_aScheduledTick = m_aScheduler.schedule (this::onTick, getInterval (), TimeUnit.SECONDS);
   }
 
-  public void stop ()
+  public synchronized void stop ()
   {
-    if (getTimer () != null)
+    if (m_aQuietPeriodCheck != null)
+    {
+      m_aQuietPeriodCheck.cancel (false);
+      m_aQuietPeriodCheck = null;
+    }
+    if (m_bWatching)
+    {
+      m_aWatcher.unregister (getFile (), m_aWatchCallback);
+      m_bWatching = false;
+      return;
+    }
+    if (m_aScheduledTick != null)
     {
-      getTimer ().cancel ();
+      m_aScheduledTick.cancel ();
+      m_aScheduledTick = null;
     }
   }
 
   protected boolean isModified ()
   {
-    final Date lastModified = getLastModified ();
-
-    if (lastModified != null)
+    if (m_nLastModified >= 0)
     {
-      final Date currentModified = new Date (getFile ().lastModified ());
-
-      return !currentModified.equals (getLastModified ());
+      // Also compare the length to detect changes within the timestamp
+      // granularity of the file system
+      final File aFile = getFile ();
+      return aFile.lastModified () != m_nLastModified || aFile.length () != m_nLastLength;
     }
     updateModified ();
     return false;
   }
 
-  protected Timer getTimer ()
-  {
-    if (m_aTimer == null)
-    {
-      m_aTimer = new Timer (true);
-    }
-
-    return m_aTimer;
-  }
-
-  protected void updateListeners ()
+  protected synchronized void updateListeners ()
   {
     if (isModified ())
     {
       updateModified ();
-      updateListeners (IFileMonitorListener.EVENT_MODIFIED);
+      onChangeDetected ();
     }
   }
 
@@ -190,24 +345,204 @@ public class FileMonitor
 
   protected void updateModified ()
   {
-    setLastModified (new Date (getFile ().lastModified ()));
+    final File aFile = getFile ();
+    m_nLastModified = aFile.lastModified ();
+    m_nLastLength = aFile.length ();
   }
 
-  private class TimerTick extends TimerTask
+  /**
+   * Calculate the SHA-256 digest of the current file content without reading
+   * the whole file into memory.
+   *
+   * @return <code>null</code> if the file could not be read.
+   */
+  @Nullable
+  protected byte [] getContentDigest ()
   {
-    @Override
-    public void run ()
+    final MessageDigest aMD;
+    try
+    {
+      aMD = MessageDigest.getInstance ("SHA-256");
+    }
+    catch (final NoSuchAlgorithmException ex)
     {
-      if (!isBusy ())
+      throw new IllegalStateException ("SHA-256 is not supported", ex);
+    }
+
+    try (final InputStream aIS = FileHelper.getInputStream (getFile ()))
+    {
+      if (aIS == null)
+        return null;
+      final byte [] aBuffer = new byte [16 * 1024];
+      int nRead;
+      while ((nRead = aIS.read (aBuffer)) >= 0)
+        aMD.update (aBuffer, 0, nRead);
+      return aMD.digest ();
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.warn ("Failed to read " + getFilename () + ": " + ex.getMessage ());
+      return null;
+    }
+  }
+
+  /**
+   * Called whenever a change of the file was detected. Starts the quiet period
+   * or extends it, if it is already running.
+   */
+  protected synchronized void onChangeDetected ()
+  {
+    m_nLastChangeNanos = System.nanoTime ();
+    if (m_aQuietPeriodCheck == null)
+      m_aQuietPeriodCheck = m_aScheduler.scheduleOnce (this::onQuietPeriodElapsed,
+                                                        m_nQuietPeriodMillis,
+                                                        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Called by the scheduler at the end of the quiet period. If the file was
+   * changed in the meantime, the quiet period is extended. Otherwise the
+   * content is compared and the listeners are notified.
+   */
+  protected void onQuietPeriodElapsed ()
+  {
+    synchronized (this)
+    {
+      // Catch changes that were not yet reported (e.g. between two polls)
+      if (isModified ())
+      {
+        updateModified ();
+        m_nLastChangeNanos = System.nanoTime ();
+      }
+      final long nRemainingMillis = m_nQuietPeriodMillis -
+                                    TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - m_nLastChangeNanos);
+      if (nRemainingMillis > 0)
+      {
+        m_aQuietPeriodCheck = m_aScheduler.scheduleOnce (this::onQuietPeriodElapsed,
+                                                          nRemainingMillis,
+                                                          TimeUnit.MILLISECONDS);
+        return;
+      }
+      m_aQuietPeriodCheck = null;
+    }
+
+    if (!m_aBusy.compareAndSet (false, true))
+    {
+      // The listeners are still handling the previous change - try again later
+      m_aStatistics.onMissedTick ();
+      updateListeners (IFileMonitorListener.EVENT_MISSED_TICK);
+      onChangeDetected ();
+      return;
+    }
+
+    try
+    {
+      // Deletions are ignored
+      if (!getFile ().isFile ())
+        return;
+      final byte [] aDigest = getContentDigest ();
+      if (aDigest == null)
+        return;
+      synchronized (this)
+      {
+        if (Arrays.equals (aDigest, m_aLastDigest))
+        {
+          s_aLogger.debug ("Content of " + getFilename () + " is unchanged - ignoring modification");
+          return;
+        }
+      }
+      if (_reload ())
+        synchronized (this)
+        {
+          m_aLastDigest = aDigest;
+        }
+    }
+    finally
+    {
+      setBusy (false);
+    }
+  }
+
+  /**
+   * Invoke the listeners and record the result.
+   *
+   * @return <code>true</code> if no listener threw an exception or reported an
+   *         error.
+   */
+  private boolean _reload ()
+  {
+    m_aReportedError = null;
+    Throwable aError = null;
+    final long nStart = System.nanoTime ();
+    try
+    {
+      updateListeners (IFileMonitorListener.EVENT_MODIFIED);
+    }
+    catch (final RuntimeException ex)
+    {
+      s_aLogger.error ("Error reloading " + getFilename (), ex);
+      aError = ex;
+    }
+    if (aError == null)
+      aError = m_aReportedError;
+    m_aStatistics.onReload (System.nanoTime () - nStart, aError);
+    return aError == null;
+  }
+
+  /**
+   * Called by the {@link FileWatcher} when the file system reported a change.
+   */
+  protected synchronized void onWatchEvent ()
+  {
+    updateModified ();
+    onChangeDetected ();
+  }
+
+  /**
+   * Called by the {@link FileWatcher} when the directory of the file can no
+   * longer be watched. The registration was already dropped. The file is
+   * registered again, if the directory exists, and polled otherwise. As
+   * changes may have been missed, the file is checked as well.
+   *
+   * @param aDir
+   *        The directory that is no longer watched.
+   */
+  protected synchronized void onWatchInvalidated (@Nonnull final File aDir)
+  {
+    // Stopped in the meantime
+    if (!m_bWatching)
+      return;
+    if (m_aWatcher.register (getFile (), m_aWatchCallback, this::onWatchInvalidated))
+      s_aLogger.info ("Watching " + getFilename () + " again");
+    else
+    {
+      s_aLogger.warn ("Directory " + aDir.getAbsolutePath () + " can no longer be watched - polling " + getFilename ());
+      m_bWatching = false;
+      m_aScheduledTick = m_aScheduler.schedule (this::onTick, getInterval (), TimeUnit.SECONDS);
+    }
+    onWatchEvent ();
+  }
+
+  /**
+   * Called by the scheduler every interval if the file is polled.
+   */
+  protected void onTick ()
+  {
+    if (m_aBusy.compareAndSet (false, true))
+    {
+      try
       {
-        setBusy (true);
         updateListeners ();
-        setBusy (false);
       }
-      else
+      finally
       {
-        updateListeners (IFileMonitorListener.EVENT_MISSED_TICK);
+        setBusy (false);
       }
     }
+    else
+    {
+      m_aStatistics.onMissedTick ();
+      updateListeners (IFileMonitorListener.EVENT_MISSED_TICK);
+    }
   }
 }
@@ -0,0 +1,381 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsLinkedHashSet;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsOrderedSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+
+/**
+ * A single scheduler for any number of periodic file checks, implemented as a
+ * hashed timing wheel on top of one {@link ScheduledExecutorService}. Adding
+ * and cancelling a task is O(1), independent of the number of scheduled
+ * tasks. Every task has its own interval; each execution is shifted by a
+ * random jitter of up to 10% of the interval, so that many monitors with the
+ * same interval do not all hit the file system at the same time.
+ * <p>
+ * The scheduled executor only drives the wheel and the one-time timers. The
+ * tasks themselves (file checks and the listener reloads they trigger) can be
+ * run on a separate executor, so that a slow reload neither delays the wheel
+ * nor the other monitors. An execution of a periodic task is skipped while its
+ * previous execution is still running.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class FileMonitorScheduler
+{
+  /**
+   * A scheduled periodic task.
+   */
+  public final class Handle
+  {
+    private final Runnable m_aTask;
+    private final long m_nIntervalTicks;
+    // Guarded by the scheduler lock
+    private int m_nSlot = -1;
+    private long m_nRounds;
+    private volatile boolean m_bCancelled = false;
+    private final AtomicBoolean m_aRunning = new AtomicBoolean (false);
+
+    Handle (@Nonnull final Runnable aTask, final long nIntervalTicks)
+    {
+      m_aTask = aTask;
+      m_nIntervalTicks = nIntervalTicks;
+    }
+
+    /**
+     * Cancel the task. A currently running execution is not interrupted. No
+     * further executions happen.
+     */
+    public void cancel ()
+    {
+      m_bCancelled = true;
+      _remove (this);
+    }
+
+    public boolean isCancelled ()
+    {
+      return m_bCancelled;
+    }
+  }
+
+  private static final class SingletonHolder
+  {
+    static final FileMonitorScheduler s_aInstance = _createDefaultInstance ();
+  }
+
+  public static final long DEFAULT_TICK_MILLIS = 250;
+  public static final int DEFAULT_WHEEL_SIZE = 512;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (FileMonitorScheduler.class);
+
+  private final ScheduledExecutorService m_aExecutor;
+  private final Executor m_aTaskExecutor;
+  private final long m_nTickMillis;
+  private final Object m_aLock = new Object ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsList <ICommonsOrderedSet <Handle>> m_aWheel;
+  @GuardedBy ("m_aLock")
+  private int m_nCursor = 0;
+  @GuardedBy ("m_aLock")
+  private int m_nCount = 0;
+  @GuardedBy ("m_aLock")
+  private ScheduledFuture <?> m_aTicker;
+
+  public FileMonitorScheduler (@Nonnull final ScheduledExecutorService aExecutor)
+  {
+    this (aExecutor, aExecutor);
+  }
+
+  public FileMonitorScheduler (@Nonnull final ScheduledExecutorService aExecutor,
+                               @Nonnull final Executor aTaskExecutor)
+  {
+    this (aExecutor, aTaskExecutor, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+  }
+
+  /**
+   * @param aExecutor
+   *        The executor to run the wheel and the one-time timers on. May not
+   *        be <code>null</code>.
+   * @param aTaskExecutor
+   *        The executor to run the tasks on. May be the same as the scheduled
+   *        executor. May not be <code>null</code>.
+   * @param nTickMillis
+   *        The resolution of the wheel in milliseconds. Must be &gt; 0.
+   * @param nWheelSize
+   *        The number of slots in the wheel. Must be &gt; 0.
+   */
+  public FileMonitorScheduler (@Nonnull final ScheduledExecutorService aExecutor,
+                               @Nonnull final Executor aTaskExecutor,
+                               final long nTickMillis,
+                               final int nWheelSize)
+  {
+    m_aExecutor = ValueEnforcer.notNull (aExecutor, "Executor");
+    m_aTaskExecutor = ValueEnforcer.notNull (aTaskExecutor, "TaskExecutor");
+    m_nTickMillis = ValueEnforcer.isGT0 (nTickMillis, "TickMillis");
+    ValueEnforcer.isGT0 (nWheelSize, "WheelSize");
+    m_aWheel = new CommonsArrayList <> (nWheelSize);
+    for (int i = 0; i < nWheelSize; ++i)
+      m_aWheel.add (new CommonsLinkedHashSet <> ());
+  }
+
+  @Nonnull
+  private static FileMonitorScheduler _createDefaultInstance ()
+  {
+    final ScheduledExecutorService aExecutor = Executors.newSingleThreadScheduledExecutor (new BasicThreadFactory.Builder ().setNamingPattern ("as2-filemonitor-%d")
+                                                                                                                            .setDaemon (true)
+                                                                                                                            .build ());
+    return new FileMonitorScheduler (aExecutor);
+  }
+
+  /**
+   * @return The JVM wide default instance, running on its own daemon thread.
+   *         Used by monitors that are not associated with a session.
+   */
+  @Nonnull
+  public static FileMonitorScheduler getDefaultInstance ()
+  {
+    return SingletonHolder.s_aInstance;
+  }
+
+  @GuardedBy ("m_aLock")
+  private void _insert (@Nonnull final Handle aHandle, final long nTicks)
+  {
+    final int nSize = m_aWheel.size ();
+    final long nDelay = Math.max (1, nTicks);
+    aHandle.m_nSlot = (int) ((m_nCursor + nDelay) % nSize);
+    aHandle.m_nRounds = (nDelay - 1) / nSize;
+    m_aWheel.get (aHandle.m_nSlot).add (aHandle);
+  }
+
+  private void _remove (@Nonnull final Handle aHandle)
+  {
+    synchronized (m_aLock)
+    {
+      if (aHandle.m_nSlot >= 0 && m_aWheel.get (aHandle.m_nSlot).remove (aHandle))
+      {
+        aHandle.m_nSlot = -1;
+        m_nCount--;
+        if (m_nCount == 0 && m_aTicker != null)
+        {
+          // Nothing to do - stop ticking
+          m_aTicker.cancel (false);
+          m_aTicker = null;
+        }
+      }
+    }
+  }
+
+  private static long _getJitteredTicks (final long nIntervalTicks)
+  {
+    final long nJitter = nIntervalTicks / 10;
+    if (nJitter == 0)
+      return nIntervalTicks;
+    return nIntervalTicks + ThreadLocalRandom.current ().nextLong (-nJitter, nJitter + 1);
+  }
+
+  /**
+   * Schedule a periodic task. The first execution happens after a random delay
+   * within the first interval.
+   *
+   * @param aTask
+   *        The task to execute. May not be <code>null</code>.
+   * @param nInterval
+   *        The interval. Must be &gt; 0.
+   * @param eUnit
+   *        The time unit of the interval. May not be <code>null</code>.
+   * @return The handle to cancel the task. Never <code>null</code>.
+   */
+  @Nonnull
+  public Handle schedule (@Nonnull final Runnable aTask, final long nInterval, @Nonnull final TimeUnit eUnit)
+  {
+    ValueEnforcer.notNull (aTask, "Task");
+    ValueEnforcer.isGT0 (nInterval, "Interval");
+    ValueEnforcer.notNull (eUnit, "Unit");
+
+    final long nIntervalTicks = Math.max (1, eUnit.toMillis (nInterval) / m_nTickMillis);
+    final Handle ret = new Handle (aTask, nIntervalTicks);
+    synchronized (m_aLock)
+    {
+      _insert (ret, ThreadLocalRandom.current ().nextLong (1, nIntervalTicks + 1));
+      m_nCount++;
+      if (m_aTicker == null)
+        m_aTicker = m_aExecutor.scheduleAtFixedRate (this::tick, m_nTickMillis, m_nTickMillis, TimeUnit.MILLISECONDS);
+    }
+    return ret;
+  }
+
+  /**
+   * Run a one-time task on the task executor after the provided delay.
+   * Used for short-lived timers that are cancelled or rescheduled frequently,
+   * so they are not put into the wheel.
+   *
+   * @param aTask
+   *        The task to run. May not be <code>null</code>.
+   * @param nDelay
+   *        The delay. Must be &ge; 0.
+   * @param eUnit
+   *        The time unit of the delay. May not be <code>null</code>.
+   * @return The future to cancel the task. Cancelling has no effect once the
+   *         task was handed to the task executor. Never <code>null</code>.
+   */
+  @Nonnull
+  public ScheduledFuture <?> scheduleOnce (@Nonnull final Runnable aTask,
+                                           final long nDelay,
+                                           @Nonnull final TimeUnit eUnit)
+  {
+    ValueEnforcer.notNull (aTask, "Task");
+    ValueEnforcer.isGE0 (nDelay, "Delay");
+    ValueEnforcer.notNull (eUnit, "Unit");
+    return m_aExecutor.schedule ( () -> m_aTaskExecutor.execute ( () -> {
+      try
+      {
+        aTask.run ();
+      }
+      catch (final RuntimeException ex)
+      {
+        s_aLogger.error ("Error in delayed file monitor task", ex);
+      }
+    }), nDelay, eUnit);
+  }
+
+  /**
+   * Run a one-time task on the task executor.
+   *
+   * @param aTask
+   *        The task to run. May not be <code>null</code>.
+   */
+  public void execute (@Nonnull final Runnable aTask)
+  {
+    m_aTaskExecutor.execute (aTask);
+  }
+
+  /**
+   * Advance the wheel by one slot and hand the due tasks to the task executor.
+   * Called by the scheduled executor every tick - package private for testing
+   * only.
+   */
+  void tick ()
+  {
+    final ICommonsList <Handle> aDue = new CommonsArrayList <> ();
+    synchronized (m_aLock)
+    {
+      m_nCursor = (m_nCursor + 1) % m_aWheel.size ();
+      final ICommonsOrderedSet <Handle> aSlot = m_aWheel.get (m_nCursor);
+      final Iterator <Handle> it = aSlot.iterator ();
+      while (it.hasNext ())
+      {
+        final Handle aHandle = it.next ();
+        if (aHandle.m_nRounds > 0)
+          aHandle.m_nRounds--;
+        else
+        {
+          it.remove ();
+          aDue.add (aHandle);
+        }
+      }
+      // Reschedule before executing, so that the interval is independent of
+      // the execution time
+      for (final Handle aHandle : aDue)
+        _insert (aHandle, _getJitteredTicks (aHandle.m_nIntervalTicks));
+    }
+
+    // Run outside of the tick, so that a slow task does not delay the wheel
+    for (final Handle aHandle : aDue)
+      if (!aHandle.isCancelled ())
+      {
+        if (!aHandle.m_aRunning.compareAndSet (false, true))
+        {
+          s_aLogger.debug ("Skipping execution of file monitor task - the previous one is still running");
+          continue;
+        }
+        try
+        {
+          m_aTaskExecutor.execute ( () -> {
+            try
+            {
+              // Cancelled while waiting for a thread?
+              if (!aHandle.isCancelled ())
+                aHandle.m_aTask.run ();
+            }
+            catch (final RuntimeException ex)
+            {
+              s_aLogger.error ("Error in scheduled file monitor task", ex);
+            }
+            finally
+            {
+              aHandle.m_aRunning.set (false);
+            }
+          });
+        }
+        catch (final RejectedExecutionException ex)
+        {
+          // Task executor was shut down
+          aHandle.m_aRunning.set (false);
+          s_aLogger.warn ("Failed to run scheduled file monitor task: " + ex.getMessage ());
+        }
+      }
+  }
+
+  /**
+   * @return The number of currently scheduled tasks.
+   */
+  public int getScheduledCount ()
+  {
+    synchronized (m_aLock)
+    {
+      return m_nCount;
+    }
+  }
+}
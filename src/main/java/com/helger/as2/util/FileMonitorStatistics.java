@@ -0,0 +1,178 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Statistics of a single {@link FileMonitor}: a histogram of the reload
+ * durations, the number of failed reloads and missed ticks, the last error and
+ * the time of the last successful reload.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class FileMonitorStatistics
+{
+  /**
+   * The upper bounds of the histogram buckets in milliseconds. The last bucket
+   * takes all longer durations.
+   */
+  private static final long [] BUCKET_LIMITS_MILLIS = { 10, 50, 100, 500, 1000, 5000, 10000 };
+
+  private final AtomicLongArray m_aBuckets = new AtomicLongArray (BUCKET_LIMITS_MILLIS.length + 1);
+  private final AtomicLong m_aReloadCount = new AtomicLong ();
+  private final AtomicLong m_aFailedReloadCount = new AtomicLong ();
+  private final AtomicLong m_aTotalMillis = new AtomicLong ();
+  private final AtomicLong m_aMaxMillis = new AtomicLong ();
+  private final AtomicLong m_aMissedTickCount = new AtomicLong ();
+  private volatile long m_nLastSuccessMillis = -1;
+  private volatile long m_nLastErrorMillis = -1;
+  private volatile String m_sLastError;
+
+  public FileMonitorStatistics ()
+  {}
+
+  /**
+   * Record a reload.
+   *
+   * @param nDurationNanos
+   *        The duration of the reload in nanoseconds.
+   * @param aError
+   *        The error of the reload. <code>null</code> if the reload was
+   *        successful.
+   */
+  public void onReload (final long nDurationNanos, @Nullable final Throwable aError)
+  {
+    final long nMillis = TimeUnit.NANOSECONDS.toMillis (nDurationNanos);
+    int nBucket = 0;
+    while (nBucket < BUCKET_LIMITS_MILLIS.length && nMillis > BUCKET_LIMITS_MILLIS[nBucket])
+      nBucket++;
+    m_aBuckets.incrementAndGet (nBucket);
+    m_aReloadCount.incrementAndGet ();
+    m_aTotalMillis.addAndGet (nMillis);
+    m_aMaxMillis.accumulateAndGet (nMillis, Math::max);
+
+    if (aError == null)
+      m_nLastSuccessMillis = System.currentTimeMillis ();
+    else
+    {
+      m_aFailedReloadCount.incrementAndGet ();
+      m_sLastError = aError.getClass ().getSimpleName () + ": " + aError.getMessage ();
+      m_nLastErrorMillis = System.currentTimeMillis ();
+    }
+  }
+
+  public void onMissedTick ()
+  {
+    m_aMissedTickCount.incrementAndGet ();
+  }
+
+  public long getReloadCount ()
+  {
+    return m_aReloadCount.get ();
+  }
+
+  public long getFailedReloadCount ()
+  {
+    return m_aFailedReloadCount.get ();
+  }
+
+  public long getMissedTickCount ()
+  {
+    return m_aMissedTickCount.get ();
+  }
+
+  public long getMaxReloadMillis ()
+  {
+    return m_aMaxMillis.get ();
+  }
+
+  public long getAverageReloadMillis ()
+  {
+    final long nCount = m_aReloadCount.get ();
+    return nCount == 0 ? 0 : m_aTotalMillis.get () / nCount;
+  }
+
+  /**
+   * @return The time of the last successful reload or <code>null</code> if
+   *         there was none.
+   */
+  @Nullable
+  public Date getLastSuccess ()
+  {
+    final long n = m_nLastSuccessMillis;
+    return n < 0 ? null : new Date (n);
+  }
+
+  /**
+   * @return The time of the last failed reload or <code>null</code> if there
+   *         was none.
+   */
+  @Nullable
+  public Date getLastErrorTime ()
+  {
+    final long n = m_nLastErrorMillis;
+    return n < 0 ? null : new Date (n);
+  }
+
+  @Nullable
+  public String getLastError ()
+  {
+    return m_sLastError;
+  }
+
+  /**
+   * @return The histogram as a single line in the form
+   *         <code>&le;10ms=n &le;50ms=n ... &gt;10000ms=n</code>
+   */
+  @Nonnull
+  public String getHistogramAsString ()
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    for (int i = 0; i < BUCKET_LIMITS_MILLIS.length; ++i)
+      aSB.append ("<=").append (BUCKET_LIMITS_MILLIS[i]).append ("ms=").append (m_aBuckets.get (i)).append (' ');
+    aSB.append ('>')
+       .append (BUCKET_LIMITS_MILLIS[BUCKET_LIMITS_MILLIS.length - 1])
+       .append ("ms=")
+       .append (m_aBuckets.get (BUCKET_LIMITS_MILLIS.length));
+    return aSB.toString ();
+  }
+}
@@ -0,0 +1,450 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.CommonsHashMap;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.collection.ext.ICommonsMap;
+
+/**
+ * Watches files for changes using a {@link WatchService} (e.g. inotify on
+ * Linux). The parent directory of each watched file is registered once and a
+ * single thread dispatches the events of all directories to the callbacks of
+ * the affected files. Callbacks are invoked on the watcher thread and must
+ * return quickly.
+ * <p>
+ * If a directory can no longer be watched (e.g. because it was deleted), all
+ * registrations of this directory are dropped and the invalidation callbacks
+ * are invoked, so that the owners can register again or fall back to polling.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class FileWatcher
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (FileWatcher.class);
+
+  private static final class Registration
+  {
+    private final Runnable m_aCallback;
+    private final Consumer <File> m_aInvalidatedCallback;
+
+    Registration (@Nonnull final Runnable aCallback, @Nullable final Consumer <File> aInvalidatedCallback)
+    {
+      m_aCallback = aCallback;
+      m_aInvalidatedCallback = aInvalidatedCallback;
+    }
+  }
+
+  private final ExecutorService m_aExecutor;
+  private final Object m_aLock = new Object ();
+  @GuardedBy ("m_aLock")
+  private WatchService m_aWatchService;
+  @GuardedBy ("m_aLock")
+  private boolean m_bUnsupported = false;
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <Path, WatchKey> m_aKeys = new CommonsHashMap <> ();
+  /**
+   * Callbacks registered via {@link #registerDirectory(File, Runnable)} are
+   * stored with this file name - it is never a valid file name.
+   */
+  private static final String ANY_FILE = "";
+
+  /** Directory to file name to callbacks */
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <Path, ICommonsMap <String, ICommonsList <Registration>>> m_aCallbacks = new CommonsHashMap <> ();
+
+  /**
+   * @param aExecutor
+   *        The executor to run the watcher thread on. May not be
+   *        <code>null</code>.
+   */
+  public FileWatcher (@Nonnull final ExecutorService aExecutor)
+  {
+    m_aExecutor = ValueEnforcer.notNull (aExecutor, "Executor");
+  }
+
+  @Nullable
+  @GuardedBy ("m_aLock")
+  private WatchService _getOrCreateWatchService ()
+  {
+    if (m_aWatchService == null && !m_bUnsupported)
+    {
+      try
+      {
+        m_aWatchService = FileSystems.getDefault ().newWatchService ();
+        final WatchService aWatchService = m_aWatchService;
+        m_aExecutor.execute ( () -> _run (aWatchService));
+      }
+      catch (final IOException | UnsupportedOperationException ex)
+      {
+        s_aLogger.warn ("File system watching is not supported - falling back to polling: " + ex.getMessage ());
+        m_bUnsupported = true;
+      }
+    }
+    return m_aWatchService;
+  }
+
+  /**
+   * Start watching a file.
+   *
+   * @param aFile
+   *        The file to watch. Its parent directory must exist. May not be
+   *        <code>null</code>.
+   * @param aCallback
+   *        The callback to invoke when the file was created, modified or
+   *        deleted. May not be <code>null</code>.
+   * @return <code>true</code> if the file is watched, <code>false</code> if
+   *         watching is not supported for this file - the caller should poll
+   *         in this case.
+   */
+  public boolean register (@Nonnull final File aFile, @Nonnull final Runnable aCallback)
+  {
+    return register (aFile, aCallback, null);
+  }
+
+  /**
+   * Start watching a file.
+   *
+   * @param aFile
+   *        The file to watch. Its parent directory must exist. May not be
+   *        <code>null</code>.
+   * @param aCallback
+   *        The callback to invoke when the file was created, modified or
+   *        deleted. May not be <code>null</code>.
+   * @param aInvalidatedCallback
+   *        The callback to invoke with the parent directory, if the directory
+   *        can no longer be watched. The registration was dropped at this
+   *        point. If <code>null</code> the normal callback is invoked instead.
+   * @return <code>true</code> if the file is watched, <code>false</code> if
+   *         watching is not supported for this file - the caller should poll
+   *         in this case.
+   */
+  public boolean register (@Nonnull final File aFile,
+                           @Nonnull final Runnable aCallback,
+                           @Nullable final Consumer <File> aInvalidatedCallback)
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    ValueEnforcer.notNull (aCallback, "Callback");
+
+    final Path aPath = aFile.getAbsoluteFile ().toPath ().normalize ();
+    final Path aDir = aPath.getParent ();
+    if (aDir == null)
+      return false;
+    return _register (aDir, aPath.getFileName ().toString (), new Registration (aCallback, aInvalidatedCallback));
+  }
+
+  /**
+   * Start watching all entries of a directory (not recursive).
+   *
+   * @param aDir
+   *        The directory to watch. Must exist. May not be <code>null</code>.
+   * @param aCallback
+   *        The callback to invoke when any entry of the directory was created,
+   *        modified or deleted. May not be <code>null</code>.
+   * @return <code>true</code> if the directory is watched, <code>false</code>
+   *         if watching is not supported for this directory.
+   */
+  public boolean registerDirectory (@Nonnull final File aDir, @Nonnull final Runnable aCallback)
+  {
+    return registerDirectory (aDir, aCallback, null);
+  }
+
+  /**
+   * Start watching all entries of a directory (not recursive).
+   *
+   * @param aDir
+   *        The directory to watch. Must exist. May not be <code>null</code>.
+   * @param aCallback
+   *        The callback to invoke when any entry of the directory was created,
+   *        modified or deleted. May not be <code>null</code>.
+   * @param aInvalidatedCallback
+   *        The callback to invoke with the directory, if it can no longer be
+   *        watched. The registration was dropped at this point. If
+   *        <code>null</code> the normal callback is invoked instead.
+   * @return <code>true</code> if the directory is watched, <code>false</code>
+   *         if watching is not supported for this directory.
+   */
+  public boolean registerDirectory (@Nonnull final File aDir,
+                                    @Nonnull final Runnable aCallback,
+                                    @Nullable final Consumer <File> aInvalidatedCallback)
+  {
+    ValueEnforcer.notNull (aDir, "Dir");
+    ValueEnforcer.notNull (aCallback, "Callback");
+
+    return _register (aDir.getAbsoluteFile ().toPath ().normalize (),
+                      ANY_FILE,
+                      new Registration (aCallback, aInvalidatedCallback));
+  }
+
+  private boolean _register (@Nonnull final Path aDir,
+                             @Nonnull final String sName,
+                             @Nonnull final Registration aRegistration)
+  {
+    synchronized (m_aLock)
+    {
+      final WatchService aWatchService = _getOrCreateWatchService ();
+      if (aWatchService == null)
+        return false;
+
+      if (!m_aKeys.containsKey (aDir))
+      {
+        try
+        {
+          m_aKeys.put (aDir,
+                       aDir.register (aWatchService,
+                                      StandardWatchEventKinds.ENTRY_CREATE,
+                                      StandardWatchEventKinds.ENTRY_MODIFY,
+                                      StandardWatchEventKinds.ENTRY_DELETE));
+        }
+        catch (final IOException | UnsupportedOperationException ex)
+        {
+          s_aLogger.warn ("Failed to watch directory " + aDir + " - falling back to polling: " + ex.getMessage ());
+          return false;
+        }
+      }
+      m_aCallbacks.computeIfAbsent (aDir, k -> new CommonsHashMap <> ())
+                  .computeIfAbsent (sName, k -> new CommonsArrayList <> ())
+                  .add (aRegistration);
+      return true;
+    }
+  }
+
+  /**
+   * Stop watching a file for the provided callback. If no more files of the
+   * directory are watched, the directory is unregistered.
+   *
+   * @param aFile
+   *        The watched file. May not be <code>null</code>.
+   * @param aCallback
+   *        The callback passed to {@link #register(File, Runnable)}. May not be
+   *        <code>null</code>.
+   */
+  public void unregister (@Nonnull final File aFile, @Nonnull final Runnable aCallback)
+  {
+    final Path aPath = aFile.getAbsoluteFile ().toPath ().normalize ();
+    final Path aDir = aPath.getParent ();
+    if (aDir != null)
+      _unregister (aDir, aPath.getFileName ().toString (), aCallback);
+  }
+
+  /**
+   * Stop watching a directory for the provided callback.
+   *
+   * @param aDir
+   *        The watched directory. May not be <code>null</code>.
+   * @param aCallback
+   *        The callback passed to {@link #registerDirectory(File, Runnable)}.
+   *        May not be <code>null</code>.
+   */
+  public void unregisterDirectory (@Nonnull final File aDir, @Nonnull final Runnable aCallback)
+  {
+    _unregister (aDir.getAbsoluteFile ().toPath ().normalize (), ANY_FILE, aCallback);
+  }
+
+  private void _unregister (@Nonnull final Path aDir, @Nonnull final String sName, @Nonnull final Runnable aCallback)
+  {
+    synchronized (m_aLock)
+    {
+      final ICommonsMap <String, ICommonsList <Registration>> aFiles = m_aCallbacks.get (aDir);
+      if (aFiles == null)
+        return;
+      final ICommonsList <Registration> aList = aFiles.get (sName);
+      if (aList != null)
+      {
+        aList.removeIf (x -> x.m_aCallback == aCallback);
+        if (aList.isEmpty ())
+          aFiles.remove (sName);
+      }
+      if (aFiles.isEmpty ())
+      {
+        m_aCallbacks.remove (aDir);
+        final WatchKey aKey = m_aKeys.remove (aDir);
+        if (aKey != null)
+          aKey.cancel ();
+      }
+    }
+  }
+
+  @Nonnull
+  private ICommonsList <Runnable> _getCallbacks (@Nonnull final Path aDir, @Nullable final Path aName)
+  {
+    final ICommonsList <Runnable> ret = new CommonsArrayList <> ();
+    synchronized (m_aLock)
+    {
+      final ICommonsMap <String, ICommonsList <Registration>> aFiles = m_aCallbacks.get (aDir);
+      if (aFiles != null)
+      {
+        if (aName == null)
+        {
+          // Overflow - notify all files of the directory
+          for (final ICommonsList <Registration> aList : aFiles.values ())
+            for (final Registration aRegistration : aList)
+              ret.add (aRegistration.m_aCallback);
+        }
+        else
+        {
+          final ICommonsList <Registration> aList = aFiles.get (aName.toString ());
+          if (aList != null)
+            for (final Registration aRegistration : aList)
+              ret.add (aRegistration.m_aCallback);
+          final ICommonsList <Registration> aDirList = aFiles.get (ANY_FILE);
+          if (aDirList != null)
+            for (final Registration aRegistration : aDirList)
+              ret.add (aRegistration.m_aCallback);
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Drop all registrations of a directory whose watch key is no longer valid.
+   *
+   * @return The callbacks to invoke. Never <code>null</code>.
+   */
+  @Nonnull
+  private ICommonsList <Runnable> _invalidate (@Nonnull final WatchKey aKey, @Nonnull final Path aDir)
+  {
+    final ICommonsList <Runnable> ret = new CommonsArrayList <> ();
+    synchronized (m_aLock)
+    {
+      // The directory may have been registered again in the meantime
+      if (m_aKeys.get (aDir) != aKey)
+        return ret;
+      m_aKeys.remove (aDir);
+      final ICommonsMap <String, ICommonsList <Registration>> aFiles = m_aCallbacks.remove (aDir);
+      if (aFiles != null)
+      {
+        final File aDirFile = aDir.toFile ();
+        for (final ICommonsList <Registration> aList : aFiles.values ())
+          for (final Registration aRegistration : aList)
+            if (aRegistration.m_aInvalidatedCallback != null)
+              ret.add ( () -> aRegistration.m_aInvalidatedCallback.accept (aDirFile));
+            else
+              ret.add (aRegistration.m_aCallback);
+      }
+    }
+    s_aLogger.warn ("Directory " + aDir + " can no longer be watched - " + ret.size () + " registrations were dropped");
+    return ret;
+  }
+
+  private void _run (@Nonnull final WatchService aWatchService)
+  {
+    try
+    {
+      while (true)
+      {
+        final WatchKey aKey = aWatchService.take ();
+        final Path aDir = (Path) aKey.watchable ();
+        // Each file only once per batch of events
+        final ICommonsList <Runnable> aToRun = new CommonsArrayList <> ();
+        for (final WatchEvent <?> aEvent : aKey.pollEvents ())
+        {
+          final Path aName = aEvent.kind () == StandardWatchEventKinds.OVERFLOW ? null : (Path) aEvent.context ();
+          for (final Runnable aCallback : _getCallbacks (aDir, aName))
+            if (!aToRun.contains (aCallback))
+              aToRun.add (aCallback);
+        }
+        if (!aKey.reset ())
+          for (final Runnable aCallback : _invalidate (aKey, aDir))
+            if (!aToRun.contains (aCallback))
+              aToRun.add (aCallback);
+
+        for (final Runnable aCallback : aToRun)
+          try
+          {
+            aCallback.run ();
+          }
+          catch (final RuntimeException ex)
+          {
+            s_aLogger.error ("Error in file watcher callback", ex);
+          }
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+    catch (final ClosedWatchServiceException ex)
+    {
+      // Closed - end of thread
+    }
+  }
+
+  /**
+   * Stop watching all files and end the watcher thread.
+   */
+  public void close ()
+  {
+    synchronized (m_aLock)
+    {
+      if (m_aWatchService != null)
+      {
+        try
+        {
+          m_aWatchService.close ();
+        }
+        catch (final IOException ex)
+        {
+          s_aLogger.warn ("Failed to close watch service: " + ex.getMessage ());
+        }
+        m_aWatchService = null;
+      }
+      m_aKeys.clear ();
+      m_aCallbacks.clear ();
+    }
+  }
+}
@@ -0,0 +1,384 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * Records the wall time, the CPU time and the number of allocated bytes of
+ * named phases. Phases may be nested and may be executed on different threads.
+ * CPU time and allocated bytes are only available if supported by the JVM and
+ * are reported as -1 otherwise. After {@link #freeze()} no more phases are
+ * recorded.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class PhaseProfiler
+{
+  /**
+   * A single finished phase.
+   */
+  @Immutable
+  public static final class Phase
+  {
+    private final String m_sName;
+    private final String m_sParentName;
+    private final String m_sThreadName;
+    private final long m_nStartNanos;
+    private final long m_nWallNanos;
+    private final long m_nCPUNanos;
+    private final long m_nAllocatedBytes;
+
+    Phase (@Nonnull final String sName,
+           @Nullable final String sParentName,
+           @Nonnull final String sThreadName,
+           final long nStartNanos,
+           final long nWallNanos,
+           final long nCPUNanos,
+           final long nAllocatedBytes)
+    {
+      m_sName = sName;
+      m_sParentName = sParentName;
+      m_sThreadName = sThreadName;
+      m_nStartNanos = nStartNanos;
+      m_nWallNanos = nWallNanos;
+      m_nCPUNanos = nCPUNanos;
+      m_nAllocatedBytes = nAllocatedBytes;
+    }
+
+    @Nonnull
+    public String getName ()
+    {
+      return m_sName;
+    }
+
+    /**
+     * @return The name of the phase that was active on the same thread when
+     *         this phase was started. May be <code>null</code>.
+     */
+    @Nullable
+    public String getParentName ()
+    {
+      return m_sParentName;
+    }
+
+    @Nonnull
+    public String getThreadName ()
+    {
+      return m_sThreadName;
+    }
+
+    /**
+     * @return The start of the phase in nanoseconds relative to the creation
+     *         of the profiler.
+     */
+    public long getStartNanos ()
+    {
+      return m_nStartNanos;
+    }
+
+    public long getWallNanos ()
+    {
+      return m_nWallNanos;
+    }
+
+    /**
+     * @return The CPU time of the phase in nanoseconds or -1 if not supported.
+     */
+    public long getCPUNanos ()
+    {
+      return m_nCPUNanos;
+    }
+
+    /**
+     * @return The number of bytes allocated by the thread during the phase or
+     *         -1 if not supported.
+     */
+    public long getAllocatedBytes ()
+    {
+      return m_nAllocatedBytes;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("Name", m_sName)
+                                         .append ("ParentName", m_sParentName)
+                                         .append ("ThreadName", m_sThreadName)
+                                         .append ("StartNanos", m_nStartNanos)
+                                         .append ("WallNanos", m_nWallNanos)
+                                         .append ("CPUNanos", m_nCPUNanos)
+                                         .append ("AllocatedBytes", m_nAllocatedBytes)
+                                         .toString ();
+    }
+  }
+
+  /**
+   * A running phase. Must be closed on the thread it was started on.
+   */
+  public final class PhaseTimer implements AutoCloseable
+  {
+    private final String m_sName;
+    private final String m_sParentName;
+    private final long m_nStartNanos;
+    private final long m_nStartCPUNanos;
+    private final long m_nStartAllocatedBytes;
+    private boolean m_bClosed = false;
+
+    PhaseTimer (@Nonnull final String sName, @Nullable final String sParentName, final boolean bRecord)
+    {
+      m_bClosed = !bRecord;
+      m_sName = sName;
+      m_sParentName = sParentName;
+      m_nStartCPUNanos = _getCurrentThreadCPUNanos ();
+      m_nStartAllocatedBytes = _getCurrentThreadAllocatedBytes ();
+      m_nStartNanos = System.nanoTime ();
+    }
+
+    public void close ()
+    {
+      if (!m_bClosed)
+      {
+        m_bClosed = true;
+        final long nEndNanos = System.nanoTime ();
+        final long nEndCPUNanos = _getCurrentThreadCPUNanos ();
+        final long nEndAllocatedBytes = _getCurrentThreadAllocatedBytes ();
+        _end (new Phase (m_sName,
+                         m_sParentName,
+                         Thread.currentThread ().getName (),
+                         m_nStartNanos - m_nCreationNanos,
+                         nEndNanos - m_nStartNanos,
+                         m_nStartCPUNanos < 0 || nEndCPUNanos < 0 ? -1 : nEndCPUNanos - m_nStartCPUNanos,
+                         m_nStartAllocatedBytes < 0 || nEndAllocatedBytes < 0 ? -1
+                                                                              : nEndAllocatedBytes -
+                                                                                m_nStartAllocatedBytes));
+      }
+    }
+  }
+
+  private static final ThreadMXBean s_aThreadMXBean = ManagementFactory.getThreadMXBean ();
+
+  private final long m_nCreationNanos = System.nanoTime ();
+  private final ThreadLocal <Deque <String>> m_aActivePhases = ThreadLocal.withInitial ( () -> new ArrayDeque <> ());
+  private final ICommonsList <Phase> m_aPhases = new CommonsArrayList <> ();
+  private volatile boolean m_bFrozen = false;
+
+  public PhaseProfiler ()
+  {}
+
+  private static long _getCurrentThreadCPUNanos ()
+  {
+    try
+    {
+      if (s_aThreadMXBean.isCurrentThreadCpuTimeSupported () && s_aThreadMXBean.isThreadCpuTimeEnabled ())
+        return s_aThreadMXBean.getCurrentThreadCpuTime ();
+    }
+    catch (final UnsupportedOperationException ex)
+    {
+      // Fall through
+    }
+    return -1;
+  }
+
+  private static long _getCurrentThreadAllocatedBytes ()
+  {
+    if (s_aThreadMXBean instanceof com.sun.management.ThreadMXBean)
+    {
+      final com.sun.management.ThreadMXBean aSunBean = (com.sun.management.ThreadMXBean) s_aThreadMXBean;
+      try
+      {
+        if (aSunBean.isThreadAllocatedMemorySupported () && aSunBean.isThreadAllocatedMemoryEnabled ())
+          return aSunBean.getThreadAllocatedBytes (Thread.currentThread ().getId ());
+      }
+      catch (final UnsupportedOperationException ex)
+      {
+        // Fall through
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Start a new phase. Use it in a try-with-resources block.
+   *
+   * @param sName
+   *        Phase name. May neither be <code>null</code> nor empty.
+   * @return The running phase that must be closed when the phase ends.
+   */
+  @Nonnull
+  public PhaseTimer start (@Nonnull @Nonempty final String sName)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    if (m_bFrozen)
+      return new PhaseTimer (sName, null, false);
+    final Deque <String> aActive = m_aActivePhases.get ();
+    final PhaseTimer ret = new PhaseTimer (sName, aActive.peek (), true);
+    aActive.push (sName);
+    return ret;
+  }
+
+  /**
+   * Stop recording new phases, e.g. after the startup is complete, so that
+   * work performed later (like configuration reloads) does not end up in the
+   * report. Phases that are running already are still recorded.
+   */
+  public void freeze ()
+  {
+    m_bFrozen = true;
+  }
+
+  public boolean isFrozen ()
+  {
+    return m_bFrozen;
+  }
+
+  private void _end (@Nonnull final Phase aPhase)
+  {
+    final Deque <String> aActive = m_aActivePhases.get ();
+    aActive.remove (aPhase.getName ());
+    if (aActive.isEmpty ())
+      m_aActivePhases.remove ();
+
+    synchronized (m_aPhases)
+    {
+      m_aPhases.add (aPhase);
+    }
+  }
+
+  /**
+   * @return All finished phases ordered by their end time.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <Phase> getAllPhases ()
+  {
+    synchronized (m_aPhases)
+    {
+      return m_aPhases.getClone ();
+    }
+  }
+
+  private static void _appendJSONString (@Nonnull final StringBuilder aSB, @Nullable final String s)
+  {
+    if (s == null)
+    {
+      aSB.append ("null");
+      return;
+    }
+    aSB.append ('"');
+    for (final char c : s.toCharArray ())
+      switch (c)
+      {
+        case '"':
+          aSB.append ("\\\"");
+          break;
+        case '\\':
+          aSB.append ("\\\\");
+          break;
+        case '\n':
+          aSB.append ("\\n");
+          break;
+        case '\r':
+          aSB.append ("\\r");
+          break;
+        case '\t':
+          aSB.append ("\\t");
+          break;
+        default:
+          if (c < 0x20)
+            aSB.append (String.format ("\\u%04x", Integer.valueOf (c)));
+          else
+            aSB.append (c);
+      }
+    aSB.append ('"');
+  }
+
+  private static long _toMillis (final long nNanos)
+  {
+    return nNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis (nNanos);
+  }
+
+  /**
+   * @return All finished phases as a JSON object, ordered by their start time.
+   *         Times are in milliseconds.
+   */
+  @Nonnull
+  public String getAsJSONString ()
+  {
+    final ICommonsList <Phase> aPhases = getAllPhases ();
+    aPhases.sort ( (a, b) -> Long.compare (a.getStartNanos (), b.getStartNanos ()));
+
+    final StringBuilder aSB = new StringBuilder ();
+    aSB.append ("{\"phases\":[");
+    long nTotalNanos = 0;
+    boolean bFirst = true;
+    for (final Phase aPhase : aPhases)
+    {
+      if (bFirst)
+        bFirst = false;
+      else
+        aSB.append (',');
+      aSB.append ("{\"name\":");
+      _appendJSONString (aSB, aPhase.getName ());
+      aSB.append (",\"parent\":");
+      _appendJSONString (aSB, aPhase.getParentName ());
+      aSB.append (",\"thread\":");
+      _appendJSONString (aSB, aPhase.getThreadName ());
+      aSB.append (",\"startMillis\":").append (_toMillis (aPhase.getStartNanos ()));
+      aSB.append (",\"wallMillis\":").append (_toMillis (aPhase.getWallNanos ()));
+      aSB.append (",\"cpuMillis\":").append (_toMillis (aPhase.getCPUNanos ()));
+      aSB.append (",\"allocatedBytes\":").append (aPhase.getAllocatedBytes ());
+      aSB.append ('}');
+      nTotalNanos = Math.max (nTotalNanos, aPhase.getStartNanos () + aPhase.getWallNanos ());
+    }
+    aSB.append ("],\"totalWallMillis\":").append (_toMillis (nTotalNanos)).append ('}');
+    return aSB.toString ();
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.ext.CommonsTreeMap;
+import com.helger.commons.collection.ext.ICommonsSortedMap;
+
+/**
+ * A simple registry of named numeric metrics. Counters are owned by the
+ * registry, gauges are evaluated every time the values are queried. Each
+ * session has its own instance, so that the metrics of different sessions
+ * hosted in the same JVM do not mix.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class ServerMetrics
+{
+  private final Map <String, AtomicLong> m_aCounters = new ConcurrentHashMap <> ();
+  private final Map <String, LongSupplier> m_aGauges = new ConcurrentHashMap <> ();
+
+  public ServerMetrics ()
+  {}
+
+  /**
+   * Get or create the counter with the provided name.
+   *
+   * @param sName
+   *        Metric name. May neither be <code>null</code> nor empty.
+   * @return The counter. Never <code>null</code>.
+   */
+  @Nonnull
+  public AtomicLong getCounter (@Nonnull @Nonempty final String sName)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    return m_aCounters.computeIfAbsent (sName, k -> new AtomicLong ());
+  }
+
+  /**
+   * Register a gauge. An existing gauge with the same name is replaced.
+   *
+   * @param sName
+   *        Metric name. May neither be <code>null</code> nor empty.
+   * @param aGauge
+   *        The supplier of the current value. May not be <code>null</code>.
+   */
+  public void registerGauge (@Nonnull @Nonempty final String sName, @Nonnull final LongSupplier aGauge)
+  {
+    ValueEnforcer.notEmpty (sName, "Name");
+    ValueEnforcer.notNull (aGauge, "Gauge");
+    m_aGauges.put (sName, aGauge);
+  }
+
+  public void removeGauge (@Nonnull final String sName)
+  {
+    m_aGauges.remove (sName);
+  }
+
+  /**
+   * @return The current values of all counters and gauges, sorted by name.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsSortedMap <String, Long> getAllValues ()
+  {
+    final ICommonsSortedMap <String, Long> ret = new CommonsTreeMap <> ();
+    for (final Map.Entry <String, AtomicLong> aEntry : m_aCounters.entrySet ())
+      ret.put (aEntry.getKey (), Long.valueOf (aEntry.getValue ().get ()));
+    for (final Map.Entry <String, LongSupplier> aEntry : m_aGauges.entrySet ())
+      ret.put (aEntry.getKey (), Long.valueOf (aEntry.getValue ().getAsLong ()));
+    return ret;
+  }
+}
@@ -0,0 +1,469 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.exception.WrappedOpenAS2Exception;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroElement;
+import com.helger.xml.microdom.serialize.MicroReader;
+
+/**
+ * Reads and writes a versioned binary snapshot of a resolved XML configuration
+ * tree. Resolved means that all attribute names except the ones of the root
+ * element are lower cased (unless disabled, e.g. for partnership files) and
+ * that all occurrences of <code>%home%</code> are replaced with the base
+ * directory. Each snapshot contains the SHA-256 digest of the source file, the
+ * base directory and the lower casing mode it was created for, so that an
+ * outdated snapshot is never used. Text content of the XML file is not part of
+ * the snapshot.
+ *
+ * @author Philip Helger
+ */
+public final class XMLConfigSnapshot
+{
+  /** The file extension appended to the source file name */
+  public static final String FILE_EXTENSION = ".snapshot";
+  /** The placeholder for the base directory */
+  public static final String HOME_PLACEHOLDER = "%home%";
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (XMLConfigSnapshot.class);
+  private static final int MAGIC = 0x41533243;
+  private static final int VERSION = 2;
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private XMLConfigSnapshot ()
+  {}
+
+  /**
+   * @param aSourceFile
+   *        The XML source file. May not be <code>null</code>.
+   * @return The snapshot file that belongs to the provided source file.
+   */
+  @Nonnull
+  public static File getSnapshotFile (@Nonnull final File aSourceFile)
+  {
+    ValueEnforcer.notNull (aSourceFile, "SourceFile");
+    return new File (aSourceFile.getParentFile (), aSourceFile.getName () + FILE_EXTENSION);
+  }
+
+  /**
+   * Get the SHA-256 digest of the content of the provided file.
+   *
+   * @param aFile
+   *        The file to read. May not be <code>null</code>.
+   * @return The digest bytes. Never <code>null</code>.
+   * @throws IOException
+   *         If reading fails
+   */
+  @Nonnull
+  public static byte [] getDigest (@Nonnull final File aFile) throws IOException
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    final MessageDigest aMD;
+    try
+    {
+      aMD = MessageDigest.getInstance (DIGEST_ALGORITHM);
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException ("Digest algorithm " + DIGEST_ALGORITHM + " is not supported", ex);
+    }
+    try (final InputStream aIS = Files.newInputStream (aFile.toPath ()))
+    {
+      final byte [] aBuffer = new byte [16 * 1024];
+      int nRead;
+      while ((nRead = aIS.read (aBuffer)) > 0)
+        aMD.update (aBuffer, 0, nRead);
+    }
+    return aMD.digest ();
+  }
+
+  @Nonnull
+  private static String _resolve (@Nonnull final String sValue, @Nullable final String sBaseDirectory)
+  {
+    if (sBaseDirectory == null)
+      return sValue;
+    return StringHelper.replaceAll (sValue, HOME_PLACEHOLDER, sBaseDirectory);
+  }
+
+  private static void _copyResolved (@Nonnull final IMicroElement eSrc,
+                                     @Nonnull final IMicroElement eDst,
+                                     final boolean bLowercaseAttrNames,
+                                     final boolean bLowercaseChildAttrNames,
+                                     @Nullable final String sBaseDirectory)
+  {
+    if (eSrc.hasAttributes ())
+      for (final Map.Entry <String, String> aEntry : eSrc.getAllAttributes ().entrySet ())
+      {
+        final String sName = bLowercaseAttrNames ? aEntry.getKey ().toLowerCase (Locale.US) : aEntry.getKey ();
+        eDst.setAttribute (sName, _resolve (aEntry.getValue (), sBaseDirectory));
+      }
+    for (final IMicroElement eChild : eSrc.getAllChildElements ())
+      _copyResolved (eChild,
+                     eDst.appendElement (eChild.getTagName ()),
+                     bLowercaseChildAttrNames,
+                     bLowercaseChildAttrNames,
+                     sBaseDirectory);
+  }
+
+  /**
+   * Create a resolved copy of the provided element tree.
+   *
+   * @param eRoot
+   *        The root element to copy. May not be <code>null</code>.
+   * @param sBaseDirectory
+   *        The base directory to replace <code>%home%</code> with. May be
+   *        <code>null</code> in which case no replacement happens.
+   * @return The resolved copy. Never <code>null</code>.
+   */
+  @Nonnull
+  public static IMicroElement getResolvedCopy (@Nonnull final IMicroElement eRoot,
+                                               @Nullable final String sBaseDirectory)
+  {
+    return getResolvedCopy (eRoot, sBaseDirectory, true);
+  }
+
+  /**
+   * Create a resolved copy of the provided element tree.
+   *
+   * @param eRoot
+   *        The root element to copy. May not be <code>null</code>.
+   * @param sBaseDirectory
+   *        The base directory to replace <code>%home%</code> with. May be
+   *        <code>null</code> in which case no replacement happens.
+   * @param bLowercaseAttrNames
+   *        <code>true</code> to lower case the attribute names of all elements
+   *        except the root element, <code>false</code> to keep them.
+   * @return The resolved copy. Never <code>null</code>.
+   */
+  @Nonnull
+  public static IMicroElement getResolvedCopy (@Nonnull final IMicroElement eRoot,
+                                               @Nullable final String sBaseDirectory,
+                                               final boolean bLowercaseAttrNames)
+  {
+    ValueEnforcer.notNull (eRoot, "Root");
+    final IMicroElement ret = new MicroElement (eRoot.getTagName ());
+    _copyResolved (eRoot, ret, false, bLowercaseAttrNames, sBaseDirectory);
+    return ret;
+  }
+
+  private static void _writeString (@Nonnull final DataOutputStream aDOS, @Nonnull final String s) throws IOException
+  {
+    final byte [] aBytes = s.getBytes (StandardCharsets.UTF_8);
+    aDOS.writeInt (aBytes.length);
+    aDOS.write (aBytes);
+  }
+
+  @Nonnull
+  private static String _readString (@Nonnull final DataInputStream aDIS) throws IOException
+  {
+    final int nLength = aDIS.readInt ();
+    if (nLength < 0)
+      throw new IOException ("Invalid string length " + nLength);
+    final byte [] aBytes = new byte [nLength];
+    aDIS.readFully (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+
+  private static void _writeElement (@Nonnull final DataOutputStream aDOS,
+                                     @Nonnull final IMicroElement aElement) throws IOException
+  {
+    _writeString (aDOS, aElement.getTagName ());
+    if (aElement.hasAttributes ())
+    {
+      final Map <String, String> aAttrs = aElement.getAllAttributes ();
+      aDOS.writeInt (aAttrs.size ());
+      for (final Map.Entry <String, String> aEntry : aAttrs.entrySet ())
+      {
+        _writeString (aDOS, aEntry.getKey ());
+        _writeString (aDOS, aEntry.getValue ());
+      }
+    }
+    else
+      aDOS.writeInt (0);
+
+    final List <IMicroElement> aChildren = aElement.getAllChildElements ();
+    aDOS.writeInt (aChildren.size ());
+    for (final IMicroElement aChild : aChildren)
+      _writeElement (aDOS, aChild);
+  }
+
+  private static void _readElementContent (@Nonnull final DataInputStream aDIS,
+                                          @Nonnull final IMicroElement aElement) throws IOException
+  {
+    final int nAttrs = aDIS.readInt ();
+    for (int i = 0; i < nAttrs; ++i)
+    {
+      final String sName = _readString (aDIS);
+      aElement.setAttribute (sName, _readString (aDIS));
+    }
+    final int nChildren = aDIS.readInt ();
+    for (int i = 0; i < nChildren; ++i)
+      _readElementContent (aDIS, aElement.appendElement (_readString (aDIS)));
+  }
+
+  /**
+   * Read a snapshot file.
+   *
+   * @param aSnapshotFile
+   *        The snapshot file to read. May not be <code>null</code>.
+   * @param aSourceDigest
+   *        The current digest of the source file. May not be
+   *        <code>null</code>.
+   * @param sBaseDirectory
+   *        The current base directory. May be <code>null</code>.
+   * @param bLowercaseAttrNames
+   *        The lower casing mode the snapshot must have been created with.
+   * @return <code>null</code> if the snapshot file does not exist, is
+   *         corrupt, has a different version or was created from a different
+   *         source file content, base directory or lower casing mode.
+   */
+  @Nullable
+  public static IMicroElement readSnapshot (@Nonnull final File aSnapshotFile,
+                                            @Nonnull final byte [] aSourceDigest,
+                                            @Nullable final String sBaseDirectory,
+                                            final boolean bLowercaseAttrNames)
+  {
+    ValueEnforcer.notNull (aSnapshotFile, "SnapshotFile");
+    ValueEnforcer.notNull (aSourceDigest, "SourceDigest");
+    if (!aSnapshotFile.isFile ())
+      return null;
+
+    try (final DataInputStream aDIS = new DataInputStream (new BufferedInputStream (Files.newInputStream (aSnapshotFile.toPath ()))))
+    {
+      if (aDIS.readInt () != MAGIC || aDIS.readInt () != VERSION)
+      {
+        s_aLogger.info ("Ignoring snapshot " + aSnapshotFile + " because of an unsupported format");
+        return null;
+      }
+      final byte [] aDigest = new byte [aDIS.readInt ()];
+      aDIS.readFully (aDigest);
+      final String sSnapshotBaseDirectory = aDIS.readBoolean () ? _readString (aDIS) : null;
+      final boolean bSnapshotLowercase = aDIS.readBoolean ();
+      if (!Arrays.equals (aDigest, aSourceDigest) ||
+          !StringHelper.equals (sSnapshotBaseDirectory, sBaseDirectory) ||
+          bSnapshotLowercase != bLowercaseAttrNames)
+      {
+        s_aLogger.info ("Ignoring outdated snapshot " + aSnapshotFile);
+        return null;
+      }
+      final IMicroElement ret = new MicroElement (_readString (aDIS));
+      _readElementContent (aDIS, ret);
+      return ret;
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      s_aLogger.warn ("Failed to read snapshot " + aSnapshotFile + ": " + ex.getMessage ());
+      return null;
+    }
+  }
+
+  /**
+   * Write a snapshot file. The file is first written to a temporary file which
+   * is then renamed, so that a concurrent reader never sees a partial file.
+   * Errors are logged but not propagated, as a snapshot is only an
+   * optimization.
+   *
+   * @param aSnapshotFile
+   *        The snapshot file to write. May not be <code>null</code>.
+   * @param aSourceDigest
+   *        The digest of the source file. May not be <code>null</code>.
+   * @param sBaseDirectory
+   *        The base directory used for resolving. May be <code>null</code>.
+   * @param bLowercaseAttrNames
+   *        The lower casing mode used for resolving.
+   * @param eResolvedRoot
+   *        The resolved root element as created by
+   *        {@link #getResolvedCopy(IMicroElement, String, boolean)}. May not be
+   *        <code>null</code>.
+   * @return <code>true</code> if the snapshot was written.
+   */
+  public static boolean writeSnapshot (@Nonnull final File aSnapshotFile,
+                                       @Nonnull final byte [] aSourceDigest,
+                                       @Nullable final String sBaseDirectory,
+                                       final boolean bLowercaseAttrNames,
+                                       @Nonnull final IMicroElement eResolvedRoot)
+  {
+    ValueEnforcer.notNull (aSnapshotFile, "SnapshotFile");
+    ValueEnforcer.notNull (aSourceDigest, "SourceDigest");
+    ValueEnforcer.notNull (eResolvedRoot, "ResolvedRoot");
+
+    final File aTempFile = new File (aSnapshotFile.getParentFile (), aSnapshotFile.getName () + ".tmp");
+    try
+    {
+      try (final DataOutputStream aDOS = new DataOutputStream (new BufferedOutputStream (Files.newOutputStream (aTempFile.toPath ()))))
+      {
+        aDOS.writeInt (MAGIC);
+        aDOS.writeInt (VERSION);
+        aDOS.writeInt (aSourceDigest.length);
+        aDOS.write (aSourceDigest);
+        aDOS.writeBoolean (sBaseDirectory != null);
+        if (sBaseDirectory != null)
+          _writeString (aDOS, sBaseDirectory);
+        aDOS.writeBoolean (bLowercaseAttrNames);
+        _writeElement (aDOS, eResolvedRoot);
+      }
+      Files.move (aTempFile.toPath (),
+                  aSnapshotFile.toPath (),
+                  StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+      s_aLogger.info ("Wrote configuration snapshot " + aSnapshotFile);
+      return true;
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.warn ("Failed to write snapshot " + aSnapshotFile + ": " + ex.getMessage ());
+      aTempFile.delete ();
+      return false;
+    }
+  }
+
+  /**
+   * Read the root element of an XML configuration file. If a valid snapshot
+   * is present, it is used instead of parsing the XML file. Otherwise the XML
+   * file is parsed and, if enabled, a new snapshot is written.
+   *
+   * @param aSourceFile
+   *        The XML file to read. May not be <code>null</code>.
+   * @param sBaseDirectory
+   *        The base directory to replace <code>%home%</code> with. May be
+   *        <code>null</code>.
+   * @param aSnapshotEnabled
+   *        Decides, based on the parsed root element, whether a snapshot
+   *        should be written. May not be <code>null</code>.
+   * @return The resolved root element if a snapshot was read or written, the
+   *         parsed root element otherwise. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If the file cannot be read or parsed
+   */
+  @Nonnull
+  public static IMicroElement readConfiguration (@Nonnull final File aSourceFile,
+                                                 @Nullable final String sBaseDirectory,
+                                                 @Nonnull final Predicate <IMicroElement> aSnapshotEnabled) throws OpenAS2Exception
+  {
+    return readConfiguration (aSourceFile, sBaseDirectory, true, aSnapshotEnabled);
+  }
+
+  /**
+   * Read the root element of an XML configuration file. If a valid snapshot
+   * is present, it is used instead of parsing the XML file. Otherwise the XML
+   * file is parsed and, if enabled, a new snapshot is written.
+   *
+   * @param aSourceFile
+   *        The XML file to read. May not be <code>null</code>.
+   * @param sBaseDirectory
+   *        The base directory to replace <code>%home%</code> with. May be
+   *        <code>null</code>.
+   * @param bLowercaseAttrNames
+   *        <code>true</code> to lower case the attribute names of all elements
+   *        except the root element, <code>false</code> to keep them.
+   * @param aSnapshotEnabled
+   *        Decides, based on the parsed root element, whether a snapshot
+   *        should be written. May not be <code>null</code>.
+   * @return The resolved root element if a snapshot was read or written, the
+   *         parsed root element otherwise. Never <code>null</code>.
+   * @throws OpenAS2Exception
+   *         If the file cannot be read or parsed
+   */
+  @Nonnull
+  public static IMicroElement readConfiguration (@Nonnull final File aSourceFile,
+                                                 @Nullable final String sBaseDirectory,
+                                                 final boolean bLowercaseAttrNames,
+                                                 @Nonnull final Predicate <IMicroElement> aSnapshotEnabled) throws OpenAS2Exception
+  {
+    ValueEnforcer.notNull (aSourceFile, "SourceFile");
+    ValueEnforcer.notNull (aSnapshotEnabled, "SnapshotEnabled");
+
+    final File aSnapshotFile = getSnapshotFile (aSourceFile);
+    byte [] aDigest = null;
+    try
+    {
+      if (aSnapshotFile.isFile ())
+      {
+        aDigest = getDigest (aSourceFile);
+        final IMicroElement eSnapshotRoot = readSnapshot (aSnapshotFile, aDigest, sBaseDirectory, bLowercaseAttrNames);
+        if (eSnapshotRoot != null)
+        {
+          s_aLogger.info ("Using configuration snapshot " + aSnapshotFile);
+          return eSnapshotRoot;
+        }
+      }
+
+      final IMicroDocument aDoc = MicroReader.readMicroXML (FileHelper.getInputStream (aSourceFile));
+      if (aDoc == null || aDoc.getDocumentElement () == null)
+        throw new OpenAS2Exception ("Failed to read '" + aSourceFile.getAbsolutePath () + "' as XML");
+      final IMicroElement eRoot = aDoc.getDocumentElement ();
+      if (!aSnapshotEnabled.test (eRoot))
+        return eRoot;
+
+      if (aDigest == null)
+        aDigest = getDigest (aSourceFile);
+      final IMicroElement eResolved = getResolvedCopy (eRoot, sBaseDirectory, bLowercaseAttrNames);
+      writeSnapshot (aSnapshotFile, aDigest, sBaseDirectory, bLowercaseAttrNames, eResolved);
+      return eResolved;
+    }
+    catch (final IOException ex)
+    {
+      throw WrappedOpenAS2Exception.wrap (ex);
+    }
+  }
+}
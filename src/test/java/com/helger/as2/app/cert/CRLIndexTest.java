@@ -0,0 +1,102 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link CRLIndex}
+ *
+ * @author Philip Helger
+ */
+public final class CRLIndexTest
+{
+  @Test
+  public void testIsRevoked ()
+  {
+    final X500Principal aCA1 = new X500Principal ("CN=CA 1, O=Test, C=AT");
+    final X500Principal aCA2 = new X500Principal ("CN=CA 2, O=Test, C=AT");
+    final BigInteger aLarge = BigInteger.ONE.shiftLeft (120).add (BigInteger.valueOf (17));
+
+    final CRLIndex aIndex = new CRLIndex.Builder ().addRevoked (aCA1, BigInteger.valueOf (42))
+                                                   .addRevoked (aCA1, BigInteger.valueOf (7))
+                                                   .addRevoked (aCA1, BigInteger.valueOf (42))
+                                                   .addRevoked (aCA1, aLarge)
+                                                   .addRevoked (aCA2, BigInteger.valueOf (Long.MAX_VALUE))
+                                                   .build ();
+    assertEquals (2, aIndex.getIssuerCount ());
+    // The duplicate is counted once
+    assertEquals (4, aIndex.getRevokedCount ());
+
+    assertTrue (aIndex.isRevoked (aCA1, BigInteger.valueOf (7)));
+    assertTrue (aIndex.isRevoked (aCA1, BigInteger.valueOf (42)));
+    assertTrue (aIndex.isRevoked (aCA1, aLarge));
+    assertTrue (aIndex.isRevoked (aCA2, BigInteger.valueOf (Long.MAX_VALUE)));
+    // Same DN with different formatting
+    assertTrue (aIndex.isRevoked (new X500Principal ("cn=CA 1,o=Test,c=AT"), BigInteger.valueOf (7)));
+
+    assertFalse (aIndex.isRevoked (aCA1, BigInteger.valueOf (8)));
+    assertFalse (aIndex.isRevoked (aCA1, aLarge.add (BigInteger.ONE)));
+    assertFalse (aIndex.isRevoked (aCA2, BigInteger.valueOf (7)));
+    assertFalse (aIndex.isRevoked (new X500Principal ("CN=Other"), BigInteger.valueOf (7)));
+    assertFalse (aIndex.isRevoked (null, BigInteger.valueOf (7)));
+    assertFalse (aIndex.isRevoked (aCA1, null));
+  }
+
+  @Test
+  public void testEmpty ()
+  {
+    final CRLIndex aIndex = new CRLIndex.Builder ().build ();
+    assertEquals (0, aIndex.getCRLCount ());
+    assertEquals (0, aIndex.getIssuerCount ());
+    assertEquals (0, aIndex.getRevokedCount ());
+    assertFalse (aIndex.isRevoked (new X500Principal ("CN=CA"), BigInteger.ONE));
+  }
+
+  @Test
+  public void testEpoch ()
+  {
+    final CRLIndex aIndex1 = new CRLIndex.Builder ().build ();
+    final CRLIndex aIndex2 = new CRLIndex.Builder ().build ();
+    assertTrue (aIndex1.getEpoch () > 0);
+    assertTrue (aIndex2.getEpoch () > aIndex1.getEpoch ());
+  }
+}
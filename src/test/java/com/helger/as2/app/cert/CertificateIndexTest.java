@@ -0,0 +1,117 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link CertificateIndex}
+ *
+ * @author Philip Helger
+ */
+public final class CertificateIndexTest
+{
+  private static byte [] _bytes (final int... aValues)
+  {
+    final byte [] ret = new byte [aValues.length];
+    for (int i = 0; i < aValues.length; ++i)
+      ret[i] = (byte) aValues[i];
+    return ret;
+  }
+
+  private static byte [] _octetString (final int nLength, final int... aLengthBytes)
+  {
+    final byte [] ret = new byte [1 + aLengthBytes.length + nLength];
+    ret[0] = 0x04;
+    for (int i = 0; i < aLengthBytes.length; ++i)
+      ret[1 + i] = (byte) aLengthBytes[i];
+    for (int i = 0; i < nLength; ++i)
+      ret[1 + aLengthBytes.length + i] = (byte) i;
+    return ret;
+  }
+
+  private static byte [] _content (final int nLength)
+  {
+    final byte [] ret = new byte [nLength];
+    for (int i = 0; i < nLength; ++i)
+      ret[i] = (byte) i;
+    return ret;
+  }
+
+  @Test
+  public void testGetOctetStringContent ()
+  {
+    // Short form length
+    assertArrayEquals (new byte [0], CertificateIndex.getOctetStringContent (_bytes (0x04, 0x00)));
+    assertArrayEquals (_bytes (1, 2, 3), CertificateIndex.getOctetStringContent (_bytes (0x04, 0x03, 1, 2, 3)));
+    assertArrayEquals (_content (0x7f), CertificateIndex.getOctetStringContent (_octetString (0x7f, 0x7f)));
+
+    // Long form length with one and two length bytes
+    assertArrayEquals (_content (0x80), CertificateIndex.getOctetStringContent (_octetString (0x80, 0x81, 0x80)));
+    assertArrayEquals (_content (0x1234),
+                       CertificateIndex.getOctetStringContent (_octetString (0x1234, 0x82, 0x12, 0x34)));
+
+    // Trailing bytes are ignored
+    assertArrayEquals (_bytes (1), CertificateIndex.getOctetStringContent (_bytes (0x04, 0x01, 1, 2)));
+
+    // A subject key identifier extension value: OCTET STRING in OCTET STRING
+    final byte [] aSKI = _content (20);
+    final byte [] aExtension = new byte [24];
+    aExtension[0] = 0x04;
+    aExtension[1] = 22;
+    aExtension[2] = 0x04;
+    aExtension[3] = 20;
+    System.arraycopy (aSKI, 0, aExtension, 4, 20);
+    assertArrayEquals (aSKI, CertificateIndex.getOctetStringContent (CertificateIndex.getOctetStringContent (aExtension)));
+  }
+
+  @Test
+  public void testGetOctetStringContentInvalid ()
+  {
+    assertNull (CertificateIndex.getOctetStringContent (null));
+    assertNull (CertificateIndex.getOctetStringContent (new byte [0]));
+    assertNull (CertificateIndex.getOctetStringContent (_bytes (0x04)));
+    // Wrong tag (SEQUENCE)
+    assertNull (CertificateIndex.getOctetStringContent (_bytes (0x30, 0x01, 1)));
+    // Content shorter than the length
+    assertNull (CertificateIndex.getOctetStringContent (_bytes (0x04, 0x03, 1, 2)));
+    assertNull (CertificateIndex.getOctetStringContent (_bytes (0x04, 0x81)));
+    assertNull (CertificateIndex.getOctetStringContent (_octetString (0x7f, 0x81, 0x80)));
+    // Indefinite length and too many length bytes
+    assertNull (CertificateIndex.getOctetStringContent (_bytes (0x04, 0x80, 0x00, 0x00)));
+    assertNull (CertificateIndex.getOctetStringContent (_bytes (0x04, 0x84, 0x00, 0x00, 0x00, 0x01, 0x00)));
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.cert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Test class for class {@link CertificateSnapshot} and the incremental update
+ * of its {@link CertificateIndex}.
+ *
+ * @author Philip Helger
+ */
+public final class CertificateSnapshotTest
+{
+  private static X509Certificate s_aCertA;
+  private static X509Certificate s_aCertB;
+
+  @BeforeClass
+  public static void beforeClass () throws Exception
+  {
+    final KeyStore aKS = KeyStore.getInstance ("PKCS12");
+    try (final InputStream aIS = new ClassPathResource ("config/certs.p12").getInputStream ())
+    {
+      aKS.load (aIS, "test".toCharArray ());
+    }
+    s_aCertA = (X509Certificate) aKS.getCertificate ("openas2a_alias");
+    s_aCertB = (X509Certificate) aKS.getCertificate ("openas2b_alias");
+    assertNotNull (s_aCertA);
+    assertNotNull (s_aCertB);
+  }
+
+  private static KeyStore _createKeyStore (final Object... aAliasesAndCerts) throws Exception
+  {
+    final KeyStore ret = KeyStore.getInstance ("PKCS12");
+    ret.load (null, null);
+    for (int i = 0; i < aAliasesAndCerts.length; i += 2)
+      ret.setCertificateEntry ((String) aAliasesAndCerts[i], (X509Certificate) aAliasesAndCerts[i + 1]);
+    return ret;
+  }
+
+  private static String _getThumbprint (final X509Certificate aCert) throws Exception
+  {
+    return StringHelper.getHexEncoded (MessageDigest.getInstance ("SHA-256").digest (aCert.getEncoded ()));
+  }
+
+  private static void _assertIndex (final CertificateSnapshot aSnapshot) throws Exception
+  {
+    // The incrementally updated index must answer like a new one
+    final CertificateSnapshot aFull = CertificateSnapshot.create (0, aSnapshot.getKeyStore (), null);
+    final CertificateIndex aExpected = aFull.getIndex ();
+    final CertificateIndex aIndex = aSnapshot.getIndex ();
+    for (final X509Certificate aCert : new CommonsArrayList <> (s_aCertA, s_aCertB))
+    {
+      assertEquals (aExpected.getAliasByIssuerAndSerial (aCert.getIssuerX500Principal (), aCert.getSerialNumber ()),
+                    aIndex.getAliasByIssuerAndSerial (aCert.getIssuerX500Principal (), aCert.getSerialNumber ()));
+      assertEquals (aExpected.getAliasByThumbprint (_getThumbprint (aCert)),
+                    aIndex.getAliasByThumbprint (_getThumbprint (aCert)));
+      assertEquals (aExpected.getAllAliasesBySubject (aCert.getSubjectX500Principal ()),
+                    aIndex.getAllAliasesBySubject (aCert.getSubjectX500Principal ()));
+    }
+    assertEquals (aExpected.getSubjectCount (), aIndex.getSubjectCount ());
+    assertEquals (aExpected.getAllAliasesExpiringBefore (Long.MAX_VALUE).size (),
+                  aIndex.getAllAliasesExpiringBefore (Long.MAX_VALUE).size ());
+    assertEquals (aExpected.getNextExpiration (0), aIndex.getNextExpiration (0));
+    assertEquals (aExpected.getAllExpirationsBefore (Long.MAX_VALUE), aIndex.getAllExpirationsBefore (Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testDiff () throws Exception
+  {
+    // Initial: everything is added
+    final CertificateSnapshot aS1 = CertificateSnapshot.create (1, _createKeyStore ("a", s_aCertA, "b", s_aCertB), null);
+    assertEquals (2, aS1.getSize ());
+    assertEquals (new CommonsArrayList <> ("a", "b"), new CommonsArrayList <> (aS1.getAllAddedAliases ()));
+    assertTrue (aS1.getAllChangedAliases ().isEmpty ());
+    assertTrue (aS1.getAllRemovedAliases ().isEmpty ());
+    assertEquals ("a",
+                  aS1.getIndex ().getAliasByIssuerAndSerial (s_aCertA.getIssuerX500Principal (),
+                                                             s_aCertA.getSerialNumber ()));
+    assertEquals ("b", aS1.getIndex ().getAliasByThumbprint (_getThumbprint (s_aCertB)));
+    _assertIndex (aS1);
+
+    // "a" unchanged, "b" changed, "c" added
+    final CertificateSnapshot aS2 = CertificateSnapshot.create (2,
+                                                                _createKeyStore ("a",
+                                                                                 s_aCertA,
+                                                                                 "b",
+                                                                                 s_aCertA,
+                                                                                 "c",
+                                                                                 s_aCertB),
+                                                                aS1);
+    assertEquals (new CommonsArrayList <> ("c"), new CommonsArrayList <> (aS2.getAllAddedAliases ()));
+    assertEquals (new CommonsArrayList <> ("b"), new CommonsArrayList <> (aS2.getAllChangedAliases ()));
+    assertTrue (aS2.getAllRemovedAliases ().isEmpty ());
+    assertFalse (aS2.isModified ("a"));
+    assertTrue (aS2.isModified ("b"));
+    assertTrue (aS2.isModified ("c"));
+    // Unchanged aliases keep their objects
+    assertSame (aS1.getCertificate ("a"), aS2.getCertificate ("a"));
+    assertEquals (aS1.getFingerprint ("a"), aS2.getFingerprint ("a"));
+    assertEquals (aS2.getFingerprint ("a"), aS2.getFingerprint ("b"));
+    // The first alias of a certificate wins
+    assertEquals ("a", aS2.getIndex ().getAliasByThumbprint (_getThumbprint (s_aCertA)));
+    assertEquals ("c", aS2.getIndex ().getAliasByThumbprint (_getThumbprint (s_aCertB)));
+    assertEquals (new CommonsArrayList <> ("a", "b"),
+                  aS2.getIndex ().getAllAliasesBySubject (s_aCertA.getSubjectX500Principal ()));
+    _assertIndex (aS2);
+
+    // The previous index is not modified
+    assertEquals ("b", aS1.getIndex ().getAliasByThumbprint (_getThumbprint (s_aCertB)));
+    assertEquals (new CommonsArrayList <> ("a"),
+                  aS1.getIndex ().getAllAliasesBySubject (s_aCertA.getSubjectX500Principal ()));
+
+    // "a" and "b" removed - "c" unchanged
+    final CertificateSnapshot aS3 = CertificateSnapshot.create (3, _createKeyStore ("c", s_aCertB), aS2);
+    assertTrue (aS3.getAllAddedAliases ().isEmpty ());
+    assertTrue (aS3.getAllChangedAliases ().isEmpty ());
+    assertEquals (new CommonsArrayList <> ("a", "b"), new CommonsArrayList <> (aS3.getAllRemovedAliases ()));
+    assertEquals (1, aS3.getSize ());
+    assertNull (aS3.getIndex ().getAliasByThumbprint (_getThumbprint (s_aCertA)));
+    assertNull (aS3.getIndex ().getAliasByIssuerAndSerial (s_aCertA.getIssuerX500Principal (),
+                                                           s_aCertA.getSerialNumber ()));
+    assertTrue (aS3.getIndex ().getAllAliasesBySubject (s_aCertA.getSubjectX500Principal ()).isEmpty ());
+    assertEquals ("c", aS3.getIndex ().getAliasByThumbprint (_getThumbprint (s_aCertB)));
+    assertEquals (1, aS3.getIndex ().getAllAliasesExpiringBefore (Long.MAX_VALUE).size ());
+    _assertIndex (aS3);
+  }
+
+  @Test
+  public void testSharedCertificates () throws Exception
+  {
+    // The same certificate parsed twice, e.g. by two tenants
+    final X509Certificate aCopyA = (X509Certificate) CertificateFactory.getInstance ("X.509")
+                                                                       .generateCertificate (new ByteArrayInputStream (s_aCertA.getEncoded ()));
+    assertNotSame (s_aCertA, aCopyA);
+
+    final CertificateSnapshot aS1 = CertificateSnapshot.create (1, _createKeyStore ("a", s_aCertA), null);
+    final CertificateSnapshot aS2 = CertificateSnapshot.create (1, _createKeyStore ("x", aCopyA), null);
+    assertSame (aS1.getCertificate ("a"), aS2.getCertificate ("x"));
+    assertSame (aS1.getCertificate ("a"),
+                CertificateInterner.getInstance ().intern (_getThumbprint (aCopyA), aCopyA));
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.commons.collection.ext.CommonsArrayList;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+
+/**
+ * Test class for class {@link ParallelBootstrap}
+ *
+ * @author Philip Helger
+ */
+public final class ParallelBootstrapTest
+{
+  @Test
+  public void testPublishOrder () throws Exception
+  {
+    final Thread aCaller = Thread.currentThread ();
+    final List <String> aPublished = new CopyOnWriteArrayList <> ();
+    final AtomicBoolean aDepsPublished = new AtomicBoolean (false);
+
+    final ParallelBootstrap aBootstrap = new ParallelBootstrap ();
+    aBootstrap.addSection ("processor", () -> {
+      // Both dependencies must be published before this section is created
+      aDepsPublished.set (aPublished.contains ("certificates") && aPublished.contains ("partnerships"));
+      return () -> aPublished.add ("processor");
+    }, "certificates", "partnerships");
+    for (final String sName : new String [] { "certificates", "partnerships", "commands" })
+      aBootstrap.addSection (sName, () -> () -> {
+        assertSame (aCaller, Thread.currentThread ());
+        aPublished.add (sName);
+      });
+
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (4);
+    try
+    {
+      aBootstrap.run (aExecutor);
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aExecutor);
+    }
+    assertTrue (aDepsPublished.get ());
+    assertEquals (4, aPublished.size ());
+    assertEquals ("processor", aPublished.get (3));
+  }
+
+  @Test
+  public void testSingleThread () throws Exception
+  {
+    final List <String> aPublished = new CommonsArrayList <> ();
+    final ParallelBootstrap aBootstrap = new ParallelBootstrap ();
+    aBootstrap.addSection ("c", () -> () -> aPublished.add ("c"), "a");
+    aBootstrap.addSection ("a", () -> () -> aPublished.add ("a"));
+    aBootstrap.addSection ("b", () -> () -> aPublished.add ("b"));
+    aBootstrap.addSection ("d", () -> null);
+
+    final ExecutorService aExecutor = Executors.newSingleThreadExecutor ();
+    try
+    {
+      aBootstrap.run (aExecutor);
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aExecutor);
+    }
+    // Independent sections in the order they were added, dependents afterwards
+    assertEquals (new CommonsArrayList <> ("a", "b", "c"), aPublished);
+  }
+
+  @Test
+  public void testErrors () throws Exception
+  {
+    final AtomicBoolean aSkippedInvoked = new AtomicBoolean (false);
+    final ParallelBootstrap aBootstrap = new ParallelBootstrap ();
+    aBootstrap.addSection ("skipped", () -> {
+      aSkippedInvoked.set (true);
+      return null;
+    }, "load");
+    aBootstrap.addSection ("publish", () -> () -> {
+      throw new OpenAS2Exception ("publish failed");
+    });
+    aBootstrap.addSection ("load", () -> {
+      throw new OpenAS2Exception ("load failed");
+    });
+    aBootstrap.addSection ("ok", () -> null);
+
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (4);
+    try
+    {
+      aBootstrap.run (aExecutor);
+      fail ();
+    }
+    catch (final OpenAS2Exception ex)
+    {
+      // The first error in the order the sections were added
+      assertNotNull (ex.getMessage ());
+      assertTrue (ex.getMessage ().contains ("publish failed"));
+      assertEquals (1, ex.getSuppressed ().length);
+      assertTrue (ex.getSuppressed ()[0].getMessage ().contains ("load failed"));
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aExecutor);
+    }
+    assertFalse (aSkippedInvoked.get ());
+  }
+
+  @Test (expected = IllegalStateException.class)
+  public void testCycle () throws Exception
+  {
+    final ParallelBootstrap aBootstrap = new ParallelBootstrap ();
+    aBootstrap.addSection ("a", () -> null, "b");
+    aBootstrap.addSection ("b", () -> null, "a");
+    final ExecutorService aExecutor = Executors.newSingleThreadExecutor ();
+    try
+    {
+      aBootstrap.run (aExecutor);
+    }
+    finally
+    {
+      ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (aExecutor);
+    }
+  }
+}
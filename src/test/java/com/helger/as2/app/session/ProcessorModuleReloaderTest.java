@@ -0,0 +1,168 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.app.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.helger.as2.app.processor.ServerMessageProcessor;
+import com.helger.as2lib.exception.OpenAS2Exception;
+import com.helger.as2lib.processor.module.AbstractActiveModule;
+import com.helger.as2lib.processor.module.IProcessorModule;
+import com.helger.commons.collection.ext.ICommonsList;
+import com.helger.commons.io.file.FileOperations;
+
+/**
+ * Test class for class {@link ProcessorModuleReloader}
+ *
+ * @author Philip Helger
+ */
+public final class ProcessorModuleReloaderTest
+{
+  public static final class MockActiveModule extends AbstractActiveModule
+  {
+    @Override
+    public void doStart () throws OpenAS2Exception
+    {
+      if ("true".equals (getAttributeAsString ("fail")))
+        throw new OpenAS2Exception ("Failed to start " + getAttributeAsString ("id"));
+    }
+
+    @Override
+    public void doStop () throws OpenAS2Exception
+    {}
+  }
+
+  private static final String MODULE = "<module classname=\"" + MockActiveModule.class.getName () + "\" ";
+
+  @Nonnull
+  private static String _getConfig (final String... aModules)
+  {
+    final StringBuilder aSB = new StringBuilder ("<openas2><processor classname=\"" +
+                                                 ServerMessageProcessor.class.getName () +
+                                                 "\">");
+    for (final String sModule : aModules)
+      aSB.append (MODULE).append (sModule).append ("/>");
+    return aSB.append ("</processor></openas2>").toString ();
+  }
+
+  @Nullable
+  private static MockActiveModule _getModule (@Nonnull final ICommonsList <IProcessorModule> aModules,
+                                              @Nonnull final String sID)
+  {
+    for (final IProcessorModule aModule : aModules)
+      if (sID.equals (aModule.getAttributeAsString ("id")))
+        return (MockActiveModule) aModule;
+    return null;
+  }
+
+  @Test
+  public void testFailedStart () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("reloader").toFile ();
+    try
+    {
+      final File aFile = new File (aDir, "config.xml");
+      Files.write (aFile.toPath (),
+                   _getConfig ("id=\"a\" port=\"1\"", "id=\"b\"").getBytes (StandardCharsets.UTF_8));
+
+      final AS2ServerXMLSession aSession = new AS2ServerXMLSession (aFile);
+      try
+      {
+        final ServerMessageProcessor aMsgProcessor = (ServerMessageProcessor) aSession.getMessageProcessor ();
+        aMsgProcessor.startActiveModules ();
+        final ProcessorModuleReloader aReloader = aSession.getModuleReloader ();
+        assertNotNull (aReloader);
+        final MockActiveModule aOldA = _getModule (aMsgProcessor.getAllModules (), "a");
+        final MockActiveModule aOldB = _getModule (aMsgProcessor.getAllModules (), "b");
+
+        // "a" is changed but fails to start, "c" is added and fails to start
+        final String sConfig = _getConfig ("id=\"a\" port=\"2\" fail=\"true\"", "id=\"b\"", "id=\"c\" fail=\"true\"");
+        Files.write (aFile.toPath (), sConfig.getBytes (StandardCharsets.UTF_8));
+        try
+        {
+          aReloader.reload (aSession.readConfiguration (aFile));
+          fail ();
+        }
+        catch (final OpenAS2Exception ex)
+        {
+          assertTrue (ex.getMessage ().contains ("2 processor modules"));
+        }
+
+        // The previous "a" is running again, "c" is gone
+        ICommonsList <IProcessorModule> aModules = aMsgProcessor.getAllModules ();
+        assertEquals (2, aModules.size ());
+        assertSame (aOldA, aModules.get (0));
+        assertTrue (aOldA.isRunning ());
+        assertSame (aOldB, aModules.get (1));
+        assertTrue (aOldB.isRunning ());
+
+        // The next reload retries the changed module
+        Files.write (aFile.toPath (),
+                     _getConfig ("id=\"a\" port=\"2\"", "id=\"b\"").getBytes (StandardCharsets.UTF_8));
+        aReloader.reload (aSession.readConfiguration (aFile));
+        aModules = aMsgProcessor.getAllModules ();
+        assertEquals (2, aModules.size ());
+        final MockActiveModule aNewA = _getModule (aModules, "a");
+        assertNotSame (aOldA, aNewA);
+        assertTrue (aNewA.isRunning ());
+        assertFalse (aOldA.isRunning ());
+        assertSame (aOldB, _getModule (aModules, "b"));
+
+        aMsgProcessor.stopActiveModules ();
+      }
+      finally
+      {
+        aSession.shutdownExecutors ();
+      }
+    }
+    finally
+    {
+      FileOperations.deleteDirRecursive (aDir);
+    }
+  }
+}
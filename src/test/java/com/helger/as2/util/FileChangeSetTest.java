@@ -0,0 +1,100 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link FileChangeSet}
+ *
+ * @author Philip Helger
+ */
+public final class FileChangeSetTest
+{
+  @Test
+  public void testCoalescing ()
+  {
+    final File a = new File ("a.xml");
+    final File b = new File ("b.xml");
+    final File c = new File ("c.xml");
+    final File d = new File ("d.xml");
+
+    final FileChangeSet aSet = new FileChangeSet ();
+    assertTrue (aSet.isEmpty ());
+
+    // Created and modified -> created
+    aSet.onCreated (a);
+    aSet.onModified (a);
+    // Created and deleted -> nothing
+    aSet.onCreated (b);
+    aSet.onDeleted (b);
+    // Deleted and created -> modified
+    aSet.onDeleted (c);
+    aSet.onCreated (c);
+    // Modified and deleted -> deleted
+    aSet.onModified (d);
+    aSet.onDeleted (d);
+
+    assertEquals (3, aSet.size ());
+    assertEquals (1, aSet.getAllCreated ().size ());
+    assertTrue (aSet.getAllCreated ().contains (a));
+    assertEquals (1, aSet.getAllModified ().size ());
+    assertTrue (aSet.getAllModified ().contains (c));
+    assertEquals (1, aSet.getAllDeleted ().size ());
+    assertTrue (aSet.getAllDeleted ().contains (d));
+  }
+
+  @Test
+  public void testAddAll ()
+  {
+    final File a = new File ("a.xml");
+    final File b = new File ("b.xml");
+
+    final FileChangeSet aFirst = new FileChangeSet ();
+    aFirst.onCreated (a);
+    aFirst.onModified (b);
+
+    final FileChangeSet aSecond = new FileChangeSet ();
+    aSecond.onDeleted (a);
+    aSecond.onModified (b);
+
+    aFirst.addAll (aSecond);
+    assertEquals (1, aFirst.size ());
+    assertTrue (aFirst.getAllModified ().contains (b));
+  }
+}
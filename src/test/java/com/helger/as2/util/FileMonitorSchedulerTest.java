@@ -0,0 +1,173 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for class {@link FileMonitorScheduler}. The wheel is advanced
+ * manually and the tasks are run inline, so that the test does not depend on
+ * timing.
+ *
+ * @author Philip Helger
+ */
+public final class FileMonitorSchedulerTest
+{
+  // Long enough that the ticker never fires during the test
+  private static final long TICK_MILLIS = TimeUnit.HOURS.toMillis (1);
+  private static final int WHEEL_SIZE = 4;
+
+  private ScheduledThreadPoolExecutor m_aExecutor;
+  private FileMonitorScheduler m_aScheduler;
+
+  @Before
+  public void before ()
+  {
+    m_aExecutor = new ScheduledThreadPoolExecutor (1);
+    m_aScheduler = new FileMonitorScheduler (m_aExecutor, Runnable::run, TICK_MILLIS, WHEEL_SIZE);
+  }
+
+  @After
+  public void after ()
+  {
+    m_aExecutor.shutdownNow ();
+  }
+
+  /**
+   * Advance the wheel until the counter changed.
+   *
+   * @return The number of ticks needed
+   */
+  private int _tickUntilRun (final AtomicInteger aCounter, final int nMaxTicks)
+  {
+    final int nOld = aCounter.get ();
+    for (int i = 1; i <= nMaxTicks; ++i)
+    {
+      m_aScheduler.tick ();
+      if (aCounter.get () != nOld)
+      {
+        assertEquals (nOld + 1, aCounter.get ());
+        return i;
+      }
+    }
+    throw new AssertionError ("Task did not run within " + nMaxTicks + " ticks");
+  }
+
+  private void _testInterval (final int nIntervalTicks)
+  {
+    final AtomicInteger aCounter = new AtomicInteger ();
+    // No jitter for intervals below 10 ticks
+    final FileMonitorScheduler.Handle aHandle = m_aScheduler.schedule (aCounter::incrementAndGet,
+                                                                        nIntervalTicks * TICK_MILLIS,
+                                                                        TimeUnit.MILLISECONDS);
+    // The first execution is randomly within the first interval
+    final int nFirst = _tickUntilRun (aCounter, nIntervalTicks);
+    assertTrue (nFirst >= 1 && nFirst <= nIntervalTicks);
+
+    // Afterwards exactly every interval, also if it spans several rounds of
+    // the wheel
+    for (int i = 0; i < 5; ++i)
+      assertEquals (nIntervalTicks, _tickUntilRun (aCounter, nIntervalTicks));
+
+    aHandle.cancel ();
+    assertEquals (0, m_aScheduler.getScheduledCount ());
+  }
+
+  @Test
+  public void testIntervals ()
+  {
+    // Shorter than, equal to and multiple rounds of the wheel
+    _testInterval (1);
+    _testInterval (WHEEL_SIZE - 1);
+    _testInterval (WHEEL_SIZE);
+    _testInterval (WHEEL_SIZE + 1);
+    _testInterval (2 * WHEEL_SIZE);
+    _testInterval (2 * WHEEL_SIZE + 1);
+  }
+
+  @Test
+  public void testCancelDuringTick ()
+  {
+    final AtomicInteger aCounterA = new AtomicInteger ();
+    final AtomicInteger aCounterB = new AtomicInteger ();
+    final AtomicReference <FileMonitorScheduler.Handle> aHandleB = new AtomicReference <> ();
+
+    // Both are due on every tick - A comes first and cancels B
+    m_aScheduler.schedule ( () -> {
+      aCounterA.incrementAndGet ();
+      aHandleB.get ().cancel ();
+    }, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    aHandleB.set (m_aScheduler.schedule (aCounterB::incrementAndGet, TICK_MILLIS, TimeUnit.MILLISECONDS));
+    assertEquals (2, m_aScheduler.getScheduledCount ());
+
+    m_aScheduler.tick ();
+    assertEquals (1, aCounterA.get ());
+    assertEquals (0, aCounterB.get ());
+    assertTrue (aHandleB.get ().isCancelled ());
+    assertEquals (1, m_aScheduler.getScheduledCount ());
+
+    m_aScheduler.tick ();
+    assertEquals (2, aCounterA.get ());
+    assertEquals (0, aCounterB.get ());
+  }
+
+  @Test
+  public void testCancelItself ()
+  {
+    final AtomicInteger aCounter = new AtomicInteger ();
+    final AtomicReference <FileMonitorScheduler.Handle> aHandle = new AtomicReference <> ();
+    aHandle.set (m_aScheduler.schedule ( () -> {
+      aCounter.incrementAndGet ();
+      aHandle.get ().cancel ();
+    }, TICK_MILLIS, TimeUnit.MILLISECONDS));
+
+    m_aScheduler.tick ();
+    assertEquals (1, aCounter.get ());
+    assertEquals (0, m_aScheduler.getScheduledCount ());
+
+    // The handle was rescheduled before the execution and must be gone
+    for (int i = 0; i < 2 * WHEEL_SIZE; ++i)
+      m_aScheduler.tick ();
+    assertEquals (1, aCounter.get ());
+  }
+}
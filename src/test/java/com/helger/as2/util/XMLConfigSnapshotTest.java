@@ -0,0 +1,121 @@
+/**
+ * The FreeBSD Copyright
+ * Copyright 1994-2008 The FreeBSD Project. All rights reserved.
+ * Copyright (C) 2013-2016 Philip Helger philip[at]helger[dot]com
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ *    1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE FREEBSD PROJECT ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE FREEBSD PROJECT OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ */
+package com.helger.as2.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileOperations;
+import com.helger.xml.microdom.IMicroElement;
+
+/**
+ * Test class for class {@link XMLConfigSnapshot}
+ *
+ * @author Philip Helger
+ */
+public final class XMLConfigSnapshotTest
+{
+  private static final String XML = "<partnerships>" +
+                                    "<partner name=\"A\" AS2_ID=\"%home%/a\"/>" +
+                                    "<partnership name=\"A-B\"><attribute name=\"x\" value=\"y\"/></partnership>" +
+                                    "</partnerships>";
+
+  @Test
+  public void testKeepAttributeNames () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("snapshot").toFile ();
+    try
+    {
+      final File aFile = new File (aDir, "partnerships.xml");
+      Files.write (aFile.toPath (), XML.getBytes (StandardCharsets.UTF_8));
+
+      // Parsed and written
+      IMicroElement eRoot = XMLConfigSnapshot.readConfiguration (aFile, null, false, e -> true);
+      final File aSnapshotFile = XMLConfigSnapshot.getSnapshotFile (aFile);
+      assertTrue (aSnapshotFile.isFile ());
+      assertEquals ("%home%/a", eRoot.getFirstChildElement ("partner").getAttributeValue ("AS2_ID"));
+
+      // Read from the snapshot
+      eRoot = XMLConfigSnapshot.readConfiguration (aFile, null, false, e -> false);
+      assertEquals ("%home%/a", eRoot.getFirstChildElement ("partner").getAttributeValue ("AS2_ID"));
+      assertEquals ("y",
+                    eRoot.getFirstChildElement ("partnership")
+                         .getFirstChildElement ("attribute")
+                         .getAttributeValue ("value"));
+
+      // A different mode or base directory does not use the snapshot
+      final byte [] aDigest = XMLConfigSnapshot.getDigest (aFile);
+      assertNotNull (XMLConfigSnapshot.readSnapshot (aSnapshotFile, aDigest, null, false));
+      assertNull (XMLConfigSnapshot.readSnapshot (aSnapshotFile, aDigest, null, true));
+      assertNull (XMLConfigSnapshot.readSnapshot (aSnapshotFile, aDigest, "/base", false));
+
+      // A changed file does not use the snapshot
+      Files.write (aFile.toPath (), XML.replace ("\"A\"", "\"C\"").getBytes (StandardCharsets.UTF_8));
+      assertNull (XMLConfigSnapshot.readSnapshot (aSnapshotFile, XMLConfigSnapshot.getDigest (aFile), null, false));
+      eRoot = XMLConfigSnapshot.readConfiguration (aFile, null, false, e -> true);
+      assertEquals ("C", eRoot.getFirstChildElement ("partner").getAttributeValue ("name"));
+    }
+    finally
+    {
+      FileOperations.deleteDirRecursive (aDir);
+    }
+  }
+
+  @Test
+  public void testLowercaseAndResolve () throws Exception
+  {
+    final File aDir = Files.createTempDirectory ("snapshot").toFile ();
+    try
+    {
+      final File aFile = new File (aDir, "config.xml");
+      Files.write (aFile.toPath (), XML.getBytes (StandardCharsets.UTF_8));
+
+      final IMicroElement eRoot = XMLConfigSnapshot.readConfiguration (aFile, "/base", e -> true);
+      final IMicroElement ePartner = eRoot.getFirstChildElement ("partner");
+      assertNull (ePartner.getAttributeValue ("AS2_ID"));
+      assertEquals ("/base/a", ePartner.getAttributeValue ("as2_id"));
+    }
+    finally
+    {
+      FileOperations.deleteDirRecursive (aDir);
+    }
+  }
+}